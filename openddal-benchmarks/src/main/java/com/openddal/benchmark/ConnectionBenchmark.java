@@ -0,0 +1,158 @@
+/*
+ * Copyright 2014-2016 the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the “License”);
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an “AS IS” BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.openddal.benchmark;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import javax.sql.DataSource;
+
+import org.h2.jdbcx.JdbcDataSource;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.openddal.repo.JdbcRepository;
+import com.openddal.repo.ha.DataSourceMarker;
+import com.openddal.repo.ha.SmartConnection;
+import com.openddal.repo.ha.SmartDataSource;
+
+/**
+ * The cost the connection of a shard with several data sources adds to each
+ * statement, compared to the physical connection: the checks of the
+ * transaction settings and the data source lookup done before a statement
+ * is sent, and preparing and running a statement, on a connection that is
+ * kept for a transaction and on a new connection for each statement.
+ *
+ * @author jorgie.li
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ConnectionBenchmark {
+
+    private static final String SQL = "SELECT ID FROM T_HASH_01 WHERE ID = ?";
+
+    @Param({ "DIRECT", "SMART" })
+    public String connection;
+
+    private DataSource dataSource;
+    private Connection conn;
+    private int id;
+
+    @Setup
+    public void setup() throws SQLException {
+        Fixture fixture = Fixture.get();
+        JdbcDataSource shard = new JdbcDataSource();
+        shard.setURL("jdbc:h2:mem:bench0;MODE=MySQL;DB_CLOSE_DELAY=-1");
+        shard.setUser("sa");
+        shard.setPassword("");
+        if ("SMART".equals(connection)) {
+            List<DataSourceMarker> markers = new ArrayList<DataSourceMarker>();
+            for (int i = 0; i < 2; i++) {
+                DataSourceMarker marker = new DataSourceMarker();
+                marker.setUid("bench0-" + i);
+                marker.setShardName("bench0");
+                marker.setDataSource(shard);
+                marker.setwWeight(1);
+                marker.setrWeight(1);
+                markers.add(marker);
+            }
+            JdbcRepository repo = (JdbcRepository) fixture.getDatabase().getRepository();
+            dataSource = new SmartDataSource(repo, "bench0", markers);
+        } else {
+            dataSource = shard;
+        }
+        conn = dataSource.getConnection();
+        conn.setAutoCommit(false);
+        conn.prepareStatement(SQL).close();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws SQLException {
+        conn.rollback();
+        conn.close();
+    }
+
+    /**
+     * The calls made on the connection of a transaction before each
+     * statement.
+     */
+    @Benchmark
+    public Object statementSetup() throws SQLException {
+        boolean autoCommit = conn.getAutoCommit();
+        int isolation = conn.getTransactionIsolation();
+        boolean readOnly = conn.isReadOnly();
+        DataSourceMarker marker = SmartConnection.getDataSourceMarker(conn);
+        return autoCommit || readOnly ? marker : isolation;
+    }
+
+    /**
+     * Prepare and run a statement on the connection of a transaction.
+     */
+    @Benchmark
+    public boolean statement() throws SQLException {
+        PreparedStatement prep = conn.prepareStatement(SQL);
+        try {
+            prep.setInt(1, id++ & 1023);
+            ResultSet rs = prep.executeQuery();
+            boolean found = rs.next();
+            rs.close();
+            return found;
+        } finally {
+            prep.close();
+        }
+    }
+
+    /**
+     * Open a connection, run a statement and close it, as done for each
+     * statement in auto-commit mode.
+     */
+    @Benchmark
+    public boolean autoCommitStatement() throws SQLException {
+        Connection c = dataSource.getConnection();
+        try {
+            PreparedStatement prep = c.prepareStatement(SQL);
+            prep.setInt(1, id++ & 1023);
+            ResultSet rs = prep.executeQuery();
+            boolean found = rs.next();
+            rs.close();
+            prep.close();
+            return found;
+        } finally {
+            c.close();
+        }
+    }
+
+}
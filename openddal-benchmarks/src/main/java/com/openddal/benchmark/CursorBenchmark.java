@@ -0,0 +1,107 @@
+/*
+ * Copyright 2014-2016 the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the “License”);
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an “AS IS” BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.openddal.benchmark;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.openddal.engine.Session;
+import com.openddal.executor.cursor.MergedCursor;
+import com.openddal.executor.cursor.ResultCursor;
+import com.openddal.util.JdbcUtils;
+import com.openddal.util.New;
+
+/**
+ * The cost of reading the rows of all table nodes through a merged cursor,
+ * that is, converting the JDBC result sets of the shards to rows. This
+ * includes the queries of the in-memory shards.
+ *
+ * @author jorgie.li
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CursorBenchmark {
+
+    private Session session;
+    private List<Connection> shards = New.arrayList();
+    private List<Statement> statements = New.arrayList();
+    private List<String> queries = New.arrayList();
+
+    @Setup
+    public void setup() throws SQLException {
+        session = Fixture.get().getSession();
+        for (int i = 0; i < Fixture.SHARDS; i++) {
+            Connection conn = Fixture.getShardConnection(i);
+            shards.add(conn);
+            for (String table : Fixture.getPhysicalTables("T_HASH")) {
+                statements.add(conn.createStatement());
+                queries.add("SELECT ID, K, NAME, AMOUNT, CREATED FROM " + table);
+            }
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        for (Statement stat : statements) {
+            JdbcUtils.closeSilently(stat);
+        }
+        for (Connection conn : shards) {
+            JdbcUtils.closeSilently(conn);
+        }
+    }
+
+    @Benchmark
+    public int merge(Blackhole bh) throws SQLException {
+        MergedCursor cursor = new MergedCursor();
+        List<ResultSet> results = New.arrayList(statements.size());
+        for (int i = 0; i < statements.size(); i++) {
+            ResultSet rs = statements.get(i).executeQuery(queries.get(i));
+            results.add(rs);
+            cursor.addCursor(new ResultCursor(session, rs));
+        }
+        int count = 0;
+        while (cursor.next()) {
+            bh.consume(cursor.get());
+            count++;
+        }
+        for (ResultSet rs : results) {
+            JdbcUtils.closeSilently(rs);
+        }
+        return count;
+    }
+
+}
@@ -0,0 +1,159 @@
+/*
+ * Copyright 2014-2016 the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the “License”);
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an “AS IS” BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.openddal.benchmark;
+
+import java.math.BigDecimal;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+import com.openddal.dbobject.table.TableMate;
+import com.openddal.engine.Database;
+import com.openddal.engine.Session;
+import com.openddal.jdbc.Driver;
+import com.openddal.jdbc.JdbcConnection;
+import com.openddal.util.JdbcUtils;
+
+/**
+ * The data shared by the benchmarks: four in-memory H2 databases as shards,
+ * the sharded tables of benchmark-config.xml with two physical tables per
+ * shard, and a connection to the openddal database over them. The fixture is
+ * created once per JVM.
+ *
+ * @author jorgie.li
+ */
+public class Fixture {
+
+    /**
+     * The logical tables, one for each partitioner.
+     */
+    public static final String[] TABLES = { "T_HASH", "T_RANGE", "T_ROLLING", "T_MULTI" };
+
+    /**
+     * The number of shards.
+     */
+    public static final int SHARDS = 4;
+
+    /**
+     * The number of rows of T_HASH. The ids of all tables are 0 to ROWS - 1,
+     * which covers all nodes of the rolling partitioner.
+     */
+    public static final int ROWS = 40000;
+
+    private static final String[] SUFFIXES = { "_01", "_02" };
+
+    private static Fixture instance;
+
+    private final Connection conn;
+    private final Session session;
+
+    private Fixture() throws SQLException {
+        for (int i = 0; i < SHARDS; i++) {
+            Connection shard = getShardConnection(i);
+            try {
+                Statement stat = shard.createStatement();
+                for (String table : TABLES) {
+                    for (String suffix : SUFFIXES) {
+                        stat.execute("CREATE TABLE IF NOT EXISTS " + table + suffix
+                                + "(ID INT PRIMARY KEY, K INT, NAME VARCHAR(64),"
+                                + " AMOUNT DECIMAL(12, 2), CREATED TIMESTAMP)");
+                        stat.execute("TRUNCATE TABLE " + table + suffix);
+                    }
+                }
+                stat.close();
+            } finally {
+                JdbcUtils.closeSilently(shard);
+            }
+        }
+        Driver.load();
+        conn = DriverManager.getConnection("jdbc:openddal:benchmark-config.xml;");
+        session = (Session) ((JdbcConnection) conn).getSession();
+        // only the rows of T_HASH are read, the other tables are routed
+        PreparedStatement prep = conn.prepareStatement("INSERT INTO T_HASH"
+                + "(ID, K, NAME, AMOUNT, CREATED) VALUES(?, ?, ?, ?, CURRENT_TIMESTAMP())");
+        for (int id = 0; id < ROWS; id++) {
+            prep.setInt(1, id);
+            prep.setInt(2, id % 100);
+            prep.setString(3, "name-" + id);
+            prep.setBigDecimal(4, BigDecimal.valueOf(id, 2));
+            prep.executeUpdate();
+        }
+        prep.close();
+    }
+
+    /**
+     * Get the fixture, and create it on first use.
+     *
+     * @return the fixture
+     */
+    public static synchronized Fixture get() throws SQLException {
+        if (instance == null) {
+            instance = new Fixture();
+        }
+        return instance;
+    }
+
+    /**
+     * Open a new connection to a shard, bypassing openddal.
+     *
+     * @param shard the shard index
+     * @return the connection
+     */
+    public static Connection getShardConnection(int shard) throws SQLException {
+        return DriverManager.getConnection("jdbc:h2:mem:bench" + shard
+                + ";MODE=MySQL;DB_CLOSE_DELAY=-1", "sa", "");
+    }
+
+    /**
+     * Get the names of the physical tables of a logical table in each shard.
+     *
+     * @param table the logical table
+     * @return the physical table names
+     */
+    public static String[] getPhysicalTables(String table) {
+        String[] names = new String[SUFFIXES.length];
+        for (int i = 0; i < names.length; i++) {
+            names[i] = table + SUFFIXES[i];
+        }
+        return names;
+    }
+
+    public Connection getConnection() {
+        return conn;
+    }
+
+    public Session getSession() {
+        return session;
+    }
+
+    public Database getDatabase() {
+        return session.getDatabase();
+    }
+
+    /**
+     * Get a sharded table of the benchmark schema.
+     *
+     * @param name the table name
+     * @return the table
+     */
+    public TableMate getTable(String name) {
+        return (TableMate) getDatabase().getSchema(session.getCurrentSchemaName())
+                .findTableOrView(session, name);
+    }
+
+}
@@ -0,0 +1,142 @@
+/*
+ * Copyright 2014-2016 the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the “License”);
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an “AS IS” BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.openddal.benchmark;
+
+import java.math.BigDecimal;
+import java.sql.SQLException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.openddal.command.expression.Expression;
+import com.openddal.command.expression.ValueExpression;
+import com.openddal.engine.Session;
+import com.openddal.result.LocalResult;
+import com.openddal.result.SortOrder;
+import com.openddal.value.Value;
+import com.openddal.value.ValueDecimal;
+import com.openddal.value.ValueInt;
+import com.openddal.value.ValueString;
+
+/**
+ * The cost of merging the rows of the shards in memory: sorting them,
+ * sorting them with a limit, and removing duplicates.
+ *
+ * @author jorgie.li
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LocalResultBenchmark {
+
+    private static final int COLUMNS = 4;
+
+    @Param({ "1000", "10000" })
+    public int rowCount;
+
+    private Session session;
+    private Expression[] expressions;
+    /**
+     * The rows (k, name, id, amount), with 100 distinct (k, name).
+     */
+    private Value[][] rows;
+
+    @Setup
+    public void setup() throws SQLException {
+        session = Fixture.get().getSession();
+        expressions = new Expression[] {
+                ValueExpression.get(ValueInt.get(0)),
+                ValueExpression.get(ValueString.get("")),
+                ValueExpression.get(ValueInt.get(0)),
+                ValueExpression.get(ValueDecimal.get(BigDecimal.ZERO)) };
+        Random random = new Random(1);
+        rows = new Value[rowCount][];
+        for (int i = 0; i < rowCount; i++) {
+            int k = random.nextInt(100);
+            rows[i] = new Value[] {
+                    ValueInt.get(k),
+                    ValueString.get("name-" + k),
+                    ValueInt.get(random.nextInt()),
+                    ValueDecimal.get(BigDecimal.valueOf(random.nextInt(100000), 2)) };
+        }
+    }
+
+    private LocalResult newResult() {
+        return new LocalResult(session, expressions, COLUMNS);
+    }
+
+    private SortOrder newSortOrder() {
+        return new SortOrder(session.getDatabase(), new int[] { 0, 2 },
+                new int[] { SortOrder.ASCENDING, SortOrder.DESCENDING }, null);
+    }
+
+    private static int read(LocalResult result, Blackhole bh) {
+        result.done();
+        int count = 0;
+        while (result.next()) {
+            bh.consume(result.currentRow());
+            count++;
+        }
+        return count;
+    }
+
+    @Benchmark
+    public int sort(Blackhole bh) {
+        LocalResult result = newResult();
+        result.setSortOrder(newSortOrder());
+        for (Value[] row : rows) {
+            result.addRow(row);
+        }
+        return read(result, bh);
+    }
+
+    @Benchmark
+    public int sortLimit(Blackhole bh) {
+        LocalResult result = newResult();
+        result.setSortOrder(newSortOrder());
+        result.setLimit(100);
+        for (Value[] row : rows) {
+            result.addRow(row);
+        }
+        return read(result, bh);
+    }
+
+    @Benchmark
+    public int distinct(Blackhole bh) {
+        LocalResult result = new LocalResult(session, expressions, 2);
+        result.setDistinct();
+        for (Value[] row : rows) {
+            result.addRow(row);
+        }
+        return read(result, bh);
+    }
+
+}
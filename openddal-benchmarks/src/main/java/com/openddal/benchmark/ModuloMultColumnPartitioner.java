@@ -0,0 +1,57 @@
+/*
+ * Copyright 2014-2016 the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the “License”);
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an “AS IS” BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.openddal.benchmark;
+
+import java.util.List;
+
+import com.openddal.route.algorithm.MultColumnPartitioner;
+import com.openddal.route.rule.ObjectNode;
+import com.openddal.route.rule.RoutingArgument;
+import com.openddal.value.Value;
+
+/**
+ * Partition by (id * 31 + k) modulo the number of nodes. If one of the
+ * columns has no single value, all nodes are returned.
+ *
+ * @author jorgie.li
+ */
+public class ModuloMultColumnPartitioner implements MultColumnPartitioner {
+
+    private Integer[] allNodes;
+
+    @Override
+    public void initialize(ObjectNode[] tableNodes) {
+        allNodes = new Integer[tableNodes.length];
+        for (int i = 0; i < allNodes.length; i++) {
+            allNodes[i] = i;
+        }
+    }
+
+    @Override
+    public Integer[] partition(List<RoutingArgument> args) {
+        long hash = 0;
+        for (RoutingArgument arg : args) {
+            if (arg.getArgumentType() != RoutingArgument.FIXED_ROUTING_ARGUMENT
+                    || arg.getValues().size() != 1) {
+                return allNodes;
+            }
+            Value v = arg.getValues().get(0);
+            hash = hash * 31 + v.getLong();
+        }
+        return new Integer[] { (int) Math.abs(hash % allNodes.length) };
+    }
+
+}
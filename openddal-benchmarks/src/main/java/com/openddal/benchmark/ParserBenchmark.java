@@ -0,0 +1,70 @@
+/*
+ * Copyright 2014-2016 the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the “License”);
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an “AS IS” BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.openddal.benchmark;
+
+import java.sql.SQLException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.openddal.command.Parser;
+import com.openddal.command.Prepared;
+import com.openddal.engine.Session;
+
+/**
+ * The cost of parsing and preparing typical OLTP statements against the
+ * sharded tables, without the plan cache.
+ *
+ * @author jorgie.li
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ParserBenchmark {
+
+    @Param({ "SELECT ID, K, NAME FROM T_HASH WHERE ID = ?",
+            "SELECT K, COUNT(*), SUM(AMOUNT) FROM T_RANGE WHERE ID BETWEEN ? AND ? GROUP BY K ORDER BY K",
+            "SELECT A.ID, B.NAME FROM T_HASH A INNER JOIN T_MULTI B ON A.ID = B.ID WHERE A.ID IN (?, ?, ?)",
+            "INSERT INTO T_HASH(ID, K, NAME, AMOUNT, CREATED) VALUES(?, ?, ?, ?, ?)",
+            "UPDATE T_ROLLING SET AMOUNT = ? WHERE ID = ?" })
+    public String sql;
+
+    private Session session;
+
+    @Setup
+    public void setup() throws SQLException {
+        session = Fixture.get().getSession();
+    }
+
+    @Benchmark
+    public Prepared prepare() {
+        return new Parser(session).prepare(sql);
+    }
+
+}
@@ -0,0 +1,122 @@
+/*
+ * Copyright 2014-2016 the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the “License”);
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an “AS IS” BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.openddal.benchmark;
+
+import java.math.BigDecimal;
+import java.sql.Timestamp;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.openddal.server.mysql.proto.BinaryProto;
+import com.openddal.server.mysql.proto.Flags;
+import com.openddal.server.mysql.proto.ResultsetRow;
+import com.openddal.value.Value;
+import com.openddal.value.ValueDecimal;
+import com.openddal.value.ValueInt;
+import com.openddal.value.ValueLong;
+import com.openddal.value.ValueNull;
+import com.openddal.value.ValueString;
+import com.openddal.value.ValueTimestamp;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.PooledByteBufAllocator;
+
+/**
+ * The cost of encoding result rows to MySQL packets, in the text protocol
+ * and the binary protocol of prepared statements.
+ *
+ * @author jorgie.li
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ResultEncodingBenchmark {
+
+    private static final int ROWS = 1000;
+
+    private static final int[] TYPES = {
+            Flags.MYSQL_TYPE_LONG, Flags.MYSQL_TYPE_LONGLONG, Flags.MYSQL_TYPE_VAR_STRING,
+            Flags.MYSQL_TYPE_NEWDECIMAL, Flags.MYSQL_TYPE_DATETIME, Flags.MYSQL_TYPE_VAR_STRING };
+
+    @Param({ "false", "true" })
+    public boolean binary;
+
+    private Value[][] rows;
+    private ByteBuf out;
+
+    @Setup
+    public void setup() {
+        rows = new Value[ROWS][];
+        long now = System.currentTimeMillis();
+        for (int i = 0; i < ROWS; i++) {
+            rows[i] = new Value[] {
+                    ValueInt.get(i),
+                    ValueLong.get(now + i),
+                    ValueString.get("name-" + i),
+                    ValueDecimal.get(BigDecimal.valueOf(i * 31, 2)),
+                    ValueTimestamp.get(new Timestamp(now - i * 1000L)),
+                    i % 4 == 0 ? ValueNull.INSTANCE : ValueString.get("comment " + i) };
+        }
+        out = PooledByteBufAllocator.DEFAULT.buffer();
+    }
+
+    @TearDown
+    public void tearDown() {
+        out.release();
+    }
+
+    /**
+     * Encode the rows as the server does, each with its packet header.
+     *
+     * @return the number of bytes written
+     */
+    @Benchmark
+    public int encode() {
+        out.clear();
+        byte sequenceId = 0;
+        for (Value[] row : rows) {
+            int start = out.writerIndex();
+            out.writeMedium(0);
+            out.writeByte(sequenceId++);
+            if (binary) {
+                BinaryProto.writeRow(out, TYPES, row);
+            } else {
+                ResultsetRow.writeRow(out, row, TYPES.length);
+            }
+            int size = out.writerIndex() - start - 4;
+            out.setByte(start, size & 0xFF);
+            out.setByte(start + 1, (size >> 8) & 0xFF);
+            out.setByte(start + 2, (size >> 16) & 0xFF);
+        }
+        return out.readableBytes();
+    }
+
+}
@@ -0,0 +1,132 @@
+/*
+ * Copyright 2014-2016 the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the “License”);
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an “AS IS” BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.openddal.benchmark;
+
+import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.openddal.dbobject.table.Column;
+import com.openddal.dbobject.table.TableMate;
+import com.openddal.result.Row;
+import com.openddal.route.RoutingHandler;
+import com.openddal.route.rule.ObjectNode;
+import com.openddal.route.rule.RoutingResult;
+import com.openddal.value.Value;
+import com.openddal.value.ValueInt;
+
+/**
+ * The cost of routing a statement to the table nodes, for each partitioner:
+ * by an equality condition, a range, an IN list, and grouping the nodes of
+ * the result by shard.
+ *
+ * @author jorgie.li
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RoutingBenchmark {
+
+    private static final int SAMPLES = 1024;
+    private static final int IN_LIST_SIZE = 20;
+    private static final int RANGE = 100;
+    private static final Map<Column, Set<Value>> NO_IN_LIST = new HashMap<Column, Set<Value>>();
+
+    @Param({ "T_HASH", "T_RANGE", "T_ROLLING", "T_MULTI" })
+    public String table;
+
+    private RoutingHandler handler;
+    private TableMate tableMate;
+    private Row[] points = new Row[SAMPLES];
+    private Row[] lasts = new Row[SAMPLES];
+    private Map<?, ?>[] inLists = new Map<?, ?>[SAMPLES];
+    private RoutingResult[] inResults = new RoutingResult[SAMPLES];
+    private int index;
+
+    @Setup
+    public void setup() throws SQLException {
+        Fixture fixture = Fixture.get();
+        handler = fixture.getDatabase().getRoutingHandler();
+        tableMate = fixture.getTable(table);
+        Column[] ruleColumns = tableMate.getRuleColumns();
+        Random random = new Random(1);
+        for (int i = 0; i < SAMPLES; i++) {
+            Row point = tableMate.getTemplateRow();
+            Row last = tableMate.getTemplateRow();
+            Map<Column, Set<Value>> inList = new HashMap<Column, Set<Value>>();
+            for (Column column : ruleColumns) {
+                int v = random.nextInt(Fixture.ROWS - RANGE);
+                point.setValue(column.getColumnId(), ValueInt.get(v));
+                last.setValue(column.getColumnId(), ValueInt.get(v + RANGE));
+                Set<Value> values = new HashSet<Value>();
+                for (int j = 0; j < IN_LIST_SIZE; j++) {
+                    values.add(ValueInt.get(random.nextInt(Fixture.ROWS)));
+                }
+                inList.put(column, values);
+            }
+            points[i] = point;
+            lasts[i] = last;
+            inLists[i] = inList;
+            inResults[i] = handler.doRoute(tableMate, null, null, inList);
+        }
+    }
+
+    private int next() {
+        return index++ & (SAMPLES - 1);
+    }
+
+    @Benchmark
+    public RoutingResult point() {
+        return handler.doRoute(tableMate, points[next()]);
+    }
+
+    @Benchmark
+    public RoutingResult range() {
+        int i = next();
+        return handler.doRoute(tableMate, points[i], lasts[i], NO_IN_LIST);
+    }
+
+    @Benchmark
+    @SuppressWarnings("unchecked")
+    public RoutingResult inList() {
+        return handler.doRoute(tableMate, null, null, (Map<Column, Set<Value>>) inLists[next()]);
+    }
+
+    @Benchmark
+    public ObjectNode[] group() {
+        return inResults[next()].group();
+    }
+
+}
@@ -17,6 +17,7 @@ package com.openddal.command;
 
 import java.sql.SQLException;
 import java.util.ArrayList;
+import java.util.List;
 
 import com.openddal.command.expression.ParameterInterface;
 import com.openddal.engine.Constants;
@@ -26,6 +27,8 @@ import com.openddal.message.DbException;
 import com.openddal.message.ErrorCode;
 import com.openddal.message.Trace;
 import com.openddal.result.ResultInterface;
+import com.openddal.result.ResultTarget;
+import com.openddal.value.Value;
 
 /**
  * Represents a SQL statement. This object is only used on the server side.
@@ -45,6 +48,10 @@ public abstract class Command implements CommandInterface {
      * The last start time.
      */
     protected long startTime;
+    /**
+     * The last start time in nanoseconds, if query statistics are enabled.
+     */
+    protected long startNanos;
     /**
      * If this query was canceled.
      */
@@ -52,7 +59,11 @@ public abstract class Command implements CommandInterface {
     private boolean canReuse;
 
     Command(Parser parser, String sql) {
-        this.session = parser.getSession();
+        this(parser.getSession(), sql);
+    }
+
+    Command(Session session, String sql) {
+        this.session = session;
         this.sql = sql;
         trace = session.getDatabase().getTrace(Trace.COMMAND);
     }
@@ -106,6 +117,19 @@ public abstract class Command implements CommandInterface {
         throw DbException.get(ErrorCode.METHOD_NOT_ALLOWED_FOR_QUERY);
     }
 
+    /**
+     * Execute an updating statement once for each parameter set, as one
+     * batch, if this is possible.
+     *
+     * @param batchParameters the parameter values of each execution
+     * @param errors the list the errors of failed executions are added to
+     * @return the update counts, or null if the command can not be executed
+     *         as a batch
+     */
+    public int[] updateBatch(List<Value[]> batchParameters, List<DbException> errors) {
+        return null;
+    }
+
     /**
      * Execute a query statement, if this is possible.
      *
@@ -117,6 +141,26 @@ public abstract class Command implements CommandInterface {
         throw DbException.get(ErrorCode.METHOD_ONLY_ALLOWED_FOR_QUERY);
     }
 
+    /**
+     * Execute a query statement and write the rows to the target, if this is
+     * possible. Commands that can not stream their rows build the result
+     * first and copy it to the target.
+     *
+     * @param maxrows the maximum number of rows returned
+     * @param target the target the rows are written to
+     * @throws DbException if the command is not a query
+     */
+    public void query(int maxrows, ResultTarget target) {
+        ResultInterface result = query(maxrows);
+        try {
+            while (result.next()) {
+                target.addRow(result.currentRow());
+            }
+        } finally {
+            result.close();
+        }
+    }
+
     @Override
     public final ResultInterface getMetaData() {
         return queryMeta();
@@ -129,6 +173,12 @@ public abstract class Command implements CommandInterface {
         if (trace.isInfoEnabled()) {
             startTime = System.currentTimeMillis();
         }
+        if (session.getDatabase().getQueryStatistics()) {
+            startNanos = System.nanoTime();
+            session.resetWaitTime();
+        } else {
+            startNanos = 0;
+        }
     }
 
     /**
@@ -164,6 +214,23 @@ public abstract class Command implements CommandInterface {
      */
     @Override
     public ResultInterface executeQuery(int maxrows, boolean scrollable) {
+        return executeQuery(maxrows, scrollable, null);
+    }
+
+    /**
+     * Execute a query and write the rows to the target as they are produced,
+     * instead of returning a result set that holds all of them.
+     * This method prepares everything and calls
+     * {@link #query(int, ResultTarget)} finally.
+     *
+     * @param maxrows the maximum number of rows to return
+     * @param target the target the rows are written to
+     */
+    public void executeQuery(int maxrows, ResultTarget target) {
+        executeQuery(maxrows, false, target);
+    }
+
+    private ResultInterface executeQuery(int maxrows, boolean scrollable, ResultTarget target) {
         startTime = 0;
         Database database = session.getDatabase();
         Object sync = session;
@@ -172,7 +239,11 @@ public abstract class Command implements CommandInterface {
             try {
                 while (true) {
                     try {
-                        return query(maxrows);
+                        if (target == null) {
+                            return query(maxrows);
+                        }
+                        query(maxrows, target);
+                        return null;
                     } catch (DbException e) {
                         throw e;
                     } catch (OutOfMemoryError e) {
@@ -233,6 +304,31 @@ public abstract class Command implements CommandInterface {
         }
     }
 
+    @Override
+    public int[] executeBatchUpdate(List<Value[]> batchParameters, List<DbException> errors) {
+        Database database = session.getDatabase();
+        Object sync = session;
+        synchronized (sync) {
+            session.setCurrentCommand(this);
+            try {
+                try {
+                    return updateBatch(batchParameters, errors);
+                } catch (DbException e) {
+                    throw e;
+                } catch (OutOfMemoryError e) {
+                    database.shutdownImmediately();
+                    throw DbException.convert(e);
+                } catch (Throwable e) {
+                    throw DbException.convert(e);
+                }
+            } catch (DbException e) {
+                throw e.addSQL(sql);
+            } finally {
+                stop();
+            }
+        }
+    }
+
     @Override
     public void close() {
         canReuse = true;
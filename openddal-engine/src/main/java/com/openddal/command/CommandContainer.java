@@ -16,12 +16,19 @@
 package com.openddal.command;
 
 import com.openddal.command.expression.Parameter;
+import com.openddal.command.dml.Insert;
+import com.openddal.command.dml.Query;
 import com.openddal.command.expression.ParameterInterface;
+import com.openddal.engine.Session;
+import com.openddal.message.DbException;
+import com.openddal.result.LocalResult;
 import com.openddal.result.ResultInterface;
+import com.openddal.result.ResultTarget;
 import com.openddal.value.Value;
 import com.openddal.value.ValueNull;
 
 import java.util.ArrayList;
+import java.util.List;
 
 /**
  * Represents a single SQL statements.
@@ -32,6 +39,8 @@ class CommandContainer extends Command {
     private Prepared prepared;
     private boolean readOnlyKnown;
     private boolean readOnly;
+    private PlanCache planCache;
+    private String planCacheKey;
 
     CommandContainer(Parser parser, String sql, Prepared prepared) {
         super(parser, sql);
@@ -39,6 +48,23 @@ class CommandContainer extends Command {
         this.prepared = prepared;
     }
 
+    CommandContainer(Session session, String sql, Prepared prepared) {
+        super(session, sql);
+        prepared.setCommand(this);
+        this.prepared = prepared;
+    }
+
+    /**
+     * Put the plan back into the given cache when the command is closed.
+     *
+     * @param planCache the plan cache
+     * @param key the cache key
+     */
+    void setPlanCache(PlanCache planCache, String key) {
+        this.planCache = planCache;
+        this.planCacheKey = key;
+    }
+
     @Override
     public ArrayList<? extends ParameterInterface> getParameters() {
         return prepared.getParameters();
@@ -61,6 +87,7 @@ class CommandContainer extends Command {
             ArrayList<Parameter> oldParams = prepared.getParameters();
             Parser parser = new Parser(session);
             prepared = parser.parse(sql);
+            prepared.setCommand(this);
             ArrayList<Parameter> newParams = prepared.getParameters();
             for (int i = 0, size = newParams.size(); i < size; i++) {
                 Parameter old = oldParams.get(i);
@@ -81,20 +108,55 @@ class CommandContainer extends Command {
         session.setLastScopeIdentity(ValueNull.INSTANCE);
         prepared.checkParameters();
         int updateCount = prepared.update();
-        prepared.trace(startTime, updateCount);
+        prepared.trace(startTime, startNanos, updateCount);
         return updateCount;
     }
 
+    @Override
+    public int[] updateBatch(List<Value[]> batchParameters, List<DbException> errors) {
+        if (!(prepared instanceof Insert)) {
+            return null;
+        }
+        recompileIfRequired();
+        start();
+        session.setLastScopeIdentity(ValueNull.INSTANCE);
+        int[] result = ((Insert) prepared).updateBatch(batchParameters, errors);
+        if (result != null) {
+            prepared.trace(startTime, startNanos, result.length);
+        }
+        return result;
+    }
+
     @Override
     public ResultInterface query(int maxrows) {
         recompileIfRequired();
         start();
         prepared.checkParameters();
         ResultInterface result = prepared.query(maxrows);
-        prepared.trace(startTime, result.getRowCount());
+        prepared.trace(startTime, startNanos, result.getRowCount());
         return result;
     }
 
+    @Override
+    public void query(int maxrows, ResultTarget target) {
+        if (!(prepared instanceof Query)) {
+            super.query(maxrows, target);
+            return;
+        }
+        recompileIfRequired();
+        start();
+        prepared.checkParameters();
+        // the query writes the rows to the target directly unless it needs a
+        // local result (sort, distinct, group, limit), or it was cached
+        LocalResult result = ((Query) prepared).query(maxrows, target);
+        if (result != null) {
+            while (result.next()) {
+                target.addRow(result.currentRow());
+            }
+        }
+        prepared.trace(startTime, startNanos, target.getRowCount());
+    }
+
     @Override
     public boolean isReadOnly() {
         if (!readOnlyKnown) {
@@ -114,6 +176,16 @@ class CommandContainer extends Command {
         return prepared.isCacheable();
     }
 
+    @Override
+    public void close() {
+        super.close();
+        if (planCache != null) {
+            PlanCache cache = planCache;
+            planCache = null;
+            cache.release(planCacheKey, prepared);
+        }
+    }
+
     @Override
     public int getCommandType() {
         return prepared.getType();
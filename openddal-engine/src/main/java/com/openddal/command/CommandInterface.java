@@ -16,9 +16,12 @@
 package com.openddal.command;
 
 import java.util.ArrayList;
+import java.util.List;
 
 import com.openddal.command.expression.ParameterInterface;
+import com.openddal.message.DbException;
 import com.openddal.result.ResultInterface;
+import com.openddal.value.Value;
 
 /**
  * Represents a SQL statement.
@@ -473,6 +476,18 @@ public interface CommandInterface {
      */
     int executeUpdate();
 
+    /**
+     * Execute the statement once for each parameter set, as one batch, if
+     * the statement supports this. If it does not, nothing is executed.
+     *
+     * @param batchParameters the parameter values of each execution
+     * @param errors the list the errors of failed executions are added to
+     * @return the update count of each execution (Statement.EXECUTE_FAILED
+     *         if it failed), or null if the statement can not be executed
+     *         as a batch
+     */
+    int[] executeBatchUpdate(List<Value[]> batchParameters, List<DbException> errors);
+
     /**
      * Close the statement.
      */
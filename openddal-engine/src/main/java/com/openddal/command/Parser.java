@@ -30,6 +30,7 @@ import com.openddal.command.ddl.AlterTableRename;
 import com.openddal.command.ddl.AlterTableRenameColumn;
 import com.openddal.command.ddl.AlterUser;
 import com.openddal.command.ddl.AlterView;
+import com.openddal.command.ddl.Analyze;
 import com.openddal.command.ddl.CreateAggregate;
 import com.openddal.command.ddl.CreateConstant;
 import com.openddal.command.ddl.CreateIndex;
@@ -201,6 +202,7 @@ public class Parser {
     private boolean rightsChecked;
     private boolean recompileAlways;
     private ArrayList<Parameter> indexedParameterList;
+    private ArrayList<Query> subqueries;
 
     public Parser(Session session) {
         this.database = session.getDatabase();
@@ -455,6 +457,7 @@ public class Parser {
         }
         p.setPrepareAlways(recompileAlways);
         p.setParameterList(parameters);
+        p.setSubqueries(subqueries);
         return p;
     }
 
@@ -466,6 +469,7 @@ public class Parser {
             expectedList = null;
         }
         parameters = New.arrayList();
+        subqueries = New.arrayList();
         currentSelect = null;
         currentPrepared = null;
         recompileAlways = false;
@@ -499,6 +503,8 @@ public class Parser {
                 case 'A':
                     if (readIf("ALTER")) {
                         c = parseAlter();
+                    } else if (readIf("ANALYZE")) {
+                        c = parseAnalyze();
                     }
                     break;
                 case 'b':
@@ -1652,6 +1658,14 @@ public class Parser {
         return new NoOperation(session);
     }
 
+    private Analyze parseAnalyze() {
+        Analyze command = new Analyze(session);
+        if (readIf("TABLE")) {
+            command.setTable(readTableOrView());
+        }
+        return command;
+    }
+
     private Explain parseExplain() {
         Explain command = new Explain(session);
         if (readIf("ANALYZE")) {
@@ -1699,6 +1713,20 @@ public class Parser {
         return command;
     }
 
+    /**
+     * Parse a query that is part of an expression. It is kept in the list of
+     * sub-queries of the statement, if a statement is parsed.
+     *
+     * @return the query
+     */
+    private Query parseSubquery() {
+        Query query = parseSelect();
+        if (subqueries != null) {
+            subqueries.add(query);
+        }
+        return query;
+    }
+
     private Query parseSelectUnion() {
         int start = lastParseIndex;
         Query command = parseSelectSub();
@@ -2063,7 +2091,7 @@ public class Parser {
         }
         if (readIf("EXISTS")) {
             read("(");
-            Query query = parseSelect();
+            Query query = parseSubquery();
             // can not reduce expression because it might be a union except
             // query with distinct
             read(")");
@@ -2124,7 +2152,7 @@ public class Parser {
                     r = ValueExpression.get(ValueBoolean.get(false));
                 } else {
                     if (isSelect()) {
-                        Query query = parseSelect();
+                        Query query = parseSubquery();
                         r = new ConditionInSelect(database, r, query, false,
                                 Comparison.EQUAL);
                     } else {
@@ -2162,13 +2190,13 @@ public class Parser {
                 read();
                 if (readIf("ALL")) {
                     read("(");
-                    Query query = parseSelect();
+                    Query query = parseSubquery();
                     r = new ConditionInSelect(database, r, query, true,
                             compareType);
                     read(")");
                 } else if (readIf("ANY") || readIf("SOME")) {
                     read("(");
-                    Query query = parseSelect();
+                    Query query = parseSubquery();
                     r = new ConditionInSelect(database, r, query, false,
                             compareType);
                     read(")");
@@ -2649,7 +2677,7 @@ public class Parser {
                 break;
             case KEYWORD:
                 if (isToken("SELECT") || isToken("FROM")) {
-                    Query query = parseSelect();
+                    Query query = parseSubquery();
                     r = new Subquery(query);
                 } else {
                     throw getSyntaxError();
@@ -3349,6 +3377,7 @@ public class Parser {
         }
         originalSQL = sql;
         sqlCommand = sql;
+        subqueries = null;
         int len = sql.length() + 1;
         char[] command = new char[len];
         int[] types = new int[len];
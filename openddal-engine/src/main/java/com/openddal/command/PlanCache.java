@@ -0,0 +1,269 @@
+/*
+ * Copyright 2014-2016 the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the “License”);
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an “AS IS” BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.openddal.command;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.openddal.engine.Session;
+
+/**
+ * The plan cache shared by all sessions of a database. It keeps the parsed
+ * and optimized statements that are not in use, keyed by the SQL statement
+ * and the session state the parser depends on: the current schema, the
+ * schema search path and whether literals are allowed. Parameters are typed
+ * when they are set, after the statement is prepared, so their types are not
+ * part of the key. A cached statement is used by one command at a time:
+ * preparing a statement takes an idle plan out of the cache and binds it to
+ * the session, closing the command puts it back. The statement binds its
+ * nested statements, table filters and the queries in its expressions to the
+ * session, and executors are created for each execution.
+ * Plans prepared before the meta data changed are discarded when they are
+ * taken.
+ *
+ * @author jorgie.li
+ */
+public class PlanCache {
+
+    private static final int SEGMENT_COUNT = 16;
+
+    private final Segment[] segments;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    /**
+     * Create a new plan cache.
+     *
+     * @param maxSize the maximum number of cached plans
+     */
+    public PlanCache(int maxSize) {
+        int segmentSize = Math.max(1, (maxSize + SEGMENT_COUNT - 1) / SEGMENT_COUNT);
+        segments = new Segment[SEGMENT_COUNT];
+        for (int i = 0; i < SEGMENT_COUNT; i++) {
+            segments[i] = new Segment(segmentSize);
+        }
+    }
+
+    /**
+     * Get a command for the given SQL statement. An idle cached plan is used
+     * if there is one, otherwise the statement is parsed.
+     *
+     * @param session the session
+     * @param sql the SQL statement
+     * @return the command
+     */
+    public Command prepare(Session session, String sql) {
+        if (session.hasLocalTempTables()) {
+            // the statement may refer to tables of this session only
+            return new Parser(session).prepareCommand(sql);
+        }
+        String key = getKey(session, sql);
+        Segment segment = getSegment(key);
+        Prepared prepared;
+        while ((prepared = segment.poll(key)) != null) {
+            if (prepared.needRecompile()) {
+                evictions.incrementAndGet();
+                continue;
+            }
+            hits.incrementAndGet();
+            prepared.setSession(session);
+            CommandContainer command = new CommandContainer(session, sql, prepared);
+            command.reuse();
+            command.setPlanCache(this, key);
+            return command;
+        }
+        misses.incrementAndGet();
+        Command command = new Parser(session).prepareCommand(sql);
+        if (command instanceof CommandContainer && command.isCacheable()) {
+            ((CommandContainer) command).setPlanCache(this, key);
+        }
+        return command;
+    }
+
+    /**
+     * Put a plan that is no longer used back into the cache.
+     *
+     * @param key the cache key
+     * @param prepared the plan
+     */
+    void release(String key, Prepared prepared) {
+        int evicted = getSegment(key).offer(key, prepared);
+        if (evicted > 0) {
+            evictions.addAndGet(evicted);
+        }
+    }
+
+    /**
+     * Remove all cached plans.
+     */
+    public void clear() {
+        for (Segment segment : segments) {
+            segment.clear();
+        }
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    public long getEvictions() {
+        return evictions.get();
+    }
+
+    /**
+     * Get the number of idle plans in the cache.
+     *
+     * @return the number of plans
+     */
+    public int getSize() {
+        int size = 0;
+        for (Segment segment : segments) {
+            size += segment.size();
+        }
+        return size;
+    }
+
+    private Segment getSegment(String key) {
+        int h = key.hashCode();
+        h ^= (h >>> 16);
+        return segments[h & (SEGMENT_COUNT - 1)];
+    }
+
+    /**
+     * Get the cache key of a statement. The white space outside of quoted
+     * text and identifiers is collapsed, so that statements only formatted
+     * differently share the plan. Statements with comments are used as they
+     * are, as a line comment ends at the line break.
+     *
+     * @param session the session
+     * @param sql the SQL statement
+     * @return the key
+     */
+    static String getKey(Session session, String sql) {
+        StringBuilder buff = new StringBuilder(sql.length() + 32);
+        buff.append(session.getCurrentSchemaName());
+        String[] searchPath = session.getSchemaSearchPath();
+        if (searchPath != null) {
+            for (String schemaName : searchPath) {
+                buff.append(',').append(schemaName);
+            }
+        }
+        buff.append(session.getAllowLiterals() ? "\n+\n" : "\n-\n");
+        int start = buff.length();
+        char quote = 0;
+        boolean space = false;
+        for (int i = 0, len = sql.length(); i < len; i++) {
+            char c = sql.charAt(i);
+            if (quote == 0) {
+                if (Character.isWhitespace(c)) {
+                    space = true;
+                    continue;
+                }
+                if ((c == '-' || c == '/') && i + 1 < len) {
+                    char next = sql.charAt(i + 1);
+                    if (next == c || c == '/' && next == '*') {
+                        buff.setLength(start);
+                        return buff.append(sql).toString();
+                    }
+                }
+                if (c == '\'' || c == '"' || c == '`') {
+                    quote = c;
+                }
+                if (space && buff.length() > start) {
+                    buff.append(' ');
+                }
+                space = false;
+            } else if (c == quote) {
+                quote = 0;
+            }
+            buff.append(c);
+        }
+        return buff.toString();
+    }
+
+    /**
+     * A part of the cache, with its own lock. The least recently used plans
+     * are removed first.
+     */
+    private static class Segment {
+
+        private final int maxSize;
+        private final LinkedHashMap<String, ArrayDeque<Prepared>> map;
+        private int size;
+
+        Segment(int maxSize) {
+            this.maxSize = maxSize;
+            this.map = new LinkedHashMap<String, ArrayDeque<Prepared>>(16, 0.75f, true);
+        }
+
+        synchronized Prepared poll(String key) {
+            ArrayDeque<Prepared> plans = map.get(key);
+            if (plans == null) {
+                return null;
+            }
+            Prepared prepared = plans.poll();
+            if (plans.isEmpty()) {
+                map.remove(key);
+            }
+            if (prepared != null) {
+                size--;
+            }
+            return prepared;
+        }
+
+        synchronized int offer(String key, Prepared prepared) {
+            ArrayDeque<Prepared> plans = map.get(key);
+            if (plans == null) {
+                plans = new ArrayDeque<Prepared>(2);
+                map.put(key, plans);
+            }
+            plans.push(prepared);
+            size++;
+            int evicted = 0;
+            Iterator<Map.Entry<String, ArrayDeque<Prepared>>> it = map.entrySet().iterator();
+            while (size > maxSize && it.hasNext()) {
+                ArrayDeque<Prepared> eldest = it.next().getValue();
+                while (size > maxSize && !eldest.isEmpty()) {
+                    eldest.pollLast();
+                    size--;
+                    evicted++;
+                }
+                if (eldest.isEmpty()) {
+                    it.remove();
+                }
+            }
+            return evicted;
+        }
+
+        synchronized int size() {
+            return size;
+        }
+
+        synchronized void clear() {
+            map.clear();
+            size = 0;
+        }
+    }
+
+}
@@ -17,15 +17,19 @@ package com.openddal.command;
 
 import java.util.ArrayList;
 
+import com.openddal.command.dml.Query;
 import com.openddal.command.expression.Expression;
 import com.openddal.command.expression.Parameter;
+import com.openddal.engine.QueryStatisticsData;
 import com.openddal.engine.Session;
 import com.openddal.executor.Executor;
 import com.openddal.executor.ExecutorFactory;
 import com.openddal.message.DbException;
 import com.openddal.message.ErrorCode;
 import com.openddal.message.Trace;
+import com.openddal.repo.SQLTranslated;
 import com.openddal.result.ResultInterface;
+import com.openddal.util.SmallLRUCache;
 import com.openddal.util.StatementBuilder;
 import com.openddal.value.Value;
 
@@ -61,10 +65,18 @@ public abstract class Prepared {
      */
     protected boolean prepareAlways;
 
+    /**
+     * The queries in the expressions of this statement, at any level.
+     */
+    private ArrayList<Query> subqueries;
+
+    private long modificationMetaId;
     private Command command;
     private int objectId;
     private int currentRowNumber;
     private int rowScanCount;
+    private SmallLRUCache<Object, SQLTranslated> sqlTemplates;
+    private long sqlTemplatesMetaId;
 
     /**
      * Create a new object.
@@ -73,6 +85,7 @@ public abstract class Prepared {
      */
     public Prepared(Session session) {
         this.session = session;
+        modificationMetaId = session.getDatabase().getModificationMetaId();
     }
 
     /**
@@ -146,7 +159,47 @@ public abstract class Prepared {
      * @return true if it must
      */
     public boolean needRecompile() {
-        return false;
+        return modificationMetaId < session.getDatabase().getModificationMetaId();
+    }
+
+    /**
+     * Get the translated SQL statement that was cached for the given table
+     * nodes. The cache is cleared if the meta data changed since the
+     * statements were translated.
+     *
+     * @param key the key of the table nodes
+     * @return the translated statement, or null if not cached
+     */
+    public synchronized SQLTranslated getSQLTemplate(Object key) {
+        if (sqlTemplates == null) {
+            return null;
+        }
+        if (sqlTemplatesMetaId != session.getDatabase().getModificationMetaId()) {
+            sqlTemplates.clear();
+            return null;
+        }
+        return sqlTemplates.get(key);
+    }
+
+    /**
+     * Cache a translated SQL statement for the given table nodes.
+     *
+     * @param key the key of the table nodes
+     * @param translated the translated statement
+     */
+    public synchronized void putSQLTemplate(Object key, SQLTranslated translated) {
+        int size = session.getDatabase().getSettings().sqlTemplateCacheSize;
+        if (size <= 0) {
+            return;
+        }
+        long metaId = session.getDatabase().getModificationMetaId();
+        if (sqlTemplates == null) {
+            sqlTemplates = SmallLRUCache.newInstance(size);
+        } else if (sqlTemplatesMetaId != metaId) {
+            sqlTemplates.clear();
+        }
+        sqlTemplatesMetaId = metaId;
+        sqlTemplates.put(key, translated);
     }
 
     /**
@@ -338,25 +391,44 @@ public abstract class Prepared {
      */
     public void setSession(Session currentSession) {
         this.session = currentSession;
+        if (subqueries != null) {
+            for (Query query : subqueries) {
+                query.setSession(currentSession);
+            }
+        }
+    }
+
+    /**
+     * Set the queries in the expressions of this statement, so that they are
+     * bound to the session of the statement.
+     *
+     * @param subqueries the sub-queries
+     */
+    public void setSubqueries(ArrayList<Query> subqueries) {
+        this.subqueries = subqueries.isEmpty() ? null : subqueries;
     }
 
     /**
      * Print information about the statement executed if info trace level is
-     * enabled.
+     * enabled, and update the query statistics if they are enabled.
      *
      * @param startTime when the statement was started
+     * @param startNanos when the statement was started in nanoseconds, or 0
+     *            if the query statistics were not enabled
      * @param rowCount  the query or update row count
      */
-    void trace(long startTime, int rowCount) {
+    void trace(long startTime, long startNanos, int rowCount) {
         if (session.getTrace().isInfoEnabled() && startTime > 0) {
             long deltaTime = System.currentTimeMillis() - startTime;
             String params = Trace.formatParams(parameters);
             session.getTrace().infoSQL(sqlStatement, params, rowCount, deltaTime);
         }
-        if (session.getDatabase().getQueryStatistics()) {
-            long deltaTime = System.currentTimeMillis() - startTime;
-            session.getDatabase().getQueryStatisticsData().
-                    update(toString(), deltaTime, rowCount);
+        QueryStatisticsData statistics = session.getDatabase().getQueryStatisticsData();
+        if (statistics != null && startNanos != 0) {
+            long deltaTime = System.nanoTime() - startNanos;
+            statistics.update(toString(), deltaTime, rowCount);
+            statistics.recordPhase(QueryStatisticsData.MERGE, null,
+                    Math.max(0, deltaTime - session.getWaitTime()));
         }
     }
 
@@ -0,0 +1,70 @@
+/*
+ * Copyright 2014-2016 the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the “License”);
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an “AS IS” BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.openddal.command.ddl;
+
+import com.openddal.command.CommandInterface;
+import com.openddal.dbobject.table.Table;
+import com.openddal.dbobject.table.TableMate;
+import com.openddal.engine.Session;
+import com.openddal.message.DbException;
+
+/**
+ * This class represents the statement
+ * ANALYZE
+ */
+public class Analyze extends DefineCommand {
+
+    /**
+     * The table to analyze, or null to analyze all tables.
+     */
+    private Table table;
+
+    public Analyze(Session session) {
+        super(session);
+    }
+
+    public void setTable(Table table) {
+        this.table = table;
+    }
+
+    @Override
+    public int update() {
+        boolean changed = false;
+        if (table != null) {
+            if (!(table instanceof TableMate)) {
+                throw DbException.getUnsupportedException("ANALYZE " + table.getSQL());
+            }
+            changed = ((TableMate) table).analyze(true);
+        } else {
+            for (Table t : session.getDatabase().getAllTablesAndViews()) {
+                if (t instanceof TableMate && ((TableMate) t).isInited()) {
+                    changed |= ((TableMate) t).analyze(true);
+                }
+            }
+        }
+        if (changed) {
+            // the plans need to be compiled again
+            session.getDatabase().incrementModificationMetaId();
+        }
+        return 0;
+    }
+
+    @Override
+    public int getType() {
+        return CommandInterface.ANALYZE;
+    }
+
+}
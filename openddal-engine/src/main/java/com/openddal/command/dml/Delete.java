@@ -78,6 +78,12 @@ public class Delete extends Prepared {
         return true;
     }
 
+    @Override
+    public void setSession(Session currentSession) {
+        super.setSession(currentSession);
+        tableFilter.startQuery(currentSession);
+    }
+
     // getter
     public Expression getCondition() {
         return condition;
@@ -17,6 +17,7 @@ package com.openddal.command.dml;
 
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 
 import com.openddal.command.Command;
 import com.openddal.command.CommandInterface;
@@ -26,10 +27,13 @@ import com.openddal.command.expression.Parameter;
 import com.openddal.dbobject.table.Column;
 import com.openddal.dbobject.table.Table;
 import com.openddal.engine.Session;
+import com.openddal.executor.Executor;
+import com.openddal.executor.effects.InsertExecutor;
 import com.openddal.message.DbException;
 import com.openddal.message.ErrorCode;
 import com.openddal.result.ResultInterface;
 import com.openddal.util.New;
+import com.openddal.value.Value;
 
 /**
  * This class represents the statement
@@ -124,6 +128,26 @@ public class Insert extends Prepared {
         }
     }
 
+    /**
+     * Insert one row for each parameter set. This is only possible for a
+     * single row VALUES list without ON DUPLICATE KEY UPDATE.
+     *
+     * @param batchParameters the parameter values of each row
+     * @param errors the list the errors of failed rows are added to
+     * @return the update count of each row, or null if the rows need to be
+     *         inserted one by one
+     */
+    public int[] updateBatch(List<Value[]> batchParameters, List<DbException> errors) {
+        if (query != null || list.size() != 1 || duplicateKeyAssignmentMap != null) {
+            return null;
+        }
+        Executor executor = session.getExecutorFactory().newExecutor(this);
+        if (!(executor instanceof InsertExecutor)) {
+            return null;
+        }
+        return ((InsertExecutor) executor).updateBatch(session, batchParameters, errors);
+    }
+
     @Override
     public boolean isTransactional() {
         return true;
@@ -145,6 +169,14 @@ public class Insert extends Prepared {
                 duplicateKeyAssignmentMap.isEmpty();
     }
 
+    @Override
+    public void setSession(Session currentSession) {
+        super.setSession(currentSession);
+        if (query != null) {
+            query.setSession(currentSession);
+        }
+    }
+
     public ArrayList<Expression[]> getList() {
         return list;
     }
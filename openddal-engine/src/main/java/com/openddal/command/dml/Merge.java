@@ -136,6 +136,17 @@ public class Merge extends Prepared {
         return true;
     }
 
+    @Override
+    public void setSession(Session currentSession) {
+        super.setSession(currentSession);
+        if (query != null) {
+            query.setSession(currentSession);
+        }
+        if (update != null) {
+            update.setSession(currentSession);
+        }
+    }
+
     //getter
     public ArrayList<Expression[]> getList() {
         return list;
@@ -418,6 +418,16 @@ public abstract class Query extends Prepared {
         }
     }
 
+    @Override
+    public void setSession(Session currentSession) {
+        if (currentSession != session) {
+            // the last result may still be read by the previous session
+            lastResult = null;
+            lastParameters = null;
+        }
+        super.setSession(currentSession);
+    }
+
     /**
      * Create a {@link SortOrder} object given the list of {@link SelectOrderBy}
      * objects. The expression list is extended if necessary.
@@ -149,6 +149,17 @@ public class Replace extends Prepared {
         return true;
     }
 
+    @Override
+    public void setSession(Session currentSession) {
+        super.setSession(currentSession);
+        if (query != null) {
+            query.setSession(currentSession);
+        }
+        if (update != null) {
+            update.setSession(currentSession);
+        }
+    }
+
     public ArrayList<Expression[]> getList() {
         return list;
     }
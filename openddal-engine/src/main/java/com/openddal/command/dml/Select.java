@@ -10,6 +10,7 @@ import java.util.HashMap;
 import java.util.HashSet;
 
 import com.openddal.command.CommandInterface;
+import com.openddal.command.expression.Aggregate;
 import com.openddal.command.expression.Comparison;
 import com.openddal.command.expression.ConditionAndOr;
 import com.openddal.command.expression.Expression;
@@ -30,6 +31,7 @@ import com.openddal.result.LocalResult;
 import com.openddal.result.ResultInterface;
 import com.openddal.result.ResultTarget;
 import com.openddal.result.Row;
+import com.openddal.result.SearchRow;
 import com.openddal.result.SortOrder;
 import com.openddal.util.New;
 import com.openddal.util.StatementBuilder;
@@ -65,7 +67,6 @@ public class Select extends Query {
     private int[] groupIndex;
     private boolean[] groupByExpression;
     private HashMap<Expression, Object> currentGroup;
-    private HashMap<Expression, Value> currentValues;
     private int havingIndex;
     private boolean isGroupQuery;
     private boolean isForUpdate, isForUpdateMvcc;
@@ -130,10 +131,6 @@ public class Select extends Query {
         return currentGroupRowId;
     }
 
-    public HashMap<Expression, Value> getCurrentValues() {
-        return currentValues;
-    }
-
     @Override
     public void setOrder(ArrayList<SelectOrderBy> order) {
         orderList = order;
@@ -319,37 +316,44 @@ public class Select extends Query {
             }
             result.addRow(row);
             rowNumber++;
-            if (sort == null && limitRows > 0 && result.getRowCount() >= limitRows) {
+            if ((sort == null || lookupCursor.isSorted()) && limitRows > 0
+                    && result.getRowCount() >= limitRows) {
                 break;
             }
         }
 
     }
 
+    /**
+     * Merge the partial aggregates of the shard rows of a group query. Like
+     * queryGroup, one map of aggregate data is kept per group, as the select
+     * list and HAVING read it through getCurrentGroup. Distinct aggregates
+     * are merged exactly from the distinct values the shards return as
+     * additional group keys; the MySQL shards have no mergeable sketches.
+     */
     private void queryGroupQuick(int columnCount, ResultTarget result) {
         ValueHashMap<HashMap<Expression, Object>> groups = ValueHashMap.newInstance();
         int rowNumber = 0;
         setCurrentRowNumber(0);
         currentGroup = null;
-        currentValues = null;
         ValueArray defaultGroup = ValueArray.get(new Value[0]);
         int sampleSize = getSampleSizeValue(session);
         DirectLookupCursor lookupCursor = new DirectLookupCursor(this);
         lookupCursor.query(session);
+        // the shard rows are the group keys followed by the partial aggregates
+        Aggregate[] aggregates = lookupCursor.getAggregates();
+        int[] partialIndexes = lookupCursor.getPartialIndexes();
         while (lookupCursor.next()) {
             setCurrentRowNumber(rowNumber + 1);
             Value key;
             rowNumber++;
-            currentValues = lookupCursor.getCurrentValues();
+            SearchRow searchRow = lookupCursor.getSearchRow();
             if (groupIndex == null) {
                 key = defaultGroup;
             } else {
                 Value[] keyValues = new Value[groupIndex.length];
-                // update group
                 for (int i = 0; i < groupIndex.length; i++) {
-                    int idx = groupIndex[i];
-                    Expression expr = expressions.get(idx);
-                    keyValues[i] = currentValues.get(expr);
+                    keyValues[i] = searchRow.getValue(i);
                 }
                 key = ValueArray.get(keyValues);
             }
@@ -360,12 +364,8 @@ public class Select extends Query {
             }
             currentGroup = values;
             currentGroupRowId++;
-            int len = columnCount;
-            for (int i = 0; i < len; i++) {
-                if (groupByExpression == null || !groupByExpression[i]) {
-                    Expression expr = expressions.get(i);
-                    expr.updateAggregate(session);
-                }
+            for (int i = 0; i < aggregates.length; i++) {
+                aggregates[i].mergePartial(session, searchRow, partialIndexes[i]);
             }
             if (sampleSize > 0 && rowNumber >= sampleSize) {
                 break;
@@ -455,6 +455,13 @@ public class SelectUnion extends Query {
         right.updateAggregate(s);
     }
 
+    @Override
+    public void setSession(Session currentSession) {
+        super.setSession(currentSession);
+        left.setSession(currentSession);
+        right.setSession(currentSession);
+    }
+
     @Override
     public int getType() {
         return CommandInterface.SELECT;
@@ -112,6 +112,12 @@ public class Update extends Prepared {
         return true;
     }
 
+    @Override
+    public void setSession(Session currentSession) {
+        super.setSession(currentSession);
+        tableFilter.startQuery(currentSession);
+    }
+
     //getter
     public ArrayList<Column> getColumns() {
         return columns;
@@ -28,6 +28,7 @@ import com.openddal.dbobject.table.TableFilter;
 import com.openddal.engine.Session;
 import com.openddal.message.DbException;
 import com.openddal.message.ErrorCode;
+import com.openddal.result.SearchRow;
 import com.openddal.result.SortOrder;
 import com.openddal.util.New;
 import com.openddal.util.StatementBuilder;
@@ -161,6 +162,7 @@ public class Aggregate extends Expression {
     private long precision;
     private int displaySize;
     private int lastGroupRowId;
+    private Expression[] partialExpressions;
 
     /**
      * Create a new aggregate object.
@@ -243,11 +245,6 @@ public class Aggregate extends Expression {
         }
         lastGroupRowId = groupRowId;
 
-        if (select.isDirectLookupQuery()) {
-            updateAggregate0(session);
-            return;
-        }
-
         AggregateData data = (AggregateData) group.get(this);
         if (data == null) {
             data = AggregateData.create(type);
@@ -618,22 +615,84 @@ public class Aggregate extends Expression {
     
     }
 
-    private void updateAggregate0(Session session) {
+    /**
+     * Check if this aggregate can be computed by merging the partial
+     * aggregates of each shard.
+     *
+     * @return true if it can
+     */
+    public boolean isPartialAggregatable() {
+        switch (type) {
+            case GROUP_CONCAT:
+            case SELECTIVITY:
+            case HISTOGRAM:
+                return false;
+            default:
+                return true;
+        }
+    }
+
+    /**
+     * Get the expressions each shard computes for this aggregate. AVG is
+     * computed as SUM and COUNT, the variance functions as COUNT, SUM and
+     * VAR_POP, from which the count, mean and sum of squared differences from
+     * the mean of each shard are merged. A distinct aggregate returns only the aggregated
+     * expression, which is added to the GROUP BY of the shards so that the
+     * distinct values can be merged.
+     *
+     * @return the partial expressions
+     */
+    public Expression[] getPartialExpressions() {
+        // the same expressions are returned for each execution, so that the
+        // SQL statements of the shards can be reused
+        if (partialExpressions == null) {
+            partialExpressions = createPartialExpressions();
+        }
+        return partialExpressions;
+    }
+
+    private Expression[] createPartialExpressions() {
+        if (distinct) {
+            return new Expression[] { on };
+        }
+        switch (type) {
+            case AVG:
+                return new Expression[] { new Aggregate(SUM, on, select, false),
+                        new Aggregate(COUNT, on, select, false) };
+            case STDDEV_POP:
+            case STDDEV_SAMP:
+            case VAR_POP:
+            case VAR_SAMP:
+                return new Expression[] { new Aggregate(COUNT, on, select, false),
+                        new Aggregate(SUM, on, select, false), new Aggregate(VAR_POP, on, select, false) };
+            default:
+                return new Expression[] { this };
+        }
+    }
+
+    /**
+     * Merge the partial aggregate of a shard row into the current group.
+     *
+     * @param session the session
+     * @param row the shard row
+     * @param index the index of the first partial expression in the row
+     */
+    public void mergePartial(Session session, SearchRow row, int index) {
         HashMap<Expression, Object> group = select.getCurrentGroup();
         AggregateData data = (AggregateData) group.get(this);
-        if (data == null) {
-            switch (type) {
-                case COUNT:
-                case COUNT_ALL:
-                    data = AggregateData.create(SUM);
-                    break;
-                default:
-                    data = AggregateData.create(type);
+        if (distinct) {
+            if (data == null) {
+                data = AggregateData.create(type);
+                group.put(this, data);
             }
-            group.put(this, data);
+            data.add(session.getDatabase(), dataType, true, row.getValue(index));
+        } else {
+            if (data == null) {
+                data = new AggregateDataPartial(type);
+                group.put(this, data);
+            }
+            ((AggregateDataPartial) data).merge(session.getDatabase(), dataType, row, index);
         }
-        Value v = select.getCurrentValues().get(this);
-        data.add(session.getDatabase(), dataType, distinct, v);
     }
 
 }
@@ -0,0 +1,212 @@
+/*
+ * Copyright 2014-2016 the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the “License”);
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an “AS IS” BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.openddal.command.expression;
+
+import com.openddal.engine.Database;
+import com.openddal.message.DbException;
+import com.openddal.result.SearchRow;
+import com.openddal.value.DataType;
+import com.openddal.value.Value;
+import com.openddal.value.ValueBoolean;
+import com.openddal.value.ValueDouble;
+import com.openddal.value.ValueLong;
+import com.openddal.value.ValueNull;
+
+/**
+ * Data stored while merging the partial aggregates computed by the shards.
+ * The layout of the partial columns is defined by
+ * {@link Aggregate#getPartialExpressions()}.
+ */
+class AggregateDataPartial extends AggregateData {
+    private final int aggregateType;
+    private long count;
+    private Value value;
+    private double mean, m2;
+
+    /**
+     * @param aggregateType the type of the aggregate operation
+     */
+    AggregateDataPartial(int aggregateType) {
+        this.aggregateType = aggregateType;
+    }
+
+    /**
+     * Merge the partial state of one shard row.
+     *
+     * @param database the database
+     * @param dataType the datatype of the computed result
+     * @param row the shard row
+     * @param index the index of the first partial column in the row
+     */
+    void merge(Database database, int dataType, SearchRow row, int index) {
+        Value v = row.getValue(index);
+        switch (aggregateType) {
+            case Aggregate.COUNT_ALL:
+            case Aggregate.COUNT:
+                if (v != ValueNull.INSTANCE) {
+                    count += v.getLong();
+                }
+                break;
+            case Aggregate.AVG: {
+                Value c = row.getValue(index + 1);
+                if (c != ValueNull.INSTANCE) {
+                    count += c.getLong();
+                }
+                if (v == ValueNull.INSTANCE) {
+                    break;
+                }
+                if (value == null) {
+                    value = v.convertTo(DataType.getAddProofType(dataType));
+                } else {
+                    value = value.add(v.convertTo(value.getType()));
+                }
+                break;
+            }
+            case Aggregate.STDDEV_POP:
+            case Aggregate.STDDEV_SAMP:
+            case Aggregate.VAR_POP:
+            case Aggregate.VAR_SAMP: {
+                if (v == ValueNull.INSTANCE || v.getLong() == 0) {
+                    break;
+                }
+                long n = v.getLong();
+                double shardMean = row.getValue(index + 1).getDouble() / n;
+                Value var = row.getValue(index + 2);
+                double shardM2 = var == ValueNull.INSTANCE ? 0 : var.getDouble() * n;
+                mergeVariance(n, shardMean, shardM2);
+                break;
+            }
+            default:
+                add(database, dataType, false, v);
+        }
+    }
+
+    @Override
+    void add(Database database, int dataType, boolean distinct, Value v) {
+        if (v == ValueNull.INSTANCE) {
+            return;
+        }
+        switch (aggregateType) {
+            case Aggregate.SUM:
+                if (value == null) {
+                    value = v.convertTo(dataType);
+                } else {
+                    value = value.add(v.convertTo(value.getType()));
+                }
+                break;
+            case Aggregate.MIN:
+                if (value == null || database.compare(v, value) < 0) {
+                    value = v;
+                }
+                break;
+            case Aggregate.MAX:
+                if (value == null || database.compare(v, value) > 0) {
+                    value = v;
+                }
+                break;
+            case Aggregate.BOOL_AND:
+                v = v.convertTo(Value.BOOLEAN);
+                if (value == null) {
+                    value = v;
+                } else {
+                    value = ValueBoolean.get(value.getBoolean().booleanValue() &&
+                            v.getBoolean().booleanValue());
+                }
+                break;
+            case Aggregate.BOOL_OR:
+                v = v.convertTo(Value.BOOLEAN);
+                if (value == null) {
+                    value = v;
+                } else {
+                    value = ValueBoolean.get(value.getBoolean().booleanValue() ||
+                            v.getBoolean().booleanValue());
+                }
+                break;
+            default:
+                DbException.throwInternalError("type=" + aggregateType);
+        }
+    }
+
+    @Override
+    Value getValue(Database database, int dataType, boolean distinct) {
+        Value v = null;
+        switch (aggregateType) {
+            case Aggregate.COUNT_ALL:
+            case Aggregate.COUNT:
+                v = ValueLong.get(count);
+                break;
+            case Aggregate.SUM:
+            case Aggregate.MIN:
+            case Aggregate.MAX:
+            case Aggregate.BOOL_OR:
+            case Aggregate.BOOL_AND:
+                v = value;
+                break;
+            case Aggregate.AVG:
+                if (value != null && count > 0) {
+                    int type = Value.getHigherOrder(value.getType(), Value.LONG);
+                    v = value.convertTo(type).divide(ValueLong.get(count).convertTo(type));
+                }
+                break;
+            case Aggregate.STDDEV_POP:
+                if (count < 1) {
+                    return ValueNull.INSTANCE;
+                }
+                v = ValueDouble.get(Math.sqrt(m2 / count));
+                break;
+            case Aggregate.STDDEV_SAMP:
+                if (count < 2) {
+                    return ValueNull.INSTANCE;
+                }
+                v = ValueDouble.get(Math.sqrt(m2 / (count - 1)));
+                break;
+            case Aggregate.VAR_POP:
+                if (count < 1) {
+                    return ValueNull.INSTANCE;
+                }
+                v = ValueDouble.get(m2 / count);
+                break;
+            case Aggregate.VAR_SAMP:
+                if (count < 2) {
+                    return ValueNull.INSTANCE;
+                }
+                v = ValueDouble.get(m2 / (count - 1));
+                break;
+            default:
+                DbException.throwInternalError("type=" + aggregateType);
+        }
+        return v == null ? ValueNull.INSTANCE : v.convertTo(dataType);
+    }
+
+    /**
+     * Merge the count, mean and sum of squared differences from the mean of
+     * one shard, using the pairwise update of Chan et al. Unlike a difference
+     * of the sums of squares this does not lose the variance to cancellation
+     * when the mean is large compared to the deviation.
+     *
+     * @param n the number of values of the shard
+     * @param shardMean the mean of the values of the shard
+     * @param shardM2 the sum of squared differences from the shard mean
+     */
+    private void mergeVariance(long n, double shardMean, double shardM2) {
+        long total = count + n;
+        double delta = shardMean - mean;
+        mean += delta * n / total;
+        m2 += shardM2 + delta * delta * ((double) count * n / total);
+        count = total;
+    }
+
+}
@@ -296,6 +296,15 @@ public class ConditionAndOr extends Condition {
         return left.getCost() + right.getCost();
     }
 
+    /**
+     * Get the type of this condition.
+     *
+     * @return AND or OR
+     */
+    public int getAndOrType() {
+        return andOrType;
+    }
+
     /**
      * Get the left or the right sub-expression of this condition.
      *
@@ -88,6 +88,7 @@ public class ConditionExists extends Condition {
 
     @Override
     public String getPreparedSQL(Session session, List<Value> parameters) {
+        ParameterBindings.setVariable(parameters);
         query.setSession(session);
         LocalResult result = query.query(1);
         session.addTemporaryResult(result);
@@ -230,4 +230,23 @@ public class ConditionIn extends Condition {
         }
         return buff.append("))").toString();
     }
+
+    /**
+     * Get the left hand side of the condition.
+     *
+     * @return the left expression
+     */
+    public Expression getLeft() {
+        return left;
+    }
+
+    /**
+     * Get the expressions of the value list.
+     *
+     * @return the value list
+     */
+    public ArrayList<Expression> getValueList() {
+        return valueList;
+    }
+
 }
@@ -187,4 +187,23 @@ public class ConditionInConstantSet extends Condition {
         }
         return buff.append("))").toString();
     }
+
+    /**
+     * Get the left hand side of the condition.
+     *
+     * @return the left expression
+     */
+    public Expression getLeft() {
+        return left;
+    }
+
+    /**
+     * Get the expressions of the value list.
+     *
+     * @return the value list
+     */
+    public ArrayList<Expression> getValueList() {
+        return valueList;
+    }
+
 }
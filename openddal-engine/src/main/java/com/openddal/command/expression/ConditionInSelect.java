@@ -199,6 +199,8 @@ public class ConditionInSelect extends Condition {
 
     @Override
     public String getPreparedSQL(Session session, List<Value> parameters) {
+        ParameterBindings.setVariable(parameters);
+        query.setSession(session);
         LocalResult rows = query.query(0);
         if (rows.getRowCount() > 0) {
             StatementBuilder buff = new StatementBuilder();
@@ -330,7 +330,7 @@ public class ExpressionColumn extends Expression {
             return getSQL();
         }
         Value value = getValue(session);
-        parameters.add(value);
+        ParameterBindings.bind(parameters, this, value);
         return "?";
     }
 
@@ -192,7 +192,7 @@ public class Parameter extends Expression implements ParameterInterface {
 
     @Override
     public String getPreparedSQL(Session session, List<Value> parameters) {
-        parameters.add(value);
+        ParameterBindings.bind(parameters, this, value);
         return "?";
     }
 
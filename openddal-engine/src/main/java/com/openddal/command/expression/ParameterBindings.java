@@ -0,0 +1,136 @@
+/*
+ * Copyright 2014-2016 the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the “License”);
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an “AS IS” BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.openddal.command.expression;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+import com.openddal.engine.Session;
+import com.openddal.util.New;
+import com.openddal.value.Value;
+
+/**
+ * The parameter values of a prepared SQL statement, together with the
+ * expressions they were read from. If the SQL statement only depends on the
+ * statement and not on the values, it can be used again, and only the values
+ * are read again from the expressions.
+ * <p>
+ * A value that is added without an expression, or an expression that writes
+ * SQL depending on the data, makes the statement not reusable.
+ *
+ * @author jorgie.li
+ */
+public class ParameterBindings extends ArrayList<Value> {
+
+    private static final long serialVersionUID = 1L;
+
+    private final ArrayList<Expression> sources = New.arrayList();
+    private boolean reusable = true;
+
+    /**
+     * Add a value to the parameter list.
+     *
+     * @param parameters the parameter list
+     * @param source the expression the value is read from
+     * @param value the value
+     */
+    public static void bind(List<Value> parameters, Expression source, Value value) {
+        if (parameters instanceof ParameterBindings) {
+            ParameterBindings bindings = (ParameterBindings) parameters;
+            bindings.sources.add(source);
+            bindings.addValue(value);
+        } else {
+            parameters.add(value);
+        }
+    }
+
+    /**
+     * Mark the SQL statement of the parameter list as not reusable, because
+     * it depends on the data.
+     *
+     * @param parameters the parameter list
+     */
+    public static void setVariable(List<Value> parameters) {
+        if (parameters instanceof ParameterBindings) {
+            ((ParameterBindings) parameters).reusable = false;
+        }
+    }
+
+    private void addValue(Value value) {
+        super.add(value);
+    }
+
+    @Override
+    public boolean add(Value value) {
+        reusable = false;
+        sources.add(null);
+        return super.add(value);
+    }
+
+    @Override
+    public void add(int index, Value value) {
+        reusable = false;
+        sources.add(index, null);
+        super.add(index, value);
+    }
+
+    @Override
+    public boolean addAll(Collection<? extends Value> c) {
+        if (c instanceof ParameterBindings) {
+            ParameterBindings other = (ParameterBindings) c;
+            sources.addAll(other.sources);
+            reusable &= other.reusable;
+        } else {
+            reusable = false;
+            for (int i = 0, size = c.size(); i < size; i++) {
+                sources.add(null);
+            }
+        }
+        return super.addAll(c);
+    }
+
+    @Override
+    public Value set(int index, Value value) {
+        reusable = false;
+        return super.set(index, value);
+    }
+
+    /**
+     * Check if the SQL statement only depends on the statement, so that it
+     * can be used again with the values read again.
+     *
+     * @return true if it is reusable
+     */
+    public boolean isReusable() {
+        return reusable;
+    }
+
+    /**
+     * Read the current values of the expressions.
+     *
+     * @param session the session
+     * @return the values
+     */
+    public List<Value> getValues(Session session) {
+        ArrayList<Value> list = New.arrayList(sources.size());
+        for (Expression e : sources) {
+            list.add(e.getValue(session));
+        }
+        return list;
+    }
+
+}
@@ -195,7 +195,7 @@ public class ValueExpression extends Expression {
         if (this == DEFAULT) {
             return "DEFAULT";
         }
-        parameters.add(value);
+        ParameterBindings.bind(parameters, this, value);
         return "?";
     }
 }
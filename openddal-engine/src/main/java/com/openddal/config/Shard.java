@@ -14,6 +14,10 @@ public class Shard implements Serializable {
     
     private String name;
     private List<ShardItem> shardItems;
+    private int concurrency;
+    private int maxConcurrency;
+    private int queueTimeout;
+    private int latencyThreshold;
 
     /**
      * @return the name
@@ -43,6 +47,65 @@ public class Shard implements Serializable {
         this.shardItems = shardItems;
     }
 
+    /**
+     * @return the initial number of statements that may run on the shard at
+     *         the same time, 0 if not limited
+     */
+    public int getConcurrency() {
+        return concurrency;
+    }
+
+    /**
+     * @param concurrency the concurrency to set
+     */
+    public void setConcurrency(int concurrency) {
+        this.concurrency = concurrency;
+    }
+
+    /**
+     * @return the maximum the concurrency limit is increased to
+     */
+    public int getMaxConcurrency() {
+        return maxConcurrency;
+    }
+
+    /**
+     * @param maxConcurrency the maxConcurrency to set
+     */
+    public void setMaxConcurrency(int maxConcurrency) {
+        this.maxConcurrency = maxConcurrency;
+    }
+
+    /**
+     * @return the time in milliseconds a statement waits if the concurrency
+     *         limit is reached
+     */
+    public int getQueueTimeout() {
+        return queueTimeout;
+    }
+
+    /**
+     * @param queueTimeout the queueTimeout to set
+     */
+    public void setQueueTimeout(int queueTimeout) {
+        this.queueTimeout = queueTimeout;
+    }
+
+    /**
+     * @return the response time in milliseconds above which the concurrency
+     *         limit is reduced
+     */
+    public int getLatencyThreshold() {
+        return latencyThreshold;
+    }
+
+    /**
+     * @param latencyThreshold the latencyThreshold to set
+     */
+    public void setLatencyThreshold(int latencyThreshold) {
+        this.latencyThreshold = latencyThreshold;
+    }
+
     @Override
     public int hashCode() {
         final int prime = 31;
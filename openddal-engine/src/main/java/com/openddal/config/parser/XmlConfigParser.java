@@ -132,6 +132,14 @@ public class XmlConfigParser {
                         "Error parsing ddal-config XML . Cause: element cluster.shard's name required.");
             }
             shard.setName(name);
+            try {
+                shard.setConcurrency(xNode.getIntAttribute("concurrency", 0));
+                shard.setMaxConcurrency(xNode.getIntAttribute("maxConcurrency", shard.getConcurrency() * 4));
+                shard.setQueueTimeout(xNode.getIntAttribute("queueTimeout", 0));
+                shard.setLatencyThreshold(xNode.getIntAttribute("latencyThreshold", 1000));
+            } catch (Exception e) {
+                throw new ParsingException("incorrect concurrency limit value for shard " + name);
+            }
             List<XNode> children = xNode.evalNodes("member");
             List<ShardItem> shardItems = New.arrayList(children.size());
             for (XNode child : children) {
@@ -71,7 +71,7 @@ public final class ConditionExtractor {
                 }
 
             } else if (condition.getCompareType() == Comparison.IN_QUERY) {
-                ResultInterface inResult = condition.getCurrentResult();
+                ResultInterface inResult = condition.getCurrentResult(session);
                 Set<Value> values = inColumns.get(column);
                 if (values == null) {
                     values = New.hashSet();
@@ -172,9 +172,11 @@ public class IndexCondition {
      * Get the current result of the expression. The rows may not be of the same
      * type, therefore the rows may not be unique.
      *
+     * @param session the session
      * @return the result
      */
-    public ResultInterface getCurrentResult() {
+    public ResultInterface getCurrentResult(Session session) {
+        expressionQuery.setSession(session);
         return expressionQuery.query(0);
     }
 
@@ -319,6 +321,15 @@ public class IndexCondition {
         return compareType;
     }
 
+    /**
+     * Get the compared expression.
+     *
+     * @return the expression, or null for IN conditions
+     */
+    public Expression getExpression() {
+        return expression;
+    }
+
     /**
      * Get the referenced column.
      *
@@ -11,8 +11,10 @@ import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.Locale;
+import java.util.Map;
 
 import com.openddal.command.Command;
+import com.openddal.command.PlanCache;
 import com.openddal.config.GlobalTableRule;
 import com.openddal.config.ShardedTableRule;
 import com.openddal.config.TableRule;
@@ -28,12 +30,19 @@ import com.openddal.engine.Database;
 import com.openddal.engine.QueryStatisticsData;
 import com.openddal.engine.Session;
 import com.openddal.message.DbException;
+import com.openddal.repo.JdbcRepository;
+import com.openddal.repo.TableHiLoGenerator;
+import com.openddal.repo.ha.CircuitBreaker;
+import com.openddal.repo.ha.ConcurrencyLimiter;
+import com.openddal.repo.ha.ConnectionPool;
+import com.openddal.repo.ha.DataSourceMarker;
 import com.openddal.result.Csv;
 import com.openddal.result.Row;
 import com.openddal.result.SearchRow;
 import com.openddal.result.SortOrder;
 import com.openddal.route.rule.ObjectNode;
 import com.openddal.util.MathUtils;
+import com.openddal.util.LatencyHistogram;
 import com.openddal.util.New;
 import com.openddal.util.StatementBuilder;
 import com.openddal.util.StringUtils;
@@ -86,7 +95,8 @@ public class MetaTable extends Table {
     private static final int LOCKS = 26;
     private static final int SESSION_STATE = 27;
     private static final int QUERY_STATISTICS = 28;
-    private static final int META_TABLE_TYPE_COUNT = QUERY_STATISTICS + 1;
+    private static final int QUERY_PHASE_STATISTICS = 29;
+    private static final int META_TABLE_TYPE_COUNT = QUERY_PHASE_STATISTICS + 1;
 
     private final int type;
     private final int indexColumn;
@@ -502,7 +512,25 @@ public class MetaTable extends Table {
                     "MAX_ROW_COUNT INT",
                     "CUMULATIVE_ROW_COUNT LONG",
                     "AVERAGE_ROW_COUNT DOUBLE",
-                    "STD_DEV_ROW_COUNT DOUBLE"
+                    "STD_DEV_ROW_COUNT DOUBLE",
+                    "P50_EXECUTION_TIME DOUBLE",
+                    "P95_EXECUTION_TIME DOUBLE",
+                    "P99_EXECUTION_TIME DOUBLE"
+            );
+            break;
+        }
+        case QUERY_PHASE_STATISTICS: {
+            setObjectName("QUERY_PHASE_STATISTICS");
+            cols = createColumns(
+                    "PHASE",
+                    "SHARD_NAME",
+                    "EXECUTION_COUNT LONG",
+                    "MAX_EXECUTION_TIME DOUBLE",
+                    "AVERAGE_EXECUTION_TIME DOUBLE",
+                    "P50_EXECUTION_TIME DOUBLE",
+                    "P95_EXECUTION_TIME DOUBLE",
+                    "P99_EXECUTION_TIME DOUBLE",
+                    "P999_EXECUTION_TIME DOUBLE"
             );
             break;
         }
@@ -839,6 +867,55 @@ public class MetaTable extends Table {
             add(rows, "info.VERSION_MAJOR", "" + Constants.VERSION_MAJOR);
             add(rows, "info.VERSION_MINOR", "" + Constants.VERSION_MINOR);
             add(rows, "info.VERSION", "" + Constants.getFullVersion());
+            PlanCache planCache = database.getPlanCache();
+            if (planCache != null) {
+                add(rows, "info.PLAN_CACHE_SIZE", "" + planCache.getSize());
+                add(rows, "info.PLAN_CACHE_HITS", "" + planCache.getHits());
+                add(rows, "info.PLAN_CACHE_MISSES", "" + planCache.getMisses());
+                add(rows, "info.PLAN_CACHE_EVICTIONS", "" + planCache.getEvictions());
+            }
+            for (SchemaObject obj : database.getAllSchemaObjects(DbObject.SEQUENCE)) {
+                if (obj instanceof TableHiLoGenerator) {
+                    TableHiLoGenerator s = (TableHiLoGenerator) obj;
+                    String prefix = "info.SEQUENCE." + s.getName();
+                    add(rows, prefix + ".SEGMENT_WAITS", "" + s.getSegmentWaitCount());
+                    add(rows, prefix + ".SEGMENT_WAIT_TIME", "" + s.getSegmentWaitTime());
+                }
+            }
+            if (database.getRepository() instanceof JdbcRepository) {
+                JdbcRepository repo = (JdbcRepository) database.getRepository();
+                for (ConcurrencyLimiter limiter : repo.getConcurrencyLimiters()) {
+                    String prefix = "info.SHARD." + limiter.getShardName();
+                    add(rows, prefix + ".CONCURRENCY_LIMIT", "" + limiter.getLimit());
+                    add(rows, prefix + ".IN_FLIGHT", "" + limiter.getInFlight());
+                    add(rows, prefix + ".REJECTED", "" + limiter.getRejectedCount());
+                }
+                long now = System.nanoTime();
+                for (DataSourceMarker marker : repo.getDataSourceMarkers()) {
+                    String prefix = "info.DATA_SOURCE." + marker.getUid();
+                    add(rows, prefix + ".OUTSTANDING", "" + marker.getOutstanding());
+                    add(rows, prefix + ".LATENCY_US", "" + (long) (marker.getLatency(now) / 1000));
+                    add(rows, prefix + ".ERROR_RATE", "" + marker.getErrorRate(now));
+                    CircuitBreaker breaker = marker.getCircuitBreaker();
+                    if (breaker != null) {
+                        int state = breaker.getState();
+                        add(rows, prefix + ".CIRCUIT_BREAKER", state == CircuitBreaker.CLOSED ? "CLOSED"
+                                : state == CircuitBreaker.OPEN ? "OPEN" : "HALF_OPEN");
+                        add(rows, prefix + ".CIRCUIT_BREAKER_TRIPS", "" + breaker.getTripCount());
+                    }
+                    if (marker.getDataSource() instanceof ConnectionPool) {
+                        ConnectionPool pool = (ConnectionPool) marker.getDataSource();
+                        LatencyHistogram waitTime = pool.getWaitTime();
+                        add(rows, prefix + ".POOL_SIZE", "" + pool.getSize());
+                        add(rows, prefix + ".ACTIVE_CONNECTIONS", "" + pool.getActiveCount());
+                        add(rows, prefix + ".IDLE_CONNECTIONS", "" + pool.getIdleCount());
+                        add(rows, prefix + ".BORROWED", "" + pool.getBorrowCount());
+                        add(rows, prefix + ".WAIT_TIMEOUTS", "" + pool.getTimeoutCount());
+                        add(rows, prefix + ".WAIT_TIME_P99_US", "" + waitTime.getValueAtPercentile(99));
+                        add(rows, prefix + ".WAIT_TIME_MAX_US", "" + waitTime.getMax());
+                    }
+                }
+            }
             if (admin) {
                 String[] settings = {
                         "java.runtime.version", "java.vm.name",
@@ -1145,29 +1222,67 @@ public class MetaTable extends Table {
                 for (QueryStatisticsData.QueryEntry entry : control.getQueries()) {
                     add(rows,
                             // SQL_STATEMENT
-                            entry.sqlStatement,
+                            entry.getSqlStatement(),
                             // EXECUTION_COUNT
-                            "" + entry.count,
+                            "" + entry.getCount(),
                             // MIN_EXECUTION_TIME
-                            "" + entry.executionTimeMin,
+                            "" + entry.getExecutionTimeMin(),
                             // MAX_EXECUTION_TIME
-                            "" + entry.executionTimeMax,
+                            "" + entry.getExecutionTimeMax(),
                             // CUMULATIVE_EXECUTION_TIME
-                            "" + entry.executionTimeCumulative,
+                            "" + entry.getExecutionTimeCumulative(),
                             // AVERAGE_EXECUTION_TIME
-                            "" + entry.executionTimeMean,
+                            "" + entry.getExecutionTimeMean(),
                             // STD_DEV_EXECUTION_TIME
                             "" + entry.getExecutionTimeStandardDeviation(),
                             // MIN_ROW_COUNT
-                            "" + entry.rowCountMin,
+                            "" + entry.getRowCountMin(),
                             // MAX_ROW_COUNT
-                            "" + entry.rowCountMax,
+                            "" + entry.getRowCountMax(),
                             // CUMULATIVE_ROW_COUNT
-                            "" + entry.rowCountCumulative,
+                            "" + entry.getRowCountCumulative(),
                             // AVERAGE_ROW_COUNT
-                            "" + entry.rowCountMean,
+                            "" + entry.getRowCountMean(),
                             // STD_DEV_ROW_COUNT
-                            "" + entry.getRowCountStandardDeviation()
+                            "" + entry.getRowCountStandardDeviation(),
+                            // P50_EXECUTION_TIME
+                            "" + entry.getExecutionTimePercentile(50),
+                            // P95_EXECUTION_TIME
+                            "" + entry.getExecutionTimePercentile(95),
+                            // P99_EXECUTION_TIME
+                            "" + entry.getExecutionTimePercentile(99)
+                    );
+                }
+            }
+            break;
+        }
+        case QUERY_PHASE_STATISTICS: {
+            QueryStatisticsData control = database.getQueryStatisticsData();
+            if (control != null) {
+                for (Map.Entry<String, LatencyHistogram> e : control.getPhases().entrySet()) {
+                    String key = e.getKey();
+                    int idx = key.indexOf(':');
+                    LatencyHistogram h = e.getValue();
+                    long count = h.getCount();
+                    add(rows,
+                            // PHASE
+                            idx < 0 ? key : key.substring(0, idx),
+                            // SHARD_NAME
+                            idx < 0 ? null : key.substring(idx + 1),
+                            // EXECUTION_COUNT
+                            "" + count,
+                            // MAX_EXECUTION_TIME
+                            "" + h.getMax() / 1000d,
+                            // AVERAGE_EXECUTION_TIME
+                            "" + (count == 0 ? 0 : h.getSum() / 1000d / count),
+                            // P50_EXECUTION_TIME
+                            "" + h.getValueAtPercentile(50) / 1000d,
+                            // P95_EXECUTION_TIME
+                            "" + h.getValueAtPercentile(95) / 1000d,
+                            // P99_EXECUTION_TIME
+                            "" + h.getValueAtPercentile(99) / 1000d,
+                            // P999_EXECUTION_TIME
+                            "" + h.getValueAtPercentile(99.9) / 1000d
                     );
                 }
             }
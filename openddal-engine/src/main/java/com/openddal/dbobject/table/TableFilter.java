@@ -428,6 +428,15 @@ public class TableFilter implements ColumnResolver {
         return current;
     }
 
+    /**
+     * Get the cursor that reads the rows of this filter.
+     *
+     * @return the cursor
+     */
+    public SearchCursor getSearchCursor() {
+        return cursor;
+    }
+
     /**
      * Set the current row.
      *
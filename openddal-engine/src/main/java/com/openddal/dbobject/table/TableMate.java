@@ -27,7 +27,9 @@ import java.sql.Types;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 
 import javax.sql.DataSource;
 
@@ -47,6 +49,7 @@ import com.openddal.route.rule.ObjectNode;
 import com.openddal.util.JdbcUtils;
 import com.openddal.util.MathUtils;
 import com.openddal.util.New;
+import com.openddal.util.StatementBuilder;
 import com.openddal.util.StringUtils;
 import com.openddal.value.DataType;
 import com.openddal.value.ValueDate;
@@ -60,8 +63,13 @@ public class TableMate extends Table {
 
     private static final int MAX_RETRY = 2;
 
+    /**
+     * The version of the format of the meta data snapshot.
+     */
+    private static final String SNAPSHOT_VERSION = "2";
+
     private final TableRule tableRule;
-    private final ArrayList<Index> indexes = New.arrayList();
+    private volatile ArrayList<Index> indexes = New.arrayList();
     private Column[] ruleColumns;
 
     private DbException initException;
@@ -70,6 +78,8 @@ public class TableMate extends Table {
     private boolean storesMixedCaseQuoted;
     private boolean supportsMixedCaseIdentifiers;
 
+    private volatile TableStatistics statistics;
+
     public TableMate(Schema schema, String name, TableRule tableRule) {
         super(schema, name);
         this.tableRule = tableRule;
@@ -91,7 +101,7 @@ public class TableMate extends Table {
         if (initException != null) {
             Column[] cols = {};
             setColumns(cols);
-            indexes.clear();
+            indexes = New.arrayList();
             throw initException;
         }
     }
@@ -103,8 +113,9 @@ public class TableMate extends Table {
     public void markDeleted() {
         Column[] cols = {};
         setColumns(cols);
-        indexes.clear();
+        indexes = New.arrayList();
         initException = DbException.get(ErrorCode.TABLE_OR_VIEW_NOT_FOUND_1, this.getSQL());
+        getDatabase().incrementModificationMetaId();
     }
 
     @Override
@@ -134,7 +145,8 @@ public class TableMate extends Table {
 
     @Override
     public long getRowCountApproximation() {
-        return Constants.COST_ROW_OFFSET;
+        TableStatistics stats = getStatistics();
+        return stats == null ? Constants.COST_ROW_OFFSET : stats.getRowCount();
     }
 
     @Override
@@ -142,22 +154,29 @@ public class TableMate extends Table {
 
     }
 
-    private Index addIndex(String name, ArrayList<Column> list, IndexType indexType) {
+    private Index addIndex(ArrayList<Index> indexList, String name, ArrayList<Column> list, IndexType indexType) {
         Column[] cols = new Column[list.size()];
         list.toArray(cols);
         Index index = new Index(this, name, IndexColumn.wrap(cols), indexType);
-        indexes.add(index);
+        indexList.add(index);
         return index;
     }
 
-    public PlanItem getBestPlanItem(Session session, int[] masks, TableFilter[] filters, int filter) {
+    @Override
+    public PlanItem getBestPlanItem(Session session, int[] masks, TableFilter filter) {
         PlanItem item = new PlanItem();
-        item.cost = Constants.COST_ROW_OFFSET;
+        int nodeCount = 1;
         if (tableRule instanceof ShardedTableRule) {
             ShardedTableRule shardedTableRule = (ShardedTableRule) tableRule;
-            int nodeCount = shardedTableRule.getObjectNodes().length;
-            item.cost = Constants.COST_ROW_OFFSET * nodeCount;
+            nodeCount = shardedTableRule.getObjectNodes().length;
+        }
+        TableStatistics stats = getStatistics();
+        // the rows of one table node
+        double nodeRows = Constants.COST_ROW_OFFSET;
+        if (stats != null) {
+            nodeRows = Math.max(1d, (double) stats.getRowCount() / nodeCount);
         }
+        item.cost = nodeRows * nodeCount;
 
         Column[] columns = getRuleColumns();
         if (columns != null && masks != null) {
@@ -167,7 +186,9 @@ public class TableMate extends Table {
                 int mask = masks[index];
                 if ((mask & IndexCondition.EQUALITY) == IndexCondition.EQUALITY) {
                     if (i == columns.length - 1) {
-                        item.cost = Constants.COST_ROW_OFFSET;
+                        // a lookup in a single table node
+                        item.cost = Math.min(nodeRows, Constants.COST_ROW_OFFSET);
+                        nodeCount = 1;
                         item.scanningStrategyFor(ScanningStrategy.USE_SHARDINGKEY);
                         break;
                     }
@@ -187,11 +208,21 @@ public class TableMate extends Table {
                     int mask = masks[columnId];
                     if ((mask & IndexCondition.EQUALITY) == IndexCondition.EQUALITY) {
                         if (i == columns.length - 1 && index.getIndexType().isUnique()) {
-                            item.cost = rowsCost * 0.25d;
+                            if (stats == null) {
+                                item.cost = rowsCost * 0.25d;
+                            } else {
+                                // at most one row, each table node is queried
+                                item.cost = Math.min(item.cost, nodeCount);
+                            }
                             item.scanningStrategyFor(ScanningStrategy.USE_UNIQUEKEY);
                             break;
                         }
-                        item.cost = Math.max(rowsCost * 0.5d, item.cost * 0.5d);
+                        double selectivity = stats == null ? -1 : stats.getSelectivity(columns, i + 1);
+                        if (selectivity < 0) {
+                            item.cost = Math.max(rowsCost * 0.5d, item.cost * 0.5d);
+                        } else {
+                            item.cost = Math.min(item.cost, Math.max(rowsCost * selectivity, nodeCount));
+                        }
                         item.scanningStrategyFor(ScanningStrategy.USE_INDEXKEY);
                     } else if ((mask & IndexCondition.RANGE) == IndexCondition.RANGE) {
                         item.cost = item.cost * 0.70d;
@@ -215,6 +246,163 @@ public class TableMate extends Table {
         return item;
     }
 
+    /**
+     * Get the statistics of the table. They are read by the ANALYZE statement
+     * and refreshed periodically in the background, so planning a query does
+     * not access the shards.
+     *
+     * @return the statistics, or null if they are not known
+     */
+    public TableStatistics getStatistics() {
+        return statistics;
+    }
+
+    /**
+     * Read the statistics of the table from all table nodes. The row count and
+     * the index cardinalities are read from the meta data of the shards. If
+     * the statistics of a node are not known, they are not used at all.
+     * The cardinalities of an index are summed over the table nodes if the
+     * index columns contain the sharding columns, as the nodes then have
+     * different values; otherwise the largest cardinality is used.
+     * <p>
+     * The plans are not compiled again here, the caller does this once for
+     * all tables that changed.
+     *
+     * @param analyzeNodes whether to run ANALYZE TABLE on the table nodes
+     *            first, and to count the rows if the meta data does not
+     *            contain the row count
+     * @return true if the statistics were read for the first time, or the
+     *         row count changed by more than a factor of two
+     */
+    public boolean analyze(boolean analyzeNodes) {
+        check();
+        ObjectNode[] nodes;
+        if (tableRule instanceof ShardedTableRule) {
+            nodes = ((ShardedTableRule) tableRule).getObjectNodes();
+        } else {
+            nodes = new ObjectNode[] { tableRule.getMetadataNode() };
+        }
+        HashSet<String> shardingColumns = New.hashSet();
+        Column[] ruleColumns = getRuleColumns();
+        if (nodes.length > 1 && ruleColumns != null) {
+            for (Column c : ruleColumns) {
+                shardingColumns.add(c.getName());
+            }
+        }
+        long rowCount = 0;
+        HashMap<String, Long> cardinality = New.hashMap();
+        for (ObjectNode node : nodes) {
+            long rows = readStatistics(node, cardinality, shardingColumns, analyzeNodes);
+            if (rows < 0) {
+                trace.debug("The statistics of {0} are not known in {1}.{2}", getName(), node.getShardName(),
+                        node.getCompositeObjectName());
+                return false;
+            }
+            rowCount += rows;
+        }
+        TableStatistics old = statistics;
+        statistics = new TableStatistics(rowCount, cardinality);
+        trace.debug("Read the {0} statistics, {1} rows.", getName(), rowCount);
+        return old == null || rowCount > old.getRowCount() * 2 || rowCount * 2 < old.getRowCount();
+    }
+
+    /**
+     * Read the statistics of a table node.
+     *
+     * @param node the table node
+     * @param cardinality the index cardinalities, the cardinalities of the
+     *            node are merged
+     * @param shardingColumns the names of the sharding columns, empty if
+     *            the table has one node
+     * @param analyzeNodes whether to run ANALYZE TABLE and count the rows
+     * @return the row count, or -1 if it is not known
+     */
+    private long readStatistics(ObjectNode node, HashMap<String, Long> cardinality,
+            HashSet<String> shardingColumns, boolean analyzeNodes) {
+        JdbcRepository dsRepository = (JdbcRepository) database.getRepository();
+        DataSource dataSource = dsRepository.getDataSourceByShardName(node.getShardName());
+        String tableName = database.identifier(node.getQualifiedObjectName());
+        String catalog = node.getCatalog();
+        String schema = node.getSchema();
+        if (catalog != null) {
+            catalog = database.identifier(catalog);
+        }
+        if (schema != null) {
+            schema = database.identifier(schema);
+        }
+        Connection conn = null;
+        Statement stat = null;
+        ResultSet rs = null;
+        try {
+            conn = dataSource.getConnection();
+            if (analyzeNodes) {
+                stat = conn.createStatement();
+                try {
+                    stat.execute("ANALYZE TABLE " + node.getCompositeObjectName());
+                } catch (SQLException e) {
+                    // not supported by all databases
+                    trace.debug("ANALYZE TABLE {0} on {1} error: {2}", node.getCompositeObjectName(),
+                            node.getShardName(), e.getMessage());
+                }
+            }
+            long rowCount = -1;
+            HashMap<String, ArrayList<String>> indexColumns = New.hashMap();
+            HashMap<String, Long> nodeCardinality = New.hashMap();
+            rs = conn.getMetaData().getIndexInfo(catalog, schema, tableName, false, true);
+            while (rs.next()) {
+                long card = rs.getLong("CARDINALITY");
+                if (rs.getShort("TYPE") == DatabaseMetaData.tableIndexStatistic) {
+                    rowCount = card;
+                    continue;
+                }
+                String indexName = rs.getString("INDEX_NAME");
+                ArrayList<String> list = indexColumns.get(indexName);
+                if (list == null) {
+                    list = New.arrayList();
+                    indexColumns.put(indexName, list);
+                }
+                list.add(convertColumnName(rs.getString("COLUMN_NAME")));
+                if (card <= 0) {
+                    continue;
+                }
+                String[] names = new String[list.size()];
+                list.toArray(names);
+                String key = TableStatistics.getKey(names, names.length);
+                Long old = nodeCardinality.get(key);
+                nodeCardinality.put(key, old == null ? card : Math.max(old, card));
+                if (!rs.getBoolean("NON_UNIQUE")) {
+                    // a unique index has one value per row
+                    rowCount = Math.max(rowCount, card);
+                }
+            }
+            rs.close();
+            rs = null;
+            for (Map.Entry<String, Long> e : nodeCardinality.entrySet()) {
+                String key = e.getKey();
+                Long old = cardinality.get(key);
+                long card = e.getValue();
+                if (old != null) {
+                    boolean disjoint = !shardingColumns.isEmpty()
+                            && Arrays.asList(StringUtils.arraySplit(key, ',', false)).containsAll(shardingColumns);
+                    card = disjoint ? old + card : Math.max(old, card);
+                }
+                cardinality.put(key, card);
+            }
+            if (rowCount <= 0 && analyzeNodes) {
+                rs = stat.executeQuery("SELECT COUNT(*) FROM " + node.getCompositeObjectName());
+                rs.next();
+                rowCount = rs.getLong(1);
+            }
+            return rowCount;
+        } catch (SQLException e) {
+            throw DbException.convert(e);
+        } finally {
+            JdbcUtils.closeSilently(rs);
+            JdbcUtils.closeSilently(stat);
+            JdbcUtils.closeSilently(conn);
+        }
+    }
+
     public void loadMataData(Session session) {
         ObjectNode node = tableRule.getMetadataNode();
         String tableName = node.getCompositeObjectName();
@@ -225,7 +413,8 @@ public class TableMate extends Table {
             trace.debug("Load the {0} metadata success.", getName());
             initException = null;
         } catch (DbException e) {
-            if(e.getErrorCode() == ErrorCode.COLUMN_NOT_FOUND_1) {
+            if (e.getErrorCode() == ErrorCode.COLUMN_NOT_FOUND_1
+                    || e.getErrorCode() == ErrorCode.SHARDING_COLUMN_NOT_FOUND) {
                 throw e;
             }
             trace.debug("Fail to load {0} metadata from table {1}.{2}. error: {3}", getName(), shardName, tableName,
@@ -234,9 +423,23 @@ public class TableMate extends Table {
             Column[] cols = {};
             setColumns(cols);
         }
-        if (isInited()) {
-            setRuleColumns();
+        getDatabase().incrementModificationMetaId();
+    }
+
+    /**
+     * Read the meta data of the table again. Unlike loadMataData, the meta
+     * data that is known is kept if it can not be read.
+     *
+     * @param session the session
+     * @throws DbException if the meta data can not be read
+     */
+    public void refreshMataData(Session session) {
+        if (!isInited()) {
+            loadMataData(session);
+            return;
         }
+        readMataData(session, tableRule.getMetadataNode());
+        getDatabase().incrementModificationMetaId();
     }
 
     /**
@@ -269,7 +472,7 @@ public class TableMate extends Table {
                     JdbcUtils.closeSilently(conn);
                 }
             } catch (DbException e) {
-                if (retry >= MAX_RETRY) {
+                if (retry >= MAX_RETRY || e.getErrorCode() == ErrorCode.SHARDING_COLUMN_NOT_FOUND) {
                     throw e;
                 }
             }
@@ -359,9 +562,9 @@ public class TableMate extends Table {
         }
         Column[] cols = new Column[columnList.size()];
         columnList.toArray(cols);
-        setColumns(cols);
-        // create scan index
+        Column[] newRuleColumns = getRuleColumns(columnMap);
 
+        ArrayList<Index> newIndexes = New.arrayList();
         // load primary keys
         try {
             rs = meta.getPrimaryKeys(null, null, tableName);
@@ -394,7 +597,7 @@ public class TableMate extends Table {
                     list.set(idx - 1, column);
                 }
             } while (rs.next());
-            addIndex(pkName, list, IndexType.createPrimaryKey(false));
+            addIndex(newIndexes, pkName, list, IndexType.createPrimaryKey(false));
             rs.close();
         }
 
@@ -419,7 +622,7 @@ public class TableMate extends Table {
                     continue;
                 }
                 if (indexName != null && !indexName.equals(newIndex)) {
-                    addIndex(indexName, list, indexType);
+                    addIndex(newIndexes, indexName, list, indexType);
                     indexName = null;
                 }
                 if (indexName == null) {
@@ -436,9 +639,155 @@ public class TableMate extends Table {
             rs.close();
         }
         if (indexName != null) {
-            addIndex(indexName, list, indexType);
+            addIndex(newIndexes, indexName, list, indexType);
+        }
+        shardingKeyIndex(newIndexes, newRuleColumns);
+        setMataData(cols, newRuleColumns, newIndexes);
+    }
+
+    /**
+     * Replace the meta data of the table. The table may be in use, so the new
+     * columns and indexes are built first and then replaced together, without
+     * accessing the shards in between.
+     *
+     * @param cols the columns
+     * @param newRuleColumns the sharding columns
+     * @param newIndexes the indexes
+     */
+    private void setMataData(Column[] cols, Column[] newRuleColumns, ArrayList<Index> newIndexes) {
+        setColumns(cols);
+        ruleColumns = newRuleColumns;
+        indexes = newIndexes;
+    }
+
+    /**
+     * Get the meta data of the table as a string, to be stored in the meta
+     * data snapshot.
+     *
+     * @return the meta data, or null if the table could not be loaded
+     */
+    public String getMataDataSnapshot() {
+        if (!isInited()) {
+            return null;
+        }
+        Column[] cols = getColumns();
+        String[] columnList = new String[cols.length];
+        for (int i = 0; i < cols.length; i++) {
+            Column c = cols[i];
+            columnList[i] = StringUtils.arrayCombine(new String[] { c.getName(), String.valueOf(c.getType()),
+                    String.valueOf(c.getPrecision()), String.valueOf(c.getScale()),
+                    String.valueOf(c.getDisplaySize()) }, ':');
         }
-        shardingKeyIndex();
+        ArrayList<Index> indexList = indexes;
+        String[] indexArray = new String[indexList.size()];
+        for (int i = 0; i < indexArray.length; i++) {
+            Index index = indexList.get(i);
+            Column[] indexColumns = index.getColumns();
+            String[] item = new String[indexColumns.length + 2];
+            item[0] = index.getName();
+            IndexType type = index.getIndexType();
+            item[1] = (type.isPrimaryKey() ? "P" : type.isUnique() ? "U" : "N") + (type.isShardingKey() ? "S" : "");
+            for (int j = 0; j < indexColumns.length; j++) {
+                item[j + 2] = indexColumns[j].getName();
+            }
+            indexArray[i] = StringUtils.arrayCombine(item, ':');
+        }
+        String flags = (storesLowerCase ? "1" : "0") + (storesMixedCase ? "1" : "0")
+                + (storesMixedCaseQuoted ? "1" : "0") + (supportsMixedCaseIdentifiers ? "1" : "0");
+        return StringUtils.arrayCombine(new String[] { SNAPSHOT_VERSION, getConfigurationFingerprint(), flags,
+                StringUtils.arrayCombine(columnList, ','), StringUtils.arrayCombine(indexArray, ',') }, '|');
+    }
+
+    /**
+     * Get a hash of the configuration the meta data depends on: the shard and
+     * the name of the meta data node, the table nodes, and the sharding
+     * columns. A snapshot of another configuration is not used.
+     *
+     * @return the fingerprint
+     */
+    private String getConfigurationFingerprint() {
+        StatementBuilder buff = new StatementBuilder();
+        ObjectNode node = tableRule.getMetadataNode();
+        buff.append(node.getShardName()).append('.').append(node.getCompositeObjectName());
+        if (tableRule instanceof ShardedTableRule) {
+            ShardedTableRule shardedTableRule = (ShardedTableRule) tableRule;
+            buff.append(';');
+            for (ObjectNode n : shardedTableRule.getObjectNodes()) {
+                buff.appendExceptFirst(",");
+                buff.append(n.getShardName()).append('.').append(n.getCompositeObjectName());
+            }
+            buff.append(';');
+            buff.resetCount();
+            for (String c : shardedTableRule.getRuleColumns()) {
+                buff.appendExceptFirst(",");
+                buff.append(c);
+            }
+        }
+        return Integer.toHexString(buff.toString().hashCode());
+    }
+
+    /**
+     * Initialize the table from the meta data snapshot, instead of reading
+     * the meta data from the shard. A snapshot of another format version or
+     * another configuration of the table is not used.
+     *
+     * @param snapshot the meta data as returned by
+     *            {@link #getMataDataSnapshot()}
+     * @return false if the snapshot does not match the table
+     */
+    public boolean loadMataDataSnapshot(String snapshot) {
+        String[] parts = StringUtils.arraySplit(snapshot, '|', false);
+        if (parts.length != 5 || !SNAPSHOT_VERSION.equals(parts[0])
+                || !getConfigurationFingerprint().equals(parts[1])) {
+            return false;
+        }
+        String flags = parts[2];
+        String[] columnList = StringUtils.arraySplit(parts[3], ',', false);
+        String[] indexArray = StringUtils.arraySplit(parts[4], ',', false);
+        Column[] cols = new Column[columnList.length];
+        HashMap<String, Column> columnMap = New.hashMap();
+        for (int i = 0; i < cols.length; i++) {
+            String[] c = StringUtils.arraySplit(columnList[i], ':', false);
+            Column col = new Column(c[0], Integer.parseInt(c[1]), Long.parseLong(c[2]), Integer.parseInt(c[3]),
+                    Integer.parseInt(c[4]));
+            col.setTable(this, i);
+            cols[i] = col;
+            columnMap.put(col.getName(), col);
+        }
+        ArrayList<Index> newIndexes = New.arrayList();
+        for (String indexItem : indexArray) {
+            String[] item = StringUtils.arraySplit(indexItem, ':', false);
+            ArrayList<Column> list = New.arrayList();
+            for (int j = 2; j < item.length; j++) {
+                Column column = columnMap.get(item[j]);
+                if (column == null) {
+                    throw DbException.get(ErrorCode.COLUMN_NOT_FOUND_1, item[j]);
+                }
+                list.add(column);
+            }
+            String type = item[1];
+            IndexType indexType;
+            if (type.startsWith("P")) {
+                indexType = IndexType.createPrimaryKey(false);
+            } else if (type.startsWith("U")) {
+                indexType = IndexType.createUnique(false);
+            } else {
+                indexType = IndexType.createNonUnique();
+            }
+            if (type.endsWith("S")) {
+                indexType.shardingKeyIndex();
+            }
+            addIndex(newIndexes, item[0], list, indexType);
+        }
+        Column[] newRuleColumns = getRuleColumns(columnMap);
+        storesLowerCase = flags.charAt(0) == '1';
+        storesMixedCase = flags.charAt(1) == '1';
+        storesMixedCaseQuoted = flags.charAt(2) == '1';
+        supportsMixedCaseIdentifiers = flags.charAt(3) == '1';
+        setMataData(cols, newRuleColumns, newIndexes);
+        initException = null;
+        getDatabase().incrementModificationMetaId();
+        return true;
     }
 
     private String convertColumnName(String columnName) {
@@ -454,10 +803,9 @@ public class TableMate extends Table {
         return columnName;
     }
 
-    private void shardingKeyIndex() {
+    private void shardingKeyIndex(ArrayList<Index> indexes, Column[] ruleColumns) {
         // create shardingKey index
         if (ruleColumns != null) {
-            ArrayList<Index> indexes = getIndexes();
             boolean isMatch = false;
             for (Index index : indexes) {
                 Column[] columns = index.getColumns();
@@ -478,7 +826,7 @@ public class TableMate extends Table {
             }
             if (!isMatch) {
                 List<Column> asList = Arrays.asList(ruleColumns);
-                addIndex("$shardingKey", New.arrayList(asList), IndexType.createShardingKey(false));
+                addIndex(indexes, "$shardingKey", New.arrayList(asList), IndexType.createShardingKey(false));
             }
         }
     }
@@ -523,20 +871,26 @@ public class TableMate extends Table {
 
     /**
      * validation the rule columns is in the table columns
+     *
+     * @param columnMap the new columns of the table by name
+     * @return the rule columns, or the current ones if the table is not sharded
      */
-    private void setRuleColumns() {
-        if (tableRule instanceof ShardedTableRule) {
-            ShardedTableRule shardedTableRule = (ShardedTableRule) tableRule;
-            String[] ruleColNames = shardedTableRule.getRuleColumns();
-            ruleColumns = new Column[ruleColNames.length];
-            for (int i = 0; i < ruleColNames.length; i++) {
-                String colName = database.identifier(ruleColNames[i]);
-                if(!doesColumnExist(colName)) {
-                    throw DbException.get(ErrorCode.SHARDING_COLUMN_NOT_FOUND,  colName ,getName());
-                }
-                ruleColumns[i] = getColumn(colName);
+    private Column[] getRuleColumns(HashMap<String, Column> columnMap) {
+        if (!(tableRule instanceof ShardedTableRule)) {
+            return ruleColumns;
+        }
+        ShardedTableRule shardedTableRule = (ShardedTableRule) tableRule;
+        String[] ruleColNames = shardedTableRule.getRuleColumns();
+        Column[] cols = new Column[ruleColNames.length];
+        for (int i = 0; i < ruleColNames.length; i++) {
+            String colName = database.identifier(ruleColNames[i]);
+            Column col = columnMap.get(colName);
+            if (col == null) {
+                throw DbException.get(ErrorCode.SHARDING_COLUMN_NOT_FOUND, colName, getName());
             }
+            cols[i] = col;
         }
+        return cols;
     }
 
     public void validationPlanItem(PlanItem item) {
@@ -0,0 +1,100 @@
+/*
+ * Copyright 2014-2016 the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the “License”);
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an “AS IS” BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.openddal.dbobject.table;
+
+import java.util.HashMap;
+
+import com.openddal.util.StatementBuilder;
+
+/**
+ * The statistics of a table, summed over all table nodes: the number of rows,
+ * and the number of distinct values of the leading columns of each index.
+ *
+ * @author jorgie.li
+ */
+public class TableStatistics {
+
+    private final long rowCount;
+    private final HashMap<String, Long> cardinality;
+    private final long created = System.currentTimeMillis();
+
+    /**
+     * Create the statistics of a table.
+     *
+     * @param rowCount the number of rows
+     * @param cardinality the number of distinct values, keyed by the column
+     *            names as returned by {@link #getKey(String[], int)}
+     */
+    TableStatistics(long rowCount, HashMap<String, Long> cardinality) {
+        this.rowCount = rowCount;
+        this.cardinality = cardinality;
+    }
+
+    /**
+     * Get the number of rows of the table.
+     *
+     * @return the row count
+     */
+    public long getRowCount() {
+        return rowCount;
+    }
+
+    /**
+     * Get the time the statistics were read.
+     *
+     * @return the time in milliseconds
+     */
+    public long getCreated() {
+        return created;
+    }
+
+    /**
+     * Get the fraction of the rows that match a value of the first columns of
+     * an index.
+     *
+     * @param columns the index columns
+     * @param count the number of leading columns
+     * @return the selectivity, or -1 if it is not known
+     */
+    public double getSelectivity(Column[] columns, int count) {
+        String[] names = new String[count];
+        for (int i = 0; i < count; i++) {
+            names[i] = columns[i].getName();
+        }
+        Long distinct = cardinality.get(getKey(names, count));
+        if (distinct == null || distinct <= 0) {
+            return -1;
+        }
+        return Math.min(1d, 1d / distinct);
+    }
+
+    /**
+     * Get the key of the first columns of an index.
+     *
+     * @param names the column names
+     * @param count the number of leading columns
+     * @return the key
+     */
+    static String getKey(String[] names, int count) {
+        StatementBuilder buff = new StatementBuilder();
+        for (int i = 0; i < count; i++) {
+            buff.appendExceptFirst(",");
+            buff.append(names[i]);
+        }
+        return buff.toString();
+    }
+
+}
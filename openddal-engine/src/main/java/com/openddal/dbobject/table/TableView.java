@@ -21,6 +21,7 @@ import java.util.HashSet;
 
 import com.openddal.command.Prepared;
 import com.openddal.command.dml.Query;
+import com.openddal.command.dml.Select;
 import com.openddal.command.expression.Alias;
 import com.openddal.command.expression.Comparison;
 import com.openddal.command.expression.Expression;
@@ -35,6 +36,7 @@ import com.openddal.dbobject.schema.Schema;
 import com.openddal.engine.Constants;
 import com.openddal.engine.Session;
 import com.openddal.executor.cursor.ViewCursor;
+import com.openddal.executor.cursor.ViewResultCache;
 import com.openddal.message.DbException;
 import com.openddal.result.LocalResult;
 import com.openddal.util.IntArray;
@@ -65,6 +67,7 @@ public class TableView extends Table {
     private Query topQuery;
     private LocalResult recursiveResult;
     private boolean tableExpression;
+    private ArrayList<Parameter> originalParameters;
 
     public TableView(Schema schema, int id, String name, String querySQL, ArrayList<Parameter> params,
             String[] columnNames, Session session, boolean recursive) {
@@ -106,6 +109,7 @@ public class TableView extends Table {
     private synchronized void init(String querySQL, ArrayList<Parameter> params, String[] columnNames, Session session,
             boolean recursive) {
         this.querySQL = querySQL;
+        this.originalParameters = params;
         this.columnNames = columnNames;
         this.recursive = recursive;
         initColumnsAndTables(session);
@@ -195,6 +199,12 @@ public class TableView extends Table {
     }
     
     public ViewCursor getViewCursor(Session session, TableFilter filter) {
+        if (isCacheable(session, filter)) {
+            ViewCursor cursor = getCachedViewCursor(session, filter);
+            if (cursor != null) {
+                return cursor;
+            }
+        }
         int len = getColumns().length;
         int[] masks = new int[len];
         ArrayList<IndexCondition> indexConditions = filter.getIndexConditions();
@@ -211,17 +221,10 @@ public class TableView extends Table {
         
         Query q = getCachedQuery(session, masks);
         ArrayList<Parameter> paramList = q.getParameters();
-        ArrayList<Parameter> originalParameters = viewQuery.getParameters();
-        if (originalParameters != null) {
-            for (int i = 0, size = originalParameters.size(); i < size; i++) {
-                Parameter orig = originalParameters.get(i);
-                int idx = orig.getIndex();
-                Value value = orig.getValue(session);
-                setParameter(paramList, idx, value);
-            }
-        }
+        setViewParameters(session, paramList);
         
-        int idx = originalParameters == null ? 0 : originalParameters.size();
+        ArrayList<Parameter> viewParameters = viewQuery.getParameters();
+        int idx = viewParameters == null ? 0 : viewParameters.size();
         idx += getParameterOffset();
         for (IndexCondition condition : indexConditions) {
             int id = condition.getColumn().getColumnId();
@@ -243,7 +246,87 @@ public class TableView extends Table {
         return new ViewCursor(this, result);
     }
 
+    /**
+     * Check if the rows of the view may be kept for the statement: the view
+     * is joined to the tables before it, so it is read once for each of
+     * their rows. The view query is compiled on its own, so it can not refer
+     * to the columns of the other tables, and like a derived table in MySQL
+     * it is evaluated once for the statement.
+     */
+    private boolean isCacheable(Session session, TableFilter filter) {
+        if (recursive || viewQuery == null || session.getDatabase().getSettings().viewResultCacheRows <= 0) {
+            return false;
+        }
+        Select select = filter.getSelect();
+        return select != null && select.getTopTableFilter() != filter;
+    }
+
+    /**
+     * Get a cursor over the rows of the view that are cached for the
+     * statement. The rows are read when the view is first looked up, or
+     * again if the parameters of the view query changed.
+     *
+     * @return the cursor, or null if the view has too many rows
+     */
+    private ViewCursor getCachedViewCursor(Session session, TableFilter filter) {
+        int size = originalParameters == null ? 0 : originalParameters.size();
+        Value[] values = new Value[size];
+        for (int i = 0; i < size; i++) {
+            values[i] = originalParameters.get(i).getValue(session);
+        }
+        ViewResultCache cache = session.getViewResultCache(this);
+        if (cache == null || !cache.isValid(values)) {
+            cache = readViewResult(session, values);
+            session.putViewResultCache(this, cache);
+        }
+        if (cache.isOverflow()) {
+            return null;
+        }
+        // the conditions are evaluated by the filter, the index is only
+        // used to skip the rows that can not match
+        for (IndexCondition condition : filter.getIndexConditions()) {
+            Column column = condition.getColumn();
+            if (condition.getCompareType() == Comparison.EQUAL && ViewResultCache.isIndexable(column)) {
+                return new ViewCursor(this, cache.find(column, condition.getCurrentValue(session)));
+            }
+        }
+        return new ViewCursor(this, cache.getRows());
+    }
+
+    private ViewResultCache readViewResult(Session session, Value[] values) {
+        int budget = session.getDatabase().getSettings().viewResultCacheRows;
+        budget = Math.min(budget, session.getDatabase().getMaxMemoryRows() - 1);
+        Query q = getCachedQuery(session, new int[getColumns().length]);
+        setViewParameters(session, q.getParameters());
+        LocalResult result = q.query(budget + 1);
+        try {
+            ArrayList<Value[]> rows = New.arrayList();
+            while (result.next()) {
+                if (rows.size() >= budget) {
+                    return new ViewResultCache(values, null);
+                }
+                rows.add(result.currentRow());
+            }
+            return new ViewResultCache(values, rows);
+        } finally {
+            result.close();
+        }
+    }
 
+    /**
+     * Set the parameters of the view query to the values of the parameters
+     * of the statement the view is part of.
+     */
+    private void setViewParameters(Session session, ArrayList<Parameter> paramList) {
+        if (originalParameters != null) {
+            for (int i = 0, size = originalParameters.size(); i < size; i++) {
+                Parameter orig = originalParameters.get(i);
+                int idx = orig.getIndex();
+                Value value = orig.getValue(session);
+                setParameter(paramList, idx, value);
+            }
+        }
+    }
 
     @Override
     public boolean isQueryComparable() {
@@ -23,9 +23,13 @@ import java.util.Map;
 import java.util.Properties;
 import java.util.ServiceLoader;
 import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
+import com.openddal.command.PlanCache;
 import com.openddal.config.Configuration;
 import com.openddal.config.SequenceRule;
 import com.openddal.config.TableRule;
@@ -40,6 +44,7 @@ import com.openddal.dbobject.table.TableMate;
 import com.openddal.engine.spi.Repository;
 import com.openddal.executor.ExecutorFactory;
 import com.openddal.executor.ExecutorFactoryImpl;
+import com.openddal.executor.WorkerExecutor;
 import com.openddal.message.DbException;
 import com.openddal.message.ErrorCode;
 import com.openddal.message.Trace;
@@ -80,25 +85,34 @@ public class Database {
     private Mode mode = Mode.getInstance(Mode.REGULAR);
     private int maxMemoryRows = SysProperties.MAX_MEMORY_ROWS;
     private int maxOperationMemory = Constants.DEFAULT_MAX_OPERATION_MEMORY;
-    private boolean queryStatistics;
+    private volatile boolean queryStatistics;
     private int queryStatisticsMaxEntries = Constants.QUERY_STATISTICS_MAX_ENTRIES;
-    private QueryStatisticsData queryStatisticsData;
+    private volatile QueryStatisticsData queryStatisticsData;
     private RoutingHandler routingHandler;
     private final ThreadPoolExecutor queryExecutor;
+    private ScheduledExecutorService statisticsExecutor;
+    private MetaDataLoader metaDataLoader;
+    private final WorkerExecutor workerExecutor;
     private final Repository repository;
     private final ExecutorFactory executorFactory;
     private final Configuration configuration;
+    private final AtomicLong modificationMetaId = new AtomicLong();
+    private final PlanCache planCache;
 
     public Database(Configuration configuration) {
         this.configuration = configuration;
         this.compareMode = CompareMode.getInstance(null, 0);
         this.dbSettings = getDbSettings(configuration.settings);
+        this.planCache = dbSettings.planCacheSize > 0 ? new PlanCache(dbSettings.planCacheSize) : null;
+        this.queryStatistics = dbSettings.queryStatistics;
 
         this.mode = Mode.getInstance(dbSettings.sqlMode);
         this.traceSystem = new TraceSystem();
         this.trace = traceSystem.getTrace(Trace.DATABASE);
 
         this.queryExecutor = createQueryExecutor();
+        this.workerExecutor = WorkerExecutor.getInstance(dbSettings.executorMode, queryExecutor,
+                dbSettings.shardExecutorThreads, dbSettings.shardExecutorQueueSize, trace);
         this.repository = bindRepository();
         this.executorFactory = new ExecutorFactoryImpl();
         openDatabase();
@@ -144,38 +158,71 @@ public class Database {
         schemas.put(mainSchema.getName(), mainSchema);
         schemas.put(infoSchema.getName(), infoSchema);
 
-        Session sysSession = createSession(systemUser);
-        try {
-            for (TableRule tableRule : configuration.tableRules) {
-                TableMate tableMate = repository.loadMataData(mainSchema, tableRule);
-                tableMate.loadMataData(sysSession);
-                if (configuration.forceLoadTableMate) {
-                    tableMate.check();
-                }
-                this.addSchemaObject(tableMate);
+        ArrayList<TableMate> tableMates = New.arrayList();
+        for (TableRule tableRule : configuration.tableRules) {
+            tableMates.add(repository.loadMataData(mainSchema, tableRule));
+        }
+        metaDataLoader = new MetaDataLoader(this, systemUser);
+        metaDataLoader.load(tableMates);
+        for (TableMate tableMate : tableMates) {
+            if (configuration.forceLoadTableMate) {
+                tableMate.check();
             }
+            this.addSchemaObject(tableMate);
+        }
 
-            for (int type = 0, count = MetaTable.getMetaTableTypeCount(); type < count; type++) {
-                MetaTable m = new MetaTable(infoSchema, type);
-                infoSchema.add(m);
-            }
+        for (int type = 0, count = MetaTable.getMetaTableTypeCount(); type < count; type++) {
+            MetaTable m = new MetaTable(infoSchema, type);
+            infoSchema.add(m);
+        }
 
-            /*
-             * for (TableRule tableRule : tableMates) { String identifier =
-             * tableRule.getName(); identifier = identifier(identifier); Index
-             * index = new Index(getTableOrViewByName(name), identifier,
-             * newIndexColumns, newIndexType); this.addSchemaObject(index); }
-             */
+        /*
+         * for (TableRule tableRule : tableMates) { String identifier =
+         * tableRule.getName(); identifier = identifier(identifier); Index
+         * index = new Index(getTableOrViewByName(name), identifier,
+         * newIndexColumns, newIndexType); this.addSchemaObject(index); }
+         */
 
-            for (SequenceRule config : configuration.sequnces) {
-                Sequence sequence = repository.loadMataData(mainSchema, config);
-                this.addSchemaObject(sequence);
-            }
+        for (SequenceRule config : configuration.sequnces) {
+            Sequence sequence = repository.loadMataData(mainSchema, config);
+            this.addSchemaObject(sequence);
+        }
 
-        } finally {
-            sysSession.close();
+        int interval = dbSettings.statisticsRefreshInterval;
+        if (interval > 0) {
+            statisticsExecutor = Executors.newSingleThreadScheduledExecutor(
+                    Threads.newThreadFactory("ddal-statistics"));
+            statisticsExecutor.scheduleWithFixedDelay(new Runnable() {
+                @Override
+                public void run() {
+                    refreshStatistics();
+                }
+            }, interval, interval, TimeUnit.MILLISECONDS);
         }
+    }
 
+    /**
+     * Read the statistics of all tables. If the statistics of a table were
+     * read for the first time or changed a lot, the plans are compiled again,
+     * once for all tables.
+     */
+    void refreshStatistics() {
+        boolean changed = false;
+        for (Table t : getAllTablesAndViews()) {
+            if (closing) {
+                return;
+            }
+            if (t instanceof TableMate && ((TableMate) t).isInited()) {
+                try {
+                    changed |= ((TableMate) t).analyze(false);
+                } catch (Throwable e) {
+                    trace.debug("Fail to read {0} statistics. error: {1}", t.getName(), e.toString());
+                }
+            }
+        }
+        if (changed) {
+            incrementModificationMetaId();
+        }
     }
     
     public DbSettings getDbSettings(Properties setting) {
@@ -262,6 +309,7 @@ public class Database {
      */
     public synchronized void addSchemaObject(SchemaObject obj) {
         obj.getSchema().add(obj);
+        incrementModificationMetaId();
         // trace.debug("addSchemaObject: {0}", obj.getCreateSQL());
     }
 
@@ -277,6 +325,7 @@ public class Database {
             DbException.throwInternalError("object already exists");
         }
         map.put(name, obj);
+        incrementModificationMetaId();
     }
 
     /**
@@ -369,7 +418,14 @@ public class Database {
                 }
             }
         }
+        if (statisticsExecutor != null) {
+            statisticsExecutor.shutdownNow();
+        }
+        if (metaDataLoader != null) {
+            metaDataLoader.close(1000);
+        }
         repository.close();
+        workerExecutor.close();
         if (queryExecutor != null) {
             Threads.shutdownGracefully(queryExecutor, 1000, 1000, TimeUnit.MILLISECONDS);
         }
@@ -381,10 +437,14 @@ public class Database {
      *
      * @return the id
      */
-    public synchronized int allocateObjectId() {
-        int i = objectIds.nextClearBit(0);
-        objectIds.set(i);
-        return i;
+    public int allocateObjectId() {
+        // not synchronized on the database, the meta data of the tables is
+        // read in parallel while the database is opened
+        synchronized (objectIds) {
+            int i = objectIds.nextClearBit(0);
+            objectIds.set(i);
+            return i;
+        }
     }
 
     public int getAllowLiterals() {
@@ -491,6 +551,7 @@ public class Database {
      */
     public synchronized void renameSchemaObject(Session session, SchemaObject obj, String newName) {
         obj.getSchema().rename(obj, newName);
+        incrementModificationMetaId();
     }
 
     /**
@@ -515,6 +576,7 @@ public class Database {
         map.remove(obj.getName());
         obj.rename(newName);
         map.put(newName, obj);
+        incrementModificationMetaId();
     }
 
     /**
@@ -546,6 +608,7 @@ public class Database {
             DbException.throwInternalError("not found: " + objName);
         }
         map.remove(objName);
+        incrementModificationMetaId();
     }
 
     /**
@@ -564,6 +627,7 @@ public class Database {
             }
         }
         obj.getSchema().remove(obj);
+        incrementModificationMetaId();
     }
 
     public TraceSystem getTraceSystem() {
@@ -641,6 +705,33 @@ public class Database {
         }
     }
 
+    /**
+     * Get the current meta data modification id. It is incremented whenever
+     * a schema object is added, renamed or removed, or the meta data of a
+     * table is reloaded, so statements prepared before that are re-compiled.
+     *
+     * @return the modification id
+     */
+    public long getModificationMetaId() {
+        return modificationMetaId.get();
+    }
+
+    /**
+     * Increment the meta data modification id.
+     */
+    public void incrementModificationMetaId() {
+        modificationMetaId.incrementAndGet();
+    }
+
+    /**
+     * Get the plan cache shared by all sessions.
+     *
+     * @return the plan cache, or null if it is disabled
+     */
+    public PlanCache getPlanCache() {
+        return planCache;
+    }
+
     public QueryStatisticsData getQueryStatisticsData() {
         if (!queryStatistics) {
             return null;
@@ -714,6 +805,10 @@ public class Database {
         return queryExecutor;
     }
 
+    public WorkerExecutor getWorkerExecutor() {
+        return workerExecutor;
+    }
+
     public ExecutorFactory getExecutorFactory() {
         return executorFactory;
     }
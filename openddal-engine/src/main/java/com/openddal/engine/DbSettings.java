@@ -52,6 +52,75 @@ public class DbSettings extends SettingsBase {
      */
     public final int analyzeSample = get("ANALYZE_SAMPLE", 10000);
 
+    /**
+     * Database setting <code>CIRCUIT_BREAKER_FAILURE_RATE</code> (default:
+     * 50).<br />
+     * The percentage of failed requests of a data source, as a moving
+     * average, at which no more requests are sent to it, if the shard has
+     * other data sources. Only failures that show that the data source is not
+     * reachable or overloaded are counted. Set to 0 to disable.
+     */
+    public final int circuitBreakerFailureRate = get("CIRCUIT_BREAKER_FAILURE_RATE", 50);
+
+    /**
+     * Database setting <code>CIRCUIT_BREAKER_OPEN_TIME</code> (default:
+     * 1000).<br />
+     * The time in milliseconds after which a data source that failed is
+     * tried again. It is doubled each time the data source fails again, up
+     * to 32 times, and reduced by a random amount of up to half.
+     */
+    public final int circuitBreakerOpenTime = get("CIRCUIT_BREAKER_OPEN_TIME", 1000);
+
+    /**
+     * Database setting <code>CIRCUIT_BREAKER_SLOW_CALL_TIME</code> (default:
+     * 0).<br />
+     * The response time in milliseconds above which a request is counted as
+     * failed by the circuit breaker. The default is 0, meaning only errors
+     * are counted.
+     */
+    public final int circuitBreakerSlowCallTime = get("CIRCUIT_BREAKER_SLOW_CALL_TIME", 0);
+
+    /**
+     * Database setting <code>CONNECTION_POOL_SIZE</code> (default: 0).<br />
+     * The maximum number of connections of each data source, if the
+     * connections are pooled by the database. Set this if the data sources
+     * are not pooled themselves. The default is 0, meaning the connections
+     * are opened and closed by the data sources.
+     */
+    public final int connectionPoolSize = get("CONNECTION_POOL_SIZE", 0);
+
+    /**
+     * Database setting <code>CONNECTION_POOL_MIN_IDLE</code> (default: 2).<br />
+     * The number of connections of a pooled data source that are opened when
+     * the database is opened, and kept open when they are not used.
+     */
+    public final int connectionPoolMinIdle = get("CONNECTION_POOL_MIN_IDLE", 2);
+
+    /**
+     * Database setting <code>CONNECTION_POOL_MAX_WAIT</code> (default:
+     * 5000).<br />
+     * The maximum time in milliseconds to wait for a connection of a pooled
+     * data source if all connections are in use.
+     */
+    public final int connectionPoolMaxWait = get("CONNECTION_POOL_MAX_WAIT", 5000);
+
+    /**
+     * Database setting <code>CONNECTION_POOL_IDLE_TIMEOUT</code> (default:
+     * 600000).<br />
+     * The time in milliseconds after which a connection of a pooled data
+     * source that is not used is closed, if more than the minimum number of
+     * connections are open.
+     */
+    public final int connectionPoolIdleTimeout = get("CONNECTION_POOL_IDLE_TIMEOUT", 600000);
+
+    /**
+     * Database setting <code>CONNECTION_POOL_VALIDATION_INTERVAL</code>
+     * (default: 30000).<br />
+     * The time in milliseconds after which a connection of a pooled data
+     * source that is not used is validated with the validation query.
+     */
+    public final int connectionPoolValidationInterval = get("CONNECTION_POOL_VALIDATION_INTERVAL", 30000);
+
     /**
      * Database setting <code>DATABASE_TO_UPPER</code> (default: true).<br />
      * Database short names are converted to uppercase for the DATABASE()
@@ -87,11 +156,77 @@ public class DbSettings extends SettingsBase {
      */
     public final int estimatedFunctionTableRows = get(
             "ESTIMATED_FUNCTION_TABLE_ROWS", 1000);
+    /**
+     * Database setting <code>EXECUTOR_MODE</code> (default: SHARED).<br />
+     * How the statements on several table nodes are executed:
+     * <code>SHARED</code> (on the query executor of the database, in the
+     * order they are submitted; the number of shards is not used),
+     * <code>BULKHEAD</code> (each shard has its own thread pool, see
+     * <code>SHARD_EXECUTOR_THREADS</code> and
+     * <code>SHARD_EXECUTOR_QUEUE_SIZE</code>; waiting statements on fewer
+     * shards run first, but pass the others for at most one second), or
+     * <code>VIRTUAL</code> (on virtual threads, if supported by the Java
+     * runtime).
+     */
+    public final String executorMode = get("EXECUTOR_MODE", "SHARED");
+    /**
+     * Database setting <code>HASH_JOIN_THRESHOLD</code> (default: 1000).<br />
+     * The number of rows of the first table of a query that are joined to a
+     * sharded table in batches (see <code>JOIN_BATCH_SIZE</code>), before the
+     * rest of the join is run as a hash join. The hash join fetches the
+     * joined table once from all shards, so it is only used if the joined
+     * table is estimated to have fewer rows than the first table. Set to 0 to
+     * disable hash joins.
+     */
+    public final int hashJoinThreshold = get("HASH_JOIN_THRESHOLD", 1000);
+    /**
+     * Database setting <code>HASH_JOIN_MAX_MEMORY</code> (default: 65536).<br />
+     * The maximum memory in KB used by the rows of the joined table of a hash
+     * join. If the rows need more, the rows of both tables are written to 16
+     * temporary partition files by the hash of the join key, and the
+     * partitions are joined one after the other.
+     */
+    public final int hashJoinMaxMemory = get("HASH_JOIN_MAX_MEMORY", 64 * 1024);
+    /**
+     * Database setting <code>JOIN_BATCH_SIZE</code> (default: 100).<br />
+     * The number of rows of the outer table that are joined to a sharded
+     * table at once, if the tables are joined on an equality condition and
+     * the join can not be run by the shards. The join keys of these rows are
+     * sent to the shards in one IN(..) condition, instead of one query for
+     * each row. Set to 1 to disable batching.
+     */
+    public final int joinBatchSize = get("JOIN_BATCH_SIZE", 100);
+    /**
+     * Database setting <code>LOAD_BALANCE</code> (default: WEIGHTED_RANDOM).<br />
+     * How a connection of a shard with several data sources selects the
+     * data source: <code>WEIGHTED_RANDOM</code> (at random, by weight),
+     * <code>LEAST_OUTSTANDING</code> (the one with the fewest requests in
+     * progress), or <code>PEAK_EWMA</code> (the one with the lowest moving
+     * average of the response times, multiplied by the requests in progress
+     * and divided by the rate of the successful requests). The weights of the
+     * data sources are applied to all of them.
+     */
+    public final String loadBalance = get("LOAD_BALANCE", "WEIGHTED_RANDOM");
     /**
      * Database setting <code>MAX_COMPACT_TIME</code> (default: 200).<br />
      * The maximum time in milliseconds used to compact a database when closing.
      */
     public final int maxCompactTime = get("MAX_COMPACT_TIME", 200);
+    /**
+     * Database setting <code>METADATA_LOAD_THREADS</code> (default: 4).<br />
+     * The number of tables of one shard whose meta data is read at the same
+     * time when the database is opened. The shards are read in parallel.
+     */
+    public final int metadataLoadThreads = get("METADATA_LOAD_THREADS", 4);
+    /**
+     * Database setting <code>METADATA_SNAPSHOT</code> (default: null).<br />
+     * The file name of the meta data snapshot. If set, the meta data of the
+     * tables is written to this file, and read from it when the database is
+     * opened. The meta data is then read from the shards in the background.
+     * The snapshot of a table is not used if the table nodes or the sharding
+     * columns of the table changed.
+     */
+    public final String metadataSnapshot = get("METADATA_SNAPSHOT", null);
     /**
      * Database setting <code>NESTED_JOINS</code> (default: true).<br />
      * Whether nested joins should be supported.
@@ -160,30 +295,95 @@ public class DbSettings extends SettingsBase {
      */
     public final boolean optimizeUpdate = get("OPTIMIZE_UPDATE", true);
     /**
-     * Database setting <code>QUERY_CACHE_SIZE</code> (default: 8).<br />
-     * The size of the query cache, in number of cached statements. Each session
-     * has it's own cache with the given size. The cache is only used if the SQL
-     * statement and all parameters match. Only the last returned result per
-     * query is cached. The following statement types are cached: SELECT
-     * statements are cached (excluding UNION and FOR UPDATE statements), CALL
-     * if it returns a single value, DELETE, INSERT, MERGE, UPDATE, and
-     * transactional statements such as COMMIT. This works for both statements
-     * and prepared statement.
+     * Database setting <code>PLAN_CACHE_SIZE</code> (default: 1024).<br />
+     * The size of the plan cache, in number of cached statements. The cache
+     * is shared by all sessions and keyed by the SQL statement, the current
+     * schema, the schema search path and whether literals are allowed, so a
+     * statement only needs to be parsed and optimized once. Cached
+     * statements are re-compiled after the meta data changed. The
+     * following statement types are cached: SELECT statements (excluding FOR
+     * UPDATE statements), CALL if it returns a single value, DELETE, INSERT,
+     * MERGE, UPDATE, and transactional statements such as COMMIT. Set to 0 to
+     * disable the cache.
+     */
+    public final int planCacheSize = get("PLAN_CACHE_SIZE", 1024);
+    /**
+     * Database setting <code>QUERY_STATISTICS</code> (default: false).<br />
+     * Collect the latencies of each statement and of each phase of the
+     * execution, see INFORMATION_SCHEMA.QUERY_STATISTICS and
+     * INFORMATION_SCHEMA.QUERY_PHASE_STATISTICS. It can be changed with
+     * <code>SET QUERY_STATISTICS</code>.
      */
-    public final int queryCacheSize = get("QUERY_CACHE_SIZE", 8); 
+    public final boolean queryStatistics = get("QUERY_STATISTICS", false);
     /**
      * Database setting <code>ROWID</code> (default: true).<br />
      * If set, each table has a pseudo-column _ROWID_.
      */
     public final boolean rowId = get("ROWID", true);
+    /**
+     * Database setting <code>SHARD_EXECUTOR_THREADS</code> (default: 16).<br />
+     * The number of threads of each shard if the <code>EXECUTOR_MODE</code>
+     * is <code>BULKHEAD</code>.
+     */
+    public final int shardExecutorThreads = get("SHARD_EXECUTOR_THREADS", 16);
+    /**
+     * Database setting <code>SHARD_EXECUTOR_QUEUE_SIZE</code> (default:
+     * 1024).<br />
+     * The maximum number of statements waiting for the threads of a shard if
+     * the <code>EXECUTOR_MODE</code> is <code>BULKHEAD</code>. A statement
+     * that would exceed it fails with the error code 90146.
+     */
+    public final int shardExecutorQueueSize = get("SHARD_EXECUTOR_QUEUE_SIZE", 1024);
     /**
      * Database setting <code>SQL_MODE</code> (default: REGULAR).<br />
      */
     public final String sqlMode = get("SQL_MODE", Mode.REGULAR);
+    /**
+     * Database setting <code>SQL_TEMPLATE_CACHE_SIZE</code> (default: 64).<br />
+     * The number of translated SQL statements kept for each prepared
+     * statement, one for each table node the statement was sent to. If a
+     * statement is executed again, only the parameter values are read again.
+     * The cached statements are removed after the meta data changed. Set to 0
+     * to translate each statement again.
+     */
+    public final int sqlTemplateCacheSize = get("SQL_TEMPLATE_CACHE_SIZE", 64);
+    /**
+     * Database setting <code>STATISTICS_REFRESH_INTERVAL</code>
+     * (default: 600000).<br />
+     * The time in milliseconds after which the statistics of a table are read
+     * again from the shards. The row counts and index cardinalities are used
+     * to estimate the cost of a query plan. They are first read one interval
+     * after the database is opened, or earlier with the ANALYZE statement.
+     * Set to 0 to only read them with the ANALYZE statement.
+     */
+    public final int statisticsRefreshInterval = get("STATISTICS_REFRESH_INTERVAL", 600000);
+    /**
+     * Database setting <code>TRANSACTION_LOG</code>
+     * (default: openddal-tx.log).<br />
+     * The file name of the log of the two-phase commits, used if the
+     * transaction mode is <code>XA_2PC</code>.
+     */
+    public final String transactionLog = get("TRANSACTION_LOG", "openddal-tx.log");
     /**
      * Database setting <code>TRANSACTION_MODE</code> (default: null).<br />
+     * How a transaction uses the shards: <code>STRICTLY</code> (one shard
+     * only), <code>ALLOW_CROSS_SHARD_READ</code> (writes to one shard only),
+     * <code>BESTEFFORTS_1PC</code> (the default, the shards are committed one
+     * phase each), or <code>XA_2PC</code> (the shards are prepared with XA
+     * and then committed, the decision to commit is recorded in the
+     * <code>TRANSACTION_LOG</code>).
      */
     public final String transactionMode = get("TRANSACTION_MODE", null);
+    /**
+     * Database setting <code>VIEW_RESULT_CACHE_ROWS</code>
+     * (default: 10000).<br />
+     * The maximum number of rows of a derived table or view that are kept
+     * in memory until the end of the statement, if the view is joined to
+     * other tables and so read once for each of their rows. Views with more
+     * rows are queried for each row as before. Set to 0 to disable the
+     * cache.
+     */
+    public final int viewResultCacheRows = get("VIEW_RESULT_CACHE_ROWS", 10000);
     /**
      * Database setting <code>MAX_QUERY_TIMEOUT</code> (default: 0).<br />
      * The maximum timeout of a query in milliseconds. The default is 0, meaning
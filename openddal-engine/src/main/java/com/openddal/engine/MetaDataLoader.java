@@ -0,0 +1,277 @@
+/*
+ * Copyright 2014-2016 the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the “License”);
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an “AS IS” BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.openddal.engine;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import com.openddal.dbobject.User;
+import com.openddal.dbobject.table.TableMate;
+import com.openddal.message.DbException;
+import com.openddal.message.Trace;
+import com.openddal.util.FileUtils;
+import com.openddal.util.New;
+import com.openddal.util.SortedProperties;
+import com.openddal.util.Threads;
+
+/**
+ * Reads the meta data of the tables when the database is opened. The tables
+ * are grouped by the shard the meta data is read from. The shards are read in
+ * parallel, and a number of tables of each shard at the same time.
+ * <p>
+ * If a meta data snapshot file is configured, the tables found in the file
+ * are initialized from it, unless the snapshot of a table was written for
+ * another configuration of the table. Their meta data is then read from the
+ * shards in the background, and the file is written again. If the meta data
+ * of such a table can not be read, the meta data of the snapshot is kept.
+ *
+ * @author jorgie.li
+ */
+class MetaDataLoader {
+
+    private final Database database;
+    private final User user;
+    private final Trace trace;
+    private final String snapshotFile;
+    private final int threads;
+    private volatile boolean closed;
+    private Thread refreshThread;
+
+    MetaDataLoader(Database database, User user) {
+        this.database = database;
+        this.user = user;
+        this.trace = database.getTrace(Trace.DATABASE);
+        this.snapshotFile = database.getSettings().metadataSnapshot;
+        this.threads = Math.max(1, database.getSettings().metadataLoadThreads);
+    }
+
+    /**
+     * Initialize the tables, from the snapshot if possible.
+     *
+     * @param tables the tables
+     */
+    void load(final List<TableMate> tables) {
+        SortedProperties snapshot = readSnapshot();
+        final ArrayList<TableMate> fromSnapshot = New.arrayList();
+        ArrayList<TableMate> pending = New.arrayList();
+        for (TableMate table : tables) {
+            String s = snapshot == null ? null : snapshot.getProperty(table.getName());
+            if (s != null && loadSnapshot(table, s)) {
+                fromSnapshot.add(table);
+            } else {
+                pending.add(table);
+            }
+        }
+        loadParallel(pending, false);
+        if (fromSnapshot.isEmpty()) {
+            writeSnapshot(tables);
+            return;
+        }
+        trace.info("{0} tables were loaded from the meta data snapshot {1}", fromSnapshot.size(), snapshotFile);
+        Thread thread = Threads.newThreadFactory("ddal-metadata-refresh").newThread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    loadParallel(fromSnapshot, true);
+                    if (!closed) {
+                        writeSnapshot(tables);
+                    }
+                } catch (Throwable e) {
+                    if (!closed) {
+                        trace.error(e, "refresh the meta data error");
+                    }
+                }
+            }
+        });
+        thread.setDaemon(true);
+        refreshThread = thread;
+        thread.start();
+    }
+
+    /**
+     * Stop refreshing the meta data of the tables that were loaded from the
+     * snapshot. The tables that are not refreshed yet are skipped, and the
+     * snapshot is not written.
+     *
+     * @param timeout the time in milliseconds to wait for the refresh thread
+     */
+    void close(long timeout) {
+        closed = true;
+        Thread thread = refreshThread;
+        if (thread == null) {
+            return;
+        }
+        thread.interrupt();
+        try {
+            thread.join(timeout);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Read the meta data of the tables. Each task uses its own session. The
+     * sessions are created by the calling thread, as the database may be
+     * locked while it is opened.
+     *
+     * @param tables the tables
+     * @param refresh whether the tables were initialized already, if so the
+     *            meta data is kept if it can not be read
+     */
+    private void loadParallel(List<TableMate> tables, boolean refresh) {
+        LinkedHashMap<String, ArrayList<TableMate>> shards = New.linkedHashMap();
+        for (TableMate table : tables) {
+            String shardName = table.getTableRule().getMetadataNode().getShardName();
+            ArrayList<TableMate> list = shards.get(shardName);
+            if (list == null) {
+                list = New.arrayList();
+                shards.put(shardName, list);
+            }
+            list.add(table);
+        }
+        ArrayList<Callable<Void>> tasks = New.arrayList();
+        ArrayList<Session> sessions = New.arrayList();
+        try {
+            createTasks(shards, refresh, tasks, sessions);
+            runTasks(tasks);
+        } finally {
+            for (Session session : sessions) {
+                session.close();
+            }
+        }
+    }
+
+    private void createTasks(LinkedHashMap<String, ArrayList<TableMate>> shards, final boolean refresh,
+            ArrayList<Callable<Void>> tasks, ArrayList<Session> sessions) {
+        for (ArrayList<TableMate> list : shards.values()) {
+            int count = Math.min(threads, list.size());
+            for (int i = 0; i < count; i++) {
+                final ArrayList<TableMate> part = New.arrayList();
+                for (int j = i; j < list.size(); j += count) {
+                    part.add(list.get(j));
+                }
+                final Session session = database.createSession(user);
+                sessions.add(session);
+                tasks.add(new Callable<Void>() {
+                    @Override
+                    public Void call() {
+                        for (TableMate table : part) {
+                            if (closed) {
+                                break;
+                            }
+                            if (refresh) {
+                                refresh(table, session);
+                            } else {
+                                table.loadMataData(session);
+                            }
+                        }
+                        return null;
+                    }
+                });
+            }
+        }
+    }
+
+    private void runTasks(ArrayList<Callable<Void>> tasks) {
+        if (tasks.isEmpty()) {
+            return;
+        } else if (tasks.size() == 1) {
+            try {
+                tasks.get(0).call();
+            } catch (Exception e) {
+                throw DbException.convert(e);
+            }
+            return;
+        }
+        int poolSize = Math.min(tasks.size(), SysProperties.THREAD_POOL_SIZE_MAX);
+        ExecutorService pool = Executors.newFixedThreadPool(poolSize,
+                Threads.newThreadFactory("ddal-metadata-loader"));
+        try {
+            for (Future<Void> future : pool.invokeAll(tasks)) {
+                future.get();
+            }
+        } catch (InterruptedException e) {
+            throw DbException.convert(e);
+        } catch (ExecutionException e) {
+            throw DbException.convert(e.getCause());
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    private void refresh(TableMate table, Session session) {
+        try {
+            table.refreshMataData(session);
+        } catch (DbException e) {
+            // keep the meta data of the snapshot
+            trace.error(e, "refresh {0} meta data error", table.getName());
+        }
+    }
+
+    private boolean loadSnapshot(TableMate table, String snapshot) {
+        try {
+            if (!table.loadMataDataSnapshot(snapshot)) {
+                trace.info("the meta data snapshot of {0} does not match the configuration", table.getName());
+                return false;
+            }
+            return true;
+        } catch (RuntimeException e) {
+            // the meta data is read from the shard
+            trace.error(e, "load {0} from the meta data snapshot error", table.getName());
+            return false;
+        }
+    }
+
+    private SortedProperties readSnapshot() {
+        if (snapshotFile == null || !FileUtils.exists(snapshotFile)) {
+            return null;
+        }
+        try {
+            return SortedProperties.loadProperties(snapshotFile);
+        } catch (IOException e) {
+            trace.error(e, "read the meta data snapshot {0} error", snapshotFile);
+            return null;
+        }
+    }
+
+    private void writeSnapshot(List<TableMate> tables) {
+        if (snapshotFile == null) {
+            return;
+        }
+        SortedProperties prop = new SortedProperties();
+        for (TableMate table : tables) {
+            String s = table.getMataDataSnapshot();
+            if (s != null) {
+                prop.setProperty(table.getName(), s);
+            }
+        }
+        String tempName = snapshotFile + ".tmp";
+        try {
+            prop.store(tempName);
+            FileUtils.moveAtomicReplace(tempName, snapshotFile);
+        } catch (IOException e) {
+            trace.error(e, "write the meta data snapshot {0} error", snapshotFile);
+        }
+    }
+
+}
@@ -8,17 +8,50 @@ package com.openddal.engine;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
-import java.util.HashMap;
-import java.util.HashSet;
-import java.util.Iterator;
 import java.util.List;
-import java.util.Map.Entry;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import com.openddal.util.LatencyHistogram;
+import com.openddal.util.StripedLongArray;
 
 /**
- * Maintains query statistics.
+ * Maintains query statistics. The statistics are kept per statement, where
+ * the literals of the statement are replaced by parameters, and per phase of
+ * the execution. They are updated without locking.
  */
 public class QueryStatisticsData {
 
+    /**
+     * The phase in which a statement is parsed and prepared, or looked up in
+     * the plan cache.
+     */
+    public static final String PARSE = "PARSE";
+
+    /**
+     * The phase in which the table nodes of a statement are computed.
+     */
+    public static final String ROUTE = "ROUTE";
+
+    /**
+     * The phase in which a statement is executed on a shard, until the
+     * response is received. It is recorded per shard.
+     */
+    public static final String EXECUTE = "EXECUTE";
+
+    /**
+     * The time of a statement not spent waiting for the shards or writing
+     * the result to the client: merging, sorting and grouping the results.
+     */
+    public static final String MERGE = "MERGE";
+
+    /**
+     * The phase in which the result is written to the client.
+     */
+    public static final String ENCODE = "ENCODE";
+
     private static final Comparator<QueryEntry> QUERY_ENTRY_COMPARATOR =
             new Comparator<QueryEntry>() {
         @Override
@@ -27,20 +60,29 @@ public class QueryStatisticsData {
         }
     };
 
-    private final HashMap<String, QueryEntry> map =
-            new HashMap<String, QueryEntry>();
+    /**
+     * The number of stripes of the histograms and the statistics of a
+     * statement, which are updated by the threads of all sessions.
+     */
+    private static final int HISTOGRAM_STRIPES = 8;
+
+    private final ConcurrentHashMap<String, QueryEntry> map =
+            new ConcurrentHashMap<String, QueryEntry>();
+    private final ConcurrentHashMap<String, LatencyHistogram> phases =
+            new ConcurrentHashMap<String, LatencyHistogram>();
+    private final AtomicBoolean trimming = new AtomicBoolean();
 
-    private int maxQueryEntries;
+    private volatile int maxQueryEntries;
 
     public QueryStatisticsData(int maxQueryEntries) {
         this.maxQueryEntries = maxQueryEntries;
     }
 
-    public synchronized void setMaxQueryEntries(int maxQueryEntries) {
+    public void setMaxQueryEntries(int maxQueryEntries) {
         this.maxQueryEntries = maxQueryEntries;
     }
 
-    public synchronized List<QueryEntry> getQueries() {
+    public List<QueryEntry> getQueries() {
         // return a copy of the map so we don't have to
         // worry about external synchronization
         ArrayList<QueryEntry> list = new ArrayList<QueryEntry>();
@@ -50,44 +92,126 @@ public class QueryStatisticsData {
         return list.subList(0, Math.min(list.size(), maxQueryEntries));
     }
 
+    /**
+     * Get the histograms of the phases, keyed by the phase name, followed by
+     * a colon and the shard name for the phases of a shard.
+     *
+     * @return the histograms, sorted by key
+     */
+    public Map<String, LatencyHistogram> getPhases() {
+        return new TreeMap<String, LatencyHistogram>(phases);
+    }
+
     /**
      * Update query statistics.
      *
      * @param sqlStatement the statement being executed
-     * @param executionTime the time in milliseconds the query/update took to
+     * @param executionNanos the time in nanoseconds the query/update took to
      *            execute
      * @param rowCount the query or update row count
      */
-    public synchronized void update(String sqlStatement, long executionTime,
-            int rowCount) {
-        QueryEntry entry = map.get(sqlStatement);
+    public void update(String sqlStatement, long executionNanos, int rowCount) {
+        String key = normalize(sqlStatement);
+        QueryEntry entry = map.get(key);
         if (entry == null) {
-            entry = new QueryEntry();
-            entry.sqlStatement = sqlStatement;
-            map.put(sqlStatement, entry);
+            entry = new QueryEntry(key);
+            QueryEntry old = map.putIfAbsent(key, entry);
+            if (old != null) {
+                entry = old;
+            }
         }
-        entry.update(executionTime, rowCount);
+        entry.update(executionNanos, rowCount);
 
         // Age-out the oldest entries if the map gets too big.
         // Test against 1.5 x max-size so we don't do this too often
-        if (map.size() > maxQueryEntries * 1.5f) {
-            // Sort the entries by age
-            ArrayList<QueryEntry> list = new ArrayList<QueryEntry>();
-            list.addAll(map.values());
-            Collections.sort(list, QUERY_ENTRY_COMPARATOR);
-            // Create a set of the oldest 1/3 of the entries
-            HashSet<QueryEntry> oldestSet =
-                    new HashSet<QueryEntry>(list.subList(0, list.size() / 3));
-            // Loop over the map using the set and remove
-            // the oldest 1/3 of the entries.
-            for (Iterator<Entry<String, QueryEntry>> it =
-                    map.entrySet().iterator(); it.hasNext();) {
-                Entry<String, QueryEntry> mapEntry = it.next();
-                if (oldestSet.contains(mapEntry.getValue())) {
-                    it.remove();
+        if (map.size() > maxQueryEntries * 1.5f && trimming.compareAndSet(false, true)) {
+            try {
+                // Sort the entries by age
+                ArrayList<QueryEntry> list = new ArrayList<QueryEntry>();
+                list.addAll(map.values());
+                Collections.sort(list, QUERY_ENTRY_COMPARATOR);
+                // remove the oldest 1/3 of the entries
+                for (QueryEntry e : list.subList(0, list.size() / 3)) {
+                    map.remove(e.sqlStatement, e);
+                }
+            } finally {
+                trimming.set(false);
+            }
+        }
+    }
+
+    /**
+     * Add the time of a phase of a statement.
+     *
+     * @param phase the phase
+     * @param shardName the shard name, or null if the phase is not executed
+     *            on a shard
+     * @param nanos the time in nanoseconds
+     */
+    public void recordPhase(String phase, String shardName, long nanos) {
+        String key = shardName == null ? phase : phase + ":" + shardName;
+        LatencyHistogram histogram = phases.get(key);
+        if (histogram == null) {
+            histogram = new LatencyHistogram(HISTOGRAM_STRIPES);
+            LatencyHistogram old = phases.putIfAbsent(key, histogram);
+            if (old != null) {
+                histogram = old;
+            }
+        }
+        histogram.record(nanos);
+    }
+
+    /**
+     * Replace the string and number literals of a statement with parameters,
+     * so that the statements that only differ in the literals share the
+     * statistics.
+     *
+     * @param sql the statement
+     * @return the normalized statement
+     */
+    static String normalize(String sql) {
+        int len = sql.length();
+        StringBuilder buff = null;
+        int i = 0;
+        while (i < len) {
+            char c = sql.charAt(i);
+            int end = i;
+            if (c == '\'') {
+                end = i + 1;
+                while (end < len) {
+                    if (sql.charAt(end++) == '\'') {
+                        if (end < len && sql.charAt(end) == '\'') {
+                            end++;
+                        } else {
+                            break;
+                        }
+                    }
+                }
+            } else if (c >= '0' && c <= '9' && (i == 0 || !isIdentifierPart(sql.charAt(i - 1)))) {
+                end = i + 1;
+                while (end < len && (isIdentifierPart(sql.charAt(end)) || sql.charAt(end) == '.')) {
+                    end++;
+                }
+            }
+            if (end > i) {
+                if (buff == null) {
+                    buff = new StringBuilder(len);
+                    buff.append(sql, 0, i);
                 }
+                buff.append('?');
+                i = end;
+            } else {
+                if (buff != null) {
+                    buff.append(c);
+                }
+                i++;
             }
         }
+        return buff == null ? sql : buff.toString();
+    }
+
+    private static boolean isIdentifierPart(char c) {
+        return Character.isLetterOrDigit(c) || c == '_' || c == '$';
     }
 
     /**
@@ -98,101 +222,153 @@ public class QueryStatisticsData {
         /**
          * The SQL statement.
          */
-        public String sqlStatement;
-
-        /**
-         * The number of times the statement was executed.
-         */
-        public int count;
+        final String sqlStatement;
 
         /**
          * The last time the statistics for this entry were updated,
          * in milliseconds since 1970.
          */
-        public long lastUpdateTime;
+        volatile long lastUpdateTime;
 
-        /**
-         * The minimum execution time, in milliseconds.
-         */
-        public long executionTimeMin;
+        private static final int EXECUTION_TIME_MIN = 0;
+        private static final int EXECUTION_TIME_SQUARES = 1;
+        private static final int ROW_COUNT_MIN = 2;
+        private static final int ROW_COUNT_MAX = 3;
+        private static final int ROW_COUNT_CUMULATIVE = 4;
+        private static final int ROW_COUNT_SQUARES = 5;
+
+        private final LatencyHistogram executionTime = new LatencyHistogram(HISTOGRAM_STRIPES);
 
         /**
-         * The maximum execution time, in milliseconds.
+         * The other statistics, in the stripes of the updating threads.
          */
-        public long executionTimeMax;
+        private final StripedLongArray values = new StripedLongArray(HISTOGRAM_STRIPES,
+                Long.MAX_VALUE, 0, Long.MAX_VALUE, Long.MIN_VALUE, 0, 0);
+
+        QueryEntry(String sqlStatement) {
+            this.sqlStatement = sqlStatement;
+        }
 
         /**
-         * The total execution time.
+         * Update the statistics entry.
+         *
+         * @param nanos the execution time in nanoseconds
+         * @param rows the number of rows
          */
-        public long executionTimeCumulative;
+        void update(long nanos, int rows) {
+            executionTime.record(nanos);
+            double ms = nanos / 1000000d;
+            values.updateMin(EXECUTION_TIME_MIN, nanos / 1000);
+            values.addDouble(EXECUTION_TIME_SQUARES, ms * ms);
+            values.updateMin(ROW_COUNT_MIN, rows);
+            values.updateMax(ROW_COUNT_MAX, rows);
+            values.add(ROW_COUNT_CUMULATIVE, rows);
+            values.addDouble(ROW_COUNT_SQUARES, (double) rows * rows);
+            // only write the shared field once per millisecond
+            long now = System.currentTimeMillis();
+            if (now != lastUpdateTime) {
+                lastUpdateTime = now;
+            }
+        }
+
+        public String getSqlStatement() {
+            return sqlStatement;
+        }
 
         /**
-         * The minimum number of rows.
+         * Get the number of times the statement was executed.
+         *
+         * @return the count
          */
-        public int rowCountMin;
+        public long getCount() {
+            return executionTime.getCount();
+        }
 
         /**
-         * The maximum number of rows.
+         * Get the minimum execution time.
+         *
+         * @return the time in milliseconds
          */
-        public int rowCountMax;
+        public long getExecutionTimeMin() {
+            long min = values.getMin(EXECUTION_TIME_MIN);
+            return min == Long.MAX_VALUE ? 0 : min / 1000;
+        }
 
         /**
-         * The total number of rows.
+         * Get the maximum execution time.
+         *
+         * @return the time in milliseconds
          */
-        public long rowCountCumulative;
+        public long getExecutionTimeMax() {
+            return executionTime.getMax() / 1000;
+        }
 
         /**
-         * The mean execution time.
+         * Get the total execution time.
+         *
+         * @return the time in milliseconds
          */
-        public double executionTimeMean;
+        public long getExecutionTimeCumulative() {
+            return executionTime.getSum() / 1000;
+        }
 
         /**
-         * The mean number of rows.
+         * Get the mean execution time.
+         *
+         * @return the time in milliseconds
          */
-        public double rowCountMean;
-
-        // Using Welford's method, see also
-        // http://en.wikipedia.org/wiki/Algorithms_for_calculating_variance
-        // http://www.johndcook.com/standard_deviation.html
-
-        private double executionTimeM2;
-        private double rowCountM2;
+        public double getExecutionTimeMean() {
+            long count = getCount();
+            return count == 0 ? 0 : executionTime.getSum() / 1000d / count;
+        }
 
         /**
-         * Update the statistics entry.
+         * Get the execution time below which the given percentage of the
+         * executions fall.
          *
-         * @param time the execution time
-         * @param rows the number of rows
+         * @param percentile the percentile, between 0 and 100
+         * @return the time in milliseconds
          */
-        void update(long time, int rows) {
-            count++;
-            executionTimeMin = Math.min(time, executionTimeMin);
-            executionTimeMax = Math.max(time, executionTimeMax);
-            rowCountMin = Math.min(rows, rowCountMin);
-            rowCountMax = Math.max(rows, rowCountMax);
+        public double getExecutionTimePercentile(double percentile) {
+            return executionTime.getValueAtPercentile(percentile) / 1000d;
+        }
 
-            double delta = rows - rowCountMean;
-            rowCountMean += delta / count;
-            rowCountM2 += delta * (rows - rowCountMean);
+        public double getExecutionTimeStandardDeviation() {
+            // population standard deviation
+            return getStandardDeviation(getCount(), getExecutionTimeMean(),
+                    values.getDoubleSum(EXECUTION_TIME_SQUARES));
+        }
 
-            delta = time - executionTimeMean;
-            executionTimeMean += delta / count;
-            executionTimeM2 += delta * (time - executionTimeMean);
+        public long getRowCountMin() {
+            long min = values.getMin(ROW_COUNT_MIN);
+            return min == Long.MAX_VALUE ? 0 : min;
+        }
 
-            executionTimeCumulative += time;
-            rowCountCumulative += rows;
-            lastUpdateTime = System.currentTimeMillis();
+        public long getRowCountMax() {
+            long max = values.getMax(ROW_COUNT_MAX);
+            return max == Long.MIN_VALUE ? 0 : max;
+        }
 
+        public long getRowCountCumulative() {
+            return values.getSum(ROW_COUNT_CUMULATIVE);
         }
 
-        public double getExecutionTimeStandardDeviation() {
-            // population standard deviation
-            return Math.sqrt(executionTimeM2 / count);
+        public double getRowCountMean() {
+            long count = getCount();
+            return count == 0 ? 0 : (double) getRowCountCumulative() / count;
         }
 
         public double getRowCountStandardDeviation() {
             // population standard deviation
-            return Math.sqrt(rowCountM2 / count);
+            return getStandardDeviation(getCount(), getRowCountMean(),
+                    values.getDoubleSum(ROW_COUNT_SQUARES));
+        }
+
+        private static double getStandardDeviation(long count, double mean, double squares) {
+            if (count == 0) {
+                return 0;
+            }
+            return Math.sqrt(Math.max(0, squares / count - mean * mean));
         }
 
     }
@@ -24,13 +24,16 @@ import java.util.Random;
 import com.openddal.command.Command;
 import com.openddal.command.CommandInterface;
 import com.openddal.command.Parser;
+import com.openddal.command.PlanCache;
 import com.openddal.command.Prepared;
 import com.openddal.dbobject.User;
 import com.openddal.dbobject.index.Index;
 import com.openddal.dbobject.schema.Schema;
 import com.openddal.dbobject.table.Table;
+import com.openddal.dbobject.table.TableView;
 import com.openddal.engine.spi.Transaction;
 import com.openddal.executor.ExecutorFactory;
+import com.openddal.executor.cursor.ViewResultCache;
 import com.openddal.executor.works.WorkerFactory;
 import com.openddal.executor.works.WorkerFactoryProxy;
 import com.openddal.message.DbException;
@@ -39,7 +42,6 @@ import com.openddal.message.Trace;
 import com.openddal.message.TraceSystem;
 import com.openddal.result.LocalResult;
 import com.openddal.util.New;
-import com.openddal.util.SmallLRUCache;
 import com.openddal.value.Value;
 import com.openddal.value.ValueLong;
 import com.openddal.value.ValueNull;
@@ -64,7 +66,6 @@ public class Session implements SessionInterface {
     private final User user;
     private final int id;
     private final long sessionStart = System.currentTimeMillis();
-    private final int queryCacheSize;
     private boolean autoCommit = true;
     private Random random;
     private Value lastIdentity = ValueLong.get(0);
@@ -83,11 +84,12 @@ public class Session implements SessionInterface {
     private boolean closed;
     private long transactionStart;
     private long currentCommandStart;
+    private long waitTime;
+    private HashMap<TableView, ViewResultCache> viewResultCaches;
     private HashMap<String, Value> variables;
     private HashSet<LocalResult> temporaryResults;
     private int queryTimeout;
     private int objectId;
-    private SmallLRUCache<String, Command> queryCache;
     private ArrayList<Value> temporaryLobs;
     private boolean readOnly;
     private int transactionIsolation = Connection.TRANSACTION_READ_COMMITTED;
@@ -99,7 +101,6 @@ public class Session implements SessionInterface {
         this.user = user;
         this.database = database;
         this.queryTimeout = database.getSettings().defaultQueryTimeout;
-        this.queryCacheSize = database.getSettings().queryCacheSize;
         this.currentSchemaName = Constants.SCHEMA_MAIN;
         this.transaction = database.getRepository().newTransaction(this);
         this.workerHolder = new WorkerFactoryProxy(this);
@@ -174,6 +175,15 @@ public class Session implements SessionInterface {
         return localTempTables.get(name);
     }
 
+    /**
+     * Check if this session has local temporary tables.
+     *
+     * @return true if it has
+     */
+    public boolean hasLocalTempTables() {
+        return localTempTables != null && !localTempTables.isEmpty();
+    }
+
     public ArrayList<Table> getLocalTempTables() {
         if (localTempTables == null) {
             return New.arrayList();
@@ -301,34 +311,20 @@ public class Session implements SessionInterface {
         if (closed) {
             throw DbException.get(ErrorCode.CONNECTION_BROKEN_1, "session closed");
         }
-        Command command;
-        if (queryCacheSize > 0) {
-            if (queryCache == null) {
-                queryCache = SmallLRUCache.newInstance(queryCacheSize);
-                // modificationMetaID = database.getModificationMetaId();
-            } else {
-                // ignore table structure modification
-                /*
-                 * long newModificationMetaID =
-                 * database.getModificationMetaId(); if (newModificationMetaID
-                 * != modificationMetaID) { queryCache.clear();
-                 * modificationMetaID = newModificationMetaID; }
-                 */
-                command = queryCache.get(sql);
-                if (command != null && command.canReuse()) {
-                    command.reuse();
-                    return command;
-                }
+        QueryStatisticsData statistics = database.getQueryStatisticsData();
+        long start = statistics == null ? 0 : System.nanoTime();
+        try {
+            PlanCache planCache = database.getPlanCache();
+            if (planCache != null) {
+                return planCache.prepare(this, sql);
             }
-        }
-        Parser parser = new Parser(this);
-        command = parser.prepareCommand(sql);
-        if (queryCache != null) {
-            if (command.isCacheable()) {
-                queryCache.put(sql, command);
+            Parser parser = new Parser(this);
+            return parser.prepareCommand(sql);
+        } finally {
+            if (statistics != null) {
+                statistics.recordPhase(QueryStatisticsData.PARSE, null, System.nanoTime() - start);
             }
         }
-        return command;
     }
 
     public Database getDatabase() {
@@ -695,6 +691,58 @@ public class Session implements SessionInterface {
     public void endStatement() {
         workerHolder.closeWorkers();
         closeTemporaryResults();
+        viewResultCaches = null;
+    }
+
+    /**
+     * Get the rows of a view that are cached for the current statement.
+     *
+     * @param view the view
+     * @return the cache, or null
+     */
+    public ViewResultCache getViewResultCache(TableView view) {
+        return viewResultCaches == null ? null : viewResultCaches.get(view);
+    }
+
+    /**
+     * Cache the rows of a view until the end of the current statement.
+     *
+     * @param view the view
+     * @param cache the cache
+     */
+    public void putViewResultCache(TableView view, ViewResultCache cache) {
+        if (viewResultCaches == null) {
+            viewResultCaches = New.hashMap();
+        }
+        viewResultCaches.put(view, cache);
+    }
+
+    /**
+     * Reset the time the current statement waited, at the start of a
+     * statement.
+     */
+    public void resetWaitTime() {
+        waitTime = 0;
+    }
+
+    /**
+     * Add time the current statement waited for the shards or for writing
+     * the result to the client. It is not counted in the merge phase of the
+     * query statistics.
+     *
+     * @param nanos the time in nanoseconds
+     */
+    public void addWaitTime(long nanos) {
+        waitTime += nanos;
+    }
+
+    /**
+     * Get the time the current statement waited.
+     *
+     * @return the time in nanoseconds
+     */
+    public long getWaitTime() {
+        return waitTime;
     }
 
     @Override
@@ -65,7 +65,7 @@ public final class SessionFactoryBuilder {
                     throw new IllegalArgumentException("Duplicate property " + key);
                 }
                 String value = settings.getProperty(key);
-                settings.put(key, value);
+                configuration.settings.put(key, value);
             }
         }
         return this;
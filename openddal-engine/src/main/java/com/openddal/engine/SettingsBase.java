@@ -74,6 +74,24 @@ public class SettingsBase {
      * @return the setting
      */
     protected String get(String key, String defaultValue) {
+        String property = getPropertyName(key);
+        String sysProperty = "ddal." + property;
+        String v = settings.get(property);
+        if (v == null) {
+            v = Utils.getProperty(sysProperty, defaultValue);
+            settings.put(property, v);
+        }
+        return v;
+    }
+
+    /**
+     * Get the name of the property of a setting, for example
+     * queryCacheSize for QUERY_CACHE_SIZE.
+     *
+     * @param key the key
+     * @return the property name
+     */
+    public static String getPropertyName(String key) {
         StringBuilder buff = new StringBuilder();
         boolean nextUpper = false;
         for (char c : key.toCharArray()) {
@@ -85,14 +103,7 @@ public class SettingsBase {
                 nextUpper = false;
             }
         }
-        String property = buff.toString();
-        String sysProperty = "ddal." + buff.toString();
-        String v = settings.get(property);
-        if (v == null) {
-            v = Utils.getProperty(sysProperty, defaultValue);
-            settings.put(property, v);
-        }
-        return v;
+        return buff.toString();
     }
 
     /**
@@ -19,10 +19,9 @@ import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Future;
-import java.util.concurrent.ThreadPoolExecutor;
-import java.util.concurrent.TimeUnit;
 
 import com.openddal.config.GlobalTableRule;
 import com.openddal.config.ShardedTableRule;
@@ -35,6 +34,7 @@ import com.openddal.engine.Database;
 import com.openddal.engine.Session;
 import com.openddal.executor.cursor.Cursor;
 import com.openddal.executor.cursor.MergedCursor;
+import com.openddal.executor.cursor.SortedMergedCursor;
 import com.openddal.executor.works.QueryWorker;
 import com.openddal.executor.works.UpdateWorker;
 import com.openddal.executor.works.Worker;
@@ -42,6 +42,7 @@ import com.openddal.executor.works.WorkerFactory;
 import com.openddal.message.DbException;
 import com.openddal.message.ErrorCode;
 import com.openddal.result.Row;
+import com.openddal.result.SortOrder;
 import com.openddal.route.RoutingHandler;
 import com.openddal.route.rule.ObjectNode;
 import com.openddal.route.rule.RoutingResult;
@@ -56,7 +57,7 @@ public abstract class ExecutionFramework implements Executor {
 
     protected Session session;
     protected Database database;
-    protected ThreadPoolExecutor queryExecutor;
+    protected WorkerExecutor workerExecutor;
     protected RoutingHandler routingHandler;
     protected WorkerFactory queryHandlerFactory;
 
@@ -68,7 +69,7 @@ public abstract class ExecutionFramework implements Executor {
         }
         this.session = s;
         this.database = session.getDatabase();
-        this.queryExecutor = database.getQueryExecutor();
+        this.workerExecutor = database.getWorkerExecutor();
         this.routingHandler = database.getRoutingHandler();
         this.queryHandlerFactory = session.getQueryHandlerFactory();
         doPrepare();
@@ -106,15 +107,14 @@ public abstract class ExecutionFramework implements Executor {
     }
 
     protected int invokeUpdateWorker(List<UpdateWorker> worker) {
+        if (worker.size() == 1) {
+            return invokeInline(worker.get(0));
+        }
         session.checkCanceled();
+        long start = System.nanoTime();
         try {
             int queryTimeout = session.getQueryTimeout();// MILLISECONDS
-            List<Future<Integer>> invokeAll;
-            if (queryTimeout > 0) {
-                invokeAll = queryExecutor.invokeAll(worker, queryTimeout, TimeUnit.MILLISECONDS);
-            } else {
-                invokeAll = queryExecutor.invokeAll(worker);
-            }
+            List<Future<Integer>> invokeAll = workerExecutor.invokeAll(worker, queryTimeout);
             int affectRows = 0;
             for (Future<Integer> future : invokeAll) {
                 affectRows += future.get();
@@ -125,21 +125,40 @@ public abstract class ExecutionFramework implements Executor {
         } catch (ExecutionException e) {
             throw DbException.convert(e.getCause());
         } finally {
+            session.addWaitTime(System.nanoTime() - start);
             session.checkCanceled();
         }
     }
 
     protected Cursor invokeQueryWorker(List<QueryWorker> worker) {
+        return invokeQueryWorker(worker, null);
+    }
+
+    /**
+     * Invoke the query workers and merge their results. If a sort order is
+     * given, the result of each worker must already be sorted by it, and the
+     * results are merged in that order.
+     *
+     * @param worker the query workers
+     * @param sortOrder the sort order of the worker results, or null
+     * @return the merged cursor
+     */
+    protected Cursor invokeQueryWorker(List<QueryWorker> worker, SortOrder sortOrder) {
+        if (worker.size() == 1) {
+            return invokeInline(worker.get(0));
+        }
         session.checkCanceled();
+        long start = System.nanoTime();
         try {
             int queryTimeout = session.getQueryTimeout();// MILLISECONDS
-            List<Future<Cursor>> invokeAll;
-            if (queryTimeout > 0) {
-                invokeAll = queryExecutor.invokeAll(worker, queryTimeout, TimeUnit.MILLISECONDS);
-            } else {
-                invokeAll = queryExecutor.invokeAll(worker);
-            }
-            if (invokeAll.size() > 1) {
+            List<Future<Cursor>> invokeAll = workerExecutor.invokeAll(worker, queryTimeout);
+            if (invokeAll.size() > 1 && sortOrder != null) {
+                SortedMergedCursor cursor = new SortedMergedCursor(sortOrder);
+                for (Future<Cursor> future : invokeAll) {
+                    cursor.addCursor(future.get());
+                }
+                return cursor;
+            } else if (invokeAll.size() > 1) {
                 MergedCursor cursor = new MergedCursor();
                 for (Future<Cursor> future : invokeAll) {
                     cursor.addCursor(future.get());
@@ -153,6 +172,29 @@ public abstract class ExecutionFramework implements Executor {
         } catch (ExecutionException e) {
             throw DbException.convert(e.getCause());
         } finally {
+            session.addWaitTime(System.nanoTime() - start);
+            session.checkCanceled();
+        }
+    }
+
+    /**
+     * Run a single worker in the calling thread, the executor is only used if
+     * the workers of several table nodes run concurrently. The query timeout
+     * is applied to the JDBC statement of the worker, rounded up to whole
+     * seconds, so the shard stops the statement when it expires.
+     *
+     * @param worker the worker
+     * @return the result of the worker
+     */
+    protected <T> T invokeInline(Callable<T> worker) {
+        session.checkCanceled();
+        long start = System.nanoTime();
+        try {
+            return worker.call();
+        } catch (Exception e) {
+            throw DbException.convert(e);
+        } finally {
+            session.addWaitTime(System.nanoTime() - start);
             session.checkCanceled();
         }
     }
@@ -0,0 +1,358 @@
+/*
+ * Copyright 2014-2016 the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the “License”);
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an “AS IS” BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.openddal.executor;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.openddal.executor.works.Worker;
+import com.openddal.message.DbException;
+import com.openddal.message.ErrorCode;
+import com.openddal.message.Trace;
+import com.openddal.util.New;
+import com.openddal.util.StringUtils;
+import com.openddal.util.Threads;
+
+/**
+ * Runs the workers of a statement that is executed on several table nodes.
+ * The mode is set with the database setting <code>EXECUTOR_MODE</code>:
+ * <ul>
+ * <li><code>SHARED</code> (the default): all workers run on the query
+ * executor of the database, in the order they are submitted. The number of
+ * table nodes of a statement is not used, so a wide statement may delay the
+ * narrow ones.</li>
+ * <li><code>BULKHEAD</code>: each shard has its own pool of
+ * <code>SHARD_EXECUTOR_THREADS</code> threads, so a slow shard or a query on
+ * many shards only uses the threads of those shards. If all threads of a
+ * shard are busy, the workers of the statements on fewer shards run first,
+ * but a worker is not passed by the statements started more than one second
+ * after it. At most <code>SHARD_EXECUTOR_QUEUE_SIZE</code> workers wait for
+ * the threads of a shard, a statement that would exceed it fails.
+ * </li>
+ * <li><code>VIRTUAL</code>: each worker runs on a new virtual thread. This
+ * requires a Java runtime with virtual threads, otherwise the
+ * <code>BULKHEAD</code> mode is used.</li>
+ * </ul>
+ *
+ * @author jorgie.li
+ */
+public abstract class WorkerExecutor {
+
+    /**
+     * All workers run on the query executor of the database.
+     */
+    public static final String SHARED = "SHARED";
+
+    /**
+     * Each shard has its own thread pool.
+     */
+    public static final String BULKHEAD = "BULKHEAD";
+
+    /**
+     * Each worker runs on a virtual thread.
+     */
+    public static final String VIRTUAL = "VIRTUAL";
+
+    /**
+     * The time a waiting worker is passed by the workers of a statement on
+     * one table node less.
+     */
+    private static final long WIDTH_DELAY_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+
+    /**
+     * The maximum time a waiting worker is passed by the workers of
+     * statements on fewer table nodes.
+     */
+    private static final long MAX_DELAY_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    private final AtomicLong statementIds = new AtomicLong();
+
+    /**
+     * Create the executor of the given mode.
+     *
+     * @param mode the mode
+     * @param queryExecutor the query executor of the database
+     * @param shardThreads the number of threads of each shard in the
+     *            <code>BULKHEAD</code> mode
+     * @param shardQueueSize the maximum number of workers waiting for the
+     *            threads of a shard in the <code>BULKHEAD</code> mode
+     * @param trace the trace
+     * @return the executor
+     */
+    public static WorkerExecutor getInstance(String mode, ExecutorService queryExecutor, int shardThreads,
+            int shardQueueSize, Trace trace) {
+        if (mode == null || SHARED.equalsIgnoreCase(mode)) {
+            return new Shared(queryExecutor, false);
+        } else if (BULKHEAD.equalsIgnoreCase(mode)) {
+            return new Bulkhead(shardThreads, shardQueueSize);
+        } else if (VIRTUAL.equalsIgnoreCase(mode)) {
+            ExecutorService executor = newVirtualThreadExecutor();
+            if (executor != null) {
+                return new Shared(executor, true);
+            }
+            trace.info("virtual threads are not supported, the executor mode {0} is used", BULKHEAD);
+            return new Bulkhead(shardThreads, shardQueueSize);
+        }
+        throw DbException.getInvalidValueException("EXECUTOR_MODE", mode);
+    }
+
+    private static ExecutorService newVirtualThreadExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
+    /**
+     * Get the executor that runs the workers of the given shard.
+     *
+     * @param shardName the shard name, or null if not known
+     * @return the executor
+     */
+    protected abstract ExecutorService getExecutor(String shardName);
+
+    /**
+     * Release the threads of this executor. The query executor of the
+     * database is not shut down.
+     */
+    public abstract void close();
+
+    /**
+     * Run the workers and wait until they are all done or the timeout
+     * expired. The workers that are not done when the timeout expired are
+     * canceled, as with {@link ExecutorService#invokeAll}.
+     *
+     * @param workers the workers
+     * @param timeout the timeout in milliseconds, 0 for no timeout
+     * @return the futures, in the same order as the workers
+     * @throws InterruptedException if the calling thread was interrupted
+     * @throws DbException if the queue of a shard is full, the workers
+     *             already submitted are canceled
+     */
+    public <T> List<Future<T>> invokeAll(List<? extends Callable<T>> workers, long timeout)
+            throws InterruptedException {
+        int width = workers.size();
+        long statementId = statementIds.incrementAndGet();
+        long delay = Math.min((width - 1) * WIDTH_DELAY_NANOS, MAX_DELAY_NANOS);
+        long priority = System.nanoTime() + delay;
+        ArrayList<Future<T>> futures = New.arrayList(width);
+        boolean done = false;
+        try {
+            for (Callable<T> worker : workers) {
+                String shardName = worker instanceof Worker ? ((Worker) worker).getShardName() : null;
+                WorkerTask<T> task = new WorkerTask<T>(worker, priority, statementId);
+                futures.add(task);
+                getExecutor(shardName).execute(task);
+            }
+            long deadline = timeout > 0 ? System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeout) : 0;
+            for (Future<T> future : futures) {
+                if (future.isDone()) {
+                    continue;
+                }
+                try {
+                    if (timeout > 0) {
+                        long nanos = deadline - System.nanoTime();
+                        if (nanos <= 0) {
+                            return futures;
+                        }
+                        future.get(nanos, TimeUnit.NANOSECONDS);
+                    } else {
+                        future.get();
+                    }
+                } catch (CancellationException ignore) {
+                    // reported by the caller
+                } catch (ExecutionException ignore) {
+                    // reported by the caller
+                } catch (TimeoutException e) {
+                    return futures;
+                }
+            }
+            done = true;
+            return futures;
+        } finally {
+            if (!done) {
+                for (Future<T> future : futures) {
+                    future.cancel(true);
+                }
+            }
+        }
+    }
+
+    /**
+     * A worker of a statement. If the workers wait in the queue of a shard,
+     * they run in the order of the start time of the statement plus a delay
+     * that grows with the number of table nodes, up to one second. So the
+     * workers of the statements on fewer nodes run first, but a statement on
+     * many nodes is not delayed for ever.
+     */
+    private static class WorkerTask<T> extends FutureTask<T> implements Comparable<WorkerTask<?>> {
+
+        private final long priority;
+        private final long statementId;
+
+        WorkerTask(Callable<T> worker, long priority, long statementId) {
+            super(worker);
+            this.priority = priority;
+            this.statementId = statementId;
+        }
+
+        @Override
+        public int compareTo(WorkerTask<?> o) {
+            // the nano time may overflow
+            long diff = priority - o.priority;
+            if (diff != 0) {
+                return diff < 0 ? -1 : 1;
+            }
+            return statementId < o.statementId ? -1 : statementId == o.statementId ? 0 : 1;
+        }
+
+    }
+
+    /**
+     * All workers run on one executor, in the order they are submitted.
+     */
+    private static class Shared extends WorkerExecutor {
+
+        private final ExecutorService executor;
+        private final boolean owned;
+
+        Shared(ExecutorService executor, boolean owned) {
+            this.executor = executor;
+            this.owned = owned;
+        }
+
+        @Override
+        protected ExecutorService getExecutor(String shardName) {
+            return executor;
+        }
+
+        @Override
+        public void close() {
+            // the query executor is shut down by the database
+            if (owned) {
+                Threads.shutdownGracefully(executor, 1000, 1000, TimeUnit.MILLISECONDS);
+            }
+        }
+
+    }
+
+    /**
+     * Each shard has its own thread pool with a bounded queue.
+     */
+    private static class Bulkhead extends WorkerExecutor {
+
+        private final ConcurrentHashMap<String, ThreadPoolExecutor> executors =
+                new ConcurrentHashMap<String, ThreadPoolExecutor>();
+        private final int threads;
+        private final int queueSize;
+
+        Bulkhead(int threads, int queueSize) {
+            this.threads = Math.max(1, threads);
+            this.queueSize = Math.max(1, queueSize);
+        }
+
+        @Override
+        protected ExecutorService getExecutor(String shardName) {
+            String key = StringUtils.isNullOrEmpty(shardName) ? "default" : shardName;
+            ThreadPoolExecutor executor = executors.get(key);
+            if (executor == null) {
+                executor = new ThreadPoolExecutor(threads, threads, 2L, TimeUnit.MINUTES,
+                        new BoundedPriorityQueue(queueSize), Threads.newThreadFactory("ddal-" + key + "-executor"),
+                        new Overloaded(key));
+                executor.allowCoreThreadTimeOut(true);
+                ThreadPoolExecutor old = executors.putIfAbsent(key, executor);
+                if (old != null) {
+                    executor.shutdown();
+                    executor = old;
+                }
+            }
+            return executor;
+        }
+
+        @Override
+        public void close() {
+            for (ThreadPoolExecutor executor : executors.values()) {
+                Threads.shutdownGracefully(executor, 1000, 1000, TimeUnit.MILLISECONDS);
+            }
+            executors.clear();
+        }
+
+    }
+
+    /**
+     * A priority queue that does not accept more than the given number of
+     * elements.
+     */
+    private static class BoundedPriorityQueue extends PriorityBlockingQueue<Runnable> {
+
+        private static final long serialVersionUID = 1L;
+        private final int capacity;
+
+        BoundedPriorityQueue(int capacity) {
+            this.capacity = capacity;
+        }
+
+        @Override
+        public synchronized boolean offer(Runnable e) {
+            // only offer adds elements, so the size can't grow in between
+            if (size() >= capacity) {
+                return false;
+            }
+            return super.offer(e);
+        }
+
+        @Override
+        public int remainingCapacity() {
+            return Math.max(0, capacity - size());
+        }
+
+    }
+
+    /**
+     * Rejects a worker if the queue of the shard is full.
+     */
+    private static class Overloaded implements RejectedExecutionHandler {
+
+        private final String shardName;
+
+        Overloaded(String shardName) {
+            this.shardName = shardName;
+        }
+
+        @Override
+        public void rejectedExecution(Runnable r, ThreadPoolExecutor executor) {
+            int waiting = executor.getActiveCount() + executor.getQueue().size();
+            throw DbException.get(ErrorCode.SHARD_OVERLOADED_2, shardName, String.valueOf(waiting));
+        }
+
+    }
+
+}
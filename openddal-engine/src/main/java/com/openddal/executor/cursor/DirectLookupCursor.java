@@ -23,6 +23,7 @@ import com.openddal.dbobject.table.TableFilter;
 import com.openddal.dbobject.table.TableFilter.TableFilterVisitor;
 import com.openddal.dbobject.table.TableMate;
 import com.openddal.engine.Constants;
+import com.openddal.engine.SysProperties;
 import com.openddal.executor.ExecutionFramework;
 import com.openddal.executor.works.QueryWorker;
 import com.openddal.message.DbException;
@@ -48,6 +49,9 @@ public class DirectLookupCursor extends ExecutionFramework implements Cursor {
     private List<QueryWorker> workers;
     private ArrayList<Expression> expressions;
     private boolean limitPushless;
+    private boolean sortedMerge;
+    private Aggregate[] aggregates;
+    private int[] partialIndexes;
 
     public DirectLookupCursor(Select select) {
         this.prepared = select;
@@ -56,7 +60,11 @@ public class DirectLookupCursor extends ExecutionFramework implements Cursor {
     @Override
     protected void doPrepare() {
         expressions = prepared.getExpressions();
+        Integer limit = null, offset = null;
         if (prepared.isGroupQuery()) {
+            // shards return the group keys followed by the partial aggregates,
+            // which are merged by the final aggregation. As a shard may return
+            // any group, limit and offset can not be pushed down.
             ArrayList<Expression> selectExprs = New.arrayList(10);
             int[] groupIndex = prepared.getGroupIndex();
             for (int i = 0; groupIndex != null && i < groupIndex.length; i++) {
@@ -64,25 +72,28 @@ public class DirectLookupCursor extends ExecutionFramework implements Cursor {
                 Expression expr = expressions.get(idx);
                 selectExprs.add(expr);
             }
-            HashSet<Aggregate> aggregates = New.linkedHashSet();
+            HashSet<Aggregate> aggregateSet = New.linkedHashSet();
             for (Expression expr : expressions) {
-                expr.isEverything(ExpressionVisitor.getAggregateVisitor(aggregates));
+                expr.isEverything(ExpressionVisitor.getAggregateVisitor(aggregateSet));
+            }
+            aggregates = aggregateSet.toArray(new Aggregate[aggregateSet.size()]);
+            partialIndexes = new int[aggregates.length];
+            for (int i = 0; i < aggregates.length; i++) {
+                partialIndexes[i] = selectExprs.size();
+                selectExprs.addAll(Arrays.asList(aggregates[i].getPartialExpressions()));
             }
-            selectExprs.addAll(aggregates);
             expressions = selectExprs;
+        } else {
+            Expression limitExpr = prepared.getLimit();
+            Expression offsetExpr = prepared.getOffset();
+            if (limitExpr != null) {
+                limit = limitExpr.getValue(session).getInt();
+            }
+            if (offsetExpr != null) {
+                offset = offsetExpr.getValue(session).getInt();
+            }
         }
         Expression[] exprList = expressions.toArray(new Expression[expressions.size()]);
-        Integer limit = null, offset = null;
-        Expression limitExpr = prepared.getLimit();
-        Expression offsetExpr = prepared.getOffset();
-        if (limitExpr != null) {
-            limit = limitExpr.getValue(session).getInt();
-        }
-        if (offsetExpr != null) {
-            offset = offsetExpr.getValue(session).getInt();
-        }
-        
-        
         try {
             setEvaluatable(prepared.getTopTableFilter(), false);
             RoutingResult rr = doRoute(prepared);
@@ -91,8 +102,13 @@ public class DirectLookupCursor extends ExecutionFramework implements Cursor {
                 offset = 0;
                 limitPushless = true;
             }
+            // every shard returns rows in the order of the pushed down ORDER BY,
+            // merge them instead of sorting the whole result again.
+            sortedMerge = rr.isMultipleNode() && prepared.getSortOrder() != null && !prepared.isGroupQuery()
+                    && !prepared.isDistinct() && isMergeableOrder(prepared);
             ObjectNode[] selectNodes = rr.getSelectNodes();
-            if (session.getDatabase().getSettings().optimizeMerging) {
+            // the UNION ALL of the grouped nodes is not ordered as a whole
+            if (session.getDatabase().getSettings().optimizeMerging && !sortedMerge) {
                 selectNodes = rr.group();
             }
             workers = New.arrayList(selectNodes.length);
@@ -108,7 +124,7 @@ public class DirectLookupCursor extends ExecutionFramework implements Cursor {
 
     @Override
     protected Cursor doQuery() {
-        this.cursor = invokeQueryWorker(workers);
+        this.cursor = invokeQueryWorker(workers, sortedMerge ? prepared.getSortOrder() : null);
         return this;
     }
 
@@ -223,17 +239,26 @@ public class DirectLookupCursor extends ExecutionFramework implements Cursor {
         return false;
     }
 
-    public HashMap<Expression, Value> getCurrentValues() {
-        SearchRow searchRow = cursor.getSearchRow();
-        int len = expressions.size();
-        HashMap<Expression, Value> result = New.hashMapNonRehash(len);
-        for (int i = 0; i < len; i++) {
-            result.put(expressions.get(i), searchRow.getValue(i));
-        }
-        return result;
+    /**
+     * Get the aggregates of a group query, merged from the partial aggregates
+     * returned by the shards.
+     *
+     * @return the aggregates
+     */
+    public Aggregate[] getAggregates() {
+        return aggregates;
     }
-    
-    
+
+    /**
+     * Get the index of the first partial aggregate column in the shard rows
+     * for each aggregate.
+     *
+     * @return the column indexes
+     */
+    public int[] getPartialIndexes() {
+        return partialIndexes;
+    }
+
     public void resetResult(ResultTarget result) {
         if(!isPrepared()) {
             throw DbException.throwInternalError("executor not prepared.");
@@ -244,7 +269,7 @@ public class DirectLookupCursor extends ExecutionFramework implements Cursor {
                 Expression offsetExpr = prepared.getOffset();
                 SortOrder sortOrder = prepared.getSortOrder();
                 int offset = offsetExpr.getValue(session).getInt();
-                if(sortOrder == null) {
+                if (sortOrder == null || sortedMerge) {
                     //drop offset rows if sortOrder is null
                     while (offset-- > 0) {
                         if (!next()) {
@@ -259,6 +284,57 @@ public class DirectLookupCursor extends ExecutionFramework implements Cursor {
         }
     }
 
+    /**
+     * Check if the rows of this cursor are returned in the order of the query,
+     * so that the rows after limit can be skipped.
+     *
+     * @return true if the rows are sorted
+     */
+    public boolean isSorted() {
+        return sortedMerge;
+    }
+
+    /**
+     * Check if the shards sort the rows in the same order as the merge. The
+     * collation of the shards is not known, so rows that are sorted by a
+     * string are not merged, and NULL must be sorted before other values in
+     * ascending order, as done by MySQL.
+     *
+     * @param select the query
+     * @return true if the results of the shards can be merged
+     */
+    private static boolean isMergeableOrder(Select select) {
+        SortOrder sortOrder = select.getSortOrder();
+        int[] indexes = sortOrder.getQueryColumnIndexes();
+        int[] sortTypes = sortOrder.getSortTypes();
+        ArrayList<Expression> expressions = select.getExpressions();
+        for (int i = 0; i < indexes.length; i++) {
+            Expression e = expressions.get(indexes[i]);
+            switch (e.getType()) {
+            case Value.BOOLEAN:
+            case Value.BYTE:
+            case Value.SHORT:
+            case Value.INT:
+            case Value.LONG:
+            case Value.DECIMAL:
+            case Value.DOUBLE:
+            case Value.FLOAT:
+            case Value.TIME:
+            case Value.DATE:
+            case Value.TIMESTAMP:
+                break;
+            default:
+                return false;
+            }
+            boolean nullsOrdered = !SysProperties.SORT_NULLS_HIGH
+                    && (sortTypes[i] & (SortOrder.NULLS_FIRST | SortOrder.NULLS_LAST)) == 0;
+            if (!nullsOrdered && e.getNullable() != Column.NOT_NULLABLE) {
+                return false;
+            }
+        }
+        return true;
+    }
+
     public double getCost() {
         return workers.size() * Constants.COST_ROW_OFFSET;
     }
@@ -274,6 +350,15 @@ public class DirectLookupCursor extends ExecutionFramework implements Cursor {
     }
 
     public static boolean isDirectLookupQuery(Select select) {
+        if (select.isGroupQuery()) {
+            HashSet<Aggregate> aggregates = New.hashSet();
+            select.isEverything(ExpressionVisitor.getAggregateVisitor(aggregates));
+            for (Aggregate aggregate : aggregates) {
+                if (!aggregate.isPartialAggregatable()) {
+                    return false;
+                }
+            }
+        }
         DirectLookupEstimator estimator = new DirectLookupEstimator(select.getTopFilters());
         return estimator.isDirectLookup();
     }
@@ -0,0 +1,382 @@
+/*
+ * Copyright 2014-2016 the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the “License”);
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an “AS IS” BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.openddal.executor.cursor;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.text.Collator;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+
+import com.openddal.dbobject.table.Column;
+import com.openddal.engine.Constants;
+import com.openddal.engine.SysProperties;
+import com.openddal.message.DbException;
+import com.openddal.result.Row;
+import com.openddal.util.FileUtils;
+import com.openddal.util.IOUtils;
+import com.openddal.util.New;
+import com.openddal.value.CompareMode;
+import com.openddal.value.Value;
+import com.openddal.value.ValueNull;
+import com.openddal.value.ValueString;
+
+/**
+ * The build side of a hash join: the rows of the joined table in a hash
+ * table, by the value of the join column. The keys are normalized so that two
+ * keys are equal exactly if the database would compare them as equal: decimal
+ * values ignore the scale, and strings are compared with the collation of the
+ * database.
+ * <p>
+ * The rows are kept in memory up to the given amount of memory. If they need
+ * more, the rows are written to partition files by the hash of the key, and
+ * the rows of the probe side are written to partition files as well. The
+ * partitions are then joined one after the other, so only the build rows of
+ * one partition are in memory at any time.
+ *
+ * @author jorgie.li
+ */
+class HashJoinTable {
+
+    private static final int PARTITIONS = 16;
+
+    /**
+     * The estimated memory of a key and its list of rows, in bytes.
+     */
+    private static final int MEMORY_ENTRY = Constants.MEMORY_OBJECT * 2 + Constants.MEMORY_POINTER * 4;
+
+    private final Column keyColumn;
+    private final int keyIndex;
+    private final long maxMemory;
+    private final Collator collator;
+    private HashMap<Object, ArrayList<Row>> table;
+    private long memory;
+
+    private Partition[] build;
+    private Partition[] probe;
+    private int partition = -1;
+    private DataInputStream probeIn;
+
+    /**
+     * Create a new hash table.
+     *
+     * @param keyColumn the join column of the build rows
+     * @param keyIndex the index of the join column in the build rows
+     * @param compareMode the compare mode of the database
+     * @param maxMemory the maximum memory used by the rows, in bytes
+     */
+    HashJoinTable(Column keyColumn, int keyIndex, CompareMode compareMode, long maxMemory) {
+        this.keyColumn = keyColumn;
+        this.keyIndex = keyIndex;
+        this.maxMemory = maxMemory;
+        String name = compareMode.getName();
+        if (name == null || CompareMode.OFF.equals(name)) {
+            collator = null;
+        } else {
+            collator = CompareMode.getCollator(name);
+            if (collator == null) {
+                throw DbException.throwInternalError(name);
+            }
+            collator.setStrength(compareMode.getStrength());
+        }
+        table = New.hashMap();
+    }
+
+    /**
+     * Add a row of the build side. If the rows exceed the memory limit, they
+     * are written to disk.
+     *
+     * @param row the row
+     */
+    void addBuildRow(Row row) {
+        Object key = getKey(row.getValue(keyIndex));
+        if (key == null) {
+            // can not match any row
+            return;
+        }
+        if (build != null) {
+            build[getPartition(key)].write(row);
+            return;
+        }
+        put(key, row);
+        if (memory > maxMemory) {
+            spill();
+        }
+    }
+
+    private void put(Object key, Row row) {
+        memory += row.getMemory();
+        ArrayList<Row> rows = table.get(key);
+        if (rows == null) {
+            memory += MEMORY_ENTRY;
+            rows = New.arrayList(4);
+            table.put(key, rows);
+        }
+        rows.add(row);
+    }
+
+    private void spill() {
+        build = new Partition[PARTITIONS];
+        probe = new Partition[PARTITIONS];
+        for (int i = 0; i < PARTITIONS; i++) {
+            build[i] = new Partition();
+            probe[i] = new Partition();
+        }
+        for (Map.Entry<Object, ArrayList<Row>> e : table.entrySet()) {
+            Partition p = build[getPartition(e.getKey())];
+            for (Row row : e.getValue()) {
+                p.write(row);
+            }
+        }
+        table = null;
+        memory = 0;
+    }
+
+    private static int getPartition(Object key) {
+        int h = key.hashCode();
+        h ^= (h >>> 16);
+        return h & (PARTITIONS - 1);
+    }
+
+    /**
+     * Check if the rows were written to disk. In this case the probe rows
+     * need to be added with {@link #addProbeRow}, and are then read back
+     * partition by partition.
+     *
+     * @return true if they were
+     */
+    boolean isSpilled() {
+        return build != null;
+    }
+
+    /**
+     * Add a row of the probe side, if the rows were written to disk. Rows
+     * that can not match any row are kept as well, for outer joins.
+     *
+     * @param row the row
+     * @param value the join key of the row, or null
+     */
+    void addProbeRow(Row row, Value value) {
+        Object key = getKey(value);
+        probe[key == null ? 0 : getPartition(key)].write(row);
+    }
+
+    /**
+     * Load the build rows of the next partition, if the rows were written to
+     * disk.
+     *
+     * @return false if all partitions were joined
+     */
+    boolean nextPartition() {
+        closeProbe();
+        while (++partition < PARTITIONS) {
+            if (probe[partition].rowCount == 0) {
+                build[partition].delete();
+                probe[partition].delete();
+                continue;
+            }
+            table = New.hashMap();
+            DataInputStream in = build[partition].openInput();
+            try {
+                Row row;
+                while ((row = readRow(in)) != null) {
+                    put(getKey(row.getValue(keyIndex)), row);
+                }
+            } finally {
+                IOUtils.closeSilently(in);
+            }
+            build[partition].delete();
+            probeIn = probe[partition].openInput();
+            return true;
+        }
+        table = null;
+        return false;
+    }
+
+    /**
+     * Get the next probe row of the current partition.
+     *
+     * @return the row, or null if there are no more rows
+     */
+    Row nextProbeRow() {
+        return probeIn == null ? null : readRow(probeIn);
+    }
+
+    /**
+     * Get the build rows that match the given join key. If the rows were
+     * written to disk, only the rows of the current partition are found.
+     *
+     * @param value the join key, converted to the type of the join column
+     * @return the rows, or null if there are none
+     */
+    ArrayList<Row> get(Value value) {
+        Object key = getKey(value);
+        return key == null || table == null ? null : table.get(key);
+    }
+
+    /**
+     * Remove the rows and delete the partition files.
+     */
+    void close() {
+        closeProbe();
+        if (build != null) {
+            for (int i = 0; i < PARTITIONS; i++) {
+                build[i].delete();
+                probe[i].delete();
+            }
+        }
+        table = null;
+    }
+
+    private void closeProbe() {
+        if (probeIn != null) {
+            IOUtils.closeSilently(probeIn);
+            probeIn = null;
+            probe[partition].delete();
+        }
+    }
+
+    /**
+     * Get the hash key of a join value.
+     *
+     * @param value the value
+     * @return the key, or null if the value can not match any row
+     */
+    private Object getKey(Value value) {
+        if (value == null || value == ValueNull.INSTANCE) {
+            return null;
+        }
+        Value v = keyColumn.convert(value);
+        switch (v.getType()) {
+        case Value.DECIMAL: {
+            BigDecimal d = v.getBigDecimal();
+            // 1.0 and 1.00 are equal, but BigDecimal.equals does not agree
+            return d.signum() == 0 ? BigDecimal.ZERO : d.stripTrailingZeros();
+        }
+        case Value.STRING:
+        case Value.STRING_FIXED:
+            return collator == null ? v : collator.getCollationKey(v.getString());
+        case Value.STRING_IGNORECASE:
+            return collator == null ? v : collator.getCollationKey(v.getString().toUpperCase());
+        default:
+            return v;
+        }
+    }
+
+    private static Row readRow(DataInputStream in) {
+        try {
+            int len;
+            try {
+                len = in.readInt();
+            } catch (EOFException e) {
+                return null;
+            }
+            Value[] values = new Value[len];
+            for (int i = 0; i < len; i++) {
+                int type = in.readInt();
+                if (type < 0) {
+                    continue;
+                } else if (type == Value.NULL) {
+                    values[i] = ValueNull.INSTANCE;
+                } else {
+                    byte[] data = new byte[in.readInt()];
+                    in.readFully(data);
+                    values[i] = ValueString.get(new String(data, Constants.UTF8)).convertTo(type);
+                }
+            }
+            return new Row(values, Row.MEMORY_CALCULATE);
+        } catch (IOException e) {
+            throw DbException.convertIOException(e, null);
+        }
+    }
+
+    /**
+     * A partition file. The values are stored as text, with their type.
+     */
+    private static class Partition {
+
+        private String fileName;
+        private DataOutputStream out;
+        private int rowCount;
+
+        void write(Row row) {
+            try {
+                if (out == null) {
+                    fileName = FileUtils.createTempFile(SysProperties.PREFIX_TEMP_FILE,
+                            Constants.SUFFIX_TEMP_FILE, true, true);
+                    out = new DataOutputStream(new BufferedOutputStream(
+                            FileUtils.newOutputStream(fileName, false)));
+                }
+                int len = row.getColumnCount();
+                out.writeInt(len);
+                for (int i = 0; i < len; i++) {
+                    Value v = row.getValue(i);
+                    if (v == null) {
+                        out.writeInt(-1);
+                        continue;
+                    }
+                    int type = v.getType();
+                    if (type == Value.BLOB) {
+                        type = Value.BYTES;
+                    } else if (type == Value.CLOB) {
+                        type = Value.STRING;
+                    }
+                    out.writeInt(type);
+                    if (type != Value.NULL) {
+                        byte[] data = v.convertTo(type).getString().getBytes(Constants.UTF8);
+                        out.writeInt(data.length);
+                        out.write(data);
+                    }
+                }
+                rowCount++;
+            } catch (IOException e) {
+                throw DbException.convertIOException(e, fileName);
+            }
+        }
+
+        DataInputStream openInput() {
+            try {
+                if (out != null) {
+                    out.close();
+                    out = null;
+                }
+                if (fileName == null) {
+                    return new DataInputStream(new ByteArrayInputStream(new byte[0]));
+                }
+                return new DataInputStream(new BufferedInputStream(FileUtils.newInputStream(fileName)));
+            } catch (IOException e) {
+                throw DbException.convertIOException(e, fileName);
+            }
+        }
+
+        void delete() {
+            IOUtils.closeSilently(out);
+            out = null;
+            if (fileName != null) {
+                FileUtils.tryDelete(fileName);
+                fileName = null;
+            }
+        }
+    }
+
+}
@@ -20,10 +20,17 @@ import java.util.HashSet;
 import java.util.List;
 
 import com.openddal.command.dml.Select;
+import com.openddal.command.expression.Comparison;
+import com.openddal.command.expression.ConditionAndOr;
+import com.openddal.command.expression.ConditionIn;
+import com.openddal.command.expression.Expression;
+import com.openddal.command.expression.ExpressionColumn;
 import com.openddal.command.expression.ExpressionVisitor;
+import com.openddal.command.expression.ValueExpression;
 import com.openddal.config.GlobalTableRule;
 import com.openddal.config.TableRule;
 import com.openddal.dbobject.index.ConditionExtractor;
+import com.openddal.dbobject.index.IndexCondition;
 import com.openddal.dbobject.table.Column;
 import com.openddal.dbobject.table.MetaTable;
 import com.openddal.dbobject.table.RangeTable;
@@ -31,6 +38,7 @@ import com.openddal.dbobject.table.Table;
 import com.openddal.dbobject.table.TableFilter;
 import com.openddal.dbobject.table.TableMate;
 import com.openddal.dbobject.table.TableView;
+import com.openddal.engine.Session;
 import com.openddal.executor.ExecutionFramework;
 import com.openddal.executor.works.QueryWorker;
 import com.openddal.message.DbException;
@@ -40,8 +48,24 @@ import com.openddal.result.SearchRow;
 import com.openddal.route.rule.ObjectNode;
 import com.openddal.route.rule.RoutingResult;
 import com.openddal.util.New;
+import com.openddal.value.Value;
+import com.openddal.value.ValueNull;
 
 /**
+ * The cursor of a table filter.
+ * <p>
+ * If the filter is joined to a sharded table on an equality condition, the
+ * join is run in batches: this cursor reads ahead a block of rows, and the
+ * rows of the joined table that match the keys of the block are fetched with
+ * one query per shard. The joined filter is then served from these rows,
+ * instead of querying the shards for each row of this filter. If this filter
+ * is the first of the query, it has many rows, and the joined table is
+ * estimated to have fewer rows than this filter, the rest of the join is run
+ * as a hash join: the joined table is fetched once from all shards, and the
+ * rows of this filter are looked up in it. If the joined table does not fit
+ * in the memory limit of the hash join, the rows of both sides are written to
+ * partition files, and the partitions are joined one after the other.
+ *
  * @author jorgie.li
  */
 public class SearchCursor extends ExecutionFramework implements Cursor {
@@ -53,6 +77,28 @@ public class SearchCursor extends ExecutionFramework implements Cursor {
     private Column[] searchColumns;
     private Row current;
 
+    /**
+     * The cursor of the joined filter, if the join is run in batches.
+     */
+    private SearchCursor batchJoin;
+    private ArrayList<Row> batchRows;
+    private int batchIndex;
+    private Row batchRow;
+    private int joinedRows;
+    private boolean hashJoinable;
+    private boolean hashJoinTried;
+    private HashJoinTable hashJoin;
+
+    /**
+     * The join condition of this filter and the filter it is joined to, if
+     * the join is run in batches.
+     */
+    private IndexCondition batchKey;
+    private TableFilter batchOuter;
+    private Column[] batchColumns;
+    private int batchKeyIndex;
+    private HashJoinTable batchLookup;
+
     public SearchCursor(TableFilter tableFilter) {
         this.tableFilter = tableFilter;
         this.table = tableFilter.getTable();
@@ -69,6 +115,13 @@ public class SearchCursor extends ExecutionFramework implements Cursor {
 
     @Override
     public Row get() {
+        if (batchJoin != null) {
+            return batchRow;
+        }
+        return getRow();
+    }
+
+    private Row getRow() {
         Row searchRow = cursor.get();
         if (searchColumns == table.getColumns()) {
             return searchRow;
@@ -89,6 +142,21 @@ public class SearchCursor extends ExecutionFramework implements Cursor {
 
     @Override
     public boolean next() {
+        if (batchJoin != null) {
+            if (hashJoin == null && batchIndex >= batchRows.size() && !nextBatch()) {
+                batchRow = null;
+                return false;
+            }
+            if (hashJoin != null) {
+                return nextHashJoined();
+            }
+            batchRow = batchRows.get(batchIndex++);
+            return true;
+        }
+        return nextRow();
+    }
+
+    private boolean nextRow() {
         while (true) {
             if (cursor == null) {
                 nextCursor();
@@ -107,6 +175,270 @@ public class SearchCursor extends ExecutionFramework implements Cursor {
 
     }
 
+    /**
+     * Read the next block of rows, and fetch the rows of the joined table
+     * that match them. If enough rows were joined in batches, the hash join
+     * is started instead.
+     *
+     * @return false if there are no more rows
+     */
+    private boolean nextBatch() {
+        batchRows.clear();
+        batchIndex = 0;
+        int threshold = database.getSettings().hashJoinThreshold;
+        if (hashJoinable && !hashJoinTried && threshold > 0 && joinedRows >= threshold) {
+            // only tried once, the batches are used if the joined table is larger
+            hashJoinTried = true;
+            if (isJoinedTableSmaller()) {
+                startHashJoin();
+                return true;
+            }
+        }
+        int batchSize = database.getSettings().joinBatchSize;
+        HashSet<Value> keys = New.hashSet();
+        while (batchRows.size() < batchSize && nextRow()) {
+            Row row = getRow();
+            batchRows.add(row);
+            tableFilter.set(row);
+            Value v = batchJoin.getBatchValue(session);
+            if (v != null) {
+                keys.add(v);
+            }
+        }
+        if (batchRows.isEmpty()) {
+            batchJoin.batchLookup = null;
+            return false;
+        }
+        joinedRows += batchRows.size();
+        // the conditions that refer to this filter are applied with the keys
+        tableFilter.setEvaluatable(false);
+        try {
+            batchJoin.fetchBatch(session, keys);
+        } finally {
+            tableFilter.setEvaluatable(true);
+        }
+        return true;
+    }
+
+    /**
+     * Check whether the joined table is estimated to have fewer rows than
+     * this filter. Otherwise looking up the joined rows in batches reads
+     * fewer rows than fetching the whole joined table.
+     *
+     * @return true if the hash table should be built from the joined table
+     */
+    private boolean isJoinedTableSmaller() {
+        long rows = Math.max(joinedRows, table.getRowCountApproximation());
+        return batchJoin.table.getRowCountApproximation() <= rows;
+    }
+
+    /**
+     * Fetch all rows of the joined table, to join the remaining rows of this
+     * filter with a hash join. If the rows were written to disk, the
+     * remaining rows of this filter are written to disk as well.
+     */
+    private void startHashJoin() {
+        tableFilter.setEvaluatable(false);
+        try {
+            hashJoin = batchJoin.fetchAll(session);
+        } finally {
+            tableFilter.setEvaluatable(true);
+        }
+        batchJoin.batchLookup = hashJoin;
+        if (hashJoin.isSpilled()) {
+            while (nextRow()) {
+                Row row = getRow();
+                tableFilter.set(row);
+                hashJoin.addProbeRow(row, batchJoin.getBatchValue(session));
+            }
+            hashJoin.nextPartition();
+        }
+    }
+
+    private boolean nextHashJoined() {
+        if (!hashJoin.isSpilled()) {
+            if (nextRow()) {
+                batchRow = getRow();
+                return true;
+            }
+            endHashJoin();
+            return false;
+        }
+        while (true) {
+            Row row = hashJoin.nextProbeRow();
+            if (row != null) {
+                batchRow = row;
+                return true;
+            }
+            if (!hashJoin.nextPartition()) {
+                endHashJoin();
+                return false;
+            }
+        }
+    }
+
+    private void endHashJoin() {
+        batchRow = null;
+        batchJoin.batchLookup = null;
+        hashJoin.close();
+    }
+
+    /**
+     * Get the join key of the current row of the outer filter.
+     *
+     * @param s the session
+     * @return the key, or null if it can not match any row
+     */
+    private Value getBatchValue(Session s) {
+        Value v = batchKey.getCurrentValue(s);
+        if (v == ValueNull.INSTANCE) {
+            return null;
+        }
+        try {
+            return batchKey.getColumn().convert(v);
+        } catch (DbException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Fetch the rows that match the given join keys, grouped by key.
+     *
+     * @param s the session
+     * @param keys the join keys
+     */
+    private void fetchBatch(Session s, HashSet<Value> keys) {
+        prepare(s);
+        // the index of the join column is known once the columns are chosen
+        Cursor c = keys.isEmpty() ? null : queryJoined(keys);
+        HashJoinTable rows = new HashJoinTable(batchKey.getColumn(), batchKeyIndex, database.getCompareMode(),
+                Long.MAX_VALUE);
+        while (c != null && c.next()) {
+            rows.addBuildRow(c.get());
+        }
+        batchLookup = rows;
+    }
+
+    /**
+     * Fetch all rows of this filter that may be joined, grouped by key.
+     *
+     * @param s the session
+     * @return the rows
+     */
+    private HashJoinTable fetchAll(Session s) {
+        prepare(s);
+        Cursor c = queryJoined(null);
+        long maxMemory = database.getSettings().hashJoinMaxMemory * 1024L;
+        HashJoinTable rows = new HashJoinTable(batchKey.getColumn(), batchKeyIndex, database.getCompareMode(),
+                maxMemory);
+        while (c != null && c.next()) {
+            rows.addBuildRow(c.get());
+        }
+        return rows;
+    }
+
+    /**
+     * Query the shards for the rows of this filter that may be joined. The
+     * join column is always selected.
+     *
+     * @param keys the join keys, or null for all rows
+     * @return the cursor, or null if there are no rows
+     */
+    private Cursor queryJoined(HashSet<Value> keys) {
+        try {
+            tableFilter.setEvaluatable(false);
+            ConditionExtractor extractor = new ConditionExtractor(tableFilter);
+            if (extractor.isAlwaysFalse()) {
+                return null;
+            }
+            Column column = batchKey.getColumn();
+            if (keys != null) {
+                extractor.getInColumns().put(column, keys);
+            }
+            RoutingResult result = doRoute((TableMate) table, extractor);
+            ObjectNode[] selectNodes = result.getSelectNodes();
+            if (database.getSettings().optimizeMerging) {
+                selectNodes = result.group();
+            }
+            if (batchColumns == null) {
+                batchColumns = searchColumns;
+                batchKeyIndex = getIndex(searchColumns, column);
+                if (batchKeyIndex < 0) {
+                    batchKeyIndex = searchColumns.length;
+                    batchColumns = new Column[batchKeyIndex + 1];
+                    System.arraycopy(searchColumns, 0, batchColumns, 0, batchKeyIndex);
+                    batchColumns[batchKeyIndex] = column;
+                }
+            }
+            Expression condition = getBatchCondition(keys);
+            List<QueryWorker> workers = New.arrayList(selectNodes.length);
+            for (ObjectNode objectNode : selectNodes) {
+                QueryWorker worker = queryHandlerFactory.createQueryWorker(batchColumns, tableFilter, condition,
+                        objectNode);
+                workers.add(worker);
+            }
+            return invokeQueryWorker(workers);
+        } finally {
+            tableFilter.setEvaluatable(true);
+        }
+    }
+
+    /**
+     * Get the condition of the batch query: the join keys, and the conditions
+     * of this filter that don't refer to the outer filter.
+     *
+     * @param keys the join keys, or null for all rows
+     * @return the condition, or null
+     */
+    private Expression getBatchCondition(HashSet<Value> keys) {
+        Expression condition = null;
+        if (keys != null) {
+            ArrayList<Expression> values = New.arrayList(keys.size());
+            for (Value v : keys) {
+                values.add(ValueExpression.get(v));
+            }
+            // bound to this filter, so that each shard only gets its own keys
+            Column column = batchKey.getColumn();
+            ExpressionColumn left = new ExpressionColumn(database, null, tableFilter.getTableAlias(),
+                    column.getName());
+            left.mapColumns(tableFilter, 0);
+            condition = new ConditionIn(database, left, values);
+        }
+        ArrayList<Expression> conditions = New.arrayList();
+        addConditions(tableFilter.getFilterCondition(), conditions);
+        ExpressionVisitor visitor = ExpressionVisitor.getNotFromResolverVisitor(batchOuter);
+        for (Expression e : conditions) {
+            if (e.isEverything(visitor)) {
+                condition = condition == null ? e : new ConditionAndOr(ConditionAndOr.AND, condition, e);
+            }
+        }
+        return condition;
+    }
+
+    private static void addConditions(Expression condition, ArrayList<Expression> conditions) {
+        if (condition == null) {
+            return;
+        }
+        if (condition instanceof ConditionAndOr) {
+            ConditionAndOr and = (ConditionAndOr) condition;
+            if (and.getAndOrType() == ConditionAndOr.AND) {
+                addConditions(and.getExpression(true), conditions);
+                addConditions(and.getExpression(false), conditions);
+                return;
+            }
+        }
+        conditions.add(condition);
+    }
+
+    private static int getIndex(Column[] columns, Column column) {
+        for (int i = 0; i < columns.length; i++) {
+            if (columns[i] == column) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
     @Override
     public boolean previous() {
         throw DbException.throwInternalError();
@@ -124,6 +456,11 @@ public class SearchCursor extends ExecutionFramework implements Cursor {
     }
 
     private Cursor find(TableMate tableMate) {
+        if (batchLookup != null) {
+            Value v = getBatchValue(session);
+            ArrayList<Row> rows = v == null ? null : batchLookup.get(v);
+            return new ListCursor(rows == null ? new ArrayList<Row>(0) : rows);
+        }
         try {
             tableFilter.setEvaluatable(false);
             ConditionExtractor extractor = new ConditionExtractor(tableFilter);
@@ -159,7 +496,7 @@ public class SearchCursor extends ExecutionFramework implements Cursor {
             result = gt.getRandomRoutingResult();
             break;
         case TableRule.SHARDED_NODE_TABLE:
-            result = routingHandler.doRoute(tableMate, extractor.getStart(), extractor.getStart(),
+            result = routingHandler.doRoute(tableMate, extractor.getStart(), extractor.getEnd(),
                     extractor.getInColumns());
             break;
         default:
@@ -173,6 +510,16 @@ public class SearchCursor extends ExecutionFramework implements Cursor {
     }
 
     protected Cursor doQuery() {
+        if (batchJoin != null) {
+            batchRows.clear();
+            batchIndex = 0;
+            joinedRows = 0;
+            hashJoinTried = false;
+            if (hashJoin != null) {
+                hashJoin.close();
+                hashJoin = null;
+            }
+        }
         if (table instanceof RangeTable) {
             RangeTable rangeTable = (RangeTable) table;
             this.cursor = find(rangeTable);
@@ -210,6 +557,53 @@ public class SearchCursor extends ExecutionFramework implements Cursor {
                 searchColumns = selected.toArray(new Column[selected.size()]);
             }
         }
+        TableFilter join = tableFilter.getJoin();
+        if (join != null && tableFilter.getNestedJoin() == null && join.getNestedJoin() == null
+                && join.getTable() instanceof TableMate && database.getSettings().joinBatchSize > 1) {
+            IndexCondition key = getBatchKey(join);
+            if (key != null) {
+                batchJoin = join.getSearchCursor();
+                batchJoin.batchKey = key;
+                batchJoin.batchOuter = tableFilter;
+                batchRows = New.arrayList();
+                // the joined table is fetched once for each query of this
+                // filter, so only if this filter is queried once
+                hashJoinable = select != null && select.getTopTableFilter() == tableFilter;
+            }
+        }
+    }
+
+    /**
+     * Get the equality condition the joined filter can be looked up with, in
+     * batches of rows of this filter.
+     *
+     * @param join the joined filter
+     * @return the condition, or null if the join can not be run in batches
+     */
+    private IndexCondition getBatchKey(TableFilter join) {
+        ExpressionVisitor visitor = ExpressionVisitor.getNotFromResolverVisitor(tableFilter);
+        for (IndexCondition condition : join.getIndexConditions()) {
+            Expression e = condition.getExpression();
+            Column column = condition.getColumn();
+            if (condition.getCompareType() != Comparison.EQUAL || e == null || column.getColumnId() < 0) {
+                continue;
+            }
+            if (e.isEverything(visitor)) {
+                // does not refer to this filter
+                continue;
+            }
+            switch (column.getType()) {
+            case Value.DECIMAL:
+            case Value.DOUBLE:
+            case Value.FLOAT:
+            case Value.STRING_IGNORECASE:
+                // values that compare equal are not always equal
+                continue;
+            default:
+                return condition;
+            }
+        }
+        return null;
     }
 
     @Override
@@ -0,0 +1,96 @@
+/*
+ * Copyright 2014-2016 the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the “License”);
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an “AS IS” BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.openddal.executor.cursor;
+
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+import com.openddal.result.Row;
+import com.openddal.result.SearchRow;
+import com.openddal.result.SortOrder;
+import com.openddal.util.New;
+
+/**
+ * A cursor that merges the already sorted results of multiple shards into
+ * one globally sorted stream. Only the head row of each shard cursor is kept
+ * in memory, so a query with LIMIT can stop after reading limit rows instead
+ * of reading and sorting the results of all shards.
+ *
+ * @author jorgie.li
+ */
+public class SortedMergedCursor implements Cursor {
+
+    private final List<Cursor> cursors = New.arrayList(10);
+    private final PriorityQueue<Cursor> queue;
+    private Cursor cursor;
+    private boolean initialized;
+
+    public SortedMergedCursor(final SortOrder sortOrder) {
+        this.queue = new PriorityQueue<Cursor>(10, new Comparator<Cursor>() {
+            @Override
+            public int compare(Cursor c1, Cursor c2) {
+                return sortOrder.compare(c1.get().getValueList(), c2.get().getValueList());
+            }
+        });
+    }
+
+    public void addCursor(Cursor cursor) {
+        cursors.add(cursor);
+    }
+
+    @Override
+    public Row get() {
+        if (cursor == null) {
+            return null;
+        }
+        return cursor.get();
+    }
+
+    @Override
+    public SearchRow getSearchRow() {
+        if (cursor == null) {
+            return null;
+        }
+        return cursor.getSearchRow();
+    }
+
+    @Override
+    public boolean next() {
+        if (!initialized) {
+            for (Cursor c : cursors) {
+                offer(c);
+            }
+            initialized = true;
+        } else if (cursor != null) {
+            offer(cursor);
+        }
+        cursor = queue.poll();
+        return cursor != null;
+    }
+
+    private void offer(Cursor c) {
+        if (c.next()) {
+            queue.add(c);
+        }
+    }
+
+    @Override
+    public boolean previous() {
+        return false;
+    }
+
+}
@@ -15,6 +15,8 @@
  */
 package com.openddal.executor.cursor;
 
+import java.util.List;
+
 import com.openddal.dbobject.table.TableView;
 import com.openddal.message.DbException;
 import com.openddal.result.LocalResult;
@@ -29,12 +31,28 @@ import com.openddal.value.ValueNull;
 public class ViewCursor implements Cursor {
 
     private final LocalResult result;
+    private final List<Value[]> rows;
+    private int index;
     private Row current;
     private TableView view;
 
     public ViewCursor(TableView view, LocalResult result) {
         this.view = view;
         this.result = result;
+        this.rows = null;
+    }
+
+    /**
+     * Create a cursor over rows of the view that are cached for the
+     * statement.
+     *
+     * @param view the view
+     * @param rows the rows
+     */
+    public ViewCursor(TableView view, List<Value[]> rows) {
+        this.view = view;
+        this.result = null;
+        this.rows = rows;
     }
 
     @Override
@@ -50,18 +68,27 @@ public class ViewCursor implements Cursor {
     @Override
     public boolean next() {
         while (true) {
-            boolean res = result.next();
-            if (!res) {
-                if (view.isRecursive()) {
-                    result.reset();
-                } else {
-                    result.close();
+            Value[] values;
+            if (rows != null) {
+                if (index >= rows.size()) {
+                    current = null;
+                    return false;
+                }
+                values = rows.get(index++);
+            } else {
+                boolean res = result.next();
+                if (!res) {
+                    if (view.isRecursive()) {
+                        result.reset();
+                    } else {
+                        result.close();
+                    }
+                    current = null;
+                    return false;
                 }
-                current = null;
-                return false;
+                values = result.currentRow();
             }
             current = view.getTemplateRow();
-            Value[] values = result.currentRow();
             for (int i = 0, len = current.getColumnCount(); i < len; i++) {
                 Value v = i < values.length ? values[i] : ValueNull.INSTANCE;
                 current.setValue(i, v);
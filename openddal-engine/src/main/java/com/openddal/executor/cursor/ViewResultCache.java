@@ -0,0 +1,160 @@
+/*
+ * Copyright 2014-2016 the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the “License”);
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an “AS IS” BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.openddal.executor.cursor;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+
+import com.openddal.dbobject.table.Column;
+import com.openddal.message.DbException;
+import com.openddal.util.New;
+import com.openddal.value.Value;
+import com.openddal.value.ValueNull;
+
+/**
+ * The rows of a view that is joined to another table, kept in memory for the
+ * rest of the statement, so that the view query is run once instead of once
+ * for each row of the other table. The rows are looked up with hash indexes
+ * on the join columns, which are built when they are first needed.
+ * <p>
+ * If the view has more rows than the budget, the rows are not kept, and the
+ * view query is run for each lookup as before.
+ *
+ * @author jorgie.li
+ */
+public class ViewResultCache {
+
+    private final Value[] parameters;
+    private final ArrayList<Value[]> rows;
+    private final HashMap<Integer, HashMap<Value, ArrayList<Value[]>>> indexes = New.hashMap();
+
+    /**
+     * Create a new cache.
+     *
+     * @param parameters the values of the parameters of the view query
+     * @param rows the rows, or null if there were more rows than the budget
+     */
+    public ViewResultCache(Value[] parameters, ArrayList<Value[]> rows) {
+        this.parameters = parameters;
+        this.rows = rows;
+    }
+
+    /**
+     * Check if the rows were read with the given parameter values.
+     *
+     * @param values the current values of the parameters of the view query
+     * @return true if the cache can be used
+     */
+    public boolean isValid(Value[] values) {
+        return Arrays.equals(parameters, values);
+    }
+
+    /**
+     * Check if the view had more rows than the budget, so that the rows are
+     * not cached.
+     *
+     * @return true if the rows are not cached
+     */
+    public boolean isOverflow() {
+        return rows == null;
+    }
+
+    /**
+     * Get all rows.
+     *
+     * @return the rows
+     */
+    public List<Value[]> getRows() {
+        return rows;
+    }
+
+    /**
+     * Get the rows where the given column is equal to the value.
+     *
+     * @param column the column
+     * @param value the value
+     * @return the rows
+     */
+    public List<Value[]> find(Column column, Value value) {
+        Value key = convert(column, value);
+        if (key == null) {
+            return Collections.emptyList();
+        }
+        Integer columnId = column.getColumnId();
+        HashMap<Value, ArrayList<Value[]>> index = indexes.get(columnId);
+        if (index == null) {
+            index = createIndex(column);
+            indexes.put(columnId, index);
+        }
+        List<Value[]> list = index.get(key);
+        if (list == null) {
+            return Collections.emptyList();
+        }
+        return list;
+    }
+
+    private HashMap<Value, ArrayList<Value[]>> createIndex(Column column) {
+        int columnId = column.getColumnId();
+        HashMap<Value, ArrayList<Value[]>> index = New.hashMap();
+        for (Value[] row : rows) {
+            Value key = columnId < row.length ? convert(column, row[columnId]) : null;
+            if (key == null) {
+                continue;
+            }
+            ArrayList<Value[]> list = index.get(key);
+            if (list == null) {
+                list = New.arrayList(1);
+                index.put(key, list);
+            }
+            list.add(row);
+        }
+        return index;
+    }
+
+    private static Value convert(Column column, Value v) {
+        if (v == null || v == ValueNull.INSTANCE) {
+            return null;
+        }
+        try {
+            return column.convert(v);
+        } catch (DbException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Check if the rows can be looked up by the values of the column with a
+     * hash index.
+     *
+     * @param column the column
+     * @return true if values that compare equal are always equal
+     */
+    public static boolean isIndexable(Column column) {
+        switch (column.getType()) {
+        case Value.DECIMAL:
+        case Value.DOUBLE:
+        case Value.FLOAT:
+        case Value.STRING_IGNORECASE:
+            return false;
+        default:
+            return column.getColumnId() >= 0;
+        }
+    }
+
+}
@@ -15,16 +15,23 @@
  */
 package com.openddal.executor.effects;
 
+import java.sql.Statement;
 import java.util.ArrayList;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 
 import com.openddal.command.Prepared;
 import com.openddal.command.dml.Insert;
 import com.openddal.command.dml.Query;
 import com.openddal.command.expression.Expression;
+import com.openddal.command.expression.Parameter;
 import com.openddal.dbobject.table.Column;
 import com.openddal.dbobject.table.TableMate;
+import com.openddal.engine.Session;
 import com.openddal.executor.ExecutionFramework;
 import com.openddal.executor.works.UpdateWorker;
 import com.openddal.message.DbException;
@@ -48,6 +55,9 @@ public class InsertExecutor extends ExecutionFramework implements ResultTarget {
     private List<Row> newRows = New.arrayList(10);
     private List<UpdateWorker> workers;
     private Insert prepared;
+    private List<Value[]> batchParameters;
+    private Map<ObjectNode, List<Row>> batches;
+    private IdentityHashMap<Row, Integer> batchRowIndexes;
 
     /**
      * @param prepared
@@ -62,7 +72,6 @@ public class InsertExecutor extends ExecutionFramework implements ResultTarget {
         table.check();
         prepared.setCurrentRowNumber(0);
         ArrayList<Expression[]> list = prepared.getList();
-        Column[] columns = prepared.getColumns();
         Map<Column, Expression> valueMap = prepared.getDuplicateKeyAssignmentMap();
         if (valueMap != null) {
             Column[] ruleColumns = table.getRuleColumns();
@@ -72,30 +81,15 @@ public class InsertExecutor extends ExecutionFramework implements ResultTarget {
                 }
             }
         }
+        if (batchParameters != null) {
+            prepareBatch(table);
+            return;
+        }
         int listSize = list.size();
         if (listSize > 0) {
-            int columnLen = columns.length;
             List<Row> values = New.arrayList(10);
             for (int x = 0; x < listSize; x++) {
-                Row newRow = table.getTemplateRow();
-                Expression[] expr = list.get(x);
-                prepared.setCurrentRowNumber(x + 1);
-                for (int i = 0; i < columnLen; i++) {
-                    Column c = columns[i];
-                    int index = c.getColumnId();
-                    Expression e = expr[i];
-                    if (e != null) {
-                        // e can be null (DEFAULT)
-                        e = e.optimize(session);
-                        try {
-                            Value v = c.convert(e.getValue(session));
-                            newRow.setValue(index, v);
-                        } catch (DbException ex) {
-                            throw prepared.setRow(ex, x, Prepared.getSQL(expr));
-                        }
-                    }
-                }
-                values.add(newRow);
+                values.add(createRow(table, list.get(x), x));
             }
             prepareInsert(table, values);
         } else {
@@ -104,6 +98,28 @@ public class InsertExecutor extends ExecutionFramework implements ResultTarget {
         }
     }
 
+    private Row createRow(TableMate table, Expression[] expr, int x) {
+        Column[] columns = prepared.getColumns();
+        Row newRow = table.getTemplateRow();
+        prepared.setCurrentRowNumber(x + 1);
+        for (int i = 0, columnLen = columns.length; i < columnLen; i++) {
+            Column c = columns[i];
+            int index = c.getColumnId();
+            Expression e = expr[i];
+            if (e != null) {
+                // e can be null (DEFAULT)
+                e = e.optimize(session);
+                try {
+                    Value v = c.convert(e.getValue(session));
+                    newRow.setValue(index, v);
+                } catch (DbException ex) {
+                    throw prepared.setRow(ex, x, Prepared.getSQL(expr));
+                }
+            }
+        }
+        return newRow;
+    }
+
     @Override
     public int doUpdate() {
         if (workers != null) {
@@ -137,6 +153,176 @@ public class InsertExecutor extends ExecutionFramework implements ResultTarget {
         }
     }
 
+    /**
+     * Insert one row for each parameter set of the single row VALUES list.
+     * The rows of all parameter sets are routed together, and the rows of
+     * each table node are sent as multi-row inserts, in parallel for all
+     * table nodes. Within a transaction, the rows of a multi-row insert that
+     * fails are inserted again one by one, so that the rows without an error
+     * are inserted.
+     *
+     * @param s the session
+     * @param parameterSets the parameter values of each row
+     * @param errors the list the errors of failed rows are added to
+     * @return the update count of each row, or null if a row can not be
+     *         created or routed, and the rows need to be inserted one by one
+     */
+    public int[] updateBatch(Session s, List<Value[]> parameterSets, List<DbException> errors) {
+        this.batchParameters = parameterSets;
+        prepare(s);
+        if (batches == null) {
+            return null;
+        }
+        int[] result = new int[parameterSets.size()];
+        // the chunks of a table node are sent one after the other
+        for (int offset = 0;; offset += QUERY_FLUSH_THRESHOLD) {
+            List<UpdateWorker> chunkWorkers = New.arrayList(batches.size());
+            List<ObjectNode> nodes = New.arrayList(batches.size());
+            List<Row[]> chunks = New.arrayList(batches.size());
+            for (Map.Entry<ObjectNode, List<Row>> item : batches.entrySet()) {
+                List<Row> rows = item.getValue();
+                if (offset >= rows.size()) {
+                    continue;
+                }
+                List<Row> chunk = rows.subList(offset, Math.min(offset + QUERY_FLUSH_THRESHOLD, rows.size()));
+                Row[] values = chunk.toArray(new Row[chunk.size()]);
+                chunkWorkers.add(queryHandlerFactory.createUpdateWorker(prepared, item.getKey(), values));
+                nodes.add(item.getKey());
+                chunks.add(values);
+            }
+            if (chunkWorkers.isEmpty()) {
+                return result;
+            }
+            invokeBatchWorker(chunkWorkers, nodes, chunks, result, errors);
+        }
+    }
+
+    private void prepareBatch(TableMate table) {
+        ArrayList<Parameter> parameters = prepared.getParameters();
+        Expression[] expr = prepared.getList().get(0);
+        int size = batchParameters.size();
+        List<Row> rows = New.arrayList(size);
+        batchRowIndexes = new IdentityHashMap<Row, Integer>(size);
+        try {
+            for (int x = 0; x < size; x++) {
+                Value[] set = batchParameters.get(x);
+                for (int j = 0; j < set.length; j++) {
+                    parameters.get(j).setValue(set[j]);
+                }
+                Row row = createRow(table, expr, x);
+                rows.add(row);
+                batchRowIndexes.put(row, x);
+            }
+            batches = batchForRoutingNode(table, rows);
+        } catch (DbException e) {
+            // the rows are inserted one by one, to get the error of each row
+            batches = null;
+        }
+    }
+
+    private void invokeBatchWorker(List<UpdateWorker> chunkWorkers, List<ObjectNode> nodes, List<Row[]> chunks,
+            int[] result, List<DbException> errors) {
+        if (chunkWorkers.size() == 1) {
+            try {
+                int count = invokeInline(chunkWorkers.get(0));
+                setUpdateCounts(result, chunks.get(0), count);
+            } catch (DbException e) {
+                if (e.getErrorCode() == ErrorCode.STATEMENT_WAS_CANCELED) {
+                    throw e;
+                }
+                chunkFailed(nodes.get(0), chunks.get(0), e, result, errors);
+            }
+            return;
+        }
+        session.checkCanceled();
+        long start = System.nanoTime();
+        try {
+            int queryTimeout = session.getQueryTimeout();// MILLISECONDS
+            List<Future<Integer>> invokeAll = workerExecutor.invokeAll(chunkWorkers, queryTimeout);
+            for (int i = 0; i < invokeAll.size(); i++) {
+                DbException error;
+                try {
+                    int count = invokeAll.get(i).get();
+                    setUpdateCounts(result, chunks.get(i), count);
+                    continue;
+                } catch (ExecutionException e) {
+                    error = DbException.convert(e.getCause());
+                } catch (CancellationException e) {
+                    error = DbException.get(ErrorCode.STATEMENT_WAS_CANCELED);
+                }
+                chunkFailed(nodes.get(i), chunks.get(i), error, result, errors);
+            }
+        } catch (InterruptedException e) {
+            throw DbException.convert(e);
+        } finally {
+            session.addWaitTime(System.nanoTime() - start);
+            session.checkCanceled();
+        }
+    }
+
+    /**
+     * Handle the error of a multi-row insert. It is not known which rows
+     * caused the error, so within a transaction the rows are inserted again
+     * one by one, to get the update count or the error of each row. This
+     * relies on the failed statement being rolled back by the table node.
+     * In auto-commit mode that is not known (a non-transactional storage
+     * engine keeps the rows written before the error, and retrying them would
+     * fail with duplicate keys), so all rows of the insert fail with its
+     * error. Rows of a statement that was canceled or timed out are not
+     * retried either.
+     *
+     * @param node the table node
+     * @param rows the rows of the insert
+     * @param error the error of the insert
+     * @param result the update count of each row
+     * @param errors the list the errors of failed rows are added to
+     */
+    private void chunkFailed(ObjectNode node, Row[] rows, DbException error, int[] result,
+            List<DbException> errors) {
+        if (rows.length == 1 || session.getAutoCommit()
+                || error.getErrorCode() == ErrorCode.STATEMENT_WAS_CANCELED) {
+            errors.add(error);
+            for (Row row : rows) {
+                result[batchRowIndexes.get(row)] = Statement.EXECUTE_FAILED;
+            }
+            return;
+        }
+        for (Row row : rows) {
+            session.checkCanceled();
+            UpdateWorker worker = queryHandlerFactory.createUpdateWorker(prepared, node, new Row[] { row });
+            try {
+                result[batchRowIndexes.get(row)] = invokeInline(worker);
+            } catch (DbException e) {
+                if (e.getErrorCode() == ErrorCode.STATEMENT_WAS_CANCELED) {
+                    throw e;
+                }
+                errors.add(e);
+                result[batchRowIndexes.get(row)] = Statement.EXECUTE_FAILED;
+            }
+        }
+    }
+
+    /**
+     * Set the update counts of the rows of a multi-row insert. The table node
+     * only returns the update count of all rows. If it is not the number of
+     * rows, the update count of each row is unknown.
+     *
+     * @param result the update count of each row
+     * @param rows the rows of the insert
+     * @param count the update count of the insert
+     */
+    private void setUpdateCounts(int[] result, Row[] rows, int count) {
+        int rowCount;
+        if (rows.length == 1 || count == rows.length) {
+            rowCount = count / rows.length;
+        } else {
+            rowCount = Statement.SUCCESS_NO_INFO;
+        }
+        for (Row row : rows) {
+            result[batchRowIndexes.get(row)] = rowCount;
+        }
+    }
+
     @Override
     public void addRow(Value[] values) {
         TableMate table = toTableMate(prepared.getTable());
@@ -20,4 +20,11 @@ public interface Worker {
      */
     String explain();
 
+    /**
+     * Get the name of the shard the worker is executed on.
+     *
+     * @return the shard name
+     */
+    String getShardName();
+
 }
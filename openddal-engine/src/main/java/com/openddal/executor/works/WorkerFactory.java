@@ -51,6 +51,8 @@ public interface WorkerFactory {
 
     QueryWorker createQueryWorker(Column[] searchColumns, TableFilter filter, ObjectNode node);
 
+    QueryWorker createQueryWorker(Column[] searchColumns, TableFilter filter, Expression condition, ObjectNode node);
+
     QueryWorker createQueryWorker(Call call, ObjectNode node);
 
     UpdateWorker createUpdateWorker(Insert insert, ObjectNode node, Row ... rows);
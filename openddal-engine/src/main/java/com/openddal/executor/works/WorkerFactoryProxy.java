@@ -54,6 +54,14 @@ public class WorkerFactoryProxy implements WorkerFactory {
         return handler;
     }
 
+    @Override
+    public QueryWorker createQueryWorker(Column[] searchColumns, TableFilter filter, Expression condition,
+            ObjectNode node) {
+        QueryWorker handler = target.createQueryWorker(searchColumns, filter, condition, node);
+        handler = holdeWorker(handler);
+        return handler;
+    }
+
     @Override
     public QueryWorker createQueryWorker(Call call, ObjectNode node) {
         QueryWorker handler = target.createQueryWorker(call, node);
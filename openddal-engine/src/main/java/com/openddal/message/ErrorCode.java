@@ -1913,10 +1913,16 @@ public class ErrorCode {
     public static final int REPOSITORY_BINDING_ERROR_1 = 90144;
     
     public static final int REPOSITORY_BINDING_ERROR_2 = 90145;
-    
+
+    /**
+     * The error with code <code>90146</code> is thrown when a statement
+     * could not be run on a shard because the concurrency limit of the shard
+     * was reached.
+     */
+    public static final int SHARD_OVERLOADED_2 = 90146;
 
 
-    // next are 90039, 90051, 90056, 90110, 90122, 90143
+    // next are 90039, 90051, 90056, 90110, 90122, 90147
 
     private ErrorCode() {
         // utility class
@@ -66,9 +66,12 @@ public class JdbcQueryWorker extends JdbcWorker implements QueryWorker {
                     }
                 }
             }
+            long start = requestStarted(conn);
             set = stmt.executeQuery();
+            responseReceived(start);
             return new ResultCursor(session, set);
         } catch (SQLException e) {
+            requestFailed(e);
             close();
             StatementBuilder buff = new StatementBuilder();
             buff.append(sql);
@@ -90,7 +93,7 @@ public class JdbcQueryWorker extends JdbcWorker implements QueryWorker {
 
     public void cancel() {
         try {
-            if (stmt == null) {
+            if (stmt != null) {
                 stmt.cancel();
             }
         } catch (Exception e) {
@@ -102,6 +105,7 @@ public class JdbcQueryWorker extends JdbcWorker implements QueryWorker {
         JdbcUtils.closeSilently(set);
         JdbcUtils.closeSilently(stmt);
         returnConnection(conn);
+        requestCompleted();
         set = null;
         stmt = null;
         conn = null;
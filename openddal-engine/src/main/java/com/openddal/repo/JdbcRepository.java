@@ -18,7 +18,9 @@ package com.openddal.repo;
 import java.sql.Connection;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.SQLTransientConnectionException;
 import java.sql.Statement;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.List;
 import java.util.concurrent.Executors;
@@ -38,16 +40,22 @@ import com.openddal.dbobject.schema.Schema;
 import com.openddal.dbobject.schema.Sequence;
 import com.openddal.dbobject.table.TableMate;
 import com.openddal.engine.Database;
+import com.openddal.engine.DbSettings;
 import com.openddal.engine.Session;
 import com.openddal.engine.spi.Repository;
 import com.openddal.engine.spi.Transaction;
 import com.openddal.message.DbException;
 import com.openddal.message.ErrorCode;
 import com.openddal.message.Trace;
+import com.openddal.repo.ha.CircuitBreaker;
+import com.openddal.repo.ha.ConcurrencyLimiter;
+import com.openddal.repo.ha.ConnectionPool;
 import com.openddal.repo.ha.DataSourceMarker;
 import com.openddal.repo.ha.Failover;
 import com.openddal.repo.ha.SmartDataSource;
+import com.openddal.repo.tx.ConnectionHolder;
 import com.openddal.repo.tx.JdbcTransaction;
+import com.openddal.repo.tx.TransactionLog;
 import com.openddal.util.JdbcUtils;
 import com.openddal.util.New;
 import com.openddal.util.StringUtils;
@@ -64,6 +72,7 @@ public abstract class JdbcRepository implements Repository, ConnectionProvider {
 
     private final HashMap<String, DataSource> shardMaping = New.hashMap();
     private final HashMap<String, DataSource> idMapping = New.hashMap();
+    private final HashMap<String, ConcurrencyLimiter> limiters = New.hashMap();
 
     private Database database;
     private String defaultShardName;
@@ -72,6 +81,7 @@ public abstract class JdbcRepository implements Repository, ConnectionProvider {
     private String validationQuery;
     private int validationQueryTimeout;
     private ScheduledExecutorService scheduledExecutor;
+    private TransactionLog transactionLog;
 
     public void init(Database database) {
         // database not init completed
@@ -85,22 +95,31 @@ public abstract class JdbcRepository implements Repository, ConnectionProvider {
             throw new IllegalArgumentException();
         }
         this.trace = database.getTrace(Trace.REPOSITORY);
+        DbSettings settings = database.getSettings();
         for (Shard shardItem : configuration.cluster) {
             List<ShardItem> shardItems = shardItem.getShardItems();
             List<DataSourceMarker> shardDs = New.arrayList(shardItems.size());
-            DataSourceMarker dsMarker = new DataSourceMarker();
             for (ShardItem i : shardItems) {
+                DataSourceMarker dsMarker = new DataSourceMarker();
                 String ref = i.getRef();
                 DataSource dataSource = dataSourceProvider.lookup(ref);
                 if (dataSource == null) {
                     throw new DataSourceException("Can' find data source: " + ref);
                 }
+                if (settings.connectionPoolSize > 0) {
+                    ConnectionPool pool = new ConnectionPool(ref, dataSource, settings, trace);
+                    pool.warmUp();
+                    dataSource = pool;
+                }
                 dsMarker.setDataSource(dataSource);
                 dsMarker.setShardName(shardItem.getName());
                 dsMarker.setUid(ref);
                 dsMarker.setReadOnly(i.isReadOnly());
                 dsMarker.setwWeight(i.getwWeight());
                 dsMarker.setrWeight(i.getrWeight());
+                if (settings.circuitBreakerFailureRate > 0) {
+                    dsMarker.setCircuitBreaker(new CircuitBreaker(ref, settings, trace));
+                }
                 shardDs.add(dsMarker);
                 idMapping.put(ref, dsMarker.getDataSource());
             }
@@ -111,11 +130,31 @@ public abstract class JdbcRepository implements Repository, ConnectionProvider {
             DataSource dataSource = shardDs.size() > 1 ? new SmartDataSource(this, shardItem.getName(), shardDs)
                     : shardDs.get(0).getDataSource();
             shardMaping.put(shardItem.getName(), dataSource);
+            if (shardItem.getConcurrency() > 0) {
+                limiters.put(shardItem.getName(),
+                        new ConcurrencyLimiter(shardItem.getName(), shardItem.getConcurrency(),
+                                shardItem.getMaxConcurrency(), shardItem.getQueueTimeout(),
+                                shardItem.getLatencyThreshold()));
+            }
+        }
+        if (ConnectionHolder.isTwoPhaseCommit(database.getSettings().transactionMode)) {
+            transactionLog = new TransactionLog(database);
+            transactionLog.recover(shardMaping);
         }
         scheduledExecutor = Executors.newScheduledThreadPool(1, Threads.newThreadFactory("datasource-ha-thread"));
         scheduledExecutor.scheduleAtFixedRate(new Worker(), 10, 10, TimeUnit.SECONDS);
     }
 
+    /**
+     * Get the log of the two-phase commits.
+     *
+     * @return the log, or null if the transactions are not committed in two
+     *         phases
+     */
+    public TransactionLog getTransactionLog() {
+        return transactionLog;
+    }
+
     public DataSource getDataSourceByShardName(String shardName) {
         DataSource dataSource = shardMaping.get(shardName);
         if (dataSource == null) {
@@ -124,6 +163,34 @@ public abstract class JdbcRepository implements Repository, ConnectionProvider {
         return dataSource;
     }
 
+    /**
+     * Get the concurrency limiter of a shard.
+     *
+     * @param shardName the shard name
+     * @return the limiter, or null if the shard is not limited
+     */
+    public ConcurrencyLimiter getConcurrencyLimiter(String shardName) {
+        return limiters.get(shardName);
+    }
+
+    /**
+     * Get the data sources of all shards.
+     *
+     * @return the data sources
+     */
+    public List<DataSourceMarker> getDataSourceMarkers() {
+        return registered;
+    }
+
+    /**
+     * Get the concurrency limiters of all limited shards.
+     *
+     * @return the limiters
+     */
+    public Collection<ConcurrencyLimiter> getConcurrencyLimiters() {
+        return limiters.values();
+    }
+
     public DataSource getDataSourceById(String id) {
         DataSource dataSource = idMapping.get(id);
         if (dataSource == null) {
@@ -188,14 +255,26 @@ public abstract class JdbcRepository implements Repository, ConnectionProvider {
         if (scheduledExecutor != null) {
             Threads.shutdownGracefully(scheduledExecutor, 1000, 1000, TimeUnit.MILLISECONDS);
         }
+        if (transactionLog != null) {
+            transactionLog.close();
+        }
+        for (DataSourceMarker marker : registered) {
+            if (marker.getDataSource() instanceof ConnectionPool) {
+                ((ConnectionPool) marker.getDataSource()).close();
+            }
+        }
     }
 
     public Connection haGet(DataSourceMarker selected) throws SQLException {
         DataSource dataSource = selected.getDataSource();
         try {
             return dataSource.getConnection();
+        } catch (SQLTransientConnectionException e) {
+            // no connection of the pool was free, the data source is not broken
+            throw e;
         } catch (SQLException e) {
             selected.incrementFailedCount();
+            selected.errorReceived();
             monitor.add(selected);
             throw e;
         }
@@ -206,8 +285,12 @@ public abstract class JdbcRepository implements Repository, ConnectionProvider {
         DataSource dataSource = selected.getDataSource();
         try {
             return dataSource.getConnection(username, password);
+        } catch (SQLTransientConnectionException e) {
+            // no connection of the pool was free, the data source is not broken
+            throw e;
         } catch (SQLException e) {
             selected.incrementFailedCount();
+            selected.errorReceived();
             monitor.add(selected);
             throw e;
         }
@@ -228,6 +311,26 @@ public abstract class JdbcRepository implements Repository, ConnectionProvider {
             } catch (Exception e) {
                 trace.error(e, "datasource-ha-thread handle monitor list error");
             }
+            try {
+                maintainConnectionPools();
+            } catch (Exception e) {
+                trace.error(e, "datasource-ha-thread maintain connection pools error");
+            }
+            if (transactionLog != null) {
+                try {
+                    transactionLog.resolve(shardMaping);
+                } catch (Exception e) {
+                    trace.error(e, "datasource-ha-thread resolve transactions error");
+                }
+            }
+        }
+
+        private void maintainConnectionPools() {
+            for (DataSourceMarker marker : registered) {
+                if (marker.getDataSource() instanceof ConnectionPool) {
+                    ((ConnectionPool) marker.getDataSource()).maintain();
+                }
+            }
         }
 
         /**
@@ -266,6 +369,11 @@ public abstract class JdbcRepository implements Repository, ConnectionProvider {
         }
 
         private boolean validateAvailable(DataSource dataSource) throws SQLException {
+            if (dataSource instanceof ConnectionPool) {
+                // connect to the data source itself, even if all pooled
+                // connections are in use
+                dataSource = ((ConnectionPool) dataSource).getDataSource();
+            }
             Connection conn = null;
             try {
                 conn = dataSource.getConnection();
@@ -292,6 +400,7 @@ public abstract class JdbcRepository implements Repository, ConnectionProvider {
             } finally {
                 JdbcUtils.closeSilently(rs);
                 JdbcUtils.closeSilently(stmt);
+                JdbcUtils.closeSilently(conn);
             }
 
         }
@@ -62,12 +62,15 @@ public class JdbcUpdateWorker extends JdbcWorker implements UpdateWorker {
                     }
                 }
             }
+            long start = requestStarted(conn);
             int rows = stmt.executeUpdate();
+            responseReceived(start);
             if (trace.isDebugEnabled()) {
                 trace.debug("{0} executeUpdate: {1} affected.", shardName, rows);
             }
             return rows;
         } catch (SQLException e) {
+            requestFailed(e);
             StatementBuilder buff = new StatementBuilder();
             buff.append(sql);
             if (params != null && 0 < params.size()) {
@@ -87,7 +90,7 @@ public class JdbcUpdateWorker extends JdbcWorker implements UpdateWorker {
 
     public void cancel() {
         try {
-            if (stmt == null) {
+            if (stmt != null) {
                 stmt.cancel();
             }
         } catch (Exception e) {
@@ -98,6 +101,7 @@ public class JdbcUpdateWorker extends JdbcWorker implements UpdateWorker {
     public void close() {
         JdbcUtils.closeSilently(stmt);
         returnConnection(conn);
+        requestCompleted();
         stmt = null;
         conn = null;
     }
@@ -20,10 +20,15 @@ import java.sql.SQLException;
 import java.sql.Statement;
 import java.util.List;
 
+import com.openddal.engine.QueryStatisticsData;
 import com.openddal.engine.Session;
+import com.openddal.engine.spi.Repository;
 import com.openddal.message.DbException;
 import com.openddal.message.ErrorCode;
 import com.openddal.message.Trace;
+import com.openddal.repo.ha.ConcurrencyLimiter;
+import com.openddal.repo.ha.DataSourceMarker;
+import com.openddal.repo.ha.SmartConnection;
 import com.openddal.repo.tx.JdbcTransaction;
 import com.openddal.util.StatementBuilder;
 import com.openddal.value.Value;
@@ -40,7 +45,12 @@ public abstract class JdbcWorker {
     protected final List<Value> params;
     protected final ConnectionProvider connProvider;
     protected final JdbcTransaction tx;
-
+    private DataSourceMarker marker;
+    private long requestStart;
+    private final ConcurrencyLimiter limiter;
+    private boolean permitted;
+    private long permitStart;
+    private long executeStart;
 
     public JdbcWorker(Session session, String shardName, String sql, List<Value> params) {
         super();
@@ -51,7 +61,9 @@ public abstract class JdbcWorker {
         this.trace = session.getDatabase().getTrace(Trace.EXECUTOR);
         this.tx = (JdbcTransaction)session.getTransaction();
         this.connProvider = tx.getConnectionProvider();
-        
+        Repository repo = session.getDatabase().getRepository();
+        this.limiter = repo instanceof JdbcRepository ? ((JdbcRepository) repo).getConcurrencyLimiter(shardName)
+                : null;
 
     }
     
@@ -60,14 +72,117 @@ public abstract class JdbcWorker {
     // calls. HikariCP If get/close connection is not the same thread ,the
     // connection will leak.
     protected Connection borrowConnection() {
+        executeStart = session.getDatabase().getQueryStatistics() ? System.nanoTime() : 0;
+        acquirePermit();
         Options options = Options.build().shardName(shardName);
-        return connProvider.getConnection(options);
+        try {
+            return connProvider.getConnection(options);
+        } catch (RuntimeException e) {
+            if (permitted) {
+                limiter.onDropped();
+            }
+            releasePermit();
+            throw e;
+        }
     }
     
     protected void returnConnection(Connection conn) {
-        if(conn != null) {
-            Options options = Options.build().shardName(shardName);
-            connProvider.closeConnection(conn, options);
+        try {
+            if(conn != null) {
+                Options options = Options.build().shardName(shardName);
+                connProvider.closeConnection(conn, options);
+            }
+        } finally {
+            releasePermit();
+        }
+    }
+
+    /**
+     * Wait until the concurrency limit of the shard allows to run the
+     * statement. The permit is released when the response is received, not
+     * when the result is read, as the statements of a join read several
+     * results of a shard at the same time, and the connections are only
+     * returned at the end of the statement. If the statement fails, it is
+     * released when the connection is returned.
+     */
+    private void acquirePermit() {
+        if (limiter != null && !permitted) {
+            limiter.acquire();
+            permitted = true;
+            permitStart = System.nanoTime();
+        }
+    }
+
+    private void releasePermit() {
+        if (permitted) {
+            permitted = false;
+            limiter.release();
+        }
+    }
+
+    /**
+     * Reduce the concurrency limit of the shard, and add the error to the
+     * data source, if the statement failed because the shard is slow or not
+     * reachable.
+     *
+     * @param e the exception
+     */
+    protected void requestFailed(SQLException e) {
+        if (!ConcurrencyLimiter.isOverload(e)) {
+            return;
+        }
+        if (permitted) {
+            limiter.onDropped();
+        }
+        if (marker != null) {
+            marker.errorReceived(requestStart);
+        }
+    }
+
+    /**
+     * Count a request on the data source the connection was routed to, if
+     * the shard has more than one data source. The connection must be
+     * connected, that is a statement must be prepared.
+     *
+     * @param conn the connection
+     * @return the start time of the request
+     */
+    protected long requestStarted(Connection conn) {
+        marker = SmartConnection.getDataSourceMarker(conn);
+        requestStart = marker == null ? 0 : marker.requestStarted();
+        return requestStart;
+    }
+
+    /**
+     * Add the response time of the request to the data source, the
+     * concurrency limiter and the query statistics.
+     *
+     * @param start the start time of the request
+     */
+    protected void responseReceived(long start) {
+        if (marker != null) {
+            marker.responseReceived(start);
+        }
+        if (permitted) {
+            limiter.onSample(System.nanoTime() - permitStart);
+            releasePermit();
+        }
+        if (executeStart != 0) {
+            QueryStatisticsData statistics = session.getDatabase().getQueryStatisticsData();
+            if (statistics != null) {
+                statistics.recordPhase(QueryStatisticsData.EXECUTE, shardName, System.nanoTime() - executeStart);
+            }
+            executeStart = 0;
+        }
+    }
+
+    /**
+     * Complete the request on the data source.
+     */
+    protected void requestCompleted() {
+        if (marker != null) {
+            marker.requestCompleted();
+            marker = null;
         }
     }
 
@@ -124,7 +239,8 @@ public abstract class JdbcWorker {
         // The session timeout of a query in milliseconds
         int queryTimeout = session.getQueryTimeout();
         if (queryTimeout > 0) {
-            int seconds = queryTimeout / 1000;
+            // rounded up, 0 would disable the timeout
+            int seconds = (int) ((queryTimeout + 999L) / 1000);
             trace.debug("apply {0} query time out from statement.", seconds);
             stmt.setQueryTimeout(seconds);
         }
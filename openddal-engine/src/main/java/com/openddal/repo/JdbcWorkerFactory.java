@@ -1,7 +1,10 @@
 package com.openddal.repo;
 
+import java.util.Arrays;
+import java.util.List;
 import java.util.Map;
 
+import com.openddal.command.Prepared;
 import com.openddal.command.ddl.AlterTableAddConstraint;
 import com.openddal.command.ddl.AlterTableAlterColumn;
 import com.openddal.command.ddl.AlterTableDropConstraint;
@@ -19,13 +22,16 @@ import com.openddal.command.dml.Replace;
 import com.openddal.command.dml.Select;
 import com.openddal.command.dml.Update;
 import com.openddal.command.expression.Expression;
+import com.openddal.command.expression.ParameterBindings;
 import com.openddal.dbobject.table.Column;
 import com.openddal.dbobject.table.TableFilter;
 import com.openddal.executor.works.QueryWorker;
 import com.openddal.executor.works.UpdateWorker;
 import com.openddal.executor.works.WorkerFactory;
 import com.openddal.result.Row;
+import com.openddal.route.rule.GroupObjectNode;
 import com.openddal.route.rule.ObjectNode;
+import com.openddal.value.Value;
 
 public class JdbcWorkerFactory implements WorkerFactory {
 
@@ -39,8 +45,14 @@ public class JdbcWorkerFactory implements WorkerFactory {
     public QueryWorker createQueryWorker(Select select, ObjectNode node,
             Map<ObjectNode, Map<TableFilter, ObjectNode>> consistencyTableNodes, Expression[] rewriteCols,
             Integer limit, Integer offset) {
-        SQLTranslated translated = repo.getSQLTranslator().translate(select, node, consistencyTableNodes, rewriteCols,
-                limit, offset);
+        Object key = Arrays.asList(getNodeKey(node, consistencyTableNodes), Arrays.asList(rewriteCols), limit,
+                offset);
+        SQLTranslated translated = getSQLTemplate(select, key);
+        if (translated == null) {
+            translated = repo.getSQLTranslator().translate(select, node, consistencyTableNodes, rewriteCols, limit,
+                    offset);
+            putSQLTemplate(select, key, translated);
+        }
         JdbcQueryWorker handler = new JdbcQueryWorker(select.getSession(), node.getShardName(), translated.sql,
                 translated.params);
         return handler;
@@ -48,7 +60,21 @@ public class JdbcWorkerFactory implements WorkerFactory {
 
     @Override
     public QueryWorker createQueryWorker(Column[] searchColumns, TableFilter filter, ObjectNode node) {
-        SQLTranslated translated = repo.getSQLTranslator().translate(searchColumns, filter, node);
+        Object key = Arrays.asList(filter, getNodeKey(node, null), Arrays.asList(searchColumns));
+        SQLTranslated translated = getSQLTemplate(filter.getSelect(), key);
+        if (translated == null) {
+            translated = repo.getSQLTranslator().translate(searchColumns, filter, node);
+            putSQLTemplate(filter.getSelect(), key, translated);
+        }
+        JdbcQueryWorker handler = new JdbcQueryWorker(filter.getSession(), node.getShardName(), translated.sql,
+                translated.params);
+        return handler;
+    }
+
+    @Override
+    public QueryWorker createQueryWorker(Column[] searchColumns, TableFilter filter, Expression condition,
+            ObjectNode node) {
+        SQLTranslated translated = repo.getSQLTranslator().translate(searchColumns, filter, condition, node);
         JdbcQueryWorker handler = new JdbcQueryWorker(filter.getSession(), node.getShardName(), translated.sql,
                 translated.params);
         return handler;
@@ -76,7 +102,11 @@ public class JdbcWorkerFactory implements WorkerFactory {
 
     @Override
     public UpdateWorker createUpdateWorker(Delete delete, ObjectNode node) {
-        SQLTranslated translated = repo.getSQLTranslator().translate(delete, node);
+        SQLTranslated translated = getSQLTemplate(delete, node);
+        if (translated == null) {
+            translated = repo.getSQLTranslator().translate(delete, node);
+            putSQLTemplate(delete, node, translated);
+        }
         JdbcUpdateWorker handler = new JdbcUpdateWorker(delete.getSession(), node.getShardName(), translated.sql,
                 translated.params);
         return handler;
@@ -165,5 +195,57 @@ public class JdbcWorkerFactory implements WorkerFactory {
         return handler;
     }
 
+    /**
+     * Get the cached SQL statement of a prepared statement for the given
+     * table nodes, with the current parameter values.
+     *
+     * @param prepared the prepared statement, or null
+     * @param key the key of the table nodes
+     * @return the SQL statement, or null if it needs to be translated
+     */
+    private static SQLTranslated getSQLTemplate(Prepared prepared, Object key) {
+        if (prepared == null) {
+            return null;
+        }
+        SQLTranslated template = prepared.getSQLTemplate(key);
+        if (template == null) {
+            return null;
+        }
+        List<Value> params = ((ParameterBindings) template.params).getValues(prepared.getSession());
+        return SQLTranslated.build().sql(template.sql).sqlParams(params);
+    }
+
+    private static void putSQLTemplate(Prepared prepared, Object key, SQLTranslated translated) {
+        if (prepared != null && translated.params instanceof ParameterBindings
+                && ((ParameterBindings) translated.params).isReusable()) {
+            prepared.putSQLTemplate(key, translated);
+        }
+    }
+
+    /**
+     * Get the key of the table nodes a statement is sent to. The tables of a
+     * grouped node are listed one by one, as they are not part of its equals
+     * method.
+     *
+     * @param node the table node
+     * @param consistencyTableNodes the table nodes of the table filters for
+     *            each node, or null
+     * @return the key
+     */
+    private static Object getNodeKey(ObjectNode node,
+            Map<ObjectNode, Map<TableFilter, ObjectNode>> consistencyTableNodes) {
+        if (node instanceof GroupObjectNode) {
+            ObjectNode[] items = ((GroupObjectNode) node).getItems();
+            Object[] keys = new Object[items.length];
+            for (int i = 0; i < items.length; i++) {
+                keys[i] = getNodeKey(items[i], consistencyTableNodes);
+            }
+            return Arrays.asList(keys);
+        }
+        if (consistencyTableNodes == null) {
+            return node;
+        }
+        return Arrays.asList(node, consistencyTableNodes.get(node));
+    }
 
 }
@@ -84,4 +84,6 @@ public interface SQLTranslator {
 
     SQLTranslated translate(Column[] searchColumns, TableFilter filter, GroupObjectNode node);
 
+    SQLTranslated translate(Column[] searchColumns, TableFilter filter, Expression condition, ObjectNode node);
+
 }
@@ -2,6 +2,7 @@ package com.openddal.repo;
 
 import java.util.Properties;
 import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
 
 import com.openddal.config.SequenceRule;
 import com.openddal.dbobject.schema.Schema;
@@ -12,7 +13,7 @@ import com.openddal.message.ErrorCode;
 
 public class SnowflakeGenerator extends Sequence {
 
-    private long currentValue;
+    private volatile long currentValue;
     private IdWorker idWorker;
 
     public SnowflakeGenerator(Schema schema, String name, SequenceRule config) {
@@ -35,17 +36,22 @@ public class SnowflakeGenerator extends Sequence {
 
 
     @Override
-    public synchronized long getNext(Session session) {
+    public long getNext(Session session) {
         long id = idWorker.getId();
         currentValue = id;
         return id;
     }
 
+    /**
+     * Get the last id generated by this sequence, in any session.
+     *
+     * @return the last id
+     */
     @Override
-    public synchronized long getCurrentValue() {
+    public long getCurrentValue() {
         if (currentValue < 1) {
             throw DbException.get(ErrorCode.FEATURE_NOT_SUPPORTED_1,
-                    "sequence " + getName() + ".currval is not yet defined in this session");
+                    "sequence " + getName() + ".currval is not yet defined");
         }
         return currentValue;
     }
@@ -67,8 +73,10 @@ public class SnowflakeGenerator extends Sequence {
         private static final long timestampLeftShift = sequenceBits + workerIdBits + datacenterIdBits;
         private static final long sequenceMask = -1L ^ (-1L << sequenceBits);
 
-        private long lastTimestamp = -1L;
-        private long sequence;
+        /**
+         * The last timestamp, shifted by the sequence bits, and the sequence.
+         */
+        private final AtomicLong state;
         private static final Random r = new Random();
 
         public IdWorker() {
@@ -87,7 +95,7 @@ public class SnowflakeGenerator extends Sequence {
         public IdWorker(long workerId, long datacenterId, long sequence, long idepoch) {
             this.workerId = workerId;
             this.datacenterId = datacenterId;
-            this.sequence = sequence;
+            this.state = new AtomicLong(sequence & sequenceMask);
             this.idepoch = idepoch;
             if (workerId < 0 || workerId > maxWorkerId) {
                 throw new IllegalArgumentException("workerId is illegal: " + workerId);
@@ -117,25 +125,33 @@ public class SnowflakeGenerator extends Sequence {
             return id;
         }
 
-        private synchronized long nextId() {
-            long timestamp = timeGen();
-            if (timestamp < lastTimestamp) {
-                throw new IllegalStateException("Clock moved backwards.");
-            }
-            if (lastTimestamp == timestamp) {
-                sequence = (sequence + 1) & sequenceMask;
-                if (sequence == 0) {
-                    timestamp = tilNextMillis(lastTimestamp);
+        private long nextId() {
+            while (true) {
+                long last = state.get();
+                long lastTimestamp = last >>> sequenceBits;
+                long sequence = last & sequenceMask;
+                long now = timeGen();
+                // if the clock moved backwards, continue with the last
+                // timestamp, so that the ids are still increasing
+                long timestamp = Math.max(now, lastTimestamp);
+                if (lastTimestamp == timestamp) {
+                    sequence = (sequence + 1) & sequenceMask;
+                    if (sequence == 0) {
+                        timestamp = now < lastTimestamp ? lastTimestamp + 1 : tilNextMillis(lastTimestamp);
+                    }
+                } else {
+                    sequence = 0;
                 }
-            } else {
-                sequence = 0;
+                if (!state.compareAndSet(last, (timestamp << sequenceBits) | sequence)) {
+                    // another thread got an id, try again
+                    continue;
+                }
+                long id = ((timestamp - idepoch) << timestampLeftShift)//
+                        | (datacenterId << datacenterIdShift)//
+                        | (workerId << workerIdShift)//
+                        | sequence;
+                return id;
             }
-            lastTimestamp = timestamp;
-            long id = ((timestamp - idepoch) << timestampLeftShift)//
-                    | (datacenterId << datacenterIdShift)//
-                    | (workerId << workerIdShift)//
-                    | sequence;
-            return id;
         }
 
         /**
@@ -156,7 +172,12 @@ public class SnowflakeGenerator extends Sequence {
             return timestamp;
         }
 
-        private long timeGen() {
+        /**
+         * Get the current time.
+         *
+         * @return the time in milliseconds
+         */
+        protected long timeGen() {
             return System.currentTimeMillis();
         }
 
@@ -166,8 +187,9 @@ public class SnowflakeGenerator extends Sequence {
             sb.append("workerId=").append(workerId);
             sb.append(", datacenterId=").append(datacenterId);
             sb.append(", idepoch=").append(idepoch);
-            sb.append(", lastTimestamp=").append(lastTimestamp);
-            sb.append(", sequence=").append(sequence);
+            long last = state.get();
+            sb.append(", lastTimestamp=").append(last >>> sequenceBits);
+            sb.append(", sequence=").append(last & sequenceMask);
             sb.append('}');
             return sb.toString();
         }
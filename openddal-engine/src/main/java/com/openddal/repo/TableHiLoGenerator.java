@@ -7,6 +7,9 @@ import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
 import java.util.Properties;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.sql.DataSource;
 
@@ -16,12 +19,25 @@ import com.openddal.dbobject.schema.Sequence;
 import com.openddal.engine.Session;
 import com.openddal.message.DbException;
 import com.openddal.message.ErrorCode;
+import com.openddal.message.Trace;
 import com.openddal.route.rule.ObjectNode;
 import com.openddal.util.JdbcUtils;
 import com.openddal.util.StringUtils;
 import com.openddal.value.DataType;
 import com.openddal.value.Value;
 
+/**
+ * A sequence that allocates the high values of the hi/lo algorithm from a
+ * table of one shard.
+ * <p>
+ * The values are handed out from a segment of consecutive values, without
+ * locking. When a part of the segment is used, the next segment is fetched
+ * by the query executor, so that the inserting threads do not need to wait
+ * for the table. The number of high values fetched at once is adapted to
+ * the rate the values are used.
+ *
+ * @author jorgie.li
+ */
 public class TableHiLoGenerator extends Sequence {
 
 
@@ -55,6 +71,22 @@ public class TableHiLoGenerator extends Sequence {
      */
     public static final int DEFAULT_INCREMENT_SIZE = 1;
 
+    /**
+     * The default percentage of a segment that is used before the next
+     * segment is fetched.
+     */
+    public static final int DEFAULT_PREFETCH_PERCENT = 50;
+
+    /**
+     * The default maximum number of high values fetched at once.
+     */
+    public static final int DEFAULT_MAX_FETCH_SIZE = 64;
+
+    /**
+     * The default time in milliseconds one segment should last.
+     */
+    public static final int DEFAULT_SEGMENT_DURATION = 60000;
+
     private ObjectNode tableNode;
 
     private String nameColumnName;
@@ -63,14 +95,30 @@ public class TableHiLoGenerator extends Sequence {
     private int nameColumnLength;
     private int initialValue;
     private int incrementSize;
+    private int prefetchPercent;
+    private int maxFetchSize;
+    private long segmentDuration;
 
     private String selectQuery;
     private String insertQuery;
     private String updateQuery;
 
-    private long accessCount;
+    private volatile long accessCount;
     private DataSource dataSource;
-    private HiloOptimizer optimizer;
+
+    private volatile Segment segment;
+    private volatile long lastValue;
+
+    /**
+     * The prefetched segment, guarded by this object.
+     */
+    private Segment nextSegment;
+    private boolean fetching;
+    private int fetchSize = 1;
+    private long lastFetchTime;
+
+    private final AtomicLong segmentWaits = new AtomicLong();
+    private final AtomicLong segmentWaitNanos = new AtomicLong();
 
     public TableHiLoGenerator(Schema schema, String name, SequenceRule config) {
         super(schema, name, 1, 1);
@@ -101,14 +149,26 @@ public class TableHiLoGenerator extends Sequence {
         nameColumnLength = getIntProperty(params, "nameColumnLength", DEF_NAMECOLUMNLENGTH_LENGTH);
         incrementSize = getIntProperty(params, "cacheSize", (int) getCacheSize());
         initialValue = getIntProperty(params, "initialValue", DEFAULT_INITIAL_VALUE);
+        prefetchPercent = getIntProperty(params, "prefetchPercent", DEFAULT_PREFETCH_PERCENT);
+        maxFetchSize = getIntProperty(params, "maxFetchSize", DEFAULT_MAX_FETCH_SIZE);
+        segmentDuration = getIntProperty(params, "segmentDuration", DEFAULT_SEGMENT_DURATION);
+        if (incrementSize < 1) {
+            throw DbException.getInvalidValueException("cacheSize", incrementSize);
+        }
+        if (prefetchPercent < 0 || prefetchPercent > 100) {
+            throw DbException.getInvalidValueException("prefetchPercent", prefetchPercent);
+        }
+        if (maxFetchSize < 1) {
+            throw DbException.getInvalidValueException("maxFetchSize", maxFetchSize);
+        }
+        trace = database.getTrace(Trace.SEQUENCE);
 
         this.selectQuery = buildSelectQuery();
         this.updateQuery = buildUpdateQuery();
         this.insertQuery = buildInsertQuery();
 
         this.dataSource = repo.getDataSourceByShardName(shardName);
-        this.optimizer = new HiloOptimizer(incrementSize);
-        
+
         this.createTableIfNotExits();
     }
 
@@ -181,24 +241,178 @@ public class TableHiLoGenerator extends Sequence {
     }
 
     @Override
-    public synchronized long getNext(Session session) {
-        try {
-            return optimizer.generate();
-        } catch (SQLException e) {
-            throw DbException.convert(e);
+    public long getNext(Session session) {
+        while (true) {
+            Segment s = segment;
+            if (s != null) {
+                long v = s.next.getAndIncrement();
+                if (v < s.end) {
+                    if (v == s.prefetchAt) {
+                        prefetch();
+                    }
+                    lastValue = v;
+                    return v;
+                }
+            }
+            switchSegment(s);
         }
     }
 
+    /**
+     * Get the last value handed out by this sequence, in any session.
+     *
+     * @return the last value
+     */
     @Override
-    public synchronized long getCurrentValue() {
-        if (optimizer.value < 1) {
+    public long getCurrentValue() {
+        long v = lastValue;
+        if (v < 1) {
             throw DbException.get(ErrorCode.FEATURE_NOT_SUPPORTED_1,
-                    "sequence " + nameValue + ".currval is not yet defined in this session");
+                    "sequence " + nameValue + ".currval is not yet defined");
+        }
+        return v;
+    }
+
+    /**
+     * Get the number of times a caller had to wait for a segment, because the
+     * next segment was still being fetched or was not fetched at all.
+     *
+     * @return the number of waits
+     */
+    public long getSegmentWaitCount() {
+        return segmentWaits.get();
+    }
+
+    /**
+     * Get the total time the callers waited for a segment.
+     *
+     * @return the time in milliseconds
+     */
+    public long getSegmentWaitTime() {
+        return TimeUnit.NANOSECONDS.toMillis(segmentWaitNanos.get());
+    }
+
+    /**
+     * Replace the used up segment with the prefetched segment. If the next
+     * segment is still being fetched, wait for it, and if it was not
+     * fetched, fetch it now.
+     *
+     * @param used the segment that is used up, or null
+     */
+    private void switchSegment(Segment used) {
+        long start = System.nanoTime();
+        boolean waited = false;
+        synchronized (this) {
+            if (segment != used) {
+                // replaced by another thread
+                return;
+            }
+            try {
+                while (fetching) {
+                    waited = true;
+                    wait();
+                }
+                Segment s = nextSegment;
+                nextSegment = null;
+                if (s == null) {
+                    waited = true;
+                    s = fetchSegment();
+                }
+                segment = s;
+            } catch (InterruptedException e) {
+                throw DbException.convert(e);
+            } catch (SQLException e) {
+                throw DbException.convert(e);
+            }
+        }
+        if (!waited) {
+            return;
+        }
+        long nanos = System.nanoTime() - start;
+        segmentWaits.incrementAndGet();
+        segmentWaitNanos.addAndGet(nanos);
+        if (trace.isDebugEnabled()) {
+            trace.debug("sequence {0} waited {1} ms for a segment", nameValue, TimeUnit.NANOSECONDS.toMillis(nanos));
+        }
+    }
+
+    /**
+     * Fetch the next segment in the query executor, unless it is already
+     * fetched.
+     */
+    private void prefetch() {
+        synchronized (this) {
+            if (fetching || nextSegment != null) {
+                return;
+            }
+            fetching = true;
+        }
+        try {
+            database.getQueryExecutor().execute(new Runnable() {
+                @Override
+                public void run() {
+                    Segment s = null;
+                    try {
+                        s = fetchSegment();
+                    } catch (Throwable e) {
+                        // the segment is fetched when it is needed
+                        trace.error(e, "prefetch sequence {0} error", nameValue);
+                    } finally {
+                        fetchDone(s);
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            fetchDone(null);
         }
-        return optimizer.value - 1;
+    }
+
+    private synchronized void fetchDone(Segment s) {
+        nextSegment = s;
+        fetching = false;
+        notifyAll();
+    }
+
+    /**
+     * Fetch the high values of a new segment. Only one segment is fetched at
+     * any time. The number of high values is doubled if the last segment
+     * lasted less than the segment duration, and halved if it lasted more
+     * than twice as long.
+     *
+     * @return the segment
+     */
+    private Segment fetchSegment() throws SQLException {
+        long now = System.currentTimeMillis();
+        if (lastFetchTime > 0) {
+            long elapsed = now - lastFetchTime;
+            if (elapsed < segmentDuration) {
+                fetchSize = Math.min(fetchSize * 2, maxFetchSize);
+            } else if (elapsed > segmentDuration * 2) {
+                fetchSize = Math.max(fetchSize / 2, 1);
+            }
+        }
+        lastFetchTime = now;
+        long hi = queryNextValue(fetchSize);
+        while (hi < 1) {
+            hi = queryNextValue(fetchSize);
+        }
+        // the high values hi to hi + fetchSize - 1
+        long start = (hi - 1) * incrementSize + 1;
+        long end = (hi + fetchSize - 1) * incrementSize + 1;
+        return new Segment(start, end, start + (end - start) * prefetchPercent / 100);
     }
 
     public long queryNextValue() throws SQLException {
+        return queryNextValue(1);
+    }
+
+    /**
+     * Reserve high values in the table.
+     *
+     * @param count the number of high values
+     * @return the first reserved high value
+     */
+    public long queryNextValue(int count) throws SQLException {
         Connection connection = null;
         long value;
         int rows;
@@ -235,7 +449,7 @@ public class TableHiLoGenerator extends Sequence {
 
                 final PreparedStatement updatePS = connection.prepareStatement(updateQuery);
                 try {
-                    long updateValue = value + 1;
+                    long updateValue = value + count;
                     updatePS.setLong(1, updateValue);
                     updatePS.setLong(2, value);
                     updatePS.setString(3, nameValue);
@@ -256,39 +470,21 @@ public class TableHiLoGenerator extends Sequence {
     }
 
     /**
+     * A range of values. The values are handed out by incrementing the next
+     * value, a value that is not below the end is not used.
+     *
      * @see https://vladmihalcea.com/2014/06/23/the-hilo-algorithm/
      */
-    private class HiloOptimizer {
+    private static class Segment {
 
-        private final int incrementSize;
-        private long lastSourceValue;
-        private long upperLimit;
-        private long value;
+        final AtomicLong next;
+        final long end;
+        final long prefetchAt;
 
-        public HiloOptimizer(int incrementSize) {
-            if (incrementSize < 1) {
-                throw new IllegalArgumentException("increment size cannot be less than 1");
-            }
-            this.incrementSize = incrementSize;
-        }
-
-        public long generate() throws SQLException {
-            if (lastSourceValue < 1) {
-                // first call, we need to read the database
-                // value and set up the 'bucket' boundaries
-                lastSourceValue = queryNextValue();
-                while (lastSourceValue < 1) {
-                    lastSourceValue = queryNextValue();
-                }
-                // upperLimit defines the upper end of the bucket values
-                upperLimit = lastSourceValue * incrementSize + 1;
-                // initialize value to the low end of the bucket
-                value = upperLimit - incrementSize;
-            } else if (value >= upperLimit) {
-                lastSourceValue = queryNextValue();
-                upperLimit = lastSourceValue * incrementSize + 1;
-            }
-            return value++;
+        Segment(long start, long end, long prefetchAt) {
+            this.next = new AtomicLong(start);
+            this.end = end;
+            this.prefetchAt = prefetchAt;
         }
     }
 }
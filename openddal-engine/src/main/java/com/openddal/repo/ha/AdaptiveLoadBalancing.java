@@ -0,0 +1,144 @@
+/*
+ * Copyright 2014-2016 the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the “License”);
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an “AS IS” BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.openddal.repo.ha;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Random;
+
+/**
+ * Selects the data source with the lowest cost, as measured by the
+ * requests of the data sources. The cost is divided by the weight of the
+ * data source. The scan starts at a random position, so that data sources
+ * with the same cost are selected evenly. A data source whose circuit breaker
+ * is open is skipped, unless it can be probed.
+ *
+ * @author jorgie.li
+ */
+public abstract class AdaptiveLoadBalancing implements LoadBalancingStrategy {
+
+    private final Random random = new Random();
+    private final boolean readOnly;
+    private volatile Node[] nodes;
+
+    protected AdaptiveLoadBalancing(Collection<DataSourceMarker> nodes, boolean readOnly) {
+        if (nodes == null || nodes.isEmpty()) {
+            throw new IllegalArgumentException("The shards can't empty.");
+        }
+        this.readOnly = readOnly;
+        Node[] list = new Node[nodes.size()];
+        int i = 0;
+        for (DataSourceMarker node : nodes) {
+            list[i++] = new Node(node, readOnly);
+        }
+        this.nodes = list;
+    }
+
+    @Override
+    public DataSourceMarker next() {
+        return next(System.nanoTime());
+    }
+
+    /**
+     * Choose the data source with the lowest cost. Of data sources with the
+     * same cost, one is chosen at random.
+     *
+     * @param now the current time in nanoseconds
+     * @return the data source
+     */
+    public DataSourceMarker next(long now) {
+        Node[] list = nodes;
+        int len = list.length;
+        if (len == 1) {
+            return list[0].marker;
+        }
+        int start = random.nextInt(len);
+        DataSourceMarker best = null, fallback = null;
+        double bestCost = 0, fallbackCost = 0;
+        for (int i = 0; i < len; i++) {
+            Node n = list[(start + i) % len];
+            double c = getCost(n.marker, now) / n.weight;
+            if (!n.marker.isAvailable()) {
+                if (n.marker.tryProbe(now)) {
+                    return n.marker;
+                }
+                if (fallback == null || c < fallbackCost) {
+                    fallback = n.marker;
+                    fallbackCost = c;
+                }
+            } else if (best == null || c < bestCost) {
+                best = n.marker;
+                bestCost = c;
+            }
+        }
+        return best != null ? best : fallback;
+    }
+
+    @Override
+    public synchronized void add(DataSourceMarker node) {
+        Node[] list = nodes;
+        for (Node n : list) {
+            if (n.marker == node) {
+                return;
+            }
+        }
+        Node[] copy = Arrays.copyOf(list, list.length + 1);
+        copy[list.length] = new Node(node, readOnly);
+        nodes = copy;
+    }
+
+    @Override
+    public synchronized void remove(DataSourceMarker node) {
+        Node[] list = nodes;
+        if (list.length == 1) {
+            return;
+        }
+        for (int i = 0; i < list.length; i++) {
+            if (list[i].marker == node) {
+                Node[] copy = new Node[list.length - 1];
+                System.arraycopy(list, 0, copy, 0, i);
+                System.arraycopy(list, i + 1, copy, i, copy.length - i);
+                nodes = copy;
+                return;
+            }
+        }
+    }
+
+    /**
+     * Get the cost of sending a request to the data source.
+     *
+     * @param node the data source
+     * @param now the current time in nanoseconds
+     * @return the cost
+     */
+    protected abstract double getCost(DataSourceMarker node, long now);
+
+    /**
+     * A data source and its weight.
+     */
+    private static final class Node {
+
+        final DataSourceMarker marker;
+        final int weight;
+
+        Node(DataSourceMarker marker, boolean readOnly) {
+            this.marker = marker;
+            this.weight = Math.max(1, readOnly ? marker.getrWeight() : marker.getwWeight());
+        }
+
+    }
+
+}
@@ -0,0 +1,251 @@
+/*
+ * Copyright 2014-2016 the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the “License”);
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an “AS IS” BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.openddal.repo.ha;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import com.openddal.engine.DbSettings;
+import com.openddal.message.Trace;
+
+/**
+ * Stops sending requests to a data source that fails. The circuit breaker
+ * is opened if the moving average of the failed requests, counting the
+ * responses slower than the slow call time as failed, reaches the failure
+ * rate. While it is open, the data source is not selected, until the open
+ * time passed. Then one request is sent as a probe: if it succeeds, the
+ * circuit breaker is closed, otherwise it is opened again for twice the
+ * time. The probe is the first request started after the open time passed;
+ * the requests that were started before do not change the state. The open
+ * time is randomized, so that the data sources that failed at the same time
+ * are not probed at the same time. It is only reset after the circuit
+ * breaker stayed closed for longer than the longest open time.
+ *
+ * @author jorgie.li
+ */
+public class CircuitBreaker {
+
+    /**
+     * The requests are sent to the data source.
+     */
+    public static final int CLOSED = 0;
+
+    /**
+     * No requests are sent to the data source.
+     */
+    public static final int OPEN = 1;
+
+    /**
+     * One request was sent to the data source to test whether it recovered.
+     */
+    public static final int HALF_OPEN = 2;
+
+    /**
+     * The weight of the last request in the failure rate.
+     */
+    private static final double FAILURE_WEIGHT = 0.2;
+
+    /**
+     * The number of requests after closing before the circuit breaker can be
+     * opened.
+     */
+    private static final int MIN_CALLS = 5;
+
+    /**
+     * The maximum number of times the open time is doubled.
+     */
+    private static final int MAX_BACKOFF_SHIFT = 5;
+
+    private final String name;
+    private final Trace trace;
+    private final double failureRateThreshold;
+    private final long slowCallNanos;
+    private final long openNanos;
+    private final Random random = new Random();
+    private volatile int state = CLOSED;
+    private double failureRate;
+    private int calls;
+    private int openCount;
+    private long retryTime;
+    private long tripCount;
+    private boolean probeStarted;
+    private long probeStart;
+    private long closeTime;
+
+    /**
+     * Create a circuit breaker for a data source.
+     *
+     * @param name the name of the data source
+     * @param settings the database settings
+     * @param trace the trace
+     */
+    public CircuitBreaker(String name, DbSettings settings, Trace trace) {
+        this.name = name;
+        this.trace = trace;
+        this.failureRateThreshold = settings.circuitBreakerFailureRate / 100d;
+        this.slowCallNanos = TimeUnit.MILLISECONDS.toNanos(settings.circuitBreakerSlowCallTime);
+        this.openNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(1, settings.circuitBreakerOpenTime));
+    }
+
+    /**
+     * Check whether the requests are sent to the data source.
+     *
+     * @return true if the circuit breaker is closed
+     */
+    public boolean isClosed() {
+        return state == CLOSED;
+    }
+
+    /**
+     * Try to send a probe to the data source. This is allowed once the open
+     * time passed, and again if the probe did not complete within the open
+     * time.
+     *
+     * @param now the current time in nanoseconds
+     * @return true if the request may be sent
+     */
+    public synchronized boolean tryProbe(long now) {
+        if (state == CLOSED) {
+            return true;
+        }
+        if (now - retryTime < 0) {
+            return false;
+        }
+        state = HALF_OPEN;
+        probeStarted = false;
+        retryTime = now + getOpenTime();
+        return true;
+    }
+
+    /**
+     * Start a request. If a probe may be sent, the request is the probe.
+     *
+     * @param start the start time in nanoseconds
+     */
+    public synchronized void onRequest(long start) {
+        if (state == HALF_OPEN && !probeStarted) {
+            probeStarted = true;
+            probeStart = start;
+        }
+    }
+
+    /**
+     * Add a successful request.
+     *
+     * @param start the start time in nanoseconds
+     * @param rtt the response time in nanoseconds
+     */
+    public synchronized void onSuccess(long start, long rtt) {
+        boolean slow = slowCallNanos > 0 && rtt > slowCallNanos;
+        if (state == HALF_OPEN) {
+            if (!isProbe(start)) {
+                return;
+            }
+            if (slow) {
+                open();
+            } else {
+                close();
+            }
+        } else if (state == CLOSED) {
+            if (openCount > 0 && start + rtt - closeTime > openNanos << MAX_BACKOFF_SHIFT) {
+                // stayed closed for long enough
+                openCount = 0;
+            }
+            record(slow);
+        }
+    }
+
+    /**
+     * Add a request that failed because the data source is not reachable or
+     * overloaded.
+     *
+     * @param start the start time in nanoseconds
+     */
+    public synchronized void onError(long start) {
+        if (state == HALF_OPEN) {
+            if (isProbe(start)) {
+                open();
+            }
+        } else if (state == CLOSED) {
+            record(true);
+        }
+    }
+
+    /**
+     * Add a failed attempt to connect. While a probe may be sent, only the
+     * probe connects to the data source, so the probe failed.
+     */
+    public synchronized void onConnectError() {
+        if (state == HALF_OPEN) {
+            open();
+        } else if (state == CLOSED) {
+            record(true);
+        }
+    }
+
+    private boolean isProbe(long start) {
+        return probeStarted && start == probeStart;
+    }
+
+    private void record(boolean failed) {
+        failureRate = failureRate * (1 - FAILURE_WEIGHT) + (failed ? FAILURE_WEIGHT : 0);
+        if (++calls >= MIN_CALLS && failureRate >= failureRateThreshold) {
+            open();
+        }
+    }
+
+    private void open() {
+        long openTime = getOpenTime();
+        // half of the time is random
+        openTime = openTime / 2 + (long) (random.nextDouble() * (openTime / 2));
+        openCount++;
+        tripCount++;
+        retryTime = System.nanoTime() + openTime;
+        state = OPEN;
+        trace.info("circuit breaker of {0} is open for {1} ms", name, TimeUnit.NANOSECONDS.toMillis(openTime));
+    }
+
+    private void close() {
+        state = CLOSED;
+        failureRate = 0;
+        calls = 0;
+        closeTime = System.nanoTime();
+        trace.info("circuit breaker of {0} is closed", name);
+    }
+
+    private long getOpenTime() {
+        return openNanos << Math.min(openCount, MAX_BACKOFF_SHIFT);
+    }
+
+    /**
+     * Get the state.
+     *
+     * @return CLOSED, OPEN, or HALF_OPEN
+     */
+    public int getState() {
+        return state;
+    }
+
+    /**
+     * Get the number of times the circuit breaker was opened.
+     *
+     * @return the number of times
+     */
+    public synchronized long getTripCount() {
+        return tripCount;
+    }
+
+}
@@ -0,0 +1,206 @@
+/*
+ * Copyright 2014-2016 the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the “License”);
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an “AS IS” BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.openddal.repo.ha;
+
+import java.sql.SQLException;
+import java.sql.SQLTimeoutException;
+import java.sql.SQLTransientConnectionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import com.openddal.message.DbException;
+import com.openddal.message.ErrorCode;
+
+/**
+ * Limits the number of statements that run on a shard at the same time. The
+ * limit is adjusted with additive increase and multiplicative decrease: it
+ * grows by one for each response that is faster than the latency threshold
+ * while at least half of the limit is used, and shrinks by a tenth for each
+ * slow response, timeout, or connection error. If the limit is reached, a
+ * statement waits for the configured time and then fails, so that a slow
+ * shard does not block the threads of the statements on the other shards.
+ *
+ * @author jorgie.li
+ */
+public class ConcurrencyLimiter {
+
+    private static final double BACKOFF_RATIO = 0.9;
+
+    private final String shardName;
+    private final int minLimit;
+    private final int maxLimit;
+    private final long maxWaitNanos;
+    private final long latencyThresholdNanos;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition released = lock.newCondition();
+    private double limit;
+    private int inFlight;
+
+    private final AtomicLong rejected = new AtomicLong();
+
+    /**
+     * Create a limiter.
+     *
+     * @param shardName the shard name
+     * @param initialLimit the initial limit
+     * @param maxLimit the maximum limit
+     * @param maxWait the time in milliseconds a statement waits if the limit
+     *            is reached, 0 to fail at once
+     * @param latencyThreshold the response time in milliseconds above which
+     *            the limit is reduced
+     */
+    public ConcurrencyLimiter(String shardName, int initialLimit, int maxLimit, int maxWait, int latencyThreshold) {
+        this.shardName = shardName;
+        this.minLimit = 1;
+        this.maxLimit = Math.max(initialLimit, maxLimit);
+        this.limit = Math.max(minLimit, initialLimit);
+        this.maxWaitNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(0, maxWait));
+        this.latencyThresholdNanos = TimeUnit.MILLISECONDS.toNanos(latencyThreshold);
+    }
+
+    /**
+     * Acquire a permit to run a statement on the shard. The permit must be
+     * released with {@link #release()}.
+     *
+     * @throws DbException if the limit is still reached after the wait time
+     */
+    public void acquire() {
+        lock.lock();
+        try {
+            long nanos = maxWaitNanos;
+            while (inFlight >= (int) limit) {
+                if (nanos <= 0) {
+                    rejected.incrementAndGet();
+                    throw DbException.get(ErrorCode.SHARD_OVERLOADED_2, shardName, String.valueOf(inFlight));
+                }
+                nanos = released.awaitNanos(nanos);
+            }
+            inFlight++;
+        } catch (InterruptedException e) {
+            throw DbException.convert(e);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Release a permit.
+     */
+    public void release() {
+        lock.lock();
+        try {
+            inFlight--;
+            released.signal();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Adjust the limit to the response time of a statement.
+     *
+     * @param latencyNanos the response time in nanoseconds
+     */
+    public void onSample(long latencyNanos) {
+        if (latencyNanos > latencyThresholdNanos) {
+            onDropped();
+            return;
+        }
+        lock.lock();
+        try {
+            if (inFlight * 2 >= limit && limit < maxLimit) {
+                limit = Math.min(maxLimit, limit + 1);
+                released.signal();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Reduce the limit after a statement failed because the shard is slow or
+     * not reachable.
+     */
+    public void onDropped() {
+        lock.lock();
+        try {
+            limit = Math.max(minLimit, limit * BACKOFF_RATIO);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Check whether the exception shows that the shard is overloaded, that
+     * is the statement timed out or the connection failed.
+     *
+     * @param e the exception
+     * @return true if the limit should be reduced
+     */
+    public static boolean isOverload(SQLException e) {
+        if (e instanceof SQLTimeoutException || e instanceof SQLTransientConnectionException) {
+            return true;
+        }
+        String state = e.getSQLState();
+        return state != null && state.startsWith("08");
+    }
+
+    public String getShardName() {
+        return shardName;
+    }
+
+    /**
+     * Get the current limit.
+     *
+     * @return the number of statements that may run at the same time
+     */
+    public int getLimit() {
+        lock.lock();
+        try {
+            return (int) limit;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Get the number of statements that run on the shard.
+     *
+     * @return the number of permits in use
+     */
+    public int getInFlight() {
+        lock.lock();
+        try {
+            return inFlight;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Get the number of statements that failed because the limit was
+     * reached.
+     *
+     * @return the number of rejected statements
+     */
+    public long getRejectedCount() {
+        return rejected.get();
+    }
+
+}
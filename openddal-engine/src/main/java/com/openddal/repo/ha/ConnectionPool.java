@@ -0,0 +1,518 @@
+/*
+ * Copyright 2014-2016 the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the “License”);
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an “AS IS” BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.openddal.repo.ha;
+
+import java.io.PrintWriter;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.SQLTransientConnectionException;
+import java.sql.Statement;
+import java.util.List;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.Logger;
+
+import javax.sql.DataSource;
+
+import com.openddal.engine.DbSettings;
+import com.openddal.message.DbException;
+import com.openddal.message.Trace;
+import com.openddal.util.JdbcUtils;
+import com.openddal.util.LatencyHistogram;
+import com.openddal.util.New;
+
+/**
+ * A pool of the connections of a data source. A connection is borrowed by
+ * marking an idle connection as used, with a compare-and-set on its state,
+ * and returned by marking it idle again, so that borrowing and returning do
+ * not lock. The connections that are used first are the ones opened first,
+ * so that the connections that are not needed become idle and are closed.
+ * Only if all connections are in use, the caller waits for a permit. The
+ * number of open connections, including the ones that are being validated,
+ * is never larger than the maximum size.
+ * <p>
+ * The minimum number of connections is opened when the pool is created.
+ * The idle connections are validated and closed by the maintenance task of
+ * the repository.
+ *
+ * @author jorgie.li
+ */
+public class ConnectionPool implements DataSource {
+
+    private static final int IDLE = 0;
+    private static final int IN_USE = 1;
+    private static final int RESERVED = 2;
+
+    private static final int WAIT_TIME_STRIPES = 8;
+
+    /**
+     * The time to wait for a connection that is being validated.
+     */
+    private static final long RESERVED_WAIT_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    private final String name;
+    private final DataSource dataSource;
+    private final Trace trace;
+    private final int maxSize;
+    private final int minIdle;
+    private final long maxWait;
+    private final long idleTimeout;
+    private final long validationInterval;
+    private final String validationQuery;
+    private final int validationQueryTimeout;
+    private final List<Entry> entries = New.copyOnWriteArrayList();
+    private final Semaphore permits;
+    private final AtomicInteger size = new AtomicInteger();
+    private final AtomicInteger active = new AtomicInteger();
+    private final AtomicLong borrowCount = new AtomicLong();
+    private final AtomicLong timeoutCount = new AtomicLong();
+    private final LatencyHistogram waitTime = new LatencyHistogram(WAIT_TIME_STRIPES);
+    private volatile boolean closed;
+
+    /**
+     * Create a pool of the connections of a data source.
+     *
+     * @param name the name of the data source
+     * @param dataSource the data source
+     * @param settings the database settings
+     * @param trace the trace
+     */
+    public ConnectionPool(String name, DataSource dataSource, DbSettings settings, Trace trace) {
+        if (dataSource == null) {
+            throw new IllegalArgumentException("No dataSource specified");
+        }
+        if (settings.connectionPoolSize < 1) {
+            throw DbException.getInvalidValueException("connectionPoolSize", settings.connectionPoolSize);
+        }
+        this.name = name;
+        this.dataSource = dataSource;
+        this.trace = trace;
+        this.maxSize = settings.connectionPoolSize;
+        this.minIdle = Math.min(Math.max(0, settings.connectionPoolMinIdle), maxSize);
+        this.maxWait = Math.max(0, settings.connectionPoolMaxWait);
+        this.idleTimeout = TimeUnit.MILLISECONDS.toNanos(settings.connectionPoolIdleTimeout);
+        this.validationInterval = TimeUnit.MILLISECONDS.toNanos(settings.connectionPoolValidationInterval);
+        this.validationQuery = settings.validationQuery;
+        this.validationQueryTimeout = settings.validationQueryTimeout > 0 ? settings.validationQueryTimeout : 5;
+        this.permits = new Semaphore(maxSize);
+    }
+
+    /**
+     * Open the minimum number of connections. If the data source can not be
+     * connected, the connections are opened later by the maintenance task.
+     */
+    public void warmUp() {
+        fill();
+    }
+
+    /**
+     * Validate the idle connections that were not used for a while, close
+     * the connections that are broken or idle for too long, and open the
+     * minimum number of connections.
+     */
+    public void maintain() {
+        long now = System.nanoTime();
+        for (Entry e : entries) {
+            boolean expired = now - e.lastUsed > idleTimeout && entries.size() > minIdle;
+            boolean stale = now - e.lastChecked > validationInterval;
+            if ((expired || stale) && e.state.compareAndSet(IDLE, RESERVED)) {
+                if (expired || !validate(e)) {
+                    discard(e);
+                } else {
+                    e.state.set(IDLE);
+                }
+            }
+        }
+        fill();
+    }
+
+    /**
+     * Close the idle connections, and the connections in use when they are
+     * returned.
+     */
+    public void close() {
+        closed = true;
+        closeIdle();
+    }
+
+    @Override
+    public Connection getConnection() throws SQLException {
+        if (closed) {
+            throw new SQLException("Connection pool " + name + " is closed");
+        }
+        long start = System.nanoTime();
+        acquire(start);
+        try {
+            Entry e = take(start);
+            active.incrementAndGet();
+            borrowCount.incrementAndGet();
+            waitTime.record(System.nanoTime() - start);
+            return new PooledConnection(this, e);
+        } catch (SQLException ex) {
+            permits.release();
+            throw ex;
+        } catch (RuntimeException ex) {
+            permits.release();
+            throw ex;
+        }
+    }
+
+    /**
+     * Open a connection with the given user name. These connections are not
+     * pooled.
+     *
+     * @param username the user name
+     * @param password the password
+     * @return the connection
+     */
+    @Override
+    public Connection getConnection(String username, String password) throws SQLException {
+        return dataSource.getConnection(username, password);
+    }
+
+    private void acquire(long start) throws SQLException {
+        if (permits.tryAcquire()) {
+            return;
+        }
+        boolean acquired;
+        try {
+            acquired = permits.tryAcquire(maxWait, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while waiting for a connection of " + name, e);
+        }
+        if (!acquired) {
+            timeoutCount.incrementAndGet();
+            waitTime.record(System.nanoTime() - start);
+            throw new SQLTransientConnectionException("Timeout after " + maxWait
+                    + " ms waiting for a connection of " + name + ", active: " + active.get());
+        }
+    }
+
+    /**
+     * Borrow an idle connection, or open a new one. If the maximum number of
+     * connections is open, the caller holds a permit, so one of them is idle
+     * or being validated by the maintenance task, and the caller waits until
+     * it is idle or closed.
+     *
+     * @param start the time the caller started to wait
+     * @return the connection
+     */
+    private Entry take(long start) throws SQLException {
+        long deadline = start + TimeUnit.MILLISECONDS.toNanos(maxWait);
+        while (true) {
+            for (Entry e : entries) {
+                if (e.state.compareAndSet(IDLE, IN_USE)) {
+                    if (System.nanoTime() - e.lastChecked < validationInterval || validate(e)) {
+                        return e;
+                    }
+                    discard(e);
+                }
+            }
+            if (reserveSize()) {
+                return open();
+            }
+            if (System.nanoTime() - deadline > 0) {
+                timeoutCount.incrementAndGet();
+                throw new SQLTransientConnectionException("Timeout after " + maxWait
+                        + " ms waiting for a validated connection of " + name + ", size: " + size.get());
+            }
+            LockSupport.parkNanos(RESERVED_WAIT_NANOS);
+        }
+    }
+
+    /**
+     * Count a connection that is about to be opened, if the maximum number
+     * of connections is not reached.
+     *
+     * @return true if the connection may be opened
+     */
+    private boolean reserveSize() {
+        while (true) {
+            int s = size.get();
+            if (s >= maxSize) {
+                return false;
+            }
+            if (size.compareAndSet(s, s + 1)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Open a connection. The caller must have reserved the size.
+     *
+     * @return the connection, in use
+     */
+    private Entry open() throws SQLException {
+        Entry e;
+        try {
+            Connection conn = dataSource.getConnection();
+            try {
+                e = new Entry(conn);
+            } catch (SQLException ex) {
+                JdbcUtils.closeSilently(conn);
+                throw ex;
+            }
+        } catch (SQLException ex) {
+            size.decrementAndGet();
+            throw ex;
+        } catch (RuntimeException ex) {
+            size.decrementAndGet();
+            throw ex;
+        }
+        entries.add(e);
+        return e;
+    }
+
+    private void fill() {
+        while (!closed && size.get() < minIdle && reserveSize()) {
+            try {
+                open().state.set(IDLE);
+            } catch (SQLException e) {
+                trace.error(e, "can not open a connection of {0}", name);
+                break;
+            }
+        }
+        if (closed) {
+            closeIdle();
+        }
+    }
+
+    private boolean validate(Entry e) {
+        Connection conn = e.connection;
+        try {
+            if (conn.isClosed()) {
+                return false;
+            }
+            if (validationQuery == null) {
+                if (!conn.isValid(validationQueryTimeout)) {
+                    return false;
+                }
+            } else {
+                Statement stmt = conn.createStatement();
+                try {
+                    stmt.setQueryTimeout(validationQueryTimeout);
+                    stmt.executeQuery(validationQuery).close();
+                } finally {
+                    JdbcUtils.closeSilently(stmt);
+                }
+            }
+            e.lastChecked = System.nanoTime();
+            return true;
+        } catch (SQLException ex) {
+            if (trace.isDebugEnabled()) {
+                trace.debug(ex, "connection of " + name + " is broken");
+            }
+            return false;
+        }
+    }
+
+    private void discard(Entry e) {
+        if (entries.remove(e)) {
+            size.decrementAndGet();
+        }
+        JdbcUtils.closeSilently(e.connection);
+    }
+
+    private void closeIdle() {
+        for (Entry e : entries) {
+            if (e.state.compareAndSet(IDLE, RESERVED)) {
+                discard(e);
+            }
+        }
+    }
+
+    /**
+     * Return a connection to the pool.
+     *
+     * @param e the connection
+     * @param reusable whether the connection can be borrowed again
+     */
+    void release(Entry e, boolean reusable) {
+        try {
+            if (reusable && !closed) {
+                long now = System.nanoTime();
+                e.lastUsed = now;
+                e.lastChecked = now;
+                e.state.set(IDLE);
+                if (closed) {
+                    closeIdle();
+                }
+            } else {
+                discard(e);
+            }
+        } finally {
+            active.decrementAndGet();
+            permits.release();
+        }
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Get the data source of the connections.
+     *
+     * @return the data source
+     */
+    public DataSource getDataSource() {
+        return dataSource;
+    }
+
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    /**
+     * Get the number of open connections.
+     *
+     * @return the number of connections
+     */
+    public int getSize() {
+        return entries.size();
+    }
+
+    /**
+     * Get the number of connections that are borrowed.
+     *
+     * @return the number of connections
+     */
+    public int getActiveCount() {
+        return active.get();
+    }
+
+    /**
+     * Get the number of open connections that are not borrowed.
+     *
+     * @return the number of connections
+     */
+    public int getIdleCount() {
+        int count = 0;
+        for (Entry e : entries) {
+            if (e.state.get() == IDLE) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Get the number of connections that were borrowed.
+     *
+     * @return the number of connections
+     */
+    public long getBorrowCount() {
+        return borrowCount.get();
+    }
+
+    /**
+     * Get the number of times no connection was available within the
+     * maximum wait time.
+     *
+     * @return the number of timeouts
+     */
+    public long getTimeoutCount() {
+        return timeoutCount.get();
+    }
+
+    /**
+     * Get the times waited to borrow a connection.
+     *
+     * @return the histogram of the wait times
+     */
+    public LatencyHistogram getWaitTime() {
+        return waitTime;
+    }
+
+    @Override
+    public PrintWriter getLogWriter() throws SQLException {
+        return dataSource.getLogWriter();
+    }
+
+    @Override
+    public void setLogWriter(PrintWriter out) throws SQLException {
+        dataSource.setLogWriter(out);
+    }
+
+    @Override
+    public void setLoginTimeout(int seconds) throws SQLException {
+        dataSource.setLoginTimeout(seconds);
+    }
+
+    @Override
+    public int getLoginTimeout() throws SQLException {
+        return dataSource.getLoginTimeout();
+    }
+
+    /**
+     * [Not supported] Java 1.7
+     */
+    public Logger getParentLogger() {
+        return null;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <T> T unwrap(Class<T> iface) throws SQLException {
+        if (iface.isInstance(this)) {
+            return (T) this;
+        }
+        return dataSource.unwrap(iface);
+    }
+
+    @Override
+    public boolean isWrapperFor(Class<?> iface) throws SQLException {
+        return iface.isInstance(this) || dataSource.isWrapperFor(iface);
+    }
+
+    @Override
+    public String toString() {
+        return "ConnectionPool [name=" + name + ", size=" + entries.size() + ", active=" + active.get() + "]";
+    }
+
+    /**
+     * A physical connection of the pool, and the settings it had when it was
+     * opened.
+     */
+    static final class Entry {
+
+        final Connection connection;
+        final AtomicInteger state = new AtomicInteger(IN_USE);
+        final boolean autoCommit;
+        final boolean readOnly;
+        final int transactionIsolation;
+        final String catalog;
+        volatile long lastUsed;
+        volatile long lastChecked;
+
+        Entry(Connection connection) throws SQLException {
+            this.connection = connection;
+            this.autoCommit = connection.getAutoCommit();
+            this.readOnly = connection.isReadOnly();
+            this.transactionIsolation = connection.getTransactionIsolation();
+            this.catalog = connection.getCatalog();
+            this.lastUsed = System.nanoTime();
+            this.lastChecked = lastUsed;
+        }
+
+    }
+
+}
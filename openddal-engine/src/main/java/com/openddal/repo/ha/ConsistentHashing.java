@@ -18,11 +18,18 @@ package com.openddal.repo.ha;
 import com.openddal.util.MurmurHash;
 
 import java.util.Collection;
+import java.util.Map;
 import java.util.Random;
-import java.util.SortedMap;
-import java.util.TreeMap;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
 
 /**
+ * Selects the data sources at random, by weight. Each data source is placed
+ * on a ring of hash values, once for each unit of its weight. Adding or
+ * removing a data source only changes its own places on the ring, which can
+ * be read at the same time. A data source whose circuit breaker is open is
+ * skipped, and the next one on the ring is used, unless it can be probed.
+ *
  * @author jorgie.li
  */
 public class ConsistentHashing implements LoadBalancingStrategy {
@@ -32,7 +39,8 @@ public class ConsistentHashing implements LoadBalancingStrategy {
     private int numberOfReplicas = defaultNumberOfReplicas;
     private Random random = new Random();
     private boolean readOnly;
-    private SortedMap<Integer, DataSourceMarker> circle = new TreeMap<Integer, DataSourceMarker>();
+    private final ConcurrentNavigableMap<Integer, DataSourceMarker> circle =
+            new ConcurrentSkipListMap<Integer, DataSourceMarker>();
 
     public ConsistentHashing(Collection<DataSourceMarker> nodes, boolean readOnly) {
         if (numberOfReplicas < 1) {
@@ -55,19 +63,37 @@ public class ConsistentHashing implements LoadBalancingStrategy {
         return new StringBuilder(input).append('%').append(counter).append('%').toString();
     }
 
-    public void add(DataSourceMarker node) {
+    private int getNodeCount(DataSourceMarker node) {
         int weight = readOnly ? node.getrWeight() : node.getwWeight();
-        int nodeCount = numberOfReplicas * weight;
-        for (int i = 0; i < nodeCount; i++) {
+        return numberOfReplicas * weight;
+    }
+
+    @Override
+    public synchronized void add(DataSourceMarker node) {
+        for (int i = 0, nodeCount = getNodeCount(node); i < nodeCount; i++) {
             String decorateWithCounter = decorateWithCounter(node.toString(), i);
             circle.put(hash(decorateWithCounter), node);
         }
     }
 
-    public void remove(String node) {
-        for (int i = 0; i < numberOfReplicas; i++) {
-            circle.remove(hash(node.toString() + i));
+    @Override
+    public synchronized void remove(DataSourceMarker node) {
+        if (!hasOtherNode(node)) {
+            return;
+        }
+        for (int i = 0, nodeCount = getNodeCount(node); i < nodeCount; i++) {
+            String decorateWithCounter = decorateWithCounter(node.toString(), i);
+            circle.remove(hash(decorateWithCounter), node);
+        }
+    }
+
+    private boolean hasOtherNode(DataSourceMarker node) {
+        for (DataSourceMarker n : circle.values()) {
+            if (n != node) {
+                return true;
+            }
         }
+        return false;
     }
 
     public DataSourceMarker get(Object key) {
@@ -75,11 +101,25 @@ public class ConsistentHashing implements LoadBalancingStrategy {
             return null;
         }
         int hash = hash(key.toString());
-        if (!circle.containsKey(hash)) {
-            SortedMap<Integer, DataSourceMarker> tailMap = circle.tailMap(hash);
-            hash = tailMap.isEmpty() ? circle.firstKey() : tailMap.firstKey();
+        DataSourceMarker first = null;
+        long now = 0;
+        for (int round = 0; round < 2; round++) {
+            Map<Integer, DataSourceMarker> part = round == 0 ? circle.tailMap(hash) : circle.headMap(hash);
+            for (DataSourceMarker node : part.values()) {
+                if (node.isAvailable()) {
+                    return node;
+                }
+                if (first == null) {
+                    first = node;
+                    now = System.nanoTime();
+                }
+                if (node.tryProbe(now)) {
+                    return node;
+                }
+            }
         }
-        return circle.get(hash);
+        // all data sources are open
+        return first;
     }
 
     public boolean hasNodes() {
@@ -26,6 +26,11 @@ import java.util.concurrent.atomic.AtomicInteger;
  */
 public class DataSourceMarker {
 
+    /**
+     * The weight of the last request in the error rate.
+     */
+    private static final double ERROR_WEIGHT = 0.2;
+
     private String uid;
     private String shardName;
     private DataSource dataSource;
@@ -34,6 +39,11 @@ public class DataSourceMarker {
     private int rWeight;
     private int wWeight;
     private boolean abnormal;
+    private final AtomicInteger outstanding = new AtomicInteger(0);
+    private double latency;
+    private double errorRate;
+    private long latencyTime;
+    private CircuitBreaker circuitBreaker;
 
     public String getUid() {
         return uid;
@@ -149,6 +159,177 @@ public class DataSourceMarker {
         this.abnormal = abnormal;
     }
 
+    /**
+     * Get the number of requests that were sent to this data source and are
+     * not completed yet.
+     *
+     * @return the number of requests
+     */
+    public int getOutstanding() {
+        return outstanding.get();
+    }
+
+    /**
+     * Start a request on this data source.
+     *
+     * @return the start time in nanoseconds
+     */
+    public long requestStarted() {
+        outstanding.incrementAndGet();
+        long start = System.nanoTime();
+        if (circuitBreaker != null) {
+            circuitBreaker.onRequest(start);
+        }
+        return start;
+    }
+
+    /**
+     * Add the response time of a request to the average latency, and the
+     * success to the error rate.
+     *
+     * @param start the start time, as returned by requestStarted
+     */
+    public void responseReceived(long start) {
+        responseReceived(start, System.nanoTime());
+    }
+
+    /**
+     * Add the response time of a request to the average latency, and the
+     * success to the error rate.
+     *
+     * @param start the start time, as returned by requestStarted
+     * @param now the current time in nanoseconds
+     */
+    public void responseReceived(long start, long now) {
+        long rtt = now - start;
+        synchronized (this) {
+            double w = Math.exp(-(now - latencyTime) / (double) PeakEwmaLatency.DECAY_NANOS);
+            if (rtt > latency) {
+                // react to a slow response at once
+                latency = rtt;
+            } else {
+                latency = latency * w + rtt * (1 - w);
+            }
+            errorRate = errorRate * w * (1 - ERROR_WEIGHT);
+            latencyTime = now;
+        }
+        if (circuitBreaker != null) {
+            circuitBreaker.onSuccess(start, rtt);
+        }
+    }
+
+    /**
+     * Add a failed attempt to connect to the error rate.
+     */
+    public void errorReceived() {
+        addError(System.nanoTime());
+        if (circuitBreaker != null) {
+            circuitBreaker.onConnectError();
+        }
+    }
+
+    /**
+     * Add a failed request to the error rate. Only failures that show that
+     * the data source is not reachable or overloaded should be counted.
+     *
+     * @param start the start time, as returned by requestStarted
+     */
+    public void errorReceived(long start) {
+        errorReceived(start, System.nanoTime());
+    }
+
+    /**
+     * Add a failed request to the error rate. Only failures that show that
+     * the data source is not reachable or overloaded should be counted.
+     *
+     * @param start the start time, as returned by requestStarted
+     * @param now the current time in nanoseconds
+     */
+    public void errorReceived(long start, long now) {
+        addError(now);
+        if (circuitBreaker != null) {
+            circuitBreaker.onError(start);
+        }
+    }
+
+    private void addError(long now) {
+        synchronized (this) {
+            double w = Math.exp(-(now - latencyTime) / (double) PeakEwmaLatency.DECAY_NANOS);
+            latency = latency * w;
+            errorRate = errorRate * w * (1 - ERROR_WEIGHT) + ERROR_WEIGHT;
+            latencyTime = now;
+        }
+    }
+
+    /**
+     * Complete a request on this data source.
+     */
+    public void requestCompleted() {
+        outstanding.decrementAndGet();
+    }
+
+    /**
+     * Get the average latency, decayed by the time since the last response.
+     *
+     * @param now the current time in nanoseconds
+     * @return the latency in nanoseconds, 0 if unknown
+     */
+    public synchronized double getLatency(long now) {
+        if (latency == 0) {
+            return 0;
+        }
+        return latency * Math.exp(-(now - latencyTime) / (double) PeakEwmaLatency.DECAY_NANOS);
+    }
+
+    /**
+     * Get the moving average of the failed requests, decayed by the time
+     * since the last request.
+     *
+     * @param now the current time in nanoseconds
+     * @return the error rate, between 0 and 1
+     */
+    public synchronized double getErrorRate(long now) {
+        if (errorRate == 0) {
+            return 0;
+        }
+        return errorRate * Math.exp(-(now - latencyTime) / (double) PeakEwmaLatency.DECAY_NANOS);
+    }
+
+    /**
+     * @return the circuit breaker, or null if there is none
+     */
+    public CircuitBreaker getCircuitBreaker() {
+        return circuitBreaker;
+    }
+
+    /**
+     * @param circuitBreaker the circuitBreaker to set
+     */
+    public void setCircuitBreaker(CircuitBreaker circuitBreaker) {
+        this.circuitBreaker = circuitBreaker;
+    }
+
+    /**
+     * Check whether requests are sent to this data source, that is whether
+     * its circuit breaker is closed.
+     *
+     * @return true if requests are sent
+     */
+    public boolean isAvailable() {
+        return circuitBreaker == null || circuitBreaker.isClosed();
+    }
+
+    /**
+     * Try to send a request to this data source while its circuit breaker
+     * is open, to test whether it recovered.
+     *
+     * @param now the current time in nanoseconds
+     * @return true if the request may be sent
+     */
+    public boolean tryProbe(long now) {
+        return circuitBreaker == null || circuitBreaker.tryProbe(now);
+    }
+
     @Override
     public int hashCode() {
         final int prime = 31;
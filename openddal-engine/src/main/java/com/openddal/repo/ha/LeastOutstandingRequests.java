@@ -0,0 +1,36 @@
+/*
+ * Copyright 2014-2016 the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the “License”);
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an “AS IS” BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.openddal.repo.ha;
+
+import java.util.Collection;
+
+/**
+ * Selects the data source with the fewest requests in progress.
+ *
+ * @author jorgie.li
+ */
+public class LeastOutstandingRequests extends AdaptiveLoadBalancing {
+
+    public LeastOutstandingRequests(Collection<DataSourceMarker> nodes, boolean readOnly) {
+        super(nodes, readOnly);
+    }
+
+    @Override
+    protected double getCost(DataSourceMarker node, long now) {
+        return node.getOutstanding();
+    }
+
+}
@@ -19,5 +19,28 @@ package com.openddal.repo.ha;
  * @author jorgie.li
  */
 public interface LoadBalancingStrategy {
+
+    /**
+     * Select a data source. A data source whose circuit breaker is open is
+     * only selected to probe it, or if all data sources are open.
+     *
+     * @return the data source
+     */
     DataSourceMarker next();
+
+    /**
+     * Add a data source that recovered.
+     *
+     * @param node the data source
+     */
+    void add(DataSourceMarker node);
+
+    /**
+     * Remove a data source that is not available. The last data source is
+     * not removed.
+     *
+     * @param node the data source
+     */
+    void remove(DataSourceMarker node);
+
 }
@@ -0,0 +1,62 @@
+/*
+ * Copyright 2014-2016 the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the “License”);
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an “AS IS” BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.openddal.repo.ha;
+
+import java.util.Collection;
+
+/**
+ * Selects the data source with the lowest expected latency. The latency of
+ * a data source is the moving average of its response times, which jumps to
+ * a slower response at once and decays with time otherwise. It is multiplied
+ * by the number of requests in progress plus one, and divided by the rate of
+ * the successful requests, so that a data source that is slow, busy or fails
+ * gets fewer requests, and a data source that had no requests for a while is
+ * tried again.
+ *
+ * @author jorgie.li
+ */
+public class PeakEwmaLatency extends AdaptiveLoadBalancing {
+
+    /**
+     * The time in nanoseconds after which the weight of a response time is
+     * reduced to 1/e.
+     */
+    static final long DECAY_NANOS = 10L * 1000 * 1000 * 1000;
+
+    /**
+     * The error rate below which a data source is tried again.
+     */
+    private static final double MIN_ERROR_RATE = 0.01;
+
+    public PeakEwmaLatency(Collection<DataSourceMarker> nodes, boolean readOnly) {
+        super(nodes, readOnly);
+    }
+
+    @Override
+    protected double getCost(DataSourceMarker node, long now) {
+        double latency = node.getLatency(now);
+        double errorRate = node.getErrorRate(now);
+        int outstanding = node.getOutstanding();
+        if (latency == 0) {
+            // not measured yet: try it if it is idle and did not fail
+            // recently, but do not send more requests until the first one
+            // completed
+            return outstanding == 0 && errorRate < MIN_ERROR_RATE ? 0 : Long.MAX_VALUE;
+        }
+        return latency * (outstanding + 1) / Math.max(1 - errorRate, MIN_ERROR_RATE);
+    }
+
+}
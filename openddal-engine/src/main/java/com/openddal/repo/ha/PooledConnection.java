@@ -0,0 +1,471 @@
+/*
+ * Copyright 2014-2016 the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the “License”);
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an “AS IS” BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.openddal.repo.ha;
+
+import java.sql.Array;
+import java.sql.Blob;
+import java.sql.CallableStatement;
+import java.sql.Clob;
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.NClob;
+import java.sql.PreparedStatement;
+import java.sql.SQLClientInfoException;
+import java.sql.SQLException;
+import java.sql.SQLWarning;
+import java.sql.SQLXML;
+import java.sql.Savepoint;
+import java.sql.Statement;
+import java.sql.Struct;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.Executor;
+
+import com.openddal.util.JdbcUtils;
+import com.openddal.util.New;
+
+/**
+ * A connection borrowed from a connection pool. Closing it returns the
+ * physical connection to the pool, after the open transaction is rolled
+ * back and the changed settings are restored. The statements that were
+ * created with it are closed, and with them their result sets. A new object
+ * is used for each time the connection is borrowed, so that it can not be
+ * used after it was closed.
+ *
+ * @author jorgie.li
+ */
+final class PooledConnection implements Connection {
+
+    /**
+     * The number of statements after which the closed statements are removed
+     * from the list.
+     */
+    private static final int PURGE_STATEMENTS = 32;
+
+    private final ConnectionPool pool;
+    private final ArrayList<Statement> statements = New.arrayList();
+    private ConnectionPool.Entry entry;
+    private boolean autoCommit;
+    private boolean readOnlyChanged;
+    private boolean transactionIsolationChanged;
+    private boolean catalogChanged;
+
+    PooledConnection(ConnectionPool pool, ConnectionPool.Entry entry) {
+        this.pool = pool;
+        this.entry = entry;
+        this.autoCommit = entry.autoCommit;
+    }
+
+    private Connection getTarget() throws SQLException {
+        ConnectionPool.Entry e = entry;
+        if (e == null) {
+            throw new SQLException("Illegal operation: connection is closed");
+        }
+        return e.connection;
+    }
+
+    private <T extends Statement> T register(T stat) throws SQLException {
+        synchronized (statements) {
+            if (statements.size() >= PURGE_STATEMENTS) {
+                for (Iterator<Statement> it = statements.iterator(); it.hasNext();) {
+                    if (it.next().isClosed()) {
+                        it.remove();
+                    }
+                }
+            }
+            statements.add(stat);
+        }
+        return stat;
+    }
+
+    private void closeStatements() {
+        synchronized (statements) {
+            for (Statement stat : statements) {
+                JdbcUtils.closeSilently(stat);
+            }
+            statements.clear();
+        }
+    }
+
+    @Override
+    public void close() throws SQLException {
+        ConnectionPool.Entry e = entry;
+        if (e == null) {
+            return;
+        }
+        entry = null;
+        closeStatements();
+        pool.release(e, reset(e));
+    }
+
+    /**
+     * Roll back the open transaction and restore the settings of the
+     * physical connection.
+     *
+     * @param e the physical connection
+     * @return false if the connection is broken
+     */
+    private boolean reset(ConnectionPool.Entry e) {
+        Connection conn = e.connection;
+        try {
+            if (conn.isClosed()) {
+                return false;
+            }
+            if (!autoCommit) {
+                conn.rollback();
+            }
+            if (autoCommit != e.autoCommit) {
+                conn.setAutoCommit(e.autoCommit);
+            }
+            if (readOnlyChanged) {
+                conn.setReadOnly(e.readOnly);
+            }
+            if (transactionIsolationChanged) {
+                conn.setTransactionIsolation(e.transactionIsolation);
+            }
+            if (catalogChanged && e.catalog != null) {
+                conn.setCatalog(e.catalog);
+            }
+            conn.clearWarnings();
+            return true;
+        } catch (SQLException ex) {
+            return false;
+        }
+    }
+
+    @Override
+    public boolean isClosed() throws SQLException {
+        return entry == null;
+    }
+
+    @Override
+    public void setAutoCommit(boolean autoCommit) throws SQLException {
+        getTarget().setAutoCommit(autoCommit);
+        this.autoCommit = autoCommit;
+    }
+
+    @Override
+    public boolean getAutoCommit() throws SQLException {
+        return getTarget().getAutoCommit();
+    }
+
+    @Override
+    public void setReadOnly(boolean readOnly) throws SQLException {
+        getTarget().setReadOnly(readOnly);
+        readOnlyChanged = true;
+    }
+
+    @Override
+    public boolean isReadOnly() throws SQLException {
+        return getTarget().isReadOnly();
+    }
+
+    @Override
+    public void setTransactionIsolation(int level) throws SQLException {
+        getTarget().setTransactionIsolation(level);
+        transactionIsolationChanged = true;
+    }
+
+    @Override
+    public int getTransactionIsolation() throws SQLException {
+        return getTarget().getTransactionIsolation();
+    }
+
+    @Override
+    public void setCatalog(String catalog) throws SQLException {
+        getTarget().setCatalog(catalog);
+        catalogChanged = true;
+    }
+
+    @Override
+    public String getCatalog() throws SQLException {
+        return getTarget().getCatalog();
+    }
+
+    @Override
+    public void commit() throws SQLException {
+        getTarget().commit();
+    }
+
+    @Override
+    public void rollback() throws SQLException {
+        getTarget().rollback();
+    }
+
+    @Override
+    public Statement createStatement() throws SQLException {
+        return register(getTarget().createStatement());
+    }
+
+    @Override
+    public PreparedStatement prepareStatement(String sql) throws SQLException {
+        return register(getTarget().prepareStatement(sql));
+    }
+
+    @Override
+    public CallableStatement prepareCall(String sql) throws SQLException {
+        return register(getTarget().prepareCall(sql));
+    }
+
+    @Override
+    public String nativeSQL(String sql) throws SQLException {
+        return getTarget().nativeSQL(sql);
+    }
+
+    @Override
+    public DatabaseMetaData getMetaData() throws SQLException {
+        return getTarget().getMetaData();
+    }
+
+    @Override
+    public SQLWarning getWarnings() throws SQLException {
+        return getTarget().getWarnings();
+    }
+
+    @Override
+    public void clearWarnings() throws SQLException {
+        getTarget().clearWarnings();
+    }
+
+    @Override
+    public Statement createStatement(int resultSetType, int resultSetConcurrency) throws SQLException {
+        return register(getTarget().createStatement(resultSetType, resultSetConcurrency));
+    }
+
+    @Override
+    public PreparedStatement prepareStatement(String sql, int resultSetType, int resultSetConcurrency)
+            throws SQLException {
+        return register(getTarget().prepareStatement(sql, resultSetType, resultSetConcurrency));
+    }
+
+    @Override
+    public CallableStatement prepareCall(String sql, int resultSetType, int resultSetConcurrency)
+            throws SQLException {
+        return register(getTarget().prepareCall(sql, resultSetType, resultSetConcurrency));
+    }
+
+    @Override
+    public Map<String, Class<?>> getTypeMap() throws SQLException {
+        return getTarget().getTypeMap();
+    }
+
+    @Override
+    public void setTypeMap(Map<String, Class<?>> map) throws SQLException {
+        getTarget().setTypeMap(map);
+    }
+
+    @Override
+    public void setHoldability(int holdability) throws SQLException {
+        getTarget().setHoldability(holdability);
+    }
+
+    @Override
+    public int getHoldability() throws SQLException {
+        return getTarget().getHoldability();
+    }
+
+    @Override
+    public Savepoint setSavepoint() throws SQLException {
+        return getTarget().setSavepoint();
+    }
+
+    @Override
+    public Savepoint setSavepoint(String name) throws SQLException {
+        return getTarget().setSavepoint(name);
+    }
+
+    @Override
+    public void rollback(Savepoint savepoint) throws SQLException {
+        getTarget().rollback(savepoint);
+    }
+
+    @Override
+    public void releaseSavepoint(Savepoint savepoint) throws SQLException {
+        getTarget().releaseSavepoint(savepoint);
+    }
+
+    @Override
+    public Statement createStatement(int resultSetType, int resultSetConcurrency, int resultSetHoldability)
+            throws SQLException {
+        return register(getTarget().createStatement(resultSetType, resultSetConcurrency, resultSetHoldability));
+    }
+
+    @Override
+    public PreparedStatement prepareStatement(String sql, int resultSetType, int resultSetConcurrency,
+            int resultSetHoldability) throws SQLException {
+        return register(getTarget().prepareStatement(sql, resultSetType, resultSetConcurrency, resultSetHoldability));
+    }
+
+    @Override
+    public CallableStatement prepareCall(String sql, int resultSetType, int resultSetConcurrency,
+            int resultSetHoldability) throws SQLException {
+        return register(getTarget().prepareCall(sql, resultSetType, resultSetConcurrency, resultSetHoldability));
+    }
+
+    @Override
+    public PreparedStatement prepareStatement(String sql, int autoGeneratedKeys) throws SQLException {
+        return register(getTarget().prepareStatement(sql, autoGeneratedKeys));
+    }
+
+    @Override
+    public PreparedStatement prepareStatement(String sql, int[] columnIndexes) throws SQLException {
+        return register(getTarget().prepareStatement(sql, columnIndexes));
+    }
+
+    @Override
+    public PreparedStatement prepareStatement(String sql, String[] columnNames) throws SQLException {
+        return register(getTarget().prepareStatement(sql, columnNames));
+    }
+
+    @Override
+    public Clob createClob() throws SQLException {
+        return getTarget().createClob();
+    }
+
+    @Override
+    public Blob createBlob() throws SQLException {
+        return getTarget().createBlob();
+    }
+
+    @Override
+    public NClob createNClob() throws SQLException {
+        return getTarget().createNClob();
+    }
+
+    @Override
+    public SQLXML createSQLXML() throws SQLException {
+        return getTarget().createSQLXML();
+    }
+
+    @Override
+    public boolean isValid(int timeout) throws SQLException {
+        ConnectionPool.Entry e = entry;
+        return e != null && e.connection.isValid(timeout);
+    }
+
+    @Override
+    public void setClientInfo(String name, String value) throws SQLClientInfoException {
+        try {
+            getTarget().setClientInfo(name, value);
+        } catch (SQLClientInfoException e) {
+            throw e;
+        } catch (SQLException e) {
+            throw new SQLClientInfoException(e.getMessage(), e.getSQLState(), e.getErrorCode(), null, e);
+        }
+    }
+
+    @Override
+    public void setClientInfo(Properties properties) throws SQLClientInfoException {
+        try {
+            getTarget().setClientInfo(properties);
+        } catch (SQLClientInfoException e) {
+            throw e;
+        } catch (SQLException e) {
+            throw new SQLClientInfoException(e.getMessage(), e.getSQLState(), e.getErrorCode(), null, e);
+        }
+    }
+
+    @Override
+    public String getClientInfo(String name) throws SQLException {
+        return getTarget().getClientInfo(name);
+    }
+
+    @Override
+    public Properties getClientInfo() throws SQLException {
+        return getTarget().getClientInfo();
+    }
+
+    @Override
+    public Array createArrayOf(String typeName, Object[] elements) throws SQLException {
+        return getTarget().createArrayOf(typeName, elements);
+    }
+
+    @Override
+    public Struct createStruct(String typeName, Object[] attributes) throws SQLException {
+        return getTarget().createStruct(typeName, attributes);
+    }
+
+    /**
+     * [Not supported] Java 1.7
+     *
+     * @param schema the schema
+     */
+    public void setSchema(String schema) {
+        // not supported
+    }
+
+    /**
+     * [Not supported] Java 1.7
+     */
+    public String getSchema() {
+        return null;
+    }
+
+    /**
+     * [Not supported] Java 1.7
+     *
+     * @param executor the executor used by this method
+     */
+    public void abort(Executor executor) {
+        // not supported
+    }
+
+    /**
+     * [Not supported] Java 1.7
+     *
+     * @param executor the executor used by this method
+     * @param milliseconds the TCP connection timeout
+     */
+    public void setNetworkTimeout(Executor executor, int milliseconds) {
+        // not supported
+    }
+
+    /**
+     * [Not supported] Java 1.7
+     */
+    public int getNetworkTimeout() {
+        return 0;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <T> T unwrap(Class<T> iface) throws SQLException {
+        if (iface.isInstance(this)) {
+            return (T) this;
+        }
+        return getTarget().unwrap(iface);
+    }
+
+    @Override
+    public boolean isWrapperFor(Class<?> iface) throws SQLException {
+        if (iface.isInstance(this)) {
+            return true;
+        }
+        return getTarget().isWrapperFor(iface);
+    }
+
+    @Override
+    public String toString() {
+        ConnectionPool.Entry e = entry;
+        if (e == null) {
+            return "Closed connection of " + pool.getName();
+        }
+        return e.connection.toString();
+    }
+
+}
@@ -15,33 +15,66 @@
  */
 package com.openddal.repo.ha;
 
-import java.lang.reflect.InvocationHandler;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
-import java.lang.reflect.Proxy;
+import java.sql.Array;
+import java.sql.Blob;
+import java.sql.CallableStatement;
+import java.sql.Clob;
 import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.NClob;
+import java.sql.PreparedStatement;
+import java.sql.SQLClientInfoException;
 import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.sql.SQLWarning;
+import java.sql.SQLXML;
+import java.sql.Savepoint;
+import java.sql.Statement;
+import java.sql.Struct;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.Executor;
 
 import com.openddal.repo.JdbcRepository;
 
 /**
+ * A connection to one of the data sources of a shard. The data source is
+ * chosen, and the physical connection is opened, only when the connection is
+ * first used to run a statement. The transaction settings made before are
+ * kept and applied to the physical connection. If a data source can not be
+ * connected, the next one is tried.
+ * <p>
+ * The chosen data source is kept until the connection is closed, that is for
+ * the whole transaction of a session.
+ *
  * @author jorgie.li
  */
-public final class SmartConnection extends SmartSupport implements InvocationHandler {
+public final class SmartConnection extends SmartSupport implements Connection {
+
+    /**
+     * The methods of Connection added in Java 1.7, or null on Java 1.6.
+     */
+    private static final Method SET_SCHEMA = getJava7Method("setSchema", String.class);
+    private static final Method GET_SCHEMA = getJava7Method("getSchema");
+    private static final Method ABORT = getJava7Method("abort", Executor.class);
+    private static final Method SET_NETWORK_TIMEOUT = getJava7Method("setNetworkTimeout", Executor.class,
+            int.class);
+    private static final Method GET_NETWORK_TIMEOUT = getJava7Method("getNetworkTimeout");
 
     private String username;
     private String password;
-    private Boolean readOnly = Boolean.FALSE;
+    private boolean readOnly;
     private Integer transactionIsolation;
     private Boolean autoCommit;
-    private boolean closed = false;
+    private boolean closed;
 
     private Connection target;
 
     /**
      * @param database
      * @param dataSource
-     * @throws SQLException
      */
     protected SmartConnection(JdbcRepository database, SmartDataSource dataSource) {
         super(database, dataSource);
@@ -52,7 +85,6 @@ public final class SmartConnection extends SmartSupport implements InvocationHan
      * @param dataSource
      * @param username
      * @param password
-     * @throws SQLException
      */
     protected SmartConnection(JdbcRepository database, SmartDataSource dataSource, String username,
                               String password) {
@@ -62,161 +94,498 @@ public final class SmartConnection extends SmartSupport implements InvocationHan
     }
 
     /**
-     * Creates a exception trace version of a connection
+     * Get the data source the connection was routed to.
      *
-     * @param conn - the original connection
-     * @return - the connection with exception trace
-     * @throws SQLException
+     * @param conn the connection
+     * @return the data source, or null if this is not a smart connection or
+     *         it is not connected yet
+     */
+    public static DataSourceMarker getDataSourceMarker(Connection conn) {
+        if (conn instanceof SmartConnection) {
+            return ((SmartConnection) conn).selected;
+        }
+        return null;
+    }
+
+    /**
+     * Create a connection to the given data source.
+     *
+     * @param database the repository
+     * @param dataSource the data sources of the shard
+     * @return the connection
      */
     public static Connection newInstance(JdbcRepository database, SmartDataSource dataSource) {
-        InvocationHandler handler = new SmartConnection(database, dataSource);
-        ClassLoader cl = Connection.class.getClassLoader();
-        return (Connection) Proxy.newProxyInstance(cl, new Class[]{Connection.class}, handler);
+        return new SmartConnection(database, dataSource);
     }
 
     /**
-     * Creates a exception trace version of a connection
+     * Create a connection to the given data source.
      *
-     * @param conn - the original connection
-     * @return - the connection with exception trace
-     * @throws SQLException
+     * @param database the repository
+     * @param dataSource the data sources of the shard
+     * @param username the user name
+     * @param password the password
+     * @return the connection
      */
     public static Connection newInstance(JdbcRepository database, SmartDataSource dataSource, String username,
                                          String password) {
-        InvocationHandler handler = new SmartConnection(database, dataSource, username, password);
-        ClassLoader cl = Connection.class.getClassLoader();
-        return (Connection) Proxy.newProxyInstance(cl, new Class[]{Connection.class}, handler);
-    }
-
-    @Override
-    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
-        // Invocation on ConnectionProxy interface coming in...
-
-        if (method.getName().equals("equals")) {
-            // We must avoid fetching a target Connection for "equals".
-            // Only consider equal when proxies are identical.
-            return (proxy == args[0]);
-        } else if (method.getName().equals("hashCode")) {
-            // We must avoid fetching a target Connection for "hashCode",
-            // and we must return the same hash code even when the target
-            // Connection has been fetched: use hashCode of Connection proxy.
-            return System.identityHashCode(proxy);
-        } else if (method.getName().equals("unwrap")) {
-            if (((Class<?>) args[0]).isInstance(proxy)) {
-                return proxy;
-            }
-        } else if (method.getName().equals("isWrapperFor")) {
-            if (((Class<?>) args[0]).isInstance(proxy)) {
-                return true;
-            }
-        }
+        return new SmartConnection(database, dataSource, username, password);
+    }
 
-        if (!hasTargetConnection()) {
-            // No physical target Connection kept yet ->
-            // resolve transaction demarcation methods without fetching
-            // a physical JDBC Connection until absolutely necessary.
-
-            if (method.getName().equals("toString")) {
-                return "Routing Connection proxy for RoutingDataSource [" + dataSource + "]";
-            } else if (method.getName().equals("isReadOnly")) {
-                return this.readOnly;
-            } else if (method.getName().equals("setReadOnly")) {
-                this.readOnly = (Boolean) args[0];
-                return null;
-            } else if (method.getName().equals("getTransactionIsolation")) {
-                if (this.transactionIsolation != null) {
-                    return this.transactionIsolation;
-                }
-                // Else fetch actual Connection and check there,
-                // because we didn't have a default specified.
-            } else if (method.getName().equals("setTransactionIsolation")) {
-                this.transactionIsolation = (Integer) args[0];
-                return null;
-            } else if (method.getName().equals("getAutoCommit")) {
-                if (this.autoCommit != null) {
-                    return this.autoCommit;
+    /**
+     * Return the target Connection, fetching it and initializing it if
+     * necessary.
+     */
+    private Connection getTargetConnection(String operation) throws SQLException {
+        if (this.target != null) {
+            return this.target;
+        }
+        if (this.closed) {
+            // closed without ever having fetched a physical JDBC Connection
+            throw new SQLException("Illegal operation: connection is closed");
+        }
+        if (isDebugEnabled()) {
+            debug("Connecting to database for operation '" + operation + "'");
+        }
+        // Fetch physical Connection from DataSource.
+        Connection conn = (this.username != null) ? applyConnection(this.readOnly, this.username, this.password)
+                : applyConnection(this.readOnly);
+        // Apply kept transaction settings, if any.
+        if (this.readOnly) {
+            try {
+                conn.setReadOnly(this.readOnly);
+            } catch (Exception ex) {
+                // "read-only not supported" -> ignore, it's just a hint
+                // anyway
+                if (trace.isDebugEnabled()) {
+                    trace.debug(ex, "Could not set JDBC Connection read-only");
                 }
-                // Else fetch actual Connection and check there,
-                // because we didn't have a default specified.
-            } else if (method.getName().equals("setAutoCommit")) {
-                this.autoCommit = (Boolean) args[0];
-                return null;
-            } else if (method.getName().equals("commit")) {
-                // Ignore: no statements created yet.
-                return null;
-            } else if (method.getName().equals("rollback")) {
-                // Ignore: no statements created yet.
-                return null;
-            } else if (method.getName().equals("getWarnings")) {
-                return null;
-            } else if (method.getName().equals("clearWarnings")) {
-                return null;
-            } else if (method.getName().equals("close")) {
-                // Ignore: no target connection yet.
-                this.closed = true;
-                return null;
-            } else if (method.getName().equals("isClosed")) {
-                return this.closed;
-            } else if (this.closed) {
-                // Connection proxy closed, without ever having fetched a
-                // physical JDBC Connection: throw corresponding SQLException.
-                throw new SQLException("Illegal operation: connection is closed");
             }
         }
+        if (this.transactionIsolation != null) {
+            conn.setTransactionIsolation(this.transactionIsolation);
+        }
+        if (this.autoCommit != null) {
+            conn.setAutoCommit(this.autoCommit);
+        }
+        this.target = conn;
+        return conn;
+    }
+
+    @Override
+    public Statement createStatement() throws SQLException {
+        return getTargetConnection("createStatement").createStatement();
+    }
+
+    @Override
+    public PreparedStatement prepareStatement(String sql) throws SQLException {
+        return getTargetConnection("prepareStatement").prepareStatement(sql);
+    }
+
+    @Override
+    public CallableStatement prepareCall(String sql) throws SQLException {
+        return getTargetConnection("prepareCall").prepareCall(sql);
+    }
+
+    @Override
+    public String nativeSQL(String sql) throws SQLException {
+        return getTargetConnection("nativeSQL").nativeSQL(sql);
+    }
+
+    @Override
+    public void setAutoCommit(boolean autoCommit) throws SQLException {
+        if (target == null) {
+            this.autoCommit = autoCommit;
+        } else {
+            target.setAutoCommit(autoCommit);
+        }
+    }
+
+    @Override
+    public boolean getAutoCommit() throws SQLException {
+        if (target == null && this.autoCommit != null) {
+            return this.autoCommit;
+        }
+        // Else fetch actual Connection and check there,
+        // because we didn't have a default specified.
+        return getTargetConnection("getAutoCommit").getAutoCommit();
+    }
+
+    @Override
+    public void commit() throws SQLException {
+        // Ignore if there is no target: no statements created yet.
+        if (target != null) {
+            target.commit();
+        }
+    }
+
+    @Override
+    public void rollback() throws SQLException {
+        // Ignore if there is no target: no statements created yet.
+        if (target != null) {
+            target.rollback();
+        }
+    }
+
+    @Override
+    public void close() throws SQLException {
+        this.closed = true;
+        if (target != null) {
+            target.close();
+        }
+    }
+
+    @Override
+    public boolean isClosed() throws SQLException {
+        if (target == null) {
+            return this.closed;
+        }
+        return target.isClosed();
+    }
+
+    @Override
+    public DatabaseMetaData getMetaData() throws SQLException {
+        return getTargetConnection("getMetaData").getMetaData();
+    }
+
+    @Override
+    public void setReadOnly(boolean readOnly) throws SQLException {
+        if (target == null) {
+            this.readOnly = readOnly;
+        } else {
+            target.setReadOnly(readOnly);
+        }
+    }
+
+    @Override
+    public boolean isReadOnly() throws SQLException {
+        if (target == null) {
+            return this.readOnly;
+        }
+        return target.isReadOnly();
+    }
+
+    @Override
+    public void setCatalog(String catalog) throws SQLException {
+        getTargetConnection("setCatalog").setCatalog(catalog);
+    }
+
+    @Override
+    public String getCatalog() throws SQLException {
+        return getTargetConnection("getCatalog").getCatalog();
+    }
+
+    @Override
+    public void setTransactionIsolation(int level) throws SQLException {
+        if (target == null) {
+            this.transactionIsolation = level;
+        } else {
+            target.setTransactionIsolation(level);
+        }
+    }
+
+    @Override
+    public int getTransactionIsolation() throws SQLException {
+        if (target == null && this.transactionIsolation != null) {
+            return this.transactionIsolation;
+        }
+        // Else fetch actual Connection and check there,
+        // because we didn't have a default specified.
+        return getTargetConnection("getTransactionIsolation").getTransactionIsolation();
+    }
+
+    @Override
+    public SQLWarning getWarnings() throws SQLException {
+        return target == null ? null : target.getWarnings();
+    }
+
+    @Override
+    public void clearWarnings() throws SQLException {
+        if (target != null) {
+            target.clearWarnings();
+        }
+    }
+
+    @Override
+    public Statement createStatement(int resultSetType, int resultSetConcurrency) throws SQLException {
+        return getTargetConnection("createStatement").createStatement(resultSetType, resultSetConcurrency);
+    }
+
+    @Override
+    public PreparedStatement prepareStatement(String sql, int resultSetType, int resultSetConcurrency)
+            throws SQLException {
+        return getTargetConnection("prepareStatement").prepareStatement(sql, resultSetType, resultSetConcurrency);
+    }
+
+    @Override
+    public CallableStatement prepareCall(String sql, int resultSetType, int resultSetConcurrency)
+            throws SQLException {
+        return getTargetConnection("prepareCall").prepareCall(sql, resultSetType, resultSetConcurrency);
+    }
+
+    @Override
+    public Map<String, Class<?>> getTypeMap() throws SQLException {
+        return getTargetConnection("getTypeMap").getTypeMap();
+    }
+
+    @Override
+    public void setTypeMap(Map<String, Class<?>> map) throws SQLException {
+        getTargetConnection("setTypeMap").setTypeMap(map);
+    }
+
+    @Override
+    public void setHoldability(int holdability) throws SQLException {
+        getTargetConnection("setHoldability").setHoldability(holdability);
+    }
+
+    @Override
+    public int getHoldability() throws SQLException {
+        return getTargetConnection("getHoldability").getHoldability();
+    }
+
+    @Override
+    public Savepoint setSavepoint() throws SQLException {
+        return getTargetConnection("setSavepoint").setSavepoint();
+    }
+
+    @Override
+    public Savepoint setSavepoint(String name) throws SQLException {
+        return getTargetConnection("setSavepoint").setSavepoint(name);
+    }
+
+    @Override
+    public void rollback(Savepoint savepoint) throws SQLException {
+        // Ignore if there is no target: no statements created yet.
+        if (target != null) {
+            target.rollback(savepoint);
+        }
+    }
+
+    @Override
+    public void releaseSavepoint(Savepoint savepoint) throws SQLException {
+        getTargetConnection("releaseSavepoint").releaseSavepoint(savepoint);
+    }
+
+    @Override
+    public Statement createStatement(int resultSetType, int resultSetConcurrency, int resultSetHoldability)
+            throws SQLException {
+        return getTargetConnection("createStatement").createStatement(resultSetType, resultSetConcurrency,
+                resultSetHoldability);
+    }
+
+    @Override
+    public PreparedStatement prepareStatement(String sql, int resultSetType, int resultSetConcurrency,
+            int resultSetHoldability) throws SQLException {
+        return getTargetConnection("prepareStatement").prepareStatement(sql, resultSetType, resultSetConcurrency,
+                resultSetHoldability);
+    }
+
+    @Override
+    public CallableStatement prepareCall(String sql, int resultSetType, int resultSetConcurrency,
+            int resultSetHoldability) throws SQLException {
+        return getTargetConnection("prepareCall").prepareCall(sql, resultSetType, resultSetConcurrency,
+                resultSetHoldability);
+    }
+
+    @Override
+    public PreparedStatement prepareStatement(String sql, int autoGeneratedKeys) throws SQLException {
+        return getTargetConnection("prepareStatement").prepareStatement(sql, autoGeneratedKeys);
+    }
+
+    @Override
+    public PreparedStatement prepareStatement(String sql, int[] columnIndexes) throws SQLException {
+        return getTargetConnection("prepareStatement").prepareStatement(sql, columnIndexes);
+    }
+
+    @Override
+    public PreparedStatement prepareStatement(String sql, String[] columnNames) throws SQLException {
+        return getTargetConnection("prepareStatement").prepareStatement(sql, columnNames);
+    }
+
+    @Override
+    public Clob createClob() throws SQLException {
+        return getTargetConnection("createClob").createClob();
+    }
+
+    @Override
+    public Blob createBlob() throws SQLException {
+        return getTargetConnection("createBlob").createBlob();
+    }
+
+    @Override
+    public NClob createNClob() throws SQLException {
+        return getTargetConnection("createNClob").createNClob();
+    }
+
+    @Override
+    public SQLXML createSQLXML() throws SQLException {
+        return getTargetConnection("createSQLXML").createSQLXML();
+    }
+
+    @Override
+    public boolean isValid(int timeout) throws SQLException {
+        return getTargetConnection("isValid").isValid(timeout);
+    }
+
+    @Override
+    public void setClientInfo(String name, String value) throws SQLClientInfoException {
+        try {
+            getTargetConnection("setClientInfo").setClientInfo(name, value);
+        } catch (SQLClientInfoException e) {
+            throw e;
+        } catch (SQLException e) {
+            throw new SQLClientInfoException(e.getMessage(), e.getSQLState(), e.getErrorCode(), null, e);
+        }
+    }
 
-        // Target Connection already fetched,
-        // or target Connection necessary for current operation ->
-        // invoke method on target connection.
+    @Override
+    public void setClientInfo(Properties properties) throws SQLClientInfoException {
         try {
-            return method.invoke(getTargetConnection(method), args);
-        } catch (InvocationTargetException ex) {
-            throw ex.getTargetException();
+            getTargetConnection("setClientInfo").setClientInfo(properties);
+        } catch (SQLClientInfoException e) {
+            throw e;
+        } catch (SQLException e) {
+            throw new SQLClientInfoException(e.getMessage(), e.getSQLState(), e.getErrorCode(), null, e);
         }
     }
 
+    @Override
+    public String getClientInfo(String name) throws SQLException {
+        return getTargetConnection("getClientInfo").getClientInfo(name);
+    }
+
+    @Override
+    public Properties getClientInfo() throws SQLException {
+        return getTargetConnection("getClientInfo").getClientInfo();
+    }
+
+    @Override
+    public Array createArrayOf(String typeName, Object[] elements) throws SQLException {
+        return getTargetConnection("createArrayOf").createArrayOf(typeName, elements);
+    }
+
+    @Override
+    public Struct createStruct(String typeName, Object[] attributes) throws SQLException {
+        return getTargetConnection("createStruct").createStruct(typeName, attributes);
+    }
+
     /**
-     * Return whether the proxy currently holds a target Connection.
+     * Set the schema of the physical connection (Java 1.7).
+     *
+     * @param schema the schema
      */
-    private boolean hasTargetConnection() {
-        return (this.target != null);
+    public void setSchema(String schema) throws SQLException {
+        invokeJava7(SET_SCHEMA, getTargetConnection("setSchema"), schema);
     }
 
     /**
-     * Return the target Connection, fetching it and initializing it if
-     * necessary.
+     * Get the schema of the physical connection (Java 1.7).
+     *
+     * @return the schema
      */
-    private Connection getTargetConnection(Method operation) throws SQLException {
-        if (this.target == null) {
-            // No target Connection held -> fetch one.
-            debug("Connecting to database for operation '" + operation.getName() + "'");
-            // Fetch physical Connection from DataSource.
-            this.target = (this.username != null) ? applyConnection(this.readOnly, this.username, this.password)
-                    : applyConnection(this.readOnly);
-
-            // Apply kept transaction settings, if any.
-            if (this.readOnly) {
-                try {
-                    this.target.setReadOnly(this.readOnly);
-                } catch (Exception ex) {
-                    // "read-only not supported" -> ignore, it's just a hint
-                    // anyway
-                    if (trace.isDebugEnabled()) {
-                        trace.debug(ex, "Could not set JDBC Connection read-only");
-                    }
-                }
-            }
-            if (this.transactionIsolation != null) {
-                this.target.setTransactionIsolation(this.transactionIsolation);
-            }
-            if (this.autoCommit != null) {
-                this.target.setAutoCommit(this.autoCommit);
+    public String getSchema() throws SQLException {
+        return (String) invokeJava7(GET_SCHEMA, getTargetConnection("getSchema"));
+    }
+
+    /**
+     * Abort the physical connection, if there is one (Java 1.7).
+     *
+     * @param executor the executor used by this method
+     */
+    public void abort(Executor executor) throws SQLException {
+        this.closed = true;
+        if (target != null) {
+            invokeJava7(ABORT, target, executor);
+        }
+    }
+
+    /**
+     * Set the network timeout of the physical connection (Java 1.7).
+     *
+     * @param executor the executor used by this method
+     * @param milliseconds the TCP connection timeout
+     */
+    public void setNetworkTimeout(Executor executor, int milliseconds) throws SQLException {
+        invokeJava7(SET_NETWORK_TIMEOUT, getTargetConnection("setNetworkTimeout"), executor, milliseconds);
+    }
+
+    /**
+     * Get the network timeout of the physical connection (Java 1.7).
+     *
+     * @return the timeout in milliseconds
+     */
+    public int getNetworkTimeout() throws SQLException {
+        return (Integer) invokeJava7(GET_NETWORK_TIMEOUT, getTargetConnection("getNetworkTimeout"));
+    }
+
+    /**
+     * Look up a method of Connection that was added in Java 1.7. The code is
+     * compiled for Java 1.6, so the methods are called by reflection.
+     *
+     * @param name the method name
+     * @param parameterTypes the parameter types
+     * @return the method, or null if the runtime does not have it
+     */
+    private static Method getJava7Method(String name, Class<?>... parameterTypes) {
+        try {
+            return Connection.class.getMethod(name, parameterTypes);
+        } catch (NoSuchMethodException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Call a method of the physical connection that was added in Java 1.7.
+     *
+     * @param method the method, or null if the runtime does not have it
+     * @param conn the physical connection
+     * @param args the arguments
+     * @return the return value
+     */
+    private static Object invokeJava7(Method method, Connection conn, Object... args) throws SQLException {
+        if (method == null) {
+            throw new SQLFeatureNotSupportedException();
+        }
+        try {
+            return method.invoke(conn, args);
+        } catch (InvocationTargetException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof SQLException) {
+                throw (SQLException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
             }
-        } else {
-            // Target Connection already held -> return it.
-            debug("Using existing database connection for operation '" + operation.getName() + "'");
+            throw new SQLException(cause);
+        } catch (IllegalAccessException e) {
+            throw new SQLException(e);
+        }
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <T> T unwrap(Class<T> iface) throws SQLException {
+        if (iface.isInstance(this)) {
+            return (T) this;
         }
+        return getTargetConnection("unwrap").unwrap(iface);
+    }
 
-        return this.target;
+    @Override
+    public boolean isWrapperFor(Class<?> iface) throws SQLException {
+        if (iface.isInstance(this)) {
+            return true;
+        }
+        return getTargetConnection("isWrapperFor").isWrapperFor(iface);
+    }
+
+    @Override
+    public String toString() {
+        if (target == null) {
+            return "Routing Connection for RoutingDataSource [" + dataSource + "]";
+        }
+        return target.toString();
     }
 
 }
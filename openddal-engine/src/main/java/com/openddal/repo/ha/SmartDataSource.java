@@ -28,6 +28,7 @@ import java.io.PrintWriter;
 import java.sql.Connection;
 import java.sql.SQLException;
 import java.sql.SQLFeatureNotSupportedException;
+import java.util.Collection;
 import java.util.List;
 import java.util.Set;
 import java.util.logging.Logger;
@@ -39,12 +40,13 @@ public class SmartDataSource implements DataSource, Failover {
 
 
     private final String shardName;
+    private final String loadBalance;
     private final JdbcRepository database;
     private final List<DataSourceMarker> menbers;
     private final Set<DataSourceMarker> readable = New.copyOnWriteArraySet();
     private final Set<DataSourceMarker> writable = New.copyOnWriteArraySet();
-    private volatile LoadBalancingStrategy writableLoadBalance;
-    private volatile LoadBalancingStrategy readableLoadBalance;
+    private final LoadBalancingStrategy writableLoadBalance;
+    private final LoadBalancingStrategy readableLoadBalance;
 
     private PrintWriter out = null;
     private int seconds = 0;
@@ -65,6 +67,7 @@ public class SmartDataSource implements DataSource, Failover {
         this.database = database;
         this.shardName = shardName;
         this.menbers = menbers;
+        this.loadBalance = database.getDatabase().getSettings().loadBalance;
         List<DataSourceMarker> writable = New.arrayList();
         List<DataSourceMarker> readable = New.arrayList();
         for (DataSourceMarker item : menbers) {
@@ -83,8 +86,19 @@ public class SmartDataSource implements DataSource, Failover {
         }
         this.writable.addAll(writable);
         this.readable.addAll(readable);
-        this.writableLoadBalance = new ConsistentHashing(writable, false);
-        this.readableLoadBalance = new ConsistentHashing(readable, true);
+        this.writableLoadBalance = newLoadBalance(writable, false);
+        this.readableLoadBalance = newLoadBalance(readable, true);
+    }
+
+    private LoadBalancingStrategy newLoadBalance(Collection<DataSourceMarker> nodes, boolean readOnly) {
+        if ("LEAST_OUTSTANDING".equals(loadBalance)) {
+            return new LeastOutstandingRequests(nodes, readOnly);
+        } else if ("PEAK_EWMA".equals(loadBalance)) {
+            return new PeakEwmaLatency(nodes, readOnly);
+        } else if ("WEIGHTED_RANDOM".equals(loadBalance)) {
+            return new ConsistentHashing(nodes, readOnly);
+        }
+        throw DbException.getInvalidValueException("loadBalance", loadBalance);
     }
 
     @Override
@@ -159,6 +173,7 @@ public class SmartDataSource implements DataSource, Failover {
     }
 
     public DataSourceMarker doRoute(boolean readOnly, List<DataSourceMarker> exclusive) {
+        DataSourceMarker open = null;
         for (DataSourceMarker marker : menbers) {
             if (exclusive.contains(marker)) {
                 continue;
@@ -166,9 +181,14 @@ public class SmartDataSource implements DataSource, Failover {
             if (!readOnly && marker.isReadOnly()) {
                 continue;
             }
-            return marker;
+            if (marker.isAvailable()) {
+                return marker;
+            }
+            if (open == null) {
+                open = marker;
+            }
         }
-        return null;
+        return open;
     }
 
     @Override
@@ -176,11 +196,11 @@ public class SmartDataSource implements DataSource, Failover {
         if (!menbers.contains(source)) {
             throw new IllegalStateException(shardName + "datasource not matched. " + source);
         }
-        if (!source.isReadOnly() && writable.remove(source)) {
-            this.writableLoadBalance = new ConsistentHashing(writable, false);
+        if (!source.isReadOnly() && writable.size() > 1 && writable.remove(source)) {
+            writableLoadBalance.remove(source);
         }
-        if (readable.remove(source)) {
-            readableLoadBalance = new ConsistentHashing(readable, true);
+        if (readable.size() > 1 && readable.remove(source)) {
+            readableLoadBalance.remove(source);
         }
     }
 
@@ -190,10 +210,10 @@ public class SmartDataSource implements DataSource, Failover {
             throw new IllegalStateException(shardName + " datasource not matched. " + source);
         }
         if (!source.isReadOnly() && source.getwWeight() > 0 && writable.add(source)) {
-            this.writableLoadBalance = new ConsistentHashing(writable, false);
+            writableLoadBalance.add(source);
         }
         if (source.getrWeight() > 0 && readable.add(source)) {
-            this.readableLoadBalance = new ConsistentHashing(readable, true);
+            readableLoadBalance.add(source);
         }
 
     }
@@ -31,6 +31,7 @@ public class SmartSupport {
     protected final JdbcRepository database;
     protected final SmartDataSource dataSource;
     protected final Trace trace;
+    protected DataSourceMarker selected;
 
     /**
      * @param database
@@ -67,8 +68,10 @@ public class SmartSupport {
         while (selected != null) {
             try {
                 tryList.add(selected);
-                return (username != null) ? database.haGet(selected, username, password)
+                Connection conn = (username != null) ? database.haGet(selected, username, password)
                         : database.haGet(selected);
+                this.selected = selected;
+                return conn;
             } catch (SQLException e) {
                 selected = dataSource.doRoute(readOnly, tryList);
             }
@@ -3,8 +3,13 @@ package com.openddal.repo.tx;
 import java.sql.Connection;
 import java.sql.SQLException;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadPoolExecutor;
 
 import com.openddal.engine.Database;
 import com.openddal.engine.Session;
@@ -26,6 +31,7 @@ public class ConnectionHolder implements ConnectionProvider {
     private final Trace trace;
     private ConcurrentMap<String, Connection> connectionMap;
     private final Closer closer = new Closer();
+    private Callback<?> branchStarter;
 
     public ConnectionHolder(Session session) {
         Database database = session.getDatabase();
@@ -52,6 +58,59 @@ public class ConnectionHolder implements ConnectionProvider {
         return results;
     }
 
+    /**
+     * Call the callback for each connection in parallel, using the query
+     * executor of the database. This method returns after all calls are
+     * completed. If calls failed, the errors are logged and the first one is
+     * thrown.
+     *
+     * @param callback the callback
+     * @return the results
+     */
+    public <T> List<T> foreachParallel(final Callback<T> callback) throws DbException {
+        if (connectionMap.size() <= 1) {
+            return foreach(callback);
+        }
+        ThreadPoolExecutor executor = session.getDatabase().getQueryExecutor();
+        List<String> names = New.arrayList(connectionMap.size());
+        List<Callable<T>> tasks = New.arrayList(connectionMap.size());
+        for (Map.Entry<String, Connection> e : connectionMap.entrySet()) {
+            final String name = e.getKey();
+            final Connection conn = e.getValue();
+            names.add(name);
+            tasks.add(new Callable<T>() {
+                @Override
+                public T call() throws Exception {
+                    return callback.handle(name, conn);
+                }
+            });
+        }
+        List<Future<T>> futures;
+        try {
+            futures = executor.invokeAll(tasks);
+        } catch (InterruptedException e) {
+            throw DbException.convert(e);
+        }
+        List<T> results = New.arrayList(futures.size());
+        DbException error = null;
+        for (int i = 0; i < futures.size(); i++) {
+            try {
+                results.add(futures.get(i).get());
+            } catch (InterruptedException e) {
+                throw DbException.convert(e);
+            } catch (ExecutionException e) {
+                trace.error(e.getCause(), "foreach {0} connection error", names.get(i));
+                if (error == null) {
+                    error = DbException.convert(e.getCause());
+                }
+            }
+        }
+        if (error != null) {
+            throw error;
+        }
+        return results;
+    }
+
     public <T> List<T> foreach(Set<String> shards, Callback<T> callback) throws DbException {
         List<T> results = New.arrayList();
         for (String name : connectionMap.keySet()) {
@@ -96,6 +155,44 @@ public class ConnectionHolder implements ConnectionProvider {
         return !connectionMap.isEmpty();
     }
 
+    /**
+     * Get the names of the shards that have a connection.
+     *
+     * @return the shard names
+     */
+    public List<String> getShardNames() {
+        return New.arrayList(connectionMap.keySet());
+    }
+
+    /**
+     * Check if the transactions use two-phase commit.
+     *
+     * @return true for the XA_2PC transaction mode
+     */
+    public boolean isTwoPhaseCommit() {
+        return holderStrategy == HolderStrategy.XA_2PC;
+    }
+
+    /**
+     * Set the callback that starts the transaction branch of a new shard
+     * connection, in the XA_2PC transaction mode.
+     *
+     * @param branchStarter the callback
+     */
+    public void setBranchStarter(Callback<?> branchStarter) {
+        this.branchStarter = branchStarter;
+    }
+
+    /**
+     * Check if the given transaction mode uses two-phase commit.
+     *
+     * @param mode the transaction mode setting
+     * @return true for the XA_2PC transaction mode
+     */
+    public static boolean isTwoPhaseCommit(String mode) {
+        return HolderStrategy.XA_2PC.name().equals(mode);
+    }
+
     public List<String> closeAndClear() {
         List<String> foreach = foreach(closer);
         connectionMap.clear();
@@ -173,6 +270,26 @@ public class ConnectionHolder implements ConnectionProvider {
             }
             break;
 
+        case XA_2PC:
+            conn = connectionMap.get(shardName);
+            if (conn == null) {
+                // the branch must be started before the connection is used
+                synchronized (this) {
+                    conn = connectionMap.get(shardName);
+                    if (conn == null) {
+                        conn = getRawConnection(options);
+                        try {
+                            branchStarter.handle(shardName, conn);
+                        } catch (SQLException e) {
+                            target.closeConnection(conn, options);
+                            throw DbException.convert(e);
+                        }
+                        connectionMap.put(shardName, conn);
+                    }
+                }
+            }
+            break;
+
         default:
             throw DbException.getInvalidValueException("transactionMode", holderStrategy);
         }
@@ -250,7 +367,7 @@ public class ConnectionHolder implements ConnectionProvider {
     };
 
     enum HolderStrategy {
-        STRICTLY, ALLOW_CROSS_SHARD_READ, BESTEFFORTS_1PC
+        STRICTLY, ALLOW_CROSS_SHARD_READ, BESTEFFORTS_1PC, XA_2PC
     }
 
 }
@@ -18,6 +18,8 @@ package com.openddal.repo.tx;
 import java.sql.Connection;
 import java.sql.SQLException;
 import java.sql.Savepoint;
+import java.sql.Statement;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.atomic.AtomicLong;
 
@@ -25,9 +27,13 @@ import com.openddal.engine.Session;
 import com.openddal.engine.spi.Transaction;
 import com.openddal.message.DbException;
 import com.openddal.message.ErrorCode;
+import com.openddal.message.Trace;
 import com.openddal.repo.ConnectionProvider;
+import com.openddal.repo.JdbcRepository;
 import com.openddal.repo.tx.ConnectionHolder.Callback;
+import com.openddal.util.JdbcUtils;
 import com.openddal.util.New;
+import com.openddal.util.StringUtils;
 
 /**
  * @author jorgie.li
@@ -35,22 +41,38 @@ import com.openddal.util.New;
  */
 public class JdbcTransaction implements Transaction {
     private final static AtomicLong ID_GENERATOR = new AtomicLong(1);
+    private final static AtomicLong XA_ID_GENERATOR = new AtomicLong(1);
+    private final static String XA_ID_PREFIX = "-" + Long.toHexString(System.currentTimeMillis()) + "-";
     private boolean closed;
     private final long transactionId;
     private final Session session;
     private Map<String, CombinedSavepoint> savepoints;
     private ConnectionHolder connHolder;
+    private TransactionLog transactionLog;
+    private Trace trace;
+    private String gtrid;
 
     public JdbcTransaction(Session session) {
         this.session = session;
         this.transactionId = ID_GENERATOR.getAndIncrement();
         this.connHolder = new ConnectionHolder(session);
+        if (connHolder.isTwoPhaseCommit()) {
+            JdbcRepository repository = (JdbcRepository) session.getDatabase().getRepository();
+            this.transactionLog = repository.getTransactionLog();
+            this.trace = session.getDatabase().getTrace(Trace.TRANSACTION);
+            connHolder.setBranchStarter(new XaCallback() {
+                @Override
+                void handle(Statement stat, String xid) throws SQLException {
+                    stat.execute("XA START " + xid);
+                }
+            });
+        }
     }
 
     @Override
     public void setIsolation(final int level) {
         checkClosed();
-        connHolder.foreach(new Callback<String>() {
+        connHolder.foreachParallel(new Callback<String>() {
             @Override
             public String handle(String shardName, Connection connection) throws SQLException {
                 connection.setTransactionIsolation(level);
@@ -77,27 +99,112 @@ public class JdbcTransaction implements Transaction {
     @Override
     public void commit() {
         checkClosed();
-        connHolder.foreach(new Callback<String>() {
-            @Override
-            public String handle(String shardName, Connection connection) throws SQLException {
-                connection.commit();
-                return shardName;
+        try {
+            if (gtrid != null) {
+                commitTwoPhase();
+            } else {
+                connHolder.foreachParallel(new Callback<String>() {
+                    @Override
+                    public String handle(String shardName, Connection connection) throws SQLException {
+                        connection.commit();
+                        return shardName;
+                    }
+                });
             }
-        });
-        connHolder.closeAndClear();
+        } finally {
+            // the branches of a failed two-phase commit are rolled back
+            connHolder.closeAndClear();
+        }
+    }
+
+    /**
+     * Commit the XA transaction branches. A single branch is committed in
+     * one phase. Otherwise all branches are prepared, the decision is
+     * written to the transaction log, and the branches are committed. If a
+     * branch can not be prepared, or the decision can not be written, all
+     * branches are rolled back. If a branch can not be committed, it stays
+     * prepared, and it is committed from the log in the background.
+     */
+    private void commitTwoPhase() {
+        List<String> shards = connHolder.getShardNames();
+        try {
+            if (shards.isEmpty()) {
+                return;
+            } else if (shards.size() == 1) {
+                connHolder.foreach(new XaCallback() {
+                    @Override
+                    void handle(Statement stat, String xid) throws SQLException {
+                        stat.execute("XA END " + xid);
+                        stat.execute("XA COMMIT " + xid + " ONE PHASE");
+                    }
+                });
+                return;
+            }
+            try {
+                connHolder.foreachParallel(new XaCallback() {
+                    @Override
+                    void handle(Statement stat, String xid) throws SQLException {
+                        stat.execute("XA END " + xid);
+                        stat.execute("XA PREPARE " + xid);
+                    }
+                });
+            } catch (DbException e) {
+                rollbackPrepared();
+                throw e;
+            }
+            try {
+                transactionLog.logCommit(gtrid, shards);
+            } catch (DbException e) {
+                // without the decision on disk, the branches are not
+                // committed by the recovery, and must not stay prepared
+                rollbackPrepared();
+                throw e;
+            }
+            try {
+                connHolder.foreachParallel(new XaCallback() {
+                    @Override
+                    void handle(Statement stat, String xid) throws SQLException {
+                        stat.execute("XA COMMIT " + xid);
+                    }
+                });
+                transactionLog.logDone(gtrid);
+            } catch (DbException e) {
+                // the transaction is committed, the log resolves the branches
+                trace.error(e, "XA COMMIT {0} incomplete", gtrid);
+                transactionLog.logIncomplete(gtrid);
+            }
+        } finally {
+            gtrid = null;
+        }
+    }
+
+    private void rollbackPrepared() {
+        try {
+            connHolder.foreachParallel(new XaRollback());
+        } catch (DbException e) {
+            trace.error(e, "XA ROLLBACK {0} error", gtrid);
+        }
     }
 
     @Override
     public void rollback() {
         checkClosed();
-        connHolder.foreach(new Callback<String>() {
-            @Override
-            public String handle(String shardName, Connection connection) throws SQLException {
-                connection.rollback();
-                return shardName;
+        try {
+            if (gtrid != null) {
+                connHolder.foreachParallel(new XaRollback());
+            } else {
+                connHolder.foreachParallel(new Callback<String>() {
+                    @Override
+                    public String handle(String shardName, Connection connection) throws SQLException {
+                        connection.rollback();
+                        return shardName;
+                    }
+                });
             }
-        });
-        connHolder.closeAndClear();
+        } finally {
+            gtrid = null;
+            connHolder.closeAndClear();
+        }
     }
 
     @Override
@@ -106,8 +213,9 @@ public class JdbcTransaction implements Transaction {
         if (savepoints == null) {
             savepoints = session.getDatabase().newStringMap();
         }
-        final Map<String, Savepoint> binds = New.hashMap();
-        connHolder.foreach(new Callback<String>() {
+        // the savepoints are set in parallel
+        final Map<String, Savepoint> binds = New.concurrentHashMap();
+        connHolder.foreachParallel(new Callback<String>() {
             @Override
             public String handle(String shardName, Connection connection) throws SQLException {
                 Savepoint savepoint = connection.setSavepoint(name);
@@ -186,6 +294,56 @@ public class JdbcTransaction implements Transaction {
     }
 
     
+    /**
+     * Get the XA transaction id of a branch, in the MySQL syntax.
+     *
+     * @param gtrid the global transaction id
+     * @param bqual the branch qualifier, the shard name
+     * @return the xid
+     */
+    static String getXid(String gtrid, String bqual) {
+        return StringUtils.quoteStringSQL(gtrid) + "," + StringUtils.quoteStringSQL(bqual);
+    }
+
+    /**
+     * Runs XA statements on the branch of the current global transaction. A
+     * new global transaction id is used when the first branch is started.
+     */
+    private abstract class XaCallback implements Callback<String> {
+
+        @Override
+        public String handle(String shardName, Connection connection) throws SQLException {
+            if (gtrid == null) {
+                gtrid = transactionLog.getNodeId() + XA_ID_PREFIX + XA_ID_GENERATOR.getAndIncrement();
+            }
+            Statement stat = connection.createStatement();
+            try {
+                handle(stat, getXid(gtrid, shardName));
+            } finally {
+                JdbcUtils.closeSilently(stat);
+            }
+            return shardName;
+        }
+
+        abstract void handle(Statement stat, String xid) throws SQLException;
+    }
+
+    /**
+     * Rolls back a branch, which may be active, idle or prepared.
+     */
+    private class XaRollback extends XaCallback {
+
+        @Override
+        void handle(Statement stat, String xid) throws SQLException {
+            try {
+                stat.execute("XA END " + xid);
+            } catch (SQLException e) {
+                // already ended
+            }
+            stat.execute("XA ROLLBACK " + xid);
+        }
+    }
+
     public static class CombinedSavepoint {
         Map<String, Savepoint> combined;
     }
@@ -0,0 +1,358 @@
+/*
+ * Copyright 2014-2016 the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the “License”);
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an “AS IS” BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.openddal.repo.tx;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.sql.DataSource;
+
+import com.openddal.engine.Constants;
+import com.openddal.engine.Database;
+import com.openddal.message.DbException;
+import com.openddal.message.Trace;
+import com.openddal.util.FileUtils;
+import com.openddal.util.IOUtils;
+import com.openddal.util.JdbcUtils;
+import com.openddal.util.MathUtils;
+import com.openddal.util.New;
+import com.openddal.util.StatementBuilder;
+import com.openddal.util.StringUtils;
+
+/**
+ * The log of the two-phase commits of this node. After all branches of a
+ * transaction are prepared, the decision to commit is written to the log and
+ * forced to disk, before the branches are committed. When all branches are
+ * committed, this is recorded as well. The file contains one record per line:
+ * <ul>
+ * <li>N nodeId: the id of this node, the first line of the file</li>
+ * <li>C gtrid shard,...: the branches of the transaction are committed</li>
+ * <li>D gtrid: the branches were committed, the record is no longer needed</li>
+ * </ul>
+ * On startup, the prepared branches of this node that are still open in the
+ * shards are committed if there is a commit record, and rolled back
+ * otherwise. The branches of a transaction that could not be committed
+ * while the database is open are committed by {@link #resolve(Map)}, which
+ * is called periodically.
+ *
+ * @author jorgie.li
+ */
+public class TransactionLog {
+
+    /**
+     * The number of records after which the file is compacted.
+     */
+    private static final int MAX_RECORDS = 10000;
+
+    private final String fileName;
+    private final Trace trace;
+    private final LinkedHashMap<String, String> pending = new LinkedHashMap<String, String>();
+    private final HashSet<String> incomplete = New.hashSet();
+    private String nodeId;
+    private FileChannel file;
+    private int records;
+
+    public TransactionLog(Database database) {
+        this.fileName = database.getSettings().transactionLog;
+        this.trace = database.getTrace(Trace.TRANSACTION);
+        open();
+    }
+
+    private synchronized void open() {
+        try {
+            if (FileUtils.exists(fileName)) {
+                BufferedReader reader = new BufferedReader(IOUtils.getReader(FileUtils.newInputStream(fileName)));
+                try {
+                    String line;
+                    while ((line = reader.readLine()) != null) {
+                        String[] record = StringUtils.arraySplit(line, ' ', true);
+                        if (record.length < 2) {
+                            // incomplete last line
+                            continue;
+                        }
+                        char type = record[0].charAt(0);
+                        if (type == 'N') {
+                            nodeId = record[1];
+                        } else if (type == 'C' && record.length > 2) {
+                            pending.put(record[1], record[2]);
+                        } else if (type == 'D') {
+                            pending.remove(record[1]);
+                        }
+                    }
+                } finally {
+                    IOUtils.closeSilently(reader);
+                }
+            }
+            if (nodeId == null) {
+                nodeId = StringUtils.convertBytesToHex(MathUtils.secureRandomBytes(4));
+            }
+            rewrite();
+        } catch (IOException e) {
+            throw DbException.convertIOException(e, fileName);
+        }
+    }
+
+    /**
+     * Get the id of this node. The global transaction ids of this node start
+     * with it.
+     *
+     * @return the node id
+     */
+    public String getNodeId() {
+        return nodeId;
+    }
+
+    /**
+     * Record the decision to commit a prepared transaction, and force it to
+     * disk. If this fails, the transaction must be rolled back.
+     *
+     * @param gtrid the global transaction id
+     * @param shards the shards of the branches
+     */
+    public synchronized void logCommit(String gtrid, List<String> shards) {
+        StatementBuilder buff = new StatementBuilder();
+        for (String shard : shards) {
+            buff.appendExceptFirst(",");
+            buff.append(shard);
+        }
+        String names = buff.toString();
+        // only a decision that is on disk is committed
+        write("C " + gtrid + " " + names + "\n", true);
+        pending.put(gtrid, names);
+    }
+
+    /**
+     * Record that all branches of a transaction are committed.
+     *
+     * @param gtrid the global transaction id
+     */
+    public synchronized void logDone(String gtrid) {
+        pending.remove(gtrid);
+        incomplete.remove(gtrid);
+        write("D " + gtrid + "\n", false);
+        if (records > MAX_RECORDS) {
+            try {
+                rewrite();
+            } catch (IOException e) {
+                throw DbException.convertIOException(e, fileName);
+            }
+        }
+    }
+
+    /**
+     * Record that not all branches of a committed transaction could be
+     * committed. They are committed by {@link #resolve(Map)}.
+     *
+     * @param gtrid the global transaction id
+     */
+    public synchronized void logIncomplete(String gtrid) {
+        if (pending.containsKey(gtrid)) {
+            incomplete.add(gtrid);
+        }
+    }
+
+    /**
+     * Check if the decision to commit the transaction was recorded.
+     *
+     * @param gtrid the global transaction id
+     * @return true if the transaction needs to be committed
+     */
+    public synchronized boolean isCommitted(String gtrid) {
+        return pending.containsKey(gtrid);
+    }
+
+    /**
+     * Resolve the prepared branches of this node that are still open in the
+     * shards. This is done when the database is opened, before any
+     * transaction is started. If a shard can not be reached, its branches
+     * are resolved on the next start.
+     *
+     * @param shards the data sources by shard name
+     */
+    public void recover(Map<String, DataSource> shards) {
+        String prefix = nodeId + "-";
+        boolean resolved = true;
+        for (Map.Entry<String, DataSource> e : shards.entrySet()) {
+            String shardName = e.getKey();
+            Connection conn = null;
+            Statement stat = null;
+            try {
+                conn = e.getValue().getConnection();
+                stat = conn.createStatement();
+                for (String[] xid : getPreparedXids(stat, prefix)) {
+                    String sql = "XA " + (isCommitted(xid[0]) ? "COMMIT " : "ROLLBACK ")
+                            + JdbcTransaction.getXid(xid[0], xid[1]);
+                    trace.info("recover {0} on {1}", sql, shardName);
+                    stat.execute(sql);
+                }
+            } catch (SQLException ex) {
+                // the commit records are kept for the next start
+                trace.error(ex, "recover {0} error", shardName);
+                resolved = false;
+            } finally {
+                JdbcUtils.closeSilently(stat);
+                JdbcUtils.closeSilently(conn);
+            }
+        }
+        if (!resolved) {
+            return;
+        }
+        synchronized (this) {
+            // all branches of this node are resolved
+            for (Iterator<String> it = pending.keySet().iterator(); it.hasNext();) {
+                write("D " + it.next() + "\n", false);
+                it.remove();
+            }
+        }
+    }
+
+    /**
+     * Commit the prepared branches of the transactions that could not be
+     * committed completely. A transaction is done once all of its shards
+     * were reached. This is called periodically while the database is open.
+     *
+     * @param shards the data sources by shard name
+     */
+    public void resolve(Map<String, DataSource> shards) {
+        Map<String, String> retry = New.hashMap();
+        synchronized (this) {
+            for (String gtrid : incomplete) {
+                retry.put(gtrid, pending.get(gtrid));
+            }
+        }
+        for (Map.Entry<String, String> e : retry.entrySet()) {
+            String gtrid = e.getKey();
+            boolean resolved = true;
+            for (String shardName : StringUtils.arraySplit(e.getValue(), ',', true)) {
+                DataSource ds = shards.get(shardName);
+                if (ds == null) {
+                    continue;
+                }
+                Connection conn = null;
+                Statement stat = null;
+                try {
+                    conn = ds.getConnection();
+                    stat = conn.createStatement();
+                    for (String[] xid : getPreparedXids(stat, gtrid)) {
+                        if (gtrid.equals(xid[0])) {
+                            String sql = "XA COMMIT " + JdbcTransaction.getXid(xid[0], xid[1]);
+                            trace.info("resolve {0} on {1}", sql, shardName);
+                            stat.execute(sql);
+                        }
+                    }
+                } catch (SQLException ex) {
+                    trace.error(ex, "resolve {0} on {1} error", gtrid, shardName);
+                    resolved = false;
+                } finally {
+                    JdbcUtils.closeSilently(stat);
+                    JdbcUtils.closeSilently(conn);
+                }
+            }
+            if (resolved) {
+                logDone(gtrid);
+            }
+        }
+    }
+
+    /**
+     * Get the prepared branches of a shard whose global transaction id
+     * starts with the given prefix.
+     *
+     * @param stat the statement of a connection to the shard
+     * @param prefix the prefix
+     * @return the global transaction ids and branch qualifiers
+     */
+    private static List<String[]> getPreparedXids(Statement stat, String prefix) throws SQLException {
+        List<String[]> xids = New.arrayList();
+        ResultSet rs = stat.executeQuery("XA RECOVER");
+        try {
+            while (rs.next()) {
+                int gtridLength = rs.getInt(2);
+                String data = rs.getString(4);
+                if (data != null && data.startsWith(prefix)) {
+                    xids.add(new String[] { data.substring(0, gtridLength), data.substring(gtridLength) });
+                }
+            }
+        } finally {
+            JdbcUtils.closeSilently(rs);
+        }
+        return xids;
+    }
+
+    /**
+     * Close the log file.
+     */
+    public synchronized void close() {
+        if (file != null) {
+            try {
+                file.close();
+            } catch (IOException e) {
+                trace.error(e, "close {0} error", fileName);
+            }
+            file = null;
+        }
+    }
+
+    private void write(String record, boolean force) {
+        try {
+            FileUtils.writeFully(file, ByteBuffer.wrap(record.getBytes(Constants.UTF8)));
+            if (force) {
+                file.force(false);
+            }
+            records++;
+        } catch (IOException e) {
+            throw DbException.convertIOException(e, fileName);
+        }
+    }
+
+    /**
+     * Write the node id and the open commit records to a new file, and
+     * replace the old file with it.
+     */
+    private void rewrite() throws IOException {
+        StringBuilder buff = new StringBuilder();
+        buff.append("N ").append(nodeId).append('\n');
+        for (Map.Entry<String, String> e : pending.entrySet()) {
+            buff.append("C ").append(e.getKey()).append(' ').append(e.getValue()).append('\n');
+        }
+        String tempName = fileName + ".tmp";
+        FileChannel temp = FileUtils.open(tempName, "rw");
+        try {
+            temp.truncate(0);
+            FileUtils.writeFully(temp, ByteBuffer.wrap(buff.toString().getBytes(Constants.UTF8)));
+            temp.force(true);
+        } finally {
+            temp.close();
+        }
+        close();
+        FileUtils.moveAtomicReplace(tempName, fileName);
+        file = FileUtils.open(fileName, "rw");
+        file.position(file.size());
+        records = pending.size();
+    }
+
+}
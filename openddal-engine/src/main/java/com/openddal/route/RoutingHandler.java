@@ -18,12 +18,15 @@
 
 package com.openddal.route;
 
+import java.util.BitSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
 import com.openddal.dbobject.table.Column;
 import com.openddal.dbobject.table.TableMate;
 import com.openddal.result.SearchRow;
+import com.openddal.route.rule.ObjectNode;
 import com.openddal.route.rule.RoutingResult;
 import com.openddal.value.Value;
 
@@ -38,4 +41,18 @@ public interface RoutingHandler {
 
     RoutingResult doRoute(TableMate table, SearchRow first, SearchRow last, Map<Column, Set<Value>> inColumns);
 
+    /**
+     * Get the positions of the values of the sharding column that are routed
+     * to the given table node, so that an IN(..) list can be reduced to the
+     * values of each node. NULL values are never routed.
+     *
+     * @param table the table
+     * @param column the column
+     * @param values the values
+     * @param node the table node
+     * @return the positions of the values routed to the node, or null if the
+     *         column is not the only sharding column of the table
+     */
+    BitSet getRoutedPositions(TableMate table, Column column, List<Value> values, ObjectNode node);
+
 }
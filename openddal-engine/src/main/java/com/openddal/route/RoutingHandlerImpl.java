@@ -19,6 +19,7 @@
 package com.openddal.route;
 
 import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -29,7 +30,9 @@ import com.openddal.config.TableRule;
 import com.openddal.dbobject.table.Column;
 import com.openddal.dbobject.table.TableMate;
 import com.openddal.engine.Database;
+import com.openddal.engine.QueryStatisticsData;
 import com.openddal.result.SearchRow;
+import com.openddal.route.algorithm.Partitioner;
 import com.openddal.route.rule.ObjectNode;
 import com.openddal.route.rule.RoutingArgument;
 import com.openddal.route.rule.RoutingCalculator;
@@ -37,6 +40,7 @@ import com.openddal.route.rule.RoutingCalculatorImpl;
 import com.openddal.route.rule.RoutingResult;
 import com.openddal.util.New;
 import com.openddal.value.Value;
+import com.openddal.value.ValueNull;
 
 /**
  * @author jorgie.li
@@ -68,6 +72,15 @@ public class RoutingHandlerImpl implements RoutingHandler {
 
     @Override
     public RoutingResult doRoute(TableMate table, SearchRow row) {
+        long start = System.nanoTime();
+        try {
+            return route(table, row);
+        } finally {
+            recordRouteTime(start);
+        }
+    }
+
+    private RoutingResult route(TableMate table, SearchRow row) {
         TableRule tr = table.getTableRule();
         switch (tr.getType()) {
         case TableRule.SHARDED_NODE_TABLE:
@@ -108,6 +121,15 @@ public class RoutingHandlerImpl implements RoutingHandler {
 
     @Override
     public RoutingResult doRoute(TableMate table, SearchRow first, SearchRow last, Map<Column, Set<Value>> inColumns) {
+        long start = System.nanoTime();
+        try {
+            return route(table, first, last, inColumns);
+        } finally {
+            recordRouteTime(start);
+        }
+    }
+
+    private RoutingResult route(TableMate table, SearchRow first, SearchRow last, Map<Column, Set<Value>> inColumns) {
         TableRule tr = table.getTableRule();
         if (tr instanceof ShardedTableRule)
             try {
@@ -167,6 +189,50 @@ public class RoutingHandlerImpl implements RoutingHandler {
 
     }
 
+    @Override
+    public BitSet getRoutedPositions(TableMate table, Column column, List<Value> values, ObjectNode node) {
+        TableRule tr = table.getTableRule();
+        if (!(tr instanceof ShardedTableRule)) {
+            return null;
+        }
+        ShardedTableRule rule = (ShardedTableRule) tr;
+        Column[] ruleCols = table.getRuleColumns();
+        if (ruleCols == null || ruleCols.length != 1 || ruleCols[0] != column
+                || !(rule.getPartitioner() instanceof Partitioner)) {
+            return null;
+        }
+        Partitioner partitioner = (Partitioner) rule.getPartitioner();
+        ObjectNode[] nodes = rule.getObjectNodes();
+        BitSet result = new BitSet(values.size());
+        try {
+            for (int i = 0, size = values.size(); i < size; i++) {
+                Value v = values.get(i);
+                if (v == ValueNull.INSTANCE) {
+                    // never true in an IN(..) list
+                    continue;
+                }
+                Integer position = partitioner.partition(column.convert(v));
+                if (position == null || position < 0 || position >= nodes.length) {
+                    return null;
+                }
+                if (node.equals(nodes[position])) {
+                    result.set(i);
+                }
+            }
+        } catch (Exception e) {
+            // let the table node evaluate the complete list
+            return null;
+        }
+        return result;
+    }
+
+    private void recordRouteTime(long start) {
+        QueryStatisticsData statistics = database.getQueryStatisticsData();
+        if (statistics != null) {
+            statistics.recordPhase(QueryStatisticsData.ROUTE, null, System.nanoTime() - start);
+        }
+    }
+
     private RoutingResult fixedRoutingResult(ObjectNode... tableNode) {
         RoutingResult result = RoutingResult.fixedResult(tableNode);
         return result;
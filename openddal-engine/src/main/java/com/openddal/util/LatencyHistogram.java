@@ -0,0 +1,175 @@
+/*
+ * Copyright 2014-2016 the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the “License”);
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an “AS IS” BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.openddal.util;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A histogram of latencies that can be updated concurrently without locking.
+ * The values are counted in microseconds, in buckets of logarithmic size
+ * with eight linear sub-buckets each, so a percentile is accurate to 12.5%.
+ * Values above about 19 hours are counted in the last bucket. The buckets,
+ * the sum and the maximum can be split into stripes, each thread counts into
+ * the stripe of its id, and the stripes are combined when they are read.
+ *
+ * @author jorgie.li
+ */
+public class LatencyHistogram {
+
+    private static final int SUB_BUCKET_BITS = 3;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int MAX_EXPONENT = 36;
+    private static final int BUCKETS = (MAX_EXPONENT - SUB_BUCKET_BITS + 2) * SUB_BUCKETS;
+
+    /**
+     * The index of the sum in a stripe, after the buckets.
+     */
+    private static final int SUM = BUCKETS;
+
+    /**
+     * The index of the maximum in a stripe.
+     */
+    private static final int MAX = BUCKETS + 1;
+
+    private final AtomicLongArray[] stripes;
+
+    /**
+     * Create a histogram.
+     *
+     * @param stripeCount the number of stripes, 1 for a histogram that is
+     *            rarely updated by several threads at the same time
+     */
+    public LatencyHistogram(int stripeCount) {
+        stripes = new AtomicLongArray[MathUtils.nextPowerOf2(Math.max(1, stripeCount))];
+        for (int i = 0; i < stripes.length; i++) {
+            stripes[i] = new AtomicLongArray(BUCKETS + 2);
+        }
+    }
+
+    /**
+     * Add a value.
+     *
+     * @param nanos the latency in nanoseconds
+     */
+    public void record(long nanos) {
+        long micros = Math.max(0, nanos / 1000);
+        AtomicLongArray buckets = stripes.length == 1 ? stripes[0]
+                : stripes[(int) Thread.currentThread().getId() & (stripes.length - 1)];
+        buckets.incrementAndGet(getBucket(micros));
+        buckets.addAndGet(SUM, micros);
+        long m = buckets.get(MAX);
+        while (micros > m && !buckets.compareAndSet(MAX, m, micros)) {
+            m = buckets.get(MAX);
+        }
+    }
+
+    /**
+     * Get the number of values.
+     *
+     * @return the count
+     */
+    public long getCount() {
+        long count = 0;
+        for (AtomicLongArray buckets : stripes) {
+            for (int i = 0; i < BUCKETS; i++) {
+                count += buckets.get(i);
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Get the sum of all values.
+     *
+     * @return the sum in microseconds
+     */
+    public long getSum() {
+        long sum = 0;
+        for (AtomicLongArray buckets : stripes) {
+            sum += buckets.get(SUM);
+        }
+        return sum;
+    }
+
+    /**
+     * Get the largest value.
+     *
+     * @return the maximum in microseconds
+     */
+    public long getMax() {
+        long max = 0;
+        for (AtomicLongArray buckets : stripes) {
+            max = Math.max(max, buckets.get(MAX));
+        }
+        return max;
+    }
+
+    /**
+     * Get the value below which the given percentage of the values fall.
+     *
+     * @param percentile the percentile, between 0 and 100
+     * @return the value in microseconds, 0 if there are no values
+     */
+    public long getValueAtPercentile(double percentile) {
+        long[] counts = new long[BUCKETS];
+        long total = 0;
+        for (AtomicLongArray buckets : stripes) {
+            for (int i = 0; i < BUCKETS; i++) {
+                long c = buckets.get(i);
+                counts[i] += c;
+                total += c;
+            }
+        }
+        if (total == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(total * Math.min(100, percentile) / 100));
+        long max = getMax();
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts[i];
+            if (seen >= rank) {
+                // the highest value of the bucket, but not more than the
+                // largest value recorded
+                long high = i + 1 < BUCKETS ? getLowestValue(i + 1) - 1 : Long.MAX_VALUE;
+                return Math.min(high, max);
+            }
+        }
+        return max;
+    }
+
+    private static int getBucket(long micros) {
+        if (micros < SUB_BUCKETS) {
+            return (int) micros;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(micros);
+        if (exponent > MAX_EXPONENT) {
+            return BUCKETS - 1;
+        }
+        int sub = (int) (micros >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + sub;
+    }
+
+    private static long getLowestValue(int bucket) {
+        if (bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+        int exponent = bucket / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+        long sub = bucket & (SUB_BUCKETS - 1);
+        return (SUB_BUCKETS + sub) << (exponent - SUB_BUCKET_BITS);
+    }
+
+}
@@ -0,0 +1,187 @@
+/*
+ * Copyright 2014-2016 the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the “License”);
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an “AS IS” BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.openddal.util;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A fixed number of long accumulators (sums, minimums and maximums) that are
+ * updated by many threads without locking. Each accumulator is split into
+ * stripes, a thread only updates the stripe of its id, and the stripes are
+ * combined when the value is read. A read is not atomic with respect to
+ * concurrent updates.
+ *
+ * @author jorgie.li
+ */
+public class StripedLongArray {
+
+    /**
+     * The minimum length of a stripe, so that two stripes are not in the
+     * same cache line.
+     */
+    private static final int MIN_STRIPE_LENGTH = 16;
+
+    private final AtomicLongArray[] stripes;
+    private final int length;
+
+    /**
+     * Create the accumulators.
+     *
+     * @param stripeCount the number of stripes, rounded up to a power of 2
+     * @param initialValues the initial value of each accumulator, for
+     *            example Long.MAX_VALUE for a minimum
+     */
+    public StripedLongArray(int stripeCount, long... initialValues) {
+        length = initialValues.length;
+        stripes = new AtomicLongArray[MathUtils.nextPowerOf2(Math.max(1, stripeCount))];
+        for (int i = 0; i < stripes.length; i++) {
+            AtomicLongArray stripe = new AtomicLongArray(Math.max(length, MIN_STRIPE_LENGTH));
+            for (int j = 0; j < length; j++) {
+                stripe.set(j, initialValues[j]);
+            }
+            stripes[i] = stripe;
+        }
+    }
+
+    private AtomicLongArray getStripe() {
+        if (stripes.length == 1) {
+            return stripes[0];
+        }
+        return stripes[(int) Thread.currentThread().getId() & (stripes.length - 1)];
+    }
+
+    /**
+     * Add a value to an accumulator.
+     *
+     * @param index the accumulator
+     * @param delta the value to add
+     */
+    public void add(int index, long delta) {
+        getStripe().addAndGet(index, delta);
+    }
+
+    /**
+     * Add a value to an accumulator that contains the bits of a double.
+     *
+     * @param index the accumulator
+     * @param delta the value to add
+     */
+    public void addDouble(int index, double delta) {
+        AtomicLongArray stripe = getStripe();
+        while (true) {
+            long old = stripe.get(index);
+            long sum = Double.doubleToLongBits(Double.longBitsToDouble(old) + delta);
+            if (stripe.compareAndSet(index, old, sum)) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Set an accumulator to the value if it is smaller.
+     *
+     * @param index the accumulator
+     * @param value the value
+     */
+    public void updateMin(int index, long value) {
+        AtomicLongArray stripe = getStripe();
+        long m = stripe.get(index);
+        while (value < m && !stripe.compareAndSet(index, m, value)) {
+            m = stripe.get(index);
+        }
+    }
+
+    /**
+     * Set an accumulator to the value if it is larger.
+     *
+     * @param index the accumulator
+     * @param value the value
+     */
+    public void updateMax(int index, long value) {
+        AtomicLongArray stripe = getStripe();
+        long m = stripe.get(index);
+        while (value > m && !stripe.compareAndSet(index, m, value)) {
+            m = stripe.get(index);
+        }
+    }
+
+    /**
+     * Get the sum of the stripes of an accumulator.
+     *
+     * @param index the accumulator
+     * @return the sum
+     */
+    public long getSum(int index) {
+        long sum = 0;
+        for (AtomicLongArray stripe : stripes) {
+            sum += stripe.get(index);
+        }
+        return sum;
+    }
+
+    /**
+     * Get the sum of the stripes of an accumulator that contains the bits of
+     * a double.
+     *
+     * @param index the accumulator
+     * @return the sum
+     */
+    public double getDoubleSum(int index) {
+        double sum = 0;
+        for (AtomicLongArray stripe : stripes) {
+            sum += Double.longBitsToDouble(stripe.get(index));
+        }
+        return sum;
+    }
+
+    /**
+     * Get the smallest value of the stripes of an accumulator.
+     *
+     * @param index the accumulator
+     * @return the minimum
+     */
+    public long getMin(int index) {
+        long min = Long.MAX_VALUE;
+        for (AtomicLongArray stripe : stripes) {
+            min = Math.min(min, stripe.get(index));
+        }
+        return min;
+    }
+
+    /**
+     * Get the largest value of the stripes of an accumulator.
+     *
+     * @param index the accumulator
+     * @return the maximum
+     */
+    public long getMax(int index) {
+        long max = Long.MIN_VALUE;
+        for (AtomicLongArray stripe : stripes) {
+            max = Math.max(max, stripe.get(index));
+        }
+        return max;
+    }
+
+    /**
+     * Get the number of accumulators.
+     *
+     * @return the number
+     */
+    public int length() {
+        return length;
+    }
+
+}
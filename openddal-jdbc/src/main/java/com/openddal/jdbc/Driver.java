@@ -216,7 +216,8 @@ public class Driver implements java.sql.Driver {
                 }
                 String value = setting.substring(equal + 1);
                 String key = setting.substring(0, equal);
-                key = StringUtils.toUpperEnglish(key);
+                // QUERY_CACHE_SIZE is the setting queryCacheSize
+                key = DbSettings.getPropertyName(StringUtils.toUpperEnglish(key));
                 if (!defaultSettings.containsKey(key)) {
                     throw DbException.get(ErrorCode.UNSUPPORTED_SETTING_1, key);
                 }
@@ -35,6 +35,7 @@ import java.sql.Statement;
 import java.util.ArrayList;
 import java.util.Calendar;
 import java.util.HashMap;
+import java.util.List;
 
 import com.openddal.command.CommandInterface;
 import com.openddal.command.expression.ParameterInterface;
@@ -172,6 +173,18 @@ public class JdbcPreparedStatement extends JdbcStatement implements
         return updateCount;
     }
 
+    private int[] executeBatchUpdateInternal(List<DbException> errors) throws SQLException {
+        closeOldResultSet();
+        synchronized (session) {
+            try {
+                setExecutingStatement(command);
+                return command.executeBatchUpdate(batchParameters, errors);
+            } finally {
+                setExecutingStatement(null);
+            }
+        }
+    }
+
     /**
      * Executes an arbitrary statement. If another result set exists for this
      * statement, this will be closed (even if this statement fails). If auto
@@ -1180,18 +1193,11 @@ public class JdbcPreparedStatement extends JdbcStatement implements
             SQLException next = null;
             checkClosed();
             try {
-                for (int i = 0; i < size; i++) {
-                    Value[] set = batchParameters.get(i);
-                    ArrayList<? extends ParameterInterface> parameters =
-                            command.getParameters();
-                    for (int j = 0; j < set.length; j++) {
-                        Value value = set[j];
-                        ParameterInterface param = parameters.get(j);
-                        param.setValue(value, false);
-                    }
-                    try {
-                        result[i] = executeUpdateInternal();
-                    } catch (Exception re) {
+                ArrayList<DbException> errors = New.arrayList();
+                int[] batchResult = size > 1 ? executeBatchUpdateInternal(errors) : null;
+                if (batchResult != null) {
+                    result = batchResult;
+                    for (DbException re : errors) {
                         SQLException e = logAndConvert(re);
                         if (next == null) {
                             next = e;
@@ -1199,9 +1205,32 @@ public class JdbcPreparedStatement extends JdbcStatement implements
                             e.setNextException(next);
                             next = e;
                         }
-                        result[i] = Statement.EXECUTE_FAILED;
                         error = true;
                     }
+                } else {
+                    for (int i = 0; i < size; i++) {
+                        Value[] set = batchParameters.get(i);
+                        ArrayList<? extends ParameterInterface> parameters =
+                                command.getParameters();
+                        for (int j = 0; j < set.length; j++) {
+                            Value value = set[j];
+                            ParameterInterface param = parameters.get(j);
+                            param.setValue(value, false);
+                        }
+                        try {
+                            result[i] = executeUpdateInternal();
+                        } catch (Exception re) {
+                            SQLException e = logAndConvert(re);
+                            if (next == null) {
+                                next = e;
+                            } else {
+                                e.setNextException(next);
+                                next = e;
+                            }
+                            result[i] = Statement.EXECUTE_FAILED;
+                            error = true;
+                        }
+                    }
                 }
                 batchParameters = null;
                 if (error) {
@@ -1,7 +1,10 @@
 package com.openddal.repo.mysql;
 
 import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 
@@ -21,11 +24,21 @@ import com.openddal.command.dml.Merge;
 import com.openddal.command.dml.Replace;
 import com.openddal.command.dml.Select;
 import com.openddal.command.dml.Update;
+import com.openddal.command.expression.Aggregate;
+import com.openddal.command.expression.ConditionAndOr;
+import com.openddal.command.expression.ConditionIn;
+import com.openddal.command.expression.ConditionInConstantSet;
 import com.openddal.command.expression.Expression;
+import com.openddal.command.expression.ExpressionColumn;
+import com.openddal.command.expression.ParameterBindings;
+import com.openddal.command.expression.ValueExpression;
+import com.openddal.command.expression.ExpressionVisitor;
 import com.openddal.dbobject.table.Column;
 import com.openddal.dbobject.table.IndexColumn;
 import com.openddal.dbobject.table.TableFilter;
+import com.openddal.dbobject.table.TableMate;
 import com.openddal.engine.Database;
+import com.openddal.engine.Session;
 import com.openddal.message.DbException;
 import com.openddal.message.ErrorCode;
 import com.openddal.repo.SQLTranslated;
@@ -71,7 +84,7 @@ public class MySQLTranslator implements SQLTranslator {
             return translate(select, (GroupObjectNode) executionOn, consistencyTableNodes, selectCols, limit, offset);
         }
         Map<TableFilter, ObjectNode> nodeMapping = consistencyTableNodes.get(executionOn);
-        List<Value> params = New.arrayList(10);
+        List<Value> params = new ParameterBindings();
         ArrayList<Expression> expressions = select.getExpressions();
         Expression[] exprList = expressions.toArray(new Expression[expressions.size()]);
         StatementBuilder buff = new StatementBuilder("SELECT");
@@ -108,17 +121,31 @@ public class MySQLTranslator implements SQLTranslator {
         Expression condition = select.getCondition();
         if (condition != null) {
             buff.append(" WHERE ").append(
-                    StringUtils.unEnclose(condition.getPreparedSQL(select.getSession(), params)));
+                    StringUtils.unEnclose(getConditionSQL(select.getSession(), condition, nodeMapping, params)));
         }
         int[] groupIndex = select.getGroupIndex();
-        if (groupIndex != null) {
-            buff.append(" GROUP BY ");
-            buff.resetCount();
-            for (int gi : groupIndex) {
-                Expression g = exprList[gi];
-                g = g.getNonAliasExpression();
-                buff.appendExceptFirst(", ");
-                buff.append(StringUtils.unEnclose(g.getPreparedSQL(select.getSession(), params)));
+        if (select.isGroupQuery()) {
+            // group by the group keys and the arguments of distinct aggregates,
+            // that is every selected expression which is not an aggregate
+            ArrayList<Expression> groupExprs = New.arrayList(10);
+            for (int i = 0; groupIndex != null && i < groupIndex.length; i++) {
+                groupExprs.add(exprList[groupIndex[i]]);
+            }
+            for (Expression e : selectCols) {
+                HashSet<Aggregate> aggregates = New.hashSet();
+                e.isEverything(ExpressionVisitor.getAggregateVisitor(aggregates));
+                if (aggregates.isEmpty() && !groupExprs.contains(e)) {
+                    groupExprs.add(e);
+                }
+            }
+            if (!groupExprs.isEmpty()) {
+                buff.append(" GROUP BY ");
+                buff.resetCount();
+                for (Expression g : groupExprs) {
+                    g = g.getNonAliasExpression();
+                    buff.appendExceptFirst(", ");
+                    buff.append(StringUtils.unEnclose(g.getPreparedSQL(select.getSession(), params)));
+                }
             }
         }
         ArrayList<Expression> group = select.getGroupBy();
@@ -144,15 +171,17 @@ public class MySQLTranslator implements SQLTranslator {
             buff.append(" HAVING ").append(StringUtils.unEnclose(h.getPreparedSQL(select.getSession(), params)));
         }*/
         SortOrder sort = select.getSortOrder();
-        if (sort != null) {
+        // the order of a group query refers to the merged groups
+        if (sort != null && !select.isGroupQuery()) {
             buff.append(" ORDER BY ").append(sort.getSQL(exprList, visibleColumnCount));
         }
         if (limit != null) {
-            buff.append(" LIMIT ").append("?");
-            params.add(ValueInt.get(limit));
+            // limit and offset are part of the key of a cached statement
+            Expression limitExpr = ValueExpression.get(ValueInt.get(limit));
+            buff.append(" LIMIT ").append(limitExpr.getPreparedSQL(select.getSession(), params));
             if (offset != null) {
-                buff.append(" OFFSET ").append("?");
-                params.add(ValueInt.get(offset));
+                Expression offsetExpr = ValueExpression.get(ValueInt.get(offset));
+                buff.append(" OFFSET ").append(offsetExpr.getPreparedSQL(select.getSession(), params));
             }
         }
 
@@ -251,7 +280,7 @@ public class MySQLTranslator implements SQLTranslator {
     public SQLTranslated translate(Select select, GroupObjectNode node,
             Map<ObjectNode, Map<TableFilter, ObjectNode>> consistencyTableNodes,Expression[] selectCols, Integer limit, Integer offset) {
         ObjectNode[] items = node.getItems();
-        List<Value> params = New.arrayList(10 * items.length);
+        List<Value> params = new ParameterBindings();
         StatementBuilder sql = new StatementBuilder(100 * items.length);
         for (ObjectNode objectNode : items) {
             SQLTranslated translated = translate(select, objectNode, consistencyTableNodes,selectCols, limit, offset);
@@ -658,7 +687,7 @@ public class MySQLTranslator implements SQLTranslator {
     @Override
     public SQLTranslated translate(Delete prepared, ObjectNode node) {
 
-        ArrayList<Value> params = New.arrayList();
+        ArrayList<Value> params = new ParameterBindings();
         String forTable = node.getCompositeObjectName();
         Expression condition = prepared.getCondition();
         Expression limitExpr = prepared.getLimitExpr();
@@ -667,12 +696,12 @@ public class MySQLTranslator implements SQLTranslator {
         sql.append("DELETE FROM ");
         sql.append(identifier(forTable));
         if (condition != null) {
-            condition.getPreparedSQL(prepared.getSession(), params);
-            sql.append(" WHERE ").append(StringUtils.unEnclose(condition.getSQL()));
+            Map<TableFilter, ObjectNode> nodeMapping = Collections.singletonMap(prepared.getTableFilter(), node);
+            sql.append(" WHERE ").append(
+                    StringUtils.unEnclose(getConditionSQL(prepared.getSession(), condition, nodeMapping, params)));
         }
         if (limitExpr != null) {
-            limitExpr.getPreparedSQL(prepared.getSession(), params);
-            sql.append(" LIMIT ").append(StringUtils.unEnclose(limitExpr.getSQL()));
+            sql.append(" LIMIT ").append(StringUtils.unEnclose(limitExpr.getPreparedSQL(prepared.getSession(), params)));
         }
         return SQLTranslated.build().sql(sql.toString()).sqlParams(params);
 
@@ -781,8 +810,7 @@ public class MySQLTranslator implements SQLTranslator {
             sql.appendExceptFirst(", ");
             sql.append(c.getSQL()).append(" = ");
 
-            Value v = row.getValue(i);
-            sql.appendExceptFirst(", ");
+            Value v = row.getValue(c.getColumnId());
             if (v == null) {
                 sql.append("DEFAULT");
             } else if (isNull(v)) {
@@ -793,26 +821,46 @@ public class MySQLTranslator implements SQLTranslator {
             }
         }
         if (condition != null) {
-            condition.getPreparedSQL(prepared.getSession(), params);
-            sql.append(" WHERE ").append(StringUtils.unEnclose(condition.getSQL()));
+            Map<TableFilter, ObjectNode> nodeMapping = Collections.singletonMap(prepared.getTableFilter(), node);
+            sql.append(" WHERE ").append(
+                    StringUtils.unEnclose(getConditionSQL(prepared.getSession(), condition, nodeMapping, params)));
         }
         if (limitExpr != null) {
-            limitExpr.getPreparedSQL(prepared.getSession(), params);
-            sql.append(" LIMIT ").append(StringUtils.unEnclose(limitExpr.getSQL()));
+            sql.append(" LIMIT ").append(StringUtils.unEnclose(limitExpr.getPreparedSQL(prepared.getSession(), params)));
         }
         return SQLTranslated.build().sql(sql.toString()).sqlParams(params);
     }
 
     @Override
     public SQLTranslated translate(Column[] searchColumns, TableFilter filter, ObjectNode node) {
+        return translate(searchColumns, filter, filter.getFilterCondition(), node);
+    }
+
+    @Override
+    public SQLTranslated translate(Column[] searchColumns, TableFilter filter, GroupObjectNode node) {
+        return translate(searchColumns, filter, filter.getFilterCondition(), node);
+    }
+
+    @Override
+    public SQLTranslated translate(Column[] searchColumns, TableFilter filter, Expression condition,
+            ObjectNode node) {
 
         // can not use the field sqlStatement because the parameter
         // indexes may be incorrect: ? may be in fact ?2 for a subquery
         // but indexes may be set manually as well
         if (node instanceof GroupObjectNode) {
-            return translate(searchColumns, filter, (GroupObjectNode) node);
+            ObjectNode[] items = ((GroupObjectNode) node).getItems();
+            List<Value> params = new ParameterBindings();
+            StatementBuilder sql = new StatementBuilder(100 * items.length);
+            for (ObjectNode objectNode : items) {
+                SQLTranslated translated = translate(searchColumns, filter, condition, objectNode);
+                sql.appendExceptFirst(" UNION ALL ");
+                sql.append(StringUtils.enclose(translated.sql));
+                params.addAll(translated.params);
+            }
+            return SQLTranslated.build().sql(sql.toString()).sqlParams(params);
         }
-        List<Value> params = New.arrayList(10);
+        List<Value> params = new ParameterBindings();
         StatementBuilder buff = new StatementBuilder("SELECT");
 
         int visibleColumnCount = searchColumns.length;
@@ -825,28 +873,95 @@ public class MySQLTranslator implements SQLTranslator {
         buff.append(identifier(node.getCompositeObjectName()));
         buff.append(" AS ");
         buff.append(filter.getTableAlias());
-        Expression condition = filter.getFilterCondition();
         if (condition != null) {
-            buff.append(" WHERE ").append(StringUtils.unEnclose(condition.getPreparedSQL(filter.getSession(), params)));
+            Map<TableFilter, ObjectNode> nodeMapping = Collections.singletonMap(filter, node);
+            buff.append(" WHERE ").append(
+                    StringUtils.unEnclose(getConditionSQL(filter.getSession(), condition, nodeMapping, params)));
         }
         return SQLTranslated.build().sql(buff.toString()).sqlParams(params);
-    
+
     }
-    
-    
-    @Override
-    public SQLTranslated translate(Column[] searchColumns, TableFilter filter, GroupObjectNode node) {
-        ObjectNode[] items = node.getItems();
-        List<Value> params = New.arrayList(10 * items.length);
-        StatementBuilder sql = new StatementBuilder(100 * items.length);
-        for (ObjectNode objectNode : items) {
-            SQLTranslated translated = translate(searchColumns, filter, objectNode);
-            sql.appendExceptFirst(" UNION ALL ");
-            sql.append(StringUtils.enclose(translated.sql));
-            params.addAll(translated.params);
+
+    /**
+     * Get the SQL of a condition for the given table nodes. The values of an
+     * IN(..) condition on the sharding column of a table that are routed to
+     * other table nodes are left out, so that each node only gets its own
+     * values. Only the IN(..) conditions that are part of the top level AND
+     * conditions are changed.
+     *
+     * @param session the session
+     * @param condition the condition
+     * @param nodeMapping the table nodes of the table filters
+     * @param params the list to add the parameter values to
+     * @return the SQL snippet
+     */
+    private String getConditionSQL(Session session, Expression condition,
+            Map<TableFilter, ObjectNode> nodeMapping, List<Value> params) {
+        if (condition instanceof ConditionAndOr) {
+            ConditionAndOr andOr = (ConditionAndOr) condition;
+            if (andOr.getAndOrType() == ConditionAndOr.AND) {
+                String left = getConditionSQL(session, andOr.getExpression(true), nodeMapping, params);
+                String right = getConditionSQL(session, andOr.getExpression(false), nodeMapping, params);
+                return "(" + left + " AND " + right + ")";
+            }
+        } else if (condition instanceof ConditionIn) {
+            ConditionIn in = (ConditionIn) condition;
+            String sql = getInListSQL(session, in.getLeft(), in.getValueList(), nodeMapping, params);
+            if (sql != null) {
+                return sql;
+            }
+        } else if (condition instanceof ConditionInConstantSet) {
+            ConditionInConstantSet in = (ConditionInConstantSet) condition;
+            String sql = getInListSQL(session, in.getLeft(), in.getValueList(), nodeMapping, params);
+            if (sql != null) {
+                return sql;
+            }
         }
-        return SQLTranslated.build().sql(sql.toString()).sqlParams(params);
-    
+        return condition.getPreparedSQL(session, params);
+    }
+
+    private String getInListSQL(Session session, Expression left, List<Expression> valueList,
+            Map<TableFilter, ObjectNode> nodeMapping, List<Value> params) {
+        if (nodeMapping == null || !(left instanceof ExpressionColumn)) {
+            return null;
+        }
+        ExpressionColumn column = (ExpressionColumn) left;
+        TableFilter filter = column.getTableFilter();
+        ObjectNode node = filter == null ? null : nodeMapping.get(filter);
+        if (node == null || node instanceof GroupObjectNode || !(filter.getTable() instanceof TableMate)) {
+            return null;
+        }
+        TableMate table = (TableMate) filter.getTable();
+        Column[] ruleColumns = table.getRuleColumns();
+        if (ruleColumns == null || ruleColumns.length != 1 || ruleColumns[0] != column.getColumn()) {
+            return null;
+        }
+        // the statement depends on the values, also if it is not changed
+        // for these values
+        ParameterBindings.setVariable(params);
+        List<Value> values = New.arrayList(valueList.size());
+        for (Expression e : valueList) {
+            if (!e.isValueSet()) {
+                return null;
+            }
+            values.add(e.getValue(session));
+        }
+        BitSet routed = database.getRoutingHandler().getRoutedPositions(table, column.getColumn(), values, node);
+        if (routed == null || routed.cardinality() == values.size()) {
+            return null;
+        }
+        if (routed.isEmpty()) {
+            // none of the values is on this node
+            return "(1=0)";
+        }
+        StatementBuilder buff = new StatementBuilder("(");
+        buff.append(left.getPreparedSQL(session, params)).append(" IN(");
+        for (int i = routed.nextSetBit(0); i >= 0; i = routed.nextSetBit(i + 1)) {
+            buff.appendExceptFirst(", ");
+            buff.append('?');
+            ParameterBindings.bind(params, valueList.get(i), values.get(i));
+        }
+        return buff.append("))").toString();
     }
 
 }
@@ -22,6 +22,7 @@ import java.util.Map;
 import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
 
 import org.slf4j.Logger;
@@ -68,6 +69,7 @@ public abstract class NettyServer {
     private Privilege privilege = PrivilegeDefault.getPrivilege();
     private ConcurrentMap<Long, ServerSession> sessions = New.concurrentHashMap();
     private final Map<String, String> variables = New.hashMap();
+    private final AtomicInteger preparedStmtCount = new AtomicInteger();
     private long uptime;
 
     public NettyServer(ServerArgs args) {
@@ -125,6 +127,46 @@ public abstract class NettyServer {
         return status;
     }
 
+    /**
+     * Reserve one of the prepared statements the server allows for all
+     * sessions, like max_prepared_stmt_count of MySQL.
+     *
+     * @return false if the limit is reached
+     */
+    public boolean acquirePreparedStatement() {
+        while (true) {
+            int count = preparedStmtCount.get();
+            if (count >= args.maxPreparedStmtCount) {
+                return false;
+            }
+            if (preparedStmtCount.compareAndSet(count, count + 1)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Release a prepared statement reserved by
+     * {@link #acquirePreparedStatement()}.
+     */
+    public void releasePreparedStatement() {
+        preparedStmtCount.decrementAndGet();
+    }
+
+    /**
+     * @return the number of prepared statements of all sessions
+     */
+    public int getPreparedStatementCount() {
+        return preparedStmtCount.get();
+    }
+
+    /**
+     * @return the server arguments
+     */
+    public ServerArgs getArgs() {
+        return args;
+    }
+
     /**
      * @return the variables
      */
@@ -35,6 +35,8 @@ public class ServerArgs {
 	public int sendBuff = -1;
 	public int recvBuff = -1;
 
+	public int maxPreparedStmtCount = 16382;
+
 	public String configFile;
 
 
@@ -93,6 +95,11 @@ public class ServerArgs {
 		return this;
 	}
 
+	public ServerArgs maxPreparedStmtCount(int maxPreparedStmtCount) {
+		this.maxPreparedStmtCount = maxPreparedStmtCount;
+		return this;
+	}
+
 	public ServerArgs configFile(String configFile) {
 		this.configFile = configFile;
 		return this;
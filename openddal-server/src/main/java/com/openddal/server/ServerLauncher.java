@@ -79,6 +79,12 @@ public class ServerLauncher {
                     } else {
                         usage("-workerThreads should be positive integer");
                     }
+                } else if ("-maxPreparedStmtCount".equals(key)) {
+                    if (value.matches("([0-9]*)")) {
+                        serverArgs.maxPreparedStmtCount(Integer.parseInt(value));
+                    } else {
+                        usage("-maxPreparedStmtCount should be positive integer");
+                    }
                 } else if ("-protocol".equals(key)) {
                     serverArgs.protocol(value);
                 } else if ("-configFile".equals(key)) {
@@ -113,6 +119,7 @@ public class ServerLauncher {
         System.out.println("\t" + "-shutdownTimeoutMills: Integer, set thread pool shutdown socket timeout in milliseconds.");
         System.out.println("\t" + "-sendBuff: Integer, the tcp option sendBuff");
         System.out.println("\t" + "-recvBuff: Integer, the tcp option recvBuff");
+        System.out.println("\t" + "-maxPreparedStmtCount: Integer, the number of prepared statements of all sessions, default is 16382.");
         System.out.println();
         System.exit(0);
     }
@@ -6,4 +6,13 @@ public interface QueryDispatcher {
     
     QueryProcessor dispatch(String query) throws ServerException;
 
+    /**
+     * Check if a statement can be prepared, that is, if it is executed by
+     * the engine and not answered by the server itself.
+     *
+     * @param query the SQL statement
+     * @return true if the statement can be prepared
+     */
+    boolean isPreparable(String query);
+
 }
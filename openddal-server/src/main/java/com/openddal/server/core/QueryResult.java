@@ -1,6 +1,7 @@
 
 package com.openddal.server.core;
 
+import com.openddal.command.Command;
 import com.openddal.result.ResultInterface;
 
 /**
@@ -17,6 +18,7 @@ public class QueryResult {
     private String message;
     private long insertId;
     private ResultInterface result;
+    private Command command;
 
     public QueryResult(int affectedRows) {
         this.type = UPDATE_RESULT;
@@ -28,6 +30,17 @@ public class QueryResult {
         this.result = result;
     }
 
+    /**
+     * Create a query result that is not executed yet. The rows are written
+     * to the client while the command produces them.
+     *
+     * @param command the prepared query command
+     */
+    public QueryResult(Command command) {
+        this.type = SELECT_RESULT;
+        this.command = command;
+    }
+
     public boolean isQuery() {
         return type == SELECT_RESULT;
     }
@@ -40,6 +53,10 @@ public class QueryResult {
         return result;
     }
 
+    public Command getQueryCommand() {
+        return command;
+    }
+
     public short getWarnings() {
         return warnings;
     }
@@ -68,5 +85,8 @@ public class QueryResult {
         if (result != null) {
             result.close();
         }
+        if (command != null) {
+            command.close();
+        }
     }
 }
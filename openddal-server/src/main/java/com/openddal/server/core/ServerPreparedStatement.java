@@ -0,0 +1,134 @@
+/*
+ * Copyright 2014-2016 the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the “License”);
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an “AS IS” BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.openddal.server.core;
+
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.Map;
+
+import com.openddal.command.Command;
+import com.openddal.command.expression.ParameterInterface;
+import com.openddal.util.New;
+import com.openddal.value.Value;
+
+/**
+ * A statement prepared by the client. It holds the parsed engine command, so
+ * executing it again only binds the parameters and runs the command.
+ *
+ * @author jorgie.li
+ */
+public class ServerPreparedStatement {
+
+    private final long id;
+    private final String sql;
+    private final Command command;
+    private int[] parameterTypes;
+    private Map<Integer, ByteArrayOutputStream> longData;
+
+    public ServerPreparedStatement(long id, String sql, Command command) {
+        this.id = id;
+        this.sql = sql;
+        this.command = command;
+    }
+
+    public long getId() {
+        return id;
+    }
+
+    public String getSql() {
+        return sql;
+    }
+
+    public Command getCommand() {
+        return command;
+    }
+
+    public int getParameterCount() {
+        return command.getParameters().size();
+    }
+
+    /**
+     * Get the protocol types of the parameters, as bound by the last
+     * execution that sent them.
+     *
+     * @return the parameter types, or null if no types were bound yet
+     */
+    public int[] getParameterTypes() {
+        return parameterTypes;
+    }
+
+    public void setParameterTypes(int[] parameterTypes) {
+        this.parameterTypes = parameterTypes;
+    }
+
+    /**
+     * Set the value of a parameter.
+     *
+     * @param index the 0 based parameter index
+     * @param value the value
+     */
+    public void setParameter(int index, Value value) {
+        ArrayList<? extends ParameterInterface> parameters = command.getParameters();
+        parameters.get(index).setValue(value, true);
+    }
+
+    /**
+     * Append data sent in pieces for a parameter.
+     *
+     * @param index the 0 based parameter index
+     * @param data the data
+     * @param offset the offset of the piece in the data
+     * @param length the length of the piece
+     */
+    public void appendLongData(int index, byte[] data, int offset, int length) {
+        if (longData == null) {
+            longData = New.hashMap();
+        }
+        ByteArrayOutputStream out = longData.get(index);
+        if (out == null) {
+            out = new ByteArrayOutputStream();
+            longData.put(index, out);
+        }
+        out.write(data, offset, length);
+    }
+
+    /**
+     * Get the data sent in pieces for a parameter.
+     *
+     * @param index the 0 based parameter index
+     * @return the data, or null if no data was sent for this parameter
+     */
+    public byte[] getLongData(int index) {
+        if (longData == null) {
+            return null;
+        }
+        ByteArrayOutputStream out = longData.get(index);
+        return out == null ? null : out.toByteArray();
+    }
+
+    /**
+     * Discard the data sent in pieces.
+     */
+    public void reset() {
+        longData = null;
+    }
+
+    public void close() {
+        reset();
+        command.close();
+    }
+
+}
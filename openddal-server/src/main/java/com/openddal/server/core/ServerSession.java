@@ -18,10 +18,12 @@ package com.openddal.server.core;
 import java.util.Map;
 import java.util.Properties;
 
+import com.openddal.command.Command;
 import com.openddal.engine.Session;
 import com.openddal.server.NettyServer;
 import com.openddal.server.ServerException;
 import com.openddal.server.util.CharsetUtil;
+import com.openddal.server.util.ErrorCode;
 import com.openddal.util.New;
 
 import io.netty.channel.Channel;
@@ -48,6 +50,8 @@ public class ServerSession implements AutoCloseable {
     private final long uptime;
     private Session dbSession;
     private QueryDispatcher dispatcher;
+    private Map<Long, ServerPreparedStatement> statements = New.hashMap();
+    private long statementId;
 
 
     public ServerSession(NettyServer server) {
@@ -120,6 +124,11 @@ public class ServerSession implements AutoCloseable {
     }
 
     public void close() {
+        for (ServerPreparedStatement stmt : statements.values()) {
+            stmt.close();
+            server.releasePreparedStatement();
+        }
+        statements.clear();
         dbSession.close();
         server.removeSession(threadId);
         if (channel != null && channel.isOpen()) {
@@ -196,4 +205,68 @@ public class ServerSession implements AutoCloseable {
         QueryResult result = processor.process(query);
         return result;
     }
+
+    /**
+     * Prepare a statement and register it in this session. Only statements
+     * that are executed by the engine can be prepared, the others are
+     * rejected so the client falls back to send them as plain queries. The
+     * number of prepared statements of all sessions is limited by
+     * max_prepared_stmt_count.
+     *
+     * @param query the SQL statement
+     * @return the prepared statement
+     */
+    public ServerPreparedStatement prepareStatement(String query) throws ServerException {
+        if (!dispatcher.isPreparable(query)) {
+            throw ServerException.get(ErrorCode.ER_UNSUPPORTED_PS,
+                    "This command is not supported in the prepared statement protocol yet");
+        }
+        if (!server.acquirePreparedStatement()) {
+            throw ServerException.get(ErrorCode.ER_MAX_PREPARED_STMT_COUNT_REACHED,
+                    "Can't create more than max_prepared_stmt_count statements (current value: "
+                            + server.getArgs().maxPreparedStmtCount + ")");
+        }
+        Command command;
+        try {
+            command = dbSession.prepareLocal(query);
+        } catch (Throwable e) {
+            server.releasePreparedStatement();
+            throw ServerException.convert(e);
+        }
+        ServerPreparedStatement stmt = new ServerPreparedStatement(++statementId, query, command);
+        statements.put(stmt.getId(), stmt);
+        return stmt;
+    }
+
+    public ServerPreparedStatement getPreparedStatement(long id) {
+        return statements.get(id);
+    }
+
+    public void closePreparedStatement(long id) {
+        ServerPreparedStatement stmt = statements.remove(id);
+        if (stmt != null) {
+            stmt.close();
+            server.releasePreparedStatement();
+        }
+    }
+
+    /**
+     * Execute a prepared statement whose parameters are bound. The command of
+     * a query is executed when its rows are written to the client, and it
+     * stays open until the statement is closed.
+     *
+     * @param stmt the prepared statement
+     * @return the result
+     */
+    public QueryResult executePreparedStatement(ServerPreparedStatement stmt) throws ServerException {
+        Command command = stmt.getCommand();
+        if (command.isQuery()) {
+            return new QueryResult(command);
+        }
+        try {
+            return new QueryResult(command.executeUpdate());
+        } catch (Throwable e) {
+            throw ServerException.convert(e);
+        }
+    }
 }
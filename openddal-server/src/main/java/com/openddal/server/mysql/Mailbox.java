@@ -0,0 +1,101 @@
+/*
+ * Copyright 2014-2016 the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the “License”);
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an “AS IS” BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.openddal.server.mysql;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * The tasks of a connection that are not run yet. They are run in order by
+ * at most one thread of the executor at any time, so a connection only uses
+ * a thread while it has tasks to run. After a number of tasks the thread is
+ * given back to the executor, and the remaining tasks are scheduled again.
+ *
+ * @author jorgie.li
+ */
+class Mailbox<T extends Runnable> {
+
+    private final Executor executor;
+    private final int maxTasksPerRun;
+    private final ConcurrentLinkedQueue<T> queue = new ConcurrentLinkedQueue<T>();
+    private final AtomicBoolean scheduled = new AtomicBoolean();
+    private final Runnable drainTask = new Runnable() {
+        @Override
+        public void run() {
+            drain();
+        }
+    };
+
+    /**
+     * Create a new mailbox.
+     *
+     * @param executor the executor that runs the tasks
+     * @param maxTasksPerRun the number of tasks run before the thread is
+     *            given back to the executor
+     */
+    Mailbox(Executor executor, int maxTasksPerRun) {
+        this.executor = executor;
+        this.maxTasksPerRun = maxTasksPerRun;
+    }
+
+    /**
+     * Add a task, and schedule the mailbox if it is not scheduled.
+     *
+     * @param task the task
+     * @throws RejectedExecutionException if the executor rejected the mailbox
+     */
+    void offer(T task) {
+        queue.offer(task);
+        schedule();
+    }
+
+    /**
+     * Remove a task that is not run yet.
+     *
+     * @return the task, or null if there is none
+     */
+    T poll() {
+        return queue.poll();
+    }
+
+    private void schedule() {
+        if (scheduled.compareAndSet(false, true)) {
+            try {
+                executor.execute(drainTask);
+            } catch (RejectedExecutionException e) {
+                scheduled.set(false);
+                throw e;
+            }
+        }
+    }
+
+    private void drain() {
+        try {
+            T task;
+            for (int i = 0; i < maxTasksPerRun && (task = queue.poll()) != null; i++) {
+                task.run();
+            }
+        } finally {
+            scheduled.set(false);
+        }
+        if (!queue.isEmpty()) {
+            schedule();
+        }
+    }
+
+}
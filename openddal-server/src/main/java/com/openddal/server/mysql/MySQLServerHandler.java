@@ -17,20 +17,26 @@ package com.openddal.server.mysql;
 
 import java.io.PrintWriter;
 import java.io.StringWriter;
+import java.nio.charset.Charset;
 import java.sql.SQLException;
-import java.util.List;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.ThreadPoolExecutor;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.openddal.command.Command;
+import com.openddal.engine.QueryStatisticsData;
 import com.openddal.message.JdbcSQLException;
 import com.openddal.result.ResultInterface;
+import com.openddal.result.ResultTarget;
 import com.openddal.server.NettyServer;
 import com.openddal.server.ServerException;
 import com.openddal.server.core.QueryResult;
 import com.openddal.server.core.ServerSession;
+import com.openddal.server.core.ServerPreparedStatement;
 import com.openddal.server.mysql.auth.Privilege;
+import com.openddal.server.mysql.proto.BinaryProto;
 import com.openddal.server.mysql.proto.ColumnDefinition;
 import com.openddal.server.mysql.proto.ComFieldlist;
 import com.openddal.server.mysql.proto.ComInitdb;
@@ -43,14 +49,17 @@ import com.openddal.server.mysql.proto.ComStatistics;
 import com.openddal.server.mysql.proto.ComStmtClose;
 import com.openddal.server.mysql.proto.ComStmtExecute;
 import com.openddal.server.mysql.proto.ComStmtPrepare;
+import com.openddal.server.mysql.proto.ComStmtPrepareOk;
 import com.openddal.server.mysql.proto.ComStmtReset;
 import com.openddal.server.mysql.proto.ComStmtSendLongData;
+import com.openddal.server.mysql.proto.EOF;
 import com.openddal.server.mysql.proto.ERR;
 import com.openddal.server.mysql.proto.Flags;
 import com.openddal.server.mysql.proto.Handshake;
 import com.openddal.server.mysql.proto.HandshakeResponse;
 import com.openddal.server.mysql.proto.OK;
 import com.openddal.server.mysql.proto.Packet;
+import com.openddal.server.mysql.proto.Proto;
 import com.openddal.server.mysql.proto.Resultset;
 import com.openddal.server.mysql.proto.ResultsetRow;
 import com.openddal.server.util.AccessLogger;
@@ -60,8 +69,10 @@ import com.openddal.server.util.ResultColumn;
 import com.openddal.server.util.StringUtil;
 import com.openddal.util.StringUtils;
 import com.openddal.value.Value;
+import com.openddal.value.ValueNull;
 
 import io.netty.buffer.ByteBuf;
+import io.netty.channel.Channel;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.channel.ChannelInboundHandlerAdapter;
 
@@ -74,15 +85,50 @@ public class MySQLServerHandler extends ChannelInboundHandlerAdapter {
     private static final Logger LOGGER = LoggerFactory.getLogger(MySQLServerHandler.class);
     private static final AccessLogger ACCESSLOGGER = new AccessLogger();
 
+    /**
+     * The number of encoded result set bytes after which they are written to
+     * the client.
+     */
+    private static final int FLUSH_THRESHOLD = 64 * 1024;
+
+    /**
+     * The number of packets of a connection handled before the thread is
+     * given to the other connections.
+     */
+    private static final int MAX_PACKETS_PER_RUN = 16;
+
+    /**
+     * The number of milliseconds after which a writer that waits for the
+     * channel to become writable checks whether the connection is closed.
+     */
+    private static final long WRITABILITY_CHECK_INTERVAL = 100;
+
+    /**
+     * The largest payload of a packet. A longer payload is sent as a
+     * sequence of packets of this size, followed by a shorter one.
+     */
+    static final int MAX_PACKET_PAYLOAD = 0xFFFFFF;
+
     private long sequenceId;
     private ThreadPoolExecutor userExecutor;
     private NettyServer server;
     private ServerSession session;
 
+    /**
+     * The packets received from the client that are not handled yet. They
+     * are handled in order by at most one thread at any time, so a
+     * connection only uses a thread while it has packets to handle. The
+     * session is closed by a task of the mailbox as well, after the packet
+     * that is handled.
+     */
+    private final Mailbox<Runnable> mailbox;
+    private final Object writability = new Object();
+
     public MySQLServerHandler(NettyServer server) {
         this.server = server;
         this.userExecutor = server.getUserExecutor();
         this.session = new ServerSession(server);
+        this.mailbox = new Mailbox<Runnable>(userExecutor, MAX_PACKETS_PER_RUN);
     }
 
     @Override
@@ -112,14 +158,36 @@ public class MySQLServerHandler extends ChannelInboundHandlerAdapter {
     @Override
     public void channelRead(ChannelHandlerContext ctx, Object msg) throws Exception {
         ByteBuf buf = (ByteBuf) msg;
-        userExecutor.execute(new HandleTask(ctx, buf));
+        mailbox.offer(new HandleTask(ctx, buf));
     }
 
     @Override
     public void channelInactive(ChannelHandlerContext ctx) throws Exception {
-        ServerSession session = ServerSession.get(ctx.channel());
-        if (session != null) {
-            session.close();
+        // the packets that are not handled yet are dropped
+        Runnable task;
+        while ((task = mailbox.poll()) != null) {
+            if (task instanceof HandleTask) {
+                ((HandleTask) task).buf.release();
+            }
+        }
+        synchronized (writability) {
+            writability.notifyAll();
+        }
+        final ServerSession session = ServerSession.get(ctx.channel());
+        if (session == null) {
+            return;
+        }
+        Runnable close = new Runnable() {
+            @Override
+            public void run() {
+                session.close();
+            }
+        };
+        try {
+            mailbox.offer(close);
+        } catch (RejectedExecutionException e) {
+            // the server is stopped
+            close.run();
         }
     }
 
@@ -266,10 +334,14 @@ public class MySQLServerHandler extends ChannelInboundHandlerAdapter {
             return;
         }
         QueryResult result = session.executeQuery(query);
-        if(result.isQuery()) {
-            sendQueryResult(ctx, result);
-        } else {
-            sendUpdateResult(ctx, result);
+        try {
+            if(result.isQuery()) {
+                sendQueryResult(ctx, result, false);
+            } else {
+                sendUpdateResult(ctx, result);
+            }
+        } finally {
+            result.close();
         }
     }
 
@@ -280,22 +352,130 @@ public class MySQLServerHandler extends ChannelInboundHandlerAdapter {
 
     private void stmtPrepare(ChannelHandlerContext ctx, ComStmtPrepare request) {
         ACCESSLOGGER.seqId(this.sequenceId).command(request.toString());
-        sendError(ctx, ErrorCode.ER_UNKNOWN_COM_ERROR, "Prepare command unsupported.");
+        ServerPreparedStatement stmt = session.prepareStatement(request.query);
+        Command command = stmt.getCommand();
+        ResultInterface meta = command.isQuery() ? command.getMetaData() : null;
+        int columnCount = meta == null ? 0 : meta.getVisibleColumnCount();
+        int paramCount = stmt.getParameterCount();
+        Resultset.characterSet = session.getCharsetIndex();
+        ByteBuf out = ctx.alloc().buffer();
+        ComStmtPrepareOk ok = new ComStmtPrepareOk();
+        ok.sequenceId = nextSequenceId();
+        ok.statementId = stmt.getId();
+        ok.columnsNumber = columnCount;
+        ok.parametersNumber = paramCount;
+        out.writeBytes(ok.toPacket());
+        if (paramCount > 0) {
+            for (int i = 0; i < paramCount; i++) {
+                ColumnDefinition paramPacket = new ColumnDefinition("?");
+                paramPacket.sequenceId = nextSequenceId();
+                out.writeBytes(paramPacket.toPacket());
+            }
+            out.writeBytes(eofPacket());
+        }
+        if (columnCount > 0) {
+            for (int i = 0; i < columnCount; i++) {
+                ColumnDefinition columnPacket = ResultColumn.getColumn(meta, i);
+                columnPacket.sequenceId = nextSequenceId();
+                out.writeBytes(columnPacket.toPacket());
+            }
+            out.writeBytes(eofPacket());
+        }
+        ctx.writeAndFlush(out);
     }
 
     private void stmtPrepareLongData(ChannelHandlerContext ctx, ComStmtSendLongData request) {
         ACCESSLOGGER.seqId(this.sequenceId).command(request.toString());
-        sendError(ctx, ErrorCode.ER_UNKNOWN_COM_ERROR, "Prepare command unsupported.");
+        Proto proto = new Proto(request.data, 1);
+        long statementId = proto.get_fixed_int(4);
+        int paramId = (int) proto.get_fixed_int(2);
+        ServerPreparedStatement stmt = session.getPreparedStatement(statementId);
+        // there is no response, errors are reported by the next execute
+        if (stmt != null && paramId < stmt.getParameterCount()) {
+            stmt.appendLongData(paramId, proto.packet, proto.offset, proto.packet.length - proto.offset);
+        }
     }
 
     private void stmtExecute(ChannelHandlerContext ctx, ComStmtExecute request) throws Exception {
         ACCESSLOGGER.seqId(this.sequenceId).command(request.toString());
-        sendError(ctx, ErrorCode.ER_UNKNOWN_COM_ERROR, "Prepare command unsupported.");
+        Proto proto = new Proto(request.data, 1);
+        long statementId = proto.get_fixed_int(4);
+        ServerPreparedStatement stmt = session.getPreparedStatement(statementId);
+        if (stmt == null) {
+            sendError(ctx, ErrorCode.ER_UNKNOWN_STMT_HANDLER,
+                    "Unknown prepared statement handler (" + statementId + ") given to mysqld_stmt_execute");
+            return;
+        }
+        try {
+            // flags and iteration count, cursors are not supported and the
+            // whole result is sent
+            proto.get_filler(5);
+            bindParameters(stmt, proto);
+            QueryResult result = session.executePreparedStatement(stmt);
+            if (result.isQuery()) {
+                sendQueryResult(ctx, result, true);
+            } else {
+                sendUpdateResult(ctx, result);
+            }
+        } finally {
+            stmt.reset();
+        }
+    }
+
+    private void bindParameters(ServerPreparedStatement stmt, Proto proto) {
+        int paramCount = stmt.getParameterCount();
+        if (paramCount == 0) {
+            return;
+        }
+        int nullBitmap = proto.offset;
+        proto.get_filler((paramCount + 7) / 8);
+        if (proto.get_fixed_int(1) == 1) {
+            int[] types = new int[paramCount];
+            for (int i = 0; i < paramCount; i++) {
+                types[i] = (int) proto.get_fixed_int(2);
+            }
+            stmt.setParameterTypes(types);
+        }
+        int[] types = stmt.getParameterTypes();
+        if (types == null) {
+            throw ServerException.get(ErrorCode.ER_WRONG_ARGUMENTS,
+                    "Incorrect arguments to mysqld_stmt_execute");
+        }
+        // strings are sent in the character set of the connection
+        Charset charset = getCharset();
+        for (int i = 0; i < paramCount; i++) {
+            int type = types[i] & 0xff;
+            boolean unsigned = (types[i] & 0x8000) != 0;
+            byte[] longData = stmt.getLongData(i);
+            Value value;
+            if (longData != null) {
+                value = BinaryProto.toValue(type, longData, charset);
+            } else if ((proto.packet[nullBitmap + i / 8] & (1 << (i % 8))) != 0) {
+                value = ValueNull.INSTANCE;
+            } else {
+                value = BinaryProto.readValue(proto, type, unsigned, charset);
+            }
+            stmt.setParameter(i, value);
+        }
+    }
+
+    private Charset getCharset() {
+        String name = session.getCharset();
+        if (name != null) {
+            try {
+                return Charset.forName(name);
+            } catch (IllegalArgumentException e) {
+                // not known to Java
+            }
+        }
+        return Proto.CHARSET;
     }
 
     private void stmtClose(ChannelHandlerContext ctx, ComStmtClose request) {
         ACCESSLOGGER.seqId(this.sequenceId).command(request.toString());
-        sendError(ctx, ErrorCode.ER_UNKNOWN_COM_ERROR, "Prepare command unsupported.");
+        Proto proto = new Proto(request.data, 1);
+        // there is no response
+        session.closePreparedStatement(proto.get_fixed_int(4));
     }
 
     private void processKill(ChannelHandlerContext ctx, ComProcesskill request) {
@@ -309,7 +489,16 @@ public class MySQLServerHandler extends ChannelInboundHandlerAdapter {
     
     private void stmtReset(ChannelHandlerContext ctx, ComStmtReset request) {
         ACCESSLOGGER.seqId(this.sequenceId).command(request.toString());
-        sendError(ctx, ErrorCode.ER_UNKNOWN_COM_ERROR, "ComStmtReset command unsupported.");
+        Proto proto = new Proto(request.data, 1);
+        long statementId = proto.get_fixed_int(4);
+        ServerPreparedStatement stmt = session.getPreparedStatement(statementId);
+        if (stmt == null) {
+            sendError(ctx, ErrorCode.ER_UNKNOWN_STMT_HANDLER,
+                    "Unknown prepared statement handler (" + statementId + ") given to mysqld_stmt_reset");
+            return;
+        }
+        stmt.reset();
+        success(ctx);
     }
     
     private void statistics(ChannelHandlerContext ctx, ComStatistics request) {
@@ -372,42 +561,245 @@ public class MySQLServerHandler extends ChannelInboundHandlerAdapter {
     }
     
 
-    private void sendQueryResult(ChannelHandlerContext ctx, QueryResult rs) {
-        Resultset resultset = new Resultset();
-        ByteBuf out = ctx.alloc().buffer();
+    private byte[] eofPacket() {
+        EOF eof = new EOF();
+        eof.sequenceId = nextSequenceId();
+        return eof.toPacket();
+    }
+
+    private void sendQueryResult(ChannelHandlerContext ctx, QueryResult rs, boolean binary) {
+        ResultInterface result = rs.getQueryResult();
+        Command command = rs.getQueryCommand();
+        ResultsetWriter writer = new ResultsetWriter(ctx, binary);
         try {
+            writer.writeHeader(result != null ? result : command.getMetaData());
+            if (result != null) {
+                while (result.next()) {
+                    writer.addRow(result.currentRow());
+                }
+            } else {
+                command.executeQuery(0, writer);
+            }
+            writer.writeEof();
+        } catch (RuntimeException e) {
+            if (!writer.isFlushed()) {
+                // the client did not see any packet of the result yet, the
+                // error is sent instead
+                sequenceId = writer.getStartSequenceId();
+                throw e;
+            }
+            // the client already read a part of the result, there is no
+            // way to report the error within the protocol
+            LOGGER.error("an exception happen while sending a result, closing the connection", e);
+            ACCESSLOGGER.markError(ErrorCode.ER_ERROR_WHEN_EXECUTING_COMMAND, e.getMessage());
+            ctx.close();
+        } finally {
+            writer.release();
+        }
+    }
+
+    /**
+     * Writes the rows of a query result to the client while they are
+     * produced. The rows are encoded into a pooled buffer that is handed to
+     * the channel whenever it grows over {@link #FLUSH_THRESHOLD} bytes. The
+     * socket is written by the event loop, not by the thread that runs the
+     * query and holds the session; if the channel is not writable, the
+     * writer waits until the client has caught up, so only a bounded part of
+     * the result is held in memory. A row longer than
+     * {@link #MAX_PACKET_PAYLOAD} bytes is sent in several packets. Rows are
+     * encoded in the text format for queries, and in the binary format for
+     * prepared statements. If the query statistics are enabled, the time spent
+     * writing the rows is recorded as the encode phase.
+     */
+    private class ResultsetWriter implements ResultTarget {
+
+        private final ChannelHandlerContext ctx;
+        private final boolean binary;
+        private final QueryStatisticsData statistics;
+        private final long startSequenceId;
+        private ByteBuf out;
+        private boolean flushed;
+        private int columnCount;
+        private int[] columnTypes;
+        private int rowCount;
+        private long encodeTime;
+
+        ResultsetWriter(ChannelHandlerContext ctx, boolean binary) {
+            this.ctx = ctx;
+            this.binary = binary;
+            this.statistics = session.getDbSession().getDatabase().getQueryStatisticsData();
+            this.startSequenceId = sequenceId;
+            this.out = ctx.alloc().buffer();
+        }
+
+        void writeHeader(ResultInterface meta) {
+            Resultset resultset = new Resultset();
             resultset.sequenceId = nextSequenceId();
             Resultset.characterSet = session.getCharsetIndex();
-            
-            ResultInterface result = rs.getQueryResult();
-            int columnCount = result.getVisibleColumnCount();
+            columnCount = meta.getVisibleColumnCount();
+            columnTypes = new int[columnCount];
             for (int i = 0; i < columnCount; i++) {
-                ColumnDefinition columnPacket = ResultColumn.getColumn(result, i);
+                ColumnDefinition columnPacket = ResultColumn.getColumn(meta, i);
+                columnTypes[i] = (int) columnPacket.type & 0xff;
                 resultset.addColumn(columnPacket);
             }
-            while (result.next()) {
-                ResultsetRow rowPacket = new ResultsetRow();
-                Value[] v = result.currentRow();
-                for (int i = 0; i < columnCount; i++) {
-                    Value value = v[i];
-                    rowPacket.data.add(value.getString());
-                }
-                resultset.addRow(rowPacket);
-            }
-            List<byte[]> packets = resultset.toPackets();
-            for (byte[] bs : packets) {
+            for (byte[] bs : resultset.toHeadPackets()) {
                 out.writeBytes(bs);
             }
-        } catch (Exception e) {
-            ERR err = new ERR();
-            err.sequenceId = resultset.sequenceId++;
-            err.errorCode = ErrorCode.ER_UNKNOWN_ERROR;
-            err.errorMessage = "write resultset error:" + e.getMessage();
-            out.writeBytes(err.toPacket());
-        } finally {
+            sequenceId = resultset.sequenceId - 1;
+        }
+
+        @Override
+        public void addRow(Value[] values) {
+            long startNanos = statistics == null ? 0 : System.nanoTime();
+            // the header is written when the row is encoded
+            int start = out.writerIndex();
+            out.writeZero(4);
+            if (binary) {
+                BinaryProto.writeRow(out, columnTypes, values);
+            } else {
+                ResultsetRow.writeRow(out, values, columnCount);
+            }
+            sequenceId = finishPacket(out, start, nextSequenceId());
+            rowCount++;
+            if (out.readableBytes() >= FLUSH_THRESHOLD) {
+                flush();
+            }
+            if (statistics != null) {
+                long time = System.nanoTime() - startNanos;
+                encodeTime += time;
+                // not counted as the merge time of the statement
+                session.getDbSession().addWaitTime(time);
+            }
+        }
+
+        @Override
+        public int getRowCount() {
+            return rowCount;
+        }
+
+        void writeEof() {
+            out.writeBytes(eofPacket());
+            ctx.writeAndFlush(out);
+            out = null;
+            if (statistics != null) {
+                statistics.recordPhase(QueryStatisticsData.ENCODE, null, encodeTime);
+            }
+        }
+
+        void release() {
+            if (out != null) {
+                out.release();
+                out = null;
+            }
+        }
+
+        /**
+         * Check whether a part of the result was written to the client.
+         *
+         * @return true if the client may have received packets
+         */
+        boolean isFlushed() {
+            return flushed;
+        }
+
+        /**
+         * Get the sequence id of the request, the first packet of the
+         * response uses the next one.
+         *
+         * @return the sequence id
+         */
+        long getStartSequenceId() {
+            return startSequenceId;
+        }
+
+        private void flush() {
             ctx.writeAndFlush(out);
+            flushed = true;
+            out = ctx.alloc().buffer();
+            awaitWritable(ctx.channel());
         }
+    }
 
+    /**
+     * Write the header of the packet that starts at the given index of the
+     * buffer, and whose payload is everything written after the header. A
+     * payload of {@link #MAX_PACKET_PAYLOAD} bytes or more is split into
+     * packets of that size followed by a shorter, possibly empty, packet,
+     * each with the next sequence id.
+     *
+     * @param out the buffer
+     * @param start the index of the 4 byte header
+     * @param sequenceId the sequence id of the first packet
+     * @return the sequence id of the last packet
+     */
+    static long finishPacket(ByteBuf out, int start, long sequenceId) {
+        int size = out.writerIndex() - start - 4;
+        if (size < MAX_PACKET_PAYLOAD) {
+            setPacketHeader(out, start, size, sequenceId);
+            return sequenceId;
+        }
+        ByteBuf payload = out.copy(start + 4, size);
+        try {
+            out.writerIndex(start);
+            int length;
+            do {
+                length = Math.min(MAX_PACKET_PAYLOAD, payload.readableBytes());
+                int header = out.writerIndex();
+                out.writeZero(4);
+                setPacketHeader(out, header, length, sequenceId);
+                out.writeBytes(payload, length);
+                if (length == MAX_PACKET_PAYLOAD) {
+                    sequenceId++;
+                }
+            } while (length == MAX_PACKET_PAYLOAD);
+        } finally {
+            payload.release();
+        }
+        return sequenceId;
+    }
+
+    private static void setPacketHeader(ByteBuf out, int index, int size, long sequenceId) {
+        out.setByte(index, size & 0xFF);
+        out.setByte(index + 1, (size >> 8) & 0xFF);
+        out.setByte(index + 2, (size >> 16) & 0xFF);
+        out.setByte(index + 3, (int) (sequenceId & 0xFF));
+    }
+
+    private void awaitWritable(Channel channel) {
+        awaitWritable(channel, writability);
+    }
+
+    /**
+     * Wait until the channel is writable, that is until the client has read
+     * enough of the data written before.
+     *
+     * @param channel the channel
+     * @param lock the object that is notified when the writability of the
+     *            channel changes
+     */
+    static void awaitWritable(Channel channel, Object lock) {
+        synchronized (lock) {
+            while (!channel.isWritable()) {
+                if (!channel.isActive()) {
+                    throw ServerException.get(ErrorCode.ER_NET_ERROR_ON_WRITE, "Connection closed by the client");
+                }
+                try {
+                    lock.wait(WRITABILITY_CHECK_INTERVAL);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw ServerException.get(ErrorCode.ER_NET_ERROR_ON_WRITE, "Interrupted while writing");
+                }
+            }
+        }
+    }
+
+    @Override
+    public void channelWritabilityChanged(ChannelHandlerContext ctx) throws Exception {
+        synchronized (writability) {
+            writability.notifyAll();
+        }
+        super.channelWritabilityChanged(ctx);
     }
 
     
@@ -2,7 +2,6 @@ package com.openddal.server.mysql.pcs;
 
 import com.openddal.command.Command;
 import com.openddal.engine.Session;
-import com.openddal.result.ResultInterface;
 import com.openddal.server.ServerException;
 import com.openddal.server.core.QueryProcessor;
 import com.openddal.server.core.QueryResult;
@@ -28,17 +27,18 @@ public class DefaultQueryProcessor implements QueryProcessor {
         Session dbSession = session.getDbSession();
         Command command = null;
         try {
-            synchronized (dbSession) {
-                command = dbSession.prepareLocal(query);
-                if (command.isQuery()) {
-                    ResultInterface resultSet = command.executeQuery(0, false);
-                    result = new QueryResult(resultSet);
-                } else {
-                    int updateCount = command.executeUpdate();
-                    result = new QueryResult(updateCount);
-                }
-                return result;
+            // the packets of a connection are handled one after the other
+            command = dbSession.prepareLocal(query);
+            if (command.isQuery()) {
+                // executed by the handler, which streams the rows to the
+                // client, the command is closed with the result
+                result = new QueryResult(command);
+                command = null;
+            } else {
+                int updateCount = command.executeUpdate();
+                result = new QueryResult(updateCount);
             }
+            return result;
         } catch (Throwable e) {
             throw ServerException.convert(e);
         } finally {
@@ -68,4 +68,16 @@ public class QueryDispatcherImpl implements QueryDispatcher {
         return processor;
     }
 
+    @Override
+    public boolean isPreparable(String query) {
+        QueryProcessor processor = dispatch(query);
+        if (processor == defaultProcessor) {
+            return true;
+        }
+        if (processor instanceof SelectProcessor) {
+            return !((SelectProcessor) processor).isLocalQuery(query);
+        }
+        return false;
+    }
+
 }
@@ -72,6 +72,16 @@ public final class SelectProcessor implements QueryProcessor {
         return new QueryResult(LocalResult.read(target.getSession().getDbSession(), result, 0));
     }
 
+    /**
+     * Check if the query is answered by the server without the engine.
+     *
+     * @param query the query
+     * @return true if the query is answered by the server
+     */
+    public boolean isLocalQuery(String query) {
+        return parseLocalItem(query) != null;
+    }
+
     private List<SQLSelectItem> parseLocalItem(String query) {
         List<SQLSelectItem> selectList = New.arrayList();
         try {
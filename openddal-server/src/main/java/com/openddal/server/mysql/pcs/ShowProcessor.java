@@ -37,6 +37,8 @@ import com.alibaba.druid.sql.visitor.SQLEvalVisitor;
 import com.alibaba.druid.sql.visitor.SQLEvalVisitorUtils;
 import com.alibaba.druid.util.JdbcConstants;
 import com.openddal.engine.Constants;
+import com.openddal.engine.QueryStatisticsData;
+import com.openddal.engine.Session;
 import com.openddal.result.LocalResult;
 import com.openddal.result.SimpleResultSet;
 import com.openddal.server.ServerException;
@@ -44,6 +46,7 @@ import com.openddal.server.core.QueryProcessor;
 import com.openddal.server.core.QueryResult;
 import com.openddal.server.core.ServerSession;
 import com.openddal.server.util.ErrorCode;
+import com.openddal.util.LatencyHistogram;
 import com.openddal.util.New;
 
 /**
@@ -226,11 +229,34 @@ public final class ShowProcessor implements QueryProcessor {
 
     private QueryResult showStatus(MySqlShowStatusStatement s) {
         Map<String, String> status = target.getSession().getServer().getStatus();
+        addPhaseStatus(status);
         SQLExpr where = s.getWhere();
         SQLCharExpr like = (SQLCharExpr) s.getLike();
         return filter(status, where, like);
     }
 
+    /**
+     * Add the latencies of the statement phases in microseconds, if the
+     * query statistics are enabled, for example
+     * <code>Ddal_execute_shard0_p99_us</code>.
+     */
+    private void addPhaseStatus(Map<String, String> status) {
+        Session session = target.getSession().getDbSession();
+        QueryStatisticsData statistics = session.getDatabase().getQueryStatisticsData();
+        if (statistics == null) {
+            return;
+        }
+        for (Map.Entry<String, LatencyHistogram> e : statistics.getPhases().entrySet()) {
+            String prefix = "Ddal_" + e.getKey().toLowerCase().replace(':', '_');
+            LatencyHistogram histogram = e.getValue();
+            status.put(prefix + "_count", String.valueOf(histogram.getCount()));
+            status.put(prefix + "_p50_us", String.valueOf(histogram.getValueAtPercentile(50)));
+            status.put(prefix + "_p95_us", String.valueOf(histogram.getValueAtPercentile(95)));
+            status.put(prefix + "_p99_us", String.valueOf(histogram.getValueAtPercentile(99)));
+            status.put(prefix + "_max_us", String.valueOf(histogram.getMax()));
+        }
+    }
+
     private QueryResult filter(Map<String, String> variables, SQLExpr where, SQLCharExpr like) {
         SimpleResultSet result = new SimpleResultSet();
         result.addColumn("Variable_name", Types.VARCHAR, Integer.MAX_VALUE, 0);
@@ -0,0 +1,323 @@
+/*
+ * Copyright 2014-2016 the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the “License”);
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an “AS IS” BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.openddal.server.mysql.proto;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.charset.Charset;
+
+import com.openddal.util.DateTimeUtils;
+import com.openddal.value.Value;
+import com.openddal.value.ValueByte;
+import com.openddal.value.ValueBytes;
+import com.openddal.value.ValueDate;
+import com.openddal.value.ValueDecimal;
+import com.openddal.value.ValueDouble;
+import com.openddal.value.ValueFloat;
+import com.openddal.value.ValueInt;
+import com.openddal.value.ValueLong;
+import com.openddal.value.ValueNull;
+import com.openddal.value.ValueShort;
+import com.openddal.value.ValueString;
+import com.openddal.value.ValueTime;
+import com.openddal.value.ValueTimestamp;
+
+import io.netty.buffer.ByteBuf;
+
+/**
+ * Encoding and decoding of values in the binary protocol used by prepared
+ * statements: the parameters of COM_STMT_EXECUTE and the binary result rows.
+ *
+ * @author jorgie.li
+ */
+public final class BinaryProto {
+
+    private static final long NANOS_PER_SECOND = 1000000000L;
+    private static final long NANOS_PER_DAY = 24 * 3600 * NANOS_PER_SECOND;
+
+    private BinaryProto() {
+        // utility class
+    }
+
+    /**
+     * Read a parameter value.
+     *
+     * @param proto the packet positioned at the value
+     * @param type the MySQL type of the parameter
+     * @param unsigned if the parameter is unsigned
+     * @param charset the character set of the connection
+     * @return the value
+     */
+    public static Value readValue(Proto proto, int type, boolean unsigned, Charset charset) {
+        switch (type) {
+        case Flags.MYSQL_TYPE_NULL:
+            return ValueNull.INSTANCE;
+        case Flags.MYSQL_TYPE_TINY: {
+            byte x = (byte) proto.get_fixed_int(1);
+            return unsigned ? ValueShort.get((short) (x & 0xff)) : ValueByte.get(x);
+        }
+        case Flags.MYSQL_TYPE_SHORT:
+        case Flags.MYSQL_TYPE_YEAR: {
+            short x = (short) proto.get_fixed_int(2);
+            return unsigned ? ValueInt.get(x & 0xffff) : ValueShort.get(x);
+        }
+        case Flags.MYSQL_TYPE_LONG:
+        case Flags.MYSQL_TYPE_INT24: {
+            int x = (int) proto.get_fixed_int(4);
+            return unsigned ? ValueLong.get(x & 0xffffffffL) : ValueInt.get(x);
+        }
+        case Flags.MYSQL_TYPE_LONGLONG: {
+            long x = proto.get_fixed_int(8);
+            if (unsigned && x < 0) {
+                BigInteger big = BigInteger.valueOf(x).add(BigInteger.ONE.shiftLeft(64));
+                return ValueDecimal.get(new BigDecimal(big));
+            }
+            return ValueLong.get(x);
+        }
+        case Flags.MYSQL_TYPE_FLOAT:
+            return ValueFloat.get(Float.intBitsToFloat((int) proto.get_fixed_int(4)));
+        case Flags.MYSQL_TYPE_DOUBLE:
+            return ValueDouble.get(Double.longBitsToDouble(proto.get_fixed_int(8)));
+        case Flags.MYSQL_TYPE_DATE:
+        case Flags.MYSQL_TYPE_DATETIME:
+        case Flags.MYSQL_TYPE_TIMESTAMP:
+            return readTimestamp(proto, type);
+        case Flags.MYSQL_TYPE_TIME:
+            return readTime(proto);
+        default:
+            return toValue(type, readLenencBytes(proto), charset);
+        }
+    }
+
+    /**
+     * Convert the data of a string or binary parameter to a value.
+     *
+     * @param type the MySQL type of the parameter
+     * @param data the data
+     * @param charset the character set of the connection
+     * @return the value
+     */
+    public static Value toValue(int type, byte[] data, Charset charset) {
+        switch (type) {
+        case Flags.MYSQL_TYPE_TINY_BLOB:
+        case Flags.MYSQL_TYPE_MEDIUM_BLOB:
+        case Flags.MYSQL_TYPE_LONG_BLOB:
+        case Flags.MYSQL_TYPE_BLOB:
+        case Flags.MYSQL_TYPE_GEOMETRY:
+        case Flags.MYSQL_TYPE_BIT:
+            return ValueBytes.getNoCopy(data);
+        case Flags.MYSQL_TYPE_DECIMAL:
+        case Flags.MYSQL_TYPE_NEWDECIMAL:
+            return ValueDecimal.get(new BigDecimal(new String(data, Proto.CHARSET)));
+        default:
+            return ValueString.get(new String(data, charset));
+        }
+    }
+
+    private static byte[] readLenencBytes(Proto proto) {
+        int first = proto.packet[proto.offset] & 0xff;
+        int len;
+        if (first < 0xfb) {
+            proto.get_filler(1);
+            len = first;
+        } else {
+            proto.get_filler(1);
+            int size = first == 0xfc ? 2 : first == 0xfd ? 3 : 8;
+            len = (int) proto.get_fixed_int(size);
+        }
+        byte[] data = new byte[len];
+        System.arraycopy(proto.packet, proto.offset, data, 0, len);
+        proto.get_filler(len);
+        return data;
+    }
+
+    private static Value readTimestamp(Proto proto, int type) {
+        int len = (int) proto.get_fixed_int(1);
+        int year = 0, month = 0, day = 0, hour = 0, minute = 0, second = 0;
+        long micros = 0;
+        if (len >= 4) {
+            year = (int) proto.get_fixed_int(2);
+            month = (int) proto.get_fixed_int(1);
+            day = (int) proto.get_fixed_int(1);
+        }
+        if (len >= 7) {
+            hour = (int) proto.get_fixed_int(1);
+            minute = (int) proto.get_fixed_int(1);
+            second = (int) proto.get_fixed_int(1);
+        }
+        if (len >= 11) {
+            micros = proto.get_fixed_int(4);
+        }
+        if (len == 0) {
+            // the zero date, which can not be represented
+            return ValueNull.INSTANCE;
+        }
+        long dateValue = DateTimeUtils.dateValue(year, month, day);
+        if (type == Flags.MYSQL_TYPE_DATE) {
+            return ValueDate.fromDateValue(dateValue);
+        }
+        long nanos = ((hour * 60L + minute) * 60 + second) * NANOS_PER_SECOND + micros * 1000;
+        return ValueTimestamp.fromDateValueAndNanos(dateValue, nanos);
+    }
+
+    private static Value readTime(Proto proto) {
+        int len = (int) proto.get_fixed_int(1);
+        if (len == 0) {
+            return ValueTime.fromNanos(0);
+        }
+        boolean negative = proto.get_fixed_int(1) == 1;
+        long days = proto.get_fixed_int(4);
+        int hour = (int) proto.get_fixed_int(1);
+        int minute = (int) proto.get_fixed_int(1);
+        int second = (int) proto.get_fixed_int(1);
+        long micros = len >= 12 ? proto.get_fixed_int(4) : 0;
+        long nanos = ((days * 24 + hour) * 60 + minute) * 60 + second;
+        nanos = nanos * NANOS_PER_SECOND + micros * 1000;
+        return ValueTime.fromNanos(negative ? -nanos : nanos);
+    }
+
+    /**
+     * Write the payload of a binary result row: the header byte, the null
+     * bitmap and the not null values.
+     *
+     * @param out the target buffer
+     * @param types the MySQL types of the columns
+     * @param values the values, at least one for each column
+     */
+    public static void writeRow(ByteBuf out, int[] types, Value[] values) {
+        int columnCount = types.length;
+        out.writeByte(0);
+        // the null bitmap has an offset of 2 bits in result rows
+        int nullBitmap = out.writerIndex();
+        out.writeZero((columnCount + 9) / 8);
+        for (int i = 0; i < columnCount; i++) {
+            Value value = values[i];
+            if (value == ValueNull.INSTANCE) {
+                int index = nullBitmap + (i + 2) / 8;
+                out.setByte(index, out.getByte(index) | (1 << ((i + 2) % 8)));
+            } else {
+                writeValue(out, types[i], value);
+            }
+        }
+    }
+
+    /**
+     * Write a not null value of a binary result row.
+     *
+     * @param out the target buffer
+     * @param type the MySQL type of the column
+     * @param v the value
+     */
+    public static void writeValue(ByteBuf out, int type, Value v) {
+        switch (type) {
+        case Flags.MYSQL_TYPE_TINY:
+            out.writeByte(v.getInt());
+            break;
+        case Flags.MYSQL_TYPE_SHORT:
+        case Flags.MYSQL_TYPE_YEAR:
+            writeInt(out, v.getInt(), 2);
+            break;
+        case Flags.MYSQL_TYPE_LONG:
+        case Flags.MYSQL_TYPE_INT24:
+            writeInt(out, v.getInt(), 4);
+            break;
+        case Flags.MYSQL_TYPE_LONGLONG:
+            if (v.getType() == Value.DECIMAL) {
+                // BIGINT UNSIGNED above Long.MAX_VALUE, as two's complement
+                writeInt(out, v.getBigDecimal().toBigInteger().longValue(), 8);
+            } else {
+                writeInt(out, v.getLong(), 8);
+            }
+            break;
+        case Flags.MYSQL_TYPE_FLOAT:
+            writeInt(out, Float.floatToIntBits(v.getFloat()), 4);
+            break;
+        case Flags.MYSQL_TYPE_DOUBLE:
+            writeInt(out, Double.doubleToLongBits(v.getDouble()), 8);
+            break;
+        case Flags.MYSQL_TYPE_DATE:
+            writeDate(out, ((ValueDate) v.convertTo(Value.DATE)).getDateValue(), 0);
+            break;
+        case Flags.MYSQL_TYPE_DATETIME:
+        case Flags.MYSQL_TYPE_TIMESTAMP: {
+            ValueTimestamp ts = (ValueTimestamp) v.convertTo(Value.TIMESTAMP);
+            writeDate(out, ts.getDateValue(), ts.getTimeNanos());
+            break;
+        }
+        case Flags.MYSQL_TYPE_TIME:
+            writeTime(out, ((ValueTime) v.convertTo(Value.TIME)).getNanos());
+            break;
+        case Flags.MYSQL_TYPE_TINY_BLOB:
+        case Flags.MYSQL_TYPE_MEDIUM_BLOB:
+        case Flags.MYSQL_TYPE_LONG_BLOB:
+        case Flags.MYSQL_TYPE_BLOB:
+        case Flags.MYSQL_TYPE_GEOMETRY:
+        case Flags.MYSQL_TYPE_BIT:
+            writeLenencBytes(out, v.getBytesNoCopy());
+            break;
+        default:
+            writeLenencBytes(out, v.getString().getBytes(Proto.CHARSET));
+        }
+    }
+
+    private static void writeDate(ByteBuf out, long dateValue, long nanos) {
+        long seconds = nanos / NANOS_PER_SECOND;
+        long micros = nanos % NANOS_PER_SECOND / 1000;
+        out.writeByte(micros != 0 ? 11 : seconds != 0 ? 7 : 4);
+        writeInt(out, DateTimeUtils.yearFromDateValue(dateValue), 2);
+        out.writeByte(DateTimeUtils.monthFromDateValue(dateValue));
+        out.writeByte(DateTimeUtils.dayFromDateValue(dateValue));
+        if (micros != 0 || seconds != 0) {
+            out.writeByte((int) (seconds / 3600));
+            out.writeByte((int) (seconds / 60 % 60));
+            out.writeByte((int) (seconds % 60));
+        }
+        if (micros != 0) {
+            writeInt(out, micros, 4);
+        }
+    }
+
+    private static void writeTime(ByteBuf out, long nanos) {
+        boolean negative = nanos < 0;
+        if (negative) {
+            nanos = -nanos;
+        }
+        long days = nanos / NANOS_PER_DAY;
+        long seconds = nanos % NANOS_PER_DAY / NANOS_PER_SECOND;
+        long micros = nanos % NANOS_PER_SECOND / 1000;
+        out.writeByte(micros != 0 ? 12 : 8);
+        out.writeByte(negative ? 1 : 0);
+        writeInt(out, days, 4);
+        out.writeByte((int) (seconds / 3600));
+        out.writeByte((int) (seconds / 60 % 60));
+        out.writeByte((int) (seconds % 60));
+        if (micros != 0) {
+            writeInt(out, micros, 4);
+        }
+    }
+
+    private static void writeLenencBytes(ByteBuf out, byte[] data) {
+        out.writeBytes(Proto.build_lenenc_int(data.length));
+        out.writeBytes(data);
+    }
+
+    private static void writeInt(ByteBuf out, long value, int size) {
+        for (int i = 0; i < size; i++) {
+            out.writeByte((int) (value >> (i * 8)));
+        }
+    }
+
+}
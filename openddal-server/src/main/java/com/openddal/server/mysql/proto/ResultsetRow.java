@@ -2,7 +2,14 @@ package com.openddal.server.mysql.proto;
 
 import java.util.ArrayList;
 
+import com.openddal.value.Value;
+import com.openddal.value.ValueNull;
+
+import io.netty.buffer.ByteBuf;
+
 public class ResultsetRow extends Packet {
+    private static final byte[] NULL_FIELD = { (byte) 0xFB };
+
     public int type = Flags.ROW_TYPE_TEXT;
     public int colType = Flags.MYSQL_TYPE_VAR_STRING;
     public ArrayList<Object> data = new ArrayList<Object>();
@@ -84,6 +91,20 @@ public class ResultsetRow extends Packet {
         return payload;
     }
     
+    /**
+     * Write the payload of a text result row.
+     *
+     * @param out the target buffer
+     * @param values the values
+     * @param columnCount the number of columns to write
+     */
+    public static void writeRow(ByteBuf out, Value[] values, int columnCount) {
+        for (int i = 0; i < columnCount; i++) {
+            Value value = values[i];
+            out.writeBytes(value == ValueNull.INSTANCE ? NULL_FIELD : Proto.build_lenenc_str(value.getString()));
+        }
+    }
+
     public static ResultsetRow loadFromPacket(byte[] packet) {
         ResultsetRow obj = new ResultsetRow();
         Proto proto = new Proto(packet, 3);
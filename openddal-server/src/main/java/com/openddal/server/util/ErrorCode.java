@@ -516,4 +516,7 @@ public interface ErrorCode {
     int ER_DROP_PARTITION_WHEN_FK_DEFINED          = 1493;
     int ER_PLUGIN_IS_NOT_LOADED                    = 1494;
 
+    // the number of MySQL 5.1 and later
+    int ER_MAX_PREPARED_STMT_COUNT_REACHED         = 1461;
+
 }
@@ -0,0 +1,97 @@
+/*
+ * Copyright 2014-2016 the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the “License”);
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an “AS IS” BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.openddal.server.core;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.junit.Test;
+
+import com.openddal.server.NettyServer;
+import com.openddal.server.ServerArgs;
+import com.openddal.server.ServerException;
+import com.openddal.server.util.ErrorCode;
+
+import io.netty.channel.ChannelHandler;
+
+/**
+ * Tests the limit of the prepared statements of all sessions.
+ *
+ * @author jorgie.li
+ */
+public class PreparedStatementLimitTest {
+
+    @Test
+    public void testAcquireRelease() {
+        NettyServer server = newServer(2);
+        assertTrue(server.acquirePreparedStatement());
+        assertTrue(server.acquirePreparedStatement());
+        assertFalse(server.acquirePreparedStatement());
+        assertEquals(2, server.getPreparedStatementCount());
+        server.releasePreparedStatement();
+        assertTrue(server.acquirePreparedStatement());
+        assertEquals(2, server.getPreparedStatementCount());
+    }
+
+    @Test
+    public void testPrepareRejected() {
+        NettyServer server = newServer(1);
+        // another session holds the only prepared statement
+        assertTrue(server.acquirePreparedStatement());
+        ServerSession session = new ServerSession(server);
+        try {
+            session.prepareStatement("SELECT 1");
+            fail();
+        } catch (ServerException e) {
+            assertEquals(ErrorCode.ER_MAX_PREPARED_STMT_COUNT_REACHED, e.getSQLException().getErrorCode());
+        }
+        assertEquals(1, server.getPreparedStatementCount());
+    }
+
+    private static NettyServer newServer(int maxPreparedStmtCount) {
+        return new NettyServer(new ServerArgs().maxPreparedStmtCount(maxPreparedStmtCount)) {
+
+            @Override
+            protected String getServerName() {
+                return "test";
+            }
+
+            @Override
+            protected ChannelHandler newChannelInitializer() {
+                return null;
+            }
+
+            @Override
+            public QueryDispatcher newQueryDispatcher(ServerSession session) {
+                return new QueryDispatcher() {
+
+                    @Override
+                    public QueryProcessor dispatch(String query) {
+                        return null;
+                    }
+
+                    @Override
+                    public boolean isPreparable(String query) {
+                        return true;
+                    }
+                };
+            }
+        };
+    }
+
+}
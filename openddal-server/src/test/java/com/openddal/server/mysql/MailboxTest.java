@@ -0,0 +1,210 @@
+/*
+ * Copyright 2014-2016 the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the “License”);
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an “AS IS” BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.openddal.server.mysql;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Tests that the tasks of a mailbox run in order, one at a time, and that
+ * the thread is given back after 16 tasks.
+ *
+ * @author jorgie.li
+ */
+public class MailboxTest {
+
+    private static final int MAX_TASKS_PER_RUN = 16;
+
+    @Test
+    public void testOrder() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            int connections = 8, tasks = 2000;
+            final CountDownLatch done = new CountDownLatch(connections * tasks);
+            final AtomicBoolean overlap = new AtomicBoolean();
+            List<Mailbox<Runnable>> mailboxes = new ArrayList<Mailbox<Runnable>>();
+            List<List<Integer>> results = new ArrayList<List<Integer>>();
+            for (int i = 0; i < connections; i++) {
+                mailboxes.add(new Mailbox<Runnable>(executor, MAX_TASKS_PER_RUN));
+                results.add(Collections.synchronizedList(new ArrayList<Integer>()));
+            }
+            for (int j = 0; j < tasks; j++) {
+                for (int i = 0; i < connections; i++) {
+                    final List<Integer> result = results.get(i);
+                    final AtomicInteger running = new AtomicInteger();
+                    final int id = j;
+                    mailboxes.get(i).offer(new Runnable() {
+                        @Override
+                        public void run() {
+                            if (running.incrementAndGet() != 1) {
+                                overlap.set(true);
+                            }
+                            result.add(id);
+                            running.decrementAndGet();
+                            done.countDown();
+                        }
+                    });
+                }
+            }
+            Assert.assertTrue(done.await(30, TimeUnit.SECONDS));
+            Assert.assertFalse(overlap.get());
+            for (List<Integer> result : results) {
+                Assert.assertEquals(tasks, result.size());
+                for (int j = 0; j < tasks; j++) {
+                    Assert.assertEquals(j, (int) result.get(j));
+                }
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testOneAtATime() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            final Mailbox<Runnable> mailbox = new Mailbox<Runnable>(executor, MAX_TASKS_PER_RUN);
+            final AtomicInteger running = new AtomicInteger();
+            final AtomicInteger maxRunning = new AtomicInteger();
+            final AtomicInteger count = new AtomicInteger();
+            int producers = 4, tasks = 1000;
+            final CountDownLatch done = new CountDownLatch(producers * tasks);
+            final Runnable task = new Runnable() {
+                @Override
+                public void run() {
+                    int r = running.incrementAndGet();
+                    if (r > maxRunning.get()) {
+                        maxRunning.set(r);
+                    }
+                    count.incrementAndGet();
+                    running.decrementAndGet();
+                    done.countDown();
+                }
+            };
+            List<Thread> threads = new ArrayList<Thread>();
+            for (int i = 0; i < producers; i++) {
+                threads.add(new Thread() {
+                    @Override
+                    public void run() {
+                        for (int j = 0; j < 1000; j++) {
+                            mailbox.offer(task);
+                        }
+                    }
+                });
+            }
+            for (Thread t : threads) {
+                t.start();
+            }
+            Assert.assertTrue(done.await(30, TimeUnit.SECONDS));
+            Assert.assertEquals(producers * tasks, count.get());
+            Assert.assertEquals(1, maxRunning.get());
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testMaxTasksPerRun() {
+        ManualExecutor executor = new ManualExecutor();
+        Mailbox<Runnable> mailbox = new Mailbox<Runnable>(executor, MAX_TASKS_PER_RUN);
+        final AtomicInteger count = new AtomicInteger();
+        Runnable task = new Runnable() {
+            @Override
+            public void run() {
+                count.incrementAndGet();
+            }
+        };
+        for (int i = 0; i < 40; i++) {
+            mailbox.offer(task);
+        }
+        // scheduled once
+        Assert.assertEquals(1, executor.tasks.size());
+        executor.runNext();
+        Assert.assertEquals(16, count.get());
+        // the remaining tasks are scheduled again
+        Assert.assertEquals(1, executor.tasks.size());
+        executor.runNext();
+        Assert.assertEquals(32, count.get());
+        Assert.assertEquals(1, executor.tasks.size());
+        executor.runNext();
+        Assert.assertEquals(40, count.get());
+        Assert.assertEquals(0, executor.tasks.size());
+        // an empty mailbox is scheduled by the next task
+        mailbox.offer(task);
+        Assert.assertEquals(1, executor.tasks.size());
+        executor.runNext();
+        Assert.assertEquals(41, count.get());
+    }
+
+    @Test
+    public void testRejected() {
+        ManualExecutor executor = new ManualExecutor();
+        Mailbox<Runnable> mailbox = new Mailbox<Runnable>(executor, MAX_TASKS_PER_RUN);
+        Runnable task = new Runnable() {
+            @Override
+            public void run() {
+                // nothing to do
+            }
+        };
+        executor.reject = true;
+        try {
+            mailbox.offer(task);
+            Assert.fail();
+        } catch (RejectedExecutionException e) {
+            // expected
+        }
+        executor.reject = false;
+        mailbox.offer(task);
+        Assert.assertEquals(1, executor.tasks.size());
+        executor.runNext();
+        Assert.assertNull(mailbox.poll());
+    }
+
+    /**
+     * An executor that runs the tasks when the test asks for it.
+     */
+    private static class ManualExecutor implements Executor {
+
+        final LinkedList<Runnable> tasks = new LinkedList<Runnable>();
+        boolean reject;
+
+        @Override
+        public void execute(Runnable command) {
+            if (reject) {
+                throw new RejectedExecutionException();
+            }
+            tasks.add(command);
+        }
+
+        void runNext() {
+            tasks.removeFirst().run();
+        }
+    }
+
+}
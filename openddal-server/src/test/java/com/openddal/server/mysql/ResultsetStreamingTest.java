@@ -0,0 +1,146 @@
+/*
+ * Copyright 2014-2016 the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the “License”);
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an “AS IS” BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.openddal.server.mysql;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Test;
+
+import com.openddal.server.ServerException;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.embedded.EmbeddedChannel;
+
+/**
+ * Tests the packets of the rows streamed to the client, and the wait of the
+ * writer for a client that reads slower than the rows are produced.
+ *
+ * @author jorgie.li
+ */
+public class ResultsetStreamingTest {
+
+    private static final int MAX = MySQLServerHandler.MAX_PACKET_PAYLOAD;
+
+    @Test
+    public void testSmallRow() {
+        ByteBuf out = row(100);
+        assertEquals(7, MySQLServerHandler.finishPacket(out, 0, 7));
+        assertPacket(out, 100, 7);
+        assertFalse(out.isReadable());
+        out.release();
+    }
+
+    @Test
+    public void testSplitRow() {
+        int size = MAX + 10;
+        ByteBuf out = row(size);
+        assertEquals(4, MySQLServerHandler.finishPacket(out, 0, 3));
+        assertPacket(out, MAX, 3);
+        assertPacket(out, 10, 4);
+        assertFalse(out.isReadable());
+        out.release();
+    }
+
+    @Test
+    public void testSplitRowOfMaxLength() {
+        // a payload of exactly the maximum length is followed by an empty
+        // packet, so the client knows it ended
+        ByteBuf out = row(MAX);
+        assertEquals(256, MySQLServerHandler.finishPacket(out, 0, 255));
+        assertPacket(out, MAX, 255);
+        assertPacket(out, 0, 0);
+        assertFalse(out.isReadable());
+        out.release();
+    }
+
+    @Test
+    public void testAwaitWritable() throws Exception {
+        final EmbeddedChannel channel = new EmbeddedChannel(new ChannelInboundHandlerAdapter());
+        final Object lock = new Object();
+        // the client does not read, the outbound buffer is full
+        channel.unsafe().outboundBuffer().setUserDefinedWritability(1, false);
+        assertFalse(channel.isWritable());
+        final CountDownLatch done = new CountDownLatch(1);
+        Thread writer = new Thread() {
+            @Override
+            public void run() {
+                MySQLServerHandler.awaitWritable(channel, lock);
+                done.countDown();
+            }
+        };
+        writer.start();
+        assertFalse(done.await(300, TimeUnit.MILLISECONDS));
+        channel.unsafe().outboundBuffer().setUserDefinedWritability(1, true);
+        synchronized (lock) {
+            lock.notifyAll();
+        }
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        writer.join();
+        channel.finish();
+    }
+
+    @Test
+    public void testAwaitWritableClosed() throws Exception {
+        final EmbeddedChannel channel = new EmbeddedChannel(new ChannelInboundHandlerAdapter());
+        channel.unsafe().outboundBuffer().setUserDefinedWritability(1, false);
+        final AtomicReference<Throwable> error = new AtomicReference<Throwable>();
+        Thread writer = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    MySQLServerHandler.awaitWritable(channel, new Object());
+                } catch (Throwable e) {
+                    error.set(e);
+                }
+            }
+        };
+        writer.start();
+        Thread.sleep(100);
+        channel.close();
+        // the writer notices the closed connection within the check interval
+        writer.join(5000);
+        assertFalse(writer.isAlive());
+        if (!(error.get() instanceof ServerException)) {
+            fail("expected ServerException, got " + error.get());
+        }
+    }
+
+    private static ByteBuf row(int size) {
+        ByteBuf out = Unpooled.buffer(size + 8);
+        out.writeZero(4);
+        for (int i = 0; i < size; i++) {
+            out.writeByte(i);
+        }
+        return out;
+    }
+
+    private static void assertPacket(ByteBuf in, int size, int sequenceId) {
+        int length = in.readUnsignedByte() | in.readUnsignedByte() << 8 | in.readUnsignedByte() << 16;
+        assertEquals(size, length);
+        assertEquals(sequenceId & 0xFF, in.readUnsignedByte());
+        in.skipBytes(length);
+    }
+
+}
@@ -0,0 +1,96 @@
+package com.openddal.server.mysql.proto.test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.charset.Charset;
+
+import org.junit.Test;
+
+import com.openddal.server.mysql.proto.BinaryProto;
+import com.openddal.server.mysql.proto.Flags;
+import com.openddal.server.mysql.proto.Proto;
+import com.openddal.value.Value;
+import com.openddal.value.ValueDate;
+import com.openddal.value.ValueDecimal;
+import com.openddal.value.ValueDouble;
+import com.openddal.value.ValueInt;
+import com.openddal.value.ValueLong;
+import com.openddal.value.ValueString;
+import com.openddal.value.ValueTime;
+import com.openddal.value.ValueTimestamp;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+
+public class BinaryProtoTest {
+
+    private static Value roundTrip(int type, Value v) {
+        ByteBuf buf = Unpooled.buffer();
+        BinaryProto.writeValue(buf, type, v);
+        byte[] data = new byte[buf.readableBytes()];
+        buf.readBytes(data);
+        Proto proto = new Proto(data);
+        Value result = BinaryProto.readValue(proto, type, false, Proto.CHARSET);
+        assertEquals(data.length, proto.offset);
+        return result;
+    }
+
+    @Test
+    public void test_int() {
+        byte[] packet = ProtoTest.packet_string_to_bytes("fe ff ff ff");
+        assertEquals(ValueInt.get(-2), BinaryProto.readValue(new Proto(packet), Flags.MYSQL_TYPE_LONG, false, Proto.CHARSET));
+        assertEquals(ValueLong.get(4294967294L), BinaryProto.readValue(new Proto(packet), Flags.MYSQL_TYPE_LONG, true, Proto.CHARSET));
+        assertEquals(ValueInt.get(123456), roundTrip(Flags.MYSQL_TYPE_LONG, ValueInt.get(123456)));
+        assertEquals(ValueLong.get(1L << 40), roundTrip(Flags.MYSQL_TYPE_LONGLONG, ValueLong.get(1L << 40)));
+        assertEquals(ValueDouble.get(1.5), roundTrip(Flags.MYSQL_TYPE_DOUBLE, ValueDouble.get(1.5)));
+    }
+
+    @Test
+    public void test_unsigned_bigint() {
+        BigDecimal max = new BigDecimal(BigInteger.ONE.shiftLeft(64).subtract(BigInteger.ONE));
+        ByteBuf buf = Unpooled.buffer();
+        BinaryProto.writeValue(buf, Flags.MYSQL_TYPE_LONGLONG, ValueDecimal.get(max));
+        byte[] data = new byte[buf.readableBytes()];
+        buf.readBytes(data);
+        assertArrayEquals(ProtoTest.packet_string_to_bytes("ff ff ff ff ff ff ff ff"), data);
+        assertEquals(ValueDecimal.get(max),
+                BinaryProto.readValue(new Proto(data), Flags.MYSQL_TYPE_LONGLONG, true, Proto.CHARSET));
+        assertEquals(ValueLong.get(-1),
+                BinaryProto.readValue(new Proto(data), Flags.MYSQL_TYPE_LONGLONG, false, Proto.CHARSET));
+    }
+
+    @Test
+    public void test_charset() {
+        Charset gbk = Charset.forName("GBK");
+        String s = "\u4e2d\u6587";
+        byte[] bytes = s.getBytes(gbk);
+        byte[] data = new byte[bytes.length + 1];
+        data[0] = (byte) bytes.length;
+        System.arraycopy(bytes, 0, data, 1, bytes.length);
+        assertEquals(ValueString.get(s),
+                BinaryProto.readValue(new Proto(data), Flags.MYSQL_TYPE_VAR_STRING, false, gbk));
+        assertEquals(ValueString.get(s), BinaryProto.toValue(Flags.MYSQL_TYPE_STRING, bytes, gbk));
+    }
+
+    @Test
+    public void test_string() {
+        String s = "abcdefghijklmnopqrstuvwxyz0123456789abcdefghijklmnopqrstuvwxyz0123456789"
+                + "abcdefghijklmnopqrstuvwxyz0123456789abcdefghijklmnopqrstuvwxyz0123456789"
+                + "abcdefghijklmnopqrstuvwxyz0123456789abcdefghijklmnopqrstuvwxyz0123456789"
+                + "abcdefghijklmnopqrstuvwxyz0123456789abcdefghijklmnopqrstuvwxyz0123456789";
+        assertEquals(ValueString.get(s), roundTrip(Flags.MYSQL_TYPE_VAR_STRING, ValueString.get(s)));
+    }
+
+    @Test
+    public void test_date_time() {
+        Value ts = ValueTimestamp.get(java.sql.Timestamp.valueOf("2016-03-04 05:06:07.123"));
+        assertEquals(ts, roundTrip(Flags.MYSQL_TYPE_DATETIME, ts));
+        Value date = ValueDate.get(java.sql.Date.valueOf("2016-01-02"));
+        assertEquals(date, roundTrip(Flags.MYSQL_TYPE_DATE, date));
+        Value time = ValueTime.get(java.sql.Time.valueOf("10:11:12"));
+        assertEquals(time, roundTrip(Flags.MYSQL_TYPE_TIME, time));
+    }
+}
@@ -0,0 +1,139 @@
+/*
+ * Copyright 2014-2016 the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the “License”);
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an “AS IS” BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.openddal.command.expression;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.openddal.result.SimpleRow;
+import com.openddal.util.New;
+import com.openddal.value.Value;
+import com.openddal.value.ValueDouble;
+import com.openddal.value.ValueLong;
+import com.openddal.value.ValueNull;
+
+/**
+ * Compares the aggregates merged from the partial results of several shards
+ * with the aggregates computed over all values on a single node.
+ *
+ * @author jorgie.li
+ */
+public class AggregateDataPartialTestCase {
+
+    private static final int[] TYPES = { Aggregate.AVG, Aggregate.STDDEV_POP, Aggregate.STDDEV_SAMP,
+            Aggregate.VAR_POP, Aggregate.VAR_SAMP };
+
+    @Test
+    public void testEmptyShardAndNulls() {
+        List<List<Value>> shards = New.arrayList();
+        shards.add(values(1, 2, 3, null));
+        shards.add(new ArrayList<Value>());
+        shards.add(values(null, null));
+        shards.add(values(10, 4.5));
+        for (int type : TYPES) {
+            assertMerged(type, shards);
+        }
+    }
+
+    @Test
+    public void testLargeMean() {
+        // the sum of squares of these values loses the variance to rounding
+        Random random = new Random(1);
+        List<List<Value>> shards = New.arrayList();
+        for (int s = 0; s < 4; s++) {
+            List<Value> shard = New.arrayList();
+            for (int i = 0; i < 1000 * s; i++) {
+                shard.add(ValueDouble.get(1e9 + random.nextInt(100)));
+            }
+            shards.add(shard);
+        }
+        for (int type : TYPES) {
+            assertMerged(type, shards);
+        }
+    }
+
+    @Test
+    public void testNoValues() {
+        List<List<Value>> shards = New.arrayList();
+        shards.add(new ArrayList<Value>());
+        shards.add(values((Object) null));
+        for (int type : TYPES) {
+            Assert.assertEquals(ValueNull.INSTANCE, merge(type, shards));
+        }
+        shards.add(values(5));
+        Assert.assertEquals(ValueNull.INSTANCE, merge(Aggregate.STDDEV_SAMP, shards));
+        Assert.assertEquals(0.0, merge(Aggregate.VAR_POP, shards).getDouble(), 0.0);
+    }
+
+    private static void assertMerged(int type, List<List<Value>> shards) {
+        AggregateData single = AggregateData.create(type);
+        for (List<Value> shard : shards) {
+            for (Value v : shard) {
+                single.add(null, Value.DOUBLE, false, v);
+            }
+        }
+        double expected = single.getValue(null, Value.DOUBLE, false).getDouble();
+        double actual = merge(type, shards).getDouble();
+        Assert.assertEquals("type=" + type, expected, actual, Math.abs(expected) * 1e-9);
+    }
+
+    /**
+     * Merge the partial rows the shards return for the aggregate, which are
+     * computed the way a shard database would.
+     */
+    private static Value merge(int type, List<List<Value>> shards) {
+        AggregateDataPartial merged = new AggregateDataPartial(type);
+        for (List<Value> shard : shards) {
+            AggregateData count = AggregateData.create(Aggregate.COUNT);
+            AggregateData sum = AggregateData.create(Aggregate.SUM);
+            AggregateData var = AggregateData.create(Aggregate.VAR_POP);
+            for (Value v : shard) {
+                count.add(null, Value.LONG, false, v);
+                sum.add(null, Value.DOUBLE, false, v);
+                var.add(null, Value.DOUBLE, false, v);
+            }
+            Value c = count.getValue(null, Value.LONG, false);
+            Value s = sum.getValue(null, Value.DOUBLE, false);
+            Value[] row;
+            if (type == Aggregate.AVG) {
+                row = new Value[] { s, c };
+            } else {
+                row = new Value[] { c, s, var.getValue(null, Value.DOUBLE, false) };
+            }
+            merged.merge(null, Value.DOUBLE, new SimpleRow(row), 0);
+        }
+        return merged.getValue(null, Value.DOUBLE, false);
+    }
+
+    private static List<Value> values(Object... values) {
+        List<Value> list = New.arrayList();
+        for (Object o : values) {
+            if (o == null) {
+                list.add(ValueNull.INSTANCE);
+            } else if (o instanceof Integer) {
+                list.add(ValueLong.get((Integer) o));
+            } else {
+                list.add(ValueDouble.get((Double) o));
+            }
+        }
+        return list;
+    }
+
+}
@@ -0,0 +1,130 @@
+/*
+ * Copyright 2014-2016 the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the “License”);
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an “AS IS” BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.openddal.dbobject.table;
+
+import java.io.File;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.util.ArrayList;
+
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.openddal.dbobject.index.Index;
+import com.openddal.engine.Session;
+import com.openddal.jdbc.JdbcConnection;
+import com.openddal.test.H2Shards;
+import com.openddal.util.SortedProperties;
+import com.openddal.util.StringUtils;
+
+/**
+ * Tests the meta data snapshot of the tables: a snapshot is written when the
+ * database is opened, can be read back, and is not used for a table with
+ * another configuration. The shards are H2 databases.
+ *
+ * @author jorgie.li
+ */
+public class TableMateSnapshotTestCase {
+
+    private static final String SNAPSHOT = "target/metadata-snapshot.properties";
+    private static final String URL = H2Shards.getURL("METADATA_SNAPSHOT=" + SNAPSHOT);
+
+    @BeforeClass
+    public static void createTables() throws Exception {
+        new File(SNAPSHOT).delete();
+        H2Shards.createTables();
+    }
+
+    @Test
+    public void testRoundTrip() throws Exception {
+        Connection conn = DriverManager.getConnection(URL);
+        try {
+            TableMate table = getTable(conn, "T_SNAP");
+            String snapshot = table.getMataDataSnapshot();
+            Assert.assertNotNull(snapshot);
+            // written when the database was opened
+            SortedProperties prop = SortedProperties.loadProperties(SNAPSHOT);
+            Assert.assertEquals(snapshot, prop.getProperty("T_SNAP"));
+
+            String columns = getColumns(table);
+            String indexes = getIndexes(table);
+            Assert.assertEquals("ID,K,NAME", columns);
+            Assert.assertTrue(table.loadMataDataSnapshot(snapshot));
+            Assert.assertEquals(snapshot, table.getMataDataSnapshot());
+            Assert.assertEquals(columns, getColumns(table));
+            Assert.assertEquals(indexes, getIndexes(table));
+            Assert.assertEquals("ID", table.getRuleColumns()[0].getName());
+            Assert.assertSame(table.getColumn("ID"), table.getRuleColumns()[0]);
+        } finally {
+            conn.close();
+        }
+    }
+
+    @Test
+    public void testStaleSnapshot() throws Exception {
+        Connection conn = DriverManager.getConnection(URL);
+        try {
+            TableMate table = getTable(conn, "T_SNAP");
+            TableMate other = getTable(conn, "T_OTHER");
+            String snapshot = table.getMataDataSnapshot();
+            String otherSnapshot = other.getMataDataSnapshot();
+            // the same columns, but other table nodes and sharding columns
+            Assert.assertFalse(other.loadMataDataSnapshot(snapshot));
+            Assert.assertFalse(table.loadMataDataSnapshot(otherSnapshot));
+            // another format version
+            String[] parts = StringUtils.arraySplit(snapshot, '|', false);
+            parts[0] = "1";
+            Assert.assertFalse(table.loadMataDataSnapshot(StringUtils.arrayCombine(parts, '|')));
+            // the format without version and fingerprint
+            Assert.assertFalse(table.loadMataDataSnapshot(snapshot.substring(snapshot.indexOf('|',
+                    snapshot.indexOf('|') + 1) + 1)));
+            // the rejected snapshots did not change the tables
+            Assert.assertEquals(snapshot, table.getMataDataSnapshot());
+            Assert.assertEquals(otherSnapshot, other.getMataDataSnapshot());
+            Assert.assertEquals("K", other.getRuleColumns()[0].getName());
+        } finally {
+            conn.close();
+        }
+    }
+
+    private static TableMate getTable(Connection conn, String name) {
+        Session session = (Session) ((JdbcConnection) conn).getSession();
+        return (TableMate) session.getDatabase().getSchema(session.getCurrentSchemaName())
+                .getTableOrView(session, name);
+    }
+
+    private static String getColumns(TableMate table) {
+        StringBuilder buff = new StringBuilder();
+        for (Column c : table.getColumns()) {
+            if (buff.length() > 0) {
+                buff.append(',');
+            }
+            buff.append(c.getName());
+        }
+        return buff.toString();
+    }
+
+    private static String getIndexes(TableMate table) {
+        ArrayList<Index> indexes = table.getIndexes();
+        StringBuilder buff = new StringBuilder();
+        for (Index index : indexes) {
+            buff.append(index.getName()).append(index.getIndexType().isShardingKey()).append(';');
+        }
+        return buff.toString();
+    }
+
+}
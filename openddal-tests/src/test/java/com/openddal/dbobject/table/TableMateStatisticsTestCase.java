@@ -0,0 +1,128 @@
+/*
+ * Copyright 2014-2016 the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the “License”);
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an “AS IS” BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.openddal.dbobject.table;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.openddal.dbobject.index.IndexCondition;
+import com.openddal.dbobject.table.PlanItem.ScanningStrategy;
+import com.openddal.engine.Constants;
+import com.openddal.engine.Session;
+import com.openddal.jdbc.JdbcConnection;
+import com.openddal.test.H2Shards;
+
+/**
+ * Tests the plan costs of the tables with and without statistics. The shards
+ * are H2 databases, the table t_big has 4000 rows and t_small 10 rows.
+ *
+ * @author jorgie.li
+ */
+public class TableMateStatisticsTestCase {
+
+    private static final String URL = H2Shards.getURL();
+
+    @BeforeClass
+    public static void createTables() throws Exception {
+        H2Shards.createTables();
+        H2Shards.execute("DELETE FROM t_big_01");
+        H2Shards.execute("DELETE FROM t_small_01");
+        // the statistics don't depend on the partitioning of the rows
+        H2Shards.execute("INSERT INTO t_big_01 SELECT X, MOD(X, 100) FROM SYSTEM_RANGE(1, 2000)");
+        H2Shards.execute("INSERT INTO t_small_01 SELECT X, X FROM SYSTEM_RANGE(1, 5)");
+    }
+
+    @Test
+    public void testPlanCost() throws SQLException {
+        Connection conn = DriverManager.getConnection(URL);
+        try {
+            Session session = (Session) ((JdbcConnection) conn).getSession();
+            TableMate big = getTable(session, "T_BIG");
+            TableMate small = getTable(session, "T_SMALL");
+
+            // without statistics: the same constant costs for both tables
+            Assert.assertNull(big.getStatistics());
+            Assert.assertEquals(Constants.COST_ROW_OFFSET, big.getRowCountApproximation());
+            PlanItem scan = getPlanItem(session, big);
+            Assert.assertEquals(ScanningStrategy.FULL_TABLE_SCAN, scan.getScanningStrategy());
+            Assert.assertEquals(2d * Constants.COST_ROW_OFFSET, scan.cost, 0);
+            Assert.assertEquals(scan.cost, getPlanItem(session, small).cost, 0);
+            PlanItem lookup = getPlanItem(session, big, "ID");
+            Assert.assertEquals(ScanningStrategy.USE_SHARDINGKEY, lookup.getScanningStrategy());
+            Assert.assertTrue(lookup.cost <= Constants.COST_ROW_OFFSET);
+            // the order of the FROM clause is kept
+            assertJoinOrder(session, "T_BIG", "T_SMALL");
+
+            execute(conn, "ANALYZE");
+
+            // with statistics: the costs follow the row counts
+            Assert.assertEquals(4000, big.getRowCountApproximation());
+            Assert.assertEquals(10, small.getRowCountApproximation());
+            scan = getPlanItem(session, big);
+            Assert.assertEquals(4000d, scan.cost, 0);
+            Assert.assertEquals(10d, getPlanItem(session, small).cost, 0);
+            // an equality on the sharding key is a lookup in a single node
+            lookup = getPlanItem(session, big, "ID");
+            Assert.assertEquals(ScanningStrategy.USE_SHARDINGKEY, lookup.getScanningStrategy());
+            Assert.assertTrue(lookup.cost <= Constants.COST_ROW_OFFSET);
+            // the sharding key is the primary key: at most one row
+            Assert.assertEquals(1d, lookup.cost, 0);
+            Assert.assertEquals(1d, getPlanItem(session, small, "ID").cost, 0);
+            // H2 has no index cardinalities: the cost of an index is halved
+            PlanItem index = getPlanItem(session, big, "K");
+            Assert.assertEquals(ScanningStrategy.USE_INDEXKEY, index.getScanningStrategy());
+            Assert.assertEquals(scan.cost / 2, index.cost, 0);
+            // the small table is read first
+            assertJoinOrder(session, "T_SMALL", "T_BIG");
+        } finally {
+            conn.close();
+        }
+    }
+
+    private static TableMate getTable(Session session, String name) {
+        return (TableMate) session.getDatabase().getSchema(session.getCurrentSchemaName()).getTableOrView(session, name);
+    }
+
+    private static PlanItem getPlanItem(Session session, TableMate table, String... equalityColumns) {
+        int[] masks = new int[table.getColumns().length];
+        for (String name : equalityColumns) {
+            masks[table.getColumn(name).getColumnId()] = IndexCondition.EQUALITY;
+        }
+        return table.getBestPlanItem(session, masks, null);
+    }
+
+    private static void assertJoinOrder(Session session, String first, String second) {
+        String plan = session.prepare("SELECT * FROM t_big b, t_small s WHERE b.k = s.k").getPlanSQL();
+        plan = plan.toUpperCase();
+        Assert.assertTrue(plan, plan.indexOf(first) >= 0 && plan.indexOf(first) < plan.indexOf(second));
+    }
+
+    private static void execute(Connection conn, String sql) throws SQLException {
+        Statement stat = conn.createStatement();
+        try {
+            stat.execute(sql);
+        } finally {
+            stat.close();
+        }
+    }
+
+}
@@ -0,0 +1,117 @@
+/*
+ * Copyright 2014-2016 the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the “License”);
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an “AS IS” BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.openddal.engine;
+
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.openddal.engine.QueryStatisticsData.QueryEntry;
+import com.openddal.util.New;
+
+/**
+ * Tests the normalization of the statements, and the statistics of a
+ * statement that is updated by several threads.
+ *
+ * @author jorgie.li
+ */
+public class QueryStatisticsDataTestCase {
+
+    private static final long MS = 1000000;
+
+    @Test
+    public void testNormalize() {
+        String sql = "SELECT * FROM t_01 WHERE id = ?";
+        Assert.assertSame(sql, QueryStatisticsData.normalize(sql));
+        Assert.assertEquals("SELECT * FROM t_01 WHERE id = ? AND name = ?",
+                QueryStatisticsData.normalize("SELECT * FROM t_01 WHERE id = 10 AND name = 'a''b'"));
+        Assert.assertEquals("SELECT x1, ? FROM t WHERE a IN(?, ?, ?)",
+                QueryStatisticsData.normalize("SELECT x1, 1.5 FROM t WHERE a IN(1, 2e3, 0x1F)"));
+        Assert.assertEquals("INSERT INTO t VALUES(?, ?)",
+                QueryStatisticsData.normalize("INSERT INTO t VALUES('it''s', '')"));
+        // an unterminated string
+        Assert.assertEquals("SELECT ?", QueryStatisticsData.normalize("SELECT 'abc"));
+    }
+
+    @Test
+    public void testSharedEntry() {
+        QueryStatisticsData data = new QueryStatisticsData(100);
+        data.update("SELECT * FROM t WHERE id = 1", 2 * MS, 1);
+        data.update("SELECT * FROM t WHERE id = 2", 4 * MS, 3);
+        List<QueryEntry> queries = data.getQueries();
+        Assert.assertEquals(1, queries.size());
+        QueryEntry entry = queries.get(0);
+        Assert.assertEquals("SELECT * FROM t WHERE id = ?", entry.getSqlStatement());
+        Assert.assertEquals(2, entry.getCount());
+        Assert.assertEquals(2, entry.getExecutionTimeMin());
+        Assert.assertEquals(4, entry.getExecutionTimeMax());
+        Assert.assertEquals(6, entry.getExecutionTimeCumulative());
+        Assert.assertEquals(3, entry.getExecutionTimeMean(), 1e-9);
+        Assert.assertEquals(1, entry.getExecutionTimeStandardDeviation(), 1e-9);
+        Assert.assertEquals(1, entry.getRowCountMin());
+        Assert.assertEquals(3, entry.getRowCountMax());
+        Assert.assertEquals(4, entry.getRowCountCumulative());
+        Assert.assertEquals(2, entry.getRowCountMean(), 1e-9);
+        Assert.assertEquals(1, entry.getRowCountStandardDeviation(), 1e-9);
+    }
+
+    @Test
+    public void testConcurrentUpdates() throws InterruptedException {
+        final QueryStatisticsData data = new QueryStatisticsData(100);
+        List<Thread> threads = New.arrayList();
+        for (int t = 0; t < 8; t++) {
+            final int rows = t;
+            threads.add(new Thread() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < 1000; i++) {
+                        data.update("SELECT * FROM t WHERE id = " + i, (rows + 1) * MS, rows);
+                    }
+                }
+            });
+        }
+        for (Thread t : threads) {
+            t.start();
+        }
+        for (Thread t : threads) {
+            t.join();
+        }
+        QueryEntry entry = data.getQueries().get(0);
+        Assert.assertEquals(8000, entry.getCount());
+        Assert.assertEquals(1, entry.getExecutionTimeMin());
+        Assert.assertEquals(8, entry.getExecutionTimeMax());
+        Assert.assertEquals(36000, entry.getExecutionTimeCumulative());
+        Assert.assertEquals(0, entry.getRowCountMin());
+        Assert.assertEquals(7, entry.getRowCountMax());
+        Assert.assertEquals(28000, entry.getRowCountCumulative());
+        Assert.assertEquals(3.5, entry.getRowCountMean(), 1e-9);
+        // the population standard deviation of 0..7
+        Assert.assertEquals(Math.sqrt(5.25), entry.getRowCountStandardDeviation(), 1e-9);
+        Assert.assertEquals(Math.sqrt(5.25), entry.getExecutionTimeStandardDeviation(), 1e-9);
+    }
+
+    @Test
+    public void testEmptyEntry() {
+        QueryEntry entry = new QueryEntry("SELECT 1");
+        Assert.assertEquals(0, entry.getCount());
+        Assert.assertEquals(0, entry.getExecutionTimeMin());
+        Assert.assertEquals(0, entry.getRowCountMin());
+        Assert.assertEquals(0, entry.getRowCountMax());
+        Assert.assertEquals(0, entry.getRowCountStandardDeviation(), 0);
+    }
+
+}
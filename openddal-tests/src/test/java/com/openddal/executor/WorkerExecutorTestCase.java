@@ -0,0 +1,216 @@
+/*
+ * Copyright 2014-2016 the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the “License”);
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an “AS IS” BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.openddal.executor;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.openddal.message.DbException;
+import com.openddal.message.ErrorCode;
+import com.openddal.util.New;
+
+/**
+ * Tests the <code>BULKHEAD</code> mode of the worker executor: the order of
+ * the waiting workers, the isolation of the shards and the bounded queue.
+ * The workers are plain callables, so they all run on the pool of the
+ * default shard.
+ *
+ * @author jorgie.li
+ */
+public class WorkerExecutorTestCase {
+
+    @Test
+    public void testNarrowStatementsFirst() throws Exception {
+        WorkerExecutor executor = WorkerExecutor.getInstance(WorkerExecutor.BULKHEAD, null, 1, 100, null);
+        try {
+            List<String> order = Collections.synchronizedList(New.<String>arrayList());
+            CountDownLatch block = block(executor);
+            Thread wide = start(executor, "wide", 50, order);
+            awaitQueued(executor, 50);
+            Thread narrow = start(executor, "narrow", 2, order);
+            awaitQueued(executor, 52);
+            block.countDown();
+            wide.join(10000);
+            narrow.join(10000);
+            Assert.assertEquals(52, order.size());
+            Assert.assertEquals("narrow", order.get(0));
+            Assert.assertEquals("narrow", order.get(1));
+        } finally {
+            executor.close();
+        }
+    }
+
+    @Test
+    public void testPriorityAging() throws Exception {
+        WorkerExecutor executor = WorkerExecutor.getInstance(WorkerExecutor.BULKHEAD, null, 1, 100, null);
+        try {
+            List<String> order = Collections.synchronizedList(New.<String>arrayList());
+            CountDownLatch block = block(executor);
+            // 3 table nodes are delayed by 20 ms
+            Thread wide = start(executor, "wide", 3, order);
+            awaitQueued(executor, 3);
+            Thread.sleep(200);
+            Thread narrow = start(executor, "narrow", 2, order);
+            awaitQueued(executor, 5);
+            block.countDown();
+            wide.join(10000);
+            narrow.join(10000);
+            Assert.assertEquals(5, order.size());
+            for (int i = 0; i < 3; i++) {
+                Assert.assertEquals("wide", order.get(i));
+            }
+        } finally {
+            executor.close();
+        }
+    }
+
+    @Test
+    public void testIsolation() throws Exception {
+        WorkerExecutor executor = WorkerExecutor.getInstance(WorkerExecutor.BULKHEAD, null, 1, 100, null);
+        try {
+            Assert.assertSame(executor.getExecutor("s0"), executor.getExecutor("s0"));
+            Assert.assertNotSame(executor.getExecutor("s0"), executor.getExecutor("s1"));
+            final CountDownLatch block = new CountDownLatch(1);
+            final CountDownLatch started = new CountDownLatch(1);
+            // the only thread of s0 is busy
+            executor.getExecutor("s0").execute(new Runnable() {
+                @Override
+                public void run() {
+                    started.countDown();
+                    try {
+                        block.await();
+                    } catch (InterruptedException e) {
+                        // ignore
+                    }
+                }
+            });
+            Assert.assertTrue(started.await(10, TimeUnit.SECONDS));
+            Future<Integer> future = executor.getExecutor("s1").submit(new Callable<Integer>() {
+                @Override
+                public Integer call() {
+                    return 1;
+                }
+            });
+            Assert.assertEquals(1, (int) future.get(10, TimeUnit.SECONDS));
+            block.countDown();
+        } finally {
+            executor.close();
+        }
+    }
+
+    @Test
+    public void testQueueFull() throws Exception {
+        WorkerExecutor executor = WorkerExecutor.getInstance(WorkerExecutor.BULKHEAD, null, 1, 4, null);
+        try {
+            CountDownLatch block = block(executor);
+            final AtomicInteger calls = new AtomicInteger();
+            List<Callable<Integer>> workers = New.arrayList();
+            for (int i = 0; i < 5; i++) {
+                workers.add(new Callable<Integer>() {
+                    @Override
+                    public Integer call() {
+                        return calls.incrementAndGet();
+                    }
+                });
+            }
+            try {
+                executor.invokeAll(workers, 0);
+                Assert.fail();
+            } catch (DbException e) {
+                Assert.assertEquals(ErrorCode.SHARD_OVERLOADED_2, e.getErrorCode());
+            }
+            block.countDown();
+            // the workers that were queued are canceled
+            List<Future<Integer>> futures = executor.invokeAll(workers.subList(0, 2), 0);
+            Assert.assertEquals(2, futures.size());
+            for (Future<Integer> f : futures) {
+                f.get();
+            }
+            Assert.assertEquals(2, calls.get());
+        } finally {
+            executor.close();
+        }
+    }
+
+    /**
+     * Block the only thread of the default shard.
+     *
+     * @return the latch that releases the thread
+     */
+    private static CountDownLatch block(WorkerExecutor executor) throws InterruptedException {
+        final CountDownLatch block = new CountDownLatch(1);
+        final CountDownLatch started = new CountDownLatch(1);
+        List<Callable<Object>> workers = New.arrayList();
+        workers.add(new Callable<Object>() {
+            @Override
+            public Object call() throws Exception {
+                started.countDown();
+                block.await();
+                return null;
+            }
+        });
+        start(executor, workers);
+        Assert.assertTrue(started.await(10, TimeUnit.SECONDS));
+        return block;
+    }
+
+    private static Thread start(WorkerExecutor executor, final String name, int width, final List<String> order) {
+        List<Callable<Object>> workers = New.arrayList();
+        for (int i = 0; i < width; i++) {
+            workers.add(new Callable<Object>() {
+                @Override
+                public Object call() {
+                    order.add(name);
+                    return null;
+                }
+            });
+        }
+        return start(executor, workers);
+    }
+
+    private static Thread start(final WorkerExecutor executor, final List<Callable<Object>> workers) {
+        Thread t = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    executor.invokeAll(workers, 0);
+                } catch (InterruptedException e) {
+                    // ignore
+                }
+            }
+        };
+        t.start();
+        return t;
+    }
+
+    private static void awaitQueued(WorkerExecutor executor, int size) throws InterruptedException {
+        ThreadPoolExecutor pool = (ThreadPoolExecutor) executor.getExecutor(null);
+        for (int i = 0; i < 1000 && pool.getQueue().size() < size; i++) {
+            Thread.sleep(10);
+        }
+        Assert.assertEquals(size, pool.getQueue().size());
+    }
+
+}
@@ -0,0 +1,159 @@
+/*
+ * Copyright 2014-2016 the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the “License”);
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an “AS IS” BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.openddal.executor.cursor;
+
+import java.math.BigDecimal;
+import java.text.Collator;
+import java.util.ArrayList;
+import java.util.BitSet;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.openddal.dbobject.table.Column;
+import com.openddal.result.Row;
+import com.openddal.value.CompareMode;
+import com.openddal.value.Value;
+import com.openddal.value.ValueDecimal;
+import com.openddal.value.ValueInt;
+import com.openddal.value.ValueLong;
+import com.openddal.value.ValueNull;
+import com.openddal.value.ValueString;
+
+/**
+ * Tests the build side of the hash join.
+ *
+ * @author jorgie.li
+ */
+public class HashJoinTableTestCase {
+
+    private static final CompareMode OFF = CompareMode.getInstance(null, 0);
+
+    @Test
+    public void testEmptyBuildSide() {
+        HashJoinTable table = new HashJoinTable(new Column("ID", Value.INT), 0, OFF, Long.MAX_VALUE);
+        Assert.assertNull(table.get(ValueInt.get(1)));
+        Assert.assertNull(table.get(ValueNull.INSTANCE));
+    }
+
+    @Test
+    public void testNullKeys() {
+        HashJoinTable table = new HashJoinTable(new Column("ID", Value.INT), 0, OFF, Long.MAX_VALUE);
+        table.addBuildRow(row(ValueNull.INSTANCE, "a"));
+        table.addBuildRow(row(ValueInt.get(1), "b"));
+        // NULL never matches, not even NULL
+        Assert.assertNull(table.get(ValueNull.INSTANCE));
+        Assert.assertNull(table.get(null));
+        assertNames(table.get(ValueInt.get(1)), "b");
+    }
+
+    @Test
+    public void testDuplicateKeys() {
+        HashJoinTable table = new HashJoinTable(new Column("ID", Value.INT), 0, OFF, Long.MAX_VALUE);
+        table.addBuildRow(row(ValueInt.get(1), "a"));
+        table.addBuildRow(row(ValueInt.get(2), "b"));
+        table.addBuildRow(row(ValueInt.get(1), "c"));
+        table.addBuildRow(row(ValueInt.get(1), "d"));
+        assertNames(table.get(ValueInt.get(1)), "a", "c", "d");
+        assertNames(table.get(ValueInt.get(2)), "b");
+        Assert.assertNull(table.get(ValueInt.get(3)));
+        // the probe key is converted to the type of the join column
+        assertNames(table.get(ValueLong.get(2)), "b");
+    }
+
+    @Test
+    public void testSpill() {
+        Row first = row(ValueInt.get(1), "a");
+        long maxMemory = first.getMemory() * 10;
+        HashJoinTable table = new HashJoinTable(new Column("ID", Value.INT), 0, OFF, maxMemory);
+        try {
+            for (int i = 0; i < 100; i++) {
+                table.addBuildRow(row(ValueInt.get(i), "b" + i));
+                table.addBuildRow(row(ValueInt.get(i), "c" + i));
+            }
+            Assert.assertTrue(table.isSpilled());
+            // every key once, a key without a match, and a NULL key
+            for (int i = 0; i <= 100; i++) {
+                table.addProbeRow(row(ValueInt.get(i), "p" + i), ValueInt.get(i));
+            }
+            table.addProbeRow(row(ValueNull.INSTANCE, "null"), ValueNull.INSTANCE);
+            BitSet seen = new BitSet();
+            int nullRows = 0;
+            while (table.nextPartition()) {
+                Row probe;
+                while ((probe = table.nextProbeRow()) != null) {
+                    Value key = probe.getValue(0);
+                    ArrayList<Row> rows = table.get(key);
+                    if (key == ValueNull.INSTANCE) {
+                        Assert.assertNull(rows);
+                        nullRows++;
+                        continue;
+                    }
+                    int id = key.getInt();
+                    Assert.assertFalse(seen.get(id));
+                    seen.set(id);
+                    Assert.assertEquals("p" + id, probe.getValue(1).getString());
+                    if (id == 100) {
+                        Assert.assertNull(rows);
+                    } else {
+                        assertNames(rows, "b" + id, "c" + id);
+                    }
+                }
+            }
+            Assert.assertEquals(101, seen.cardinality());
+            Assert.assertEquals(1, nullRows);
+        } finally {
+            table.close();
+        }
+    }
+
+    @Test
+    public void testDecimalScale() {
+        HashJoinTable table = new HashJoinTable(new Column("ID", Value.DECIMAL), 0, OFF, Long.MAX_VALUE);
+        table.addBuildRow(row(ValueDecimal.get(new BigDecimal("1.50")), "a"));
+        table.addBuildRow(row(ValueDecimal.get(new BigDecimal("0.00")), "b"));
+        assertNames(table.get(ValueDecimal.get(new BigDecimal("1.5"))), "a");
+        assertNames(table.get(ValueDecimal.get(BigDecimal.ZERO)), "b");
+    }
+
+    @Test
+    public void testCollation() {
+        Column column = new Column("NAME", Value.STRING);
+        HashJoinTable binary = new HashJoinTable(column, 0, OFF, Long.MAX_VALUE);
+        binary.addBuildRow(row(ValueString.get("abc"), "a"));
+        Assert.assertNull(binary.get(ValueString.get("ABC")));
+
+        CompareMode mode = CompareMode.getInstance("en", Collator.SECONDARY);
+        HashJoinTable collated = new HashJoinTable(column, 0, mode, Long.MAX_VALUE);
+        collated.addBuildRow(row(ValueString.get("abc"), "a"));
+        Assert.assertEquals(0, mode.compareString("abc", "ABC", false));
+        assertNames(collated.get(ValueString.get("ABC")), "a");
+        Assert.assertNull(collated.get(ValueString.get("abd")));
+    }
+
+    private static Row row(Value key, String name) {
+        return new Row(new Value[] { key, ValueString.get(name) }, Row.MEMORY_CALCULATE);
+    }
+
+    private static void assertNames(ArrayList<Row> rows, String... names) {
+        Assert.assertNotNull(rows);
+        Assert.assertEquals(names.length, rows.size());
+        for (int i = 0; i < names.length; i++) {
+            Assert.assertEquals(names[i], rows.get(i).getValue(1).getString());
+        }
+    }
+
+}
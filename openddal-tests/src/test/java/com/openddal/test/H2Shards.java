@@ -0,0 +1,146 @@
+/*
+ * Copyright 2014-2016 the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the “License”);
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an “AS IS” BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.openddal.test;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+/**
+ * The test configuration conf/H2Shards.xml: two shards, each an in-memory
+ * H2 database with the data source {@link RecordingDataSource}. The tables
+ * of all tests that use it are created once, before the first database is
+ * opened, so that their meta data can be read. A test that needs another
+ * setting adds it to the URL, and gets a database of its own.
+ *
+ * @author jorgie.li
+ */
+public class H2Shards {
+
+    /**
+     * The names of the shards, which are also the names of the H2 databases.
+     */
+    public static final String[] SHARDS = { "shard0", "shard1" };
+
+    private static final String URL = "jdbc:openddal:conf/H2Shards.xml;";
+
+    /**
+     * The table nodes of the configuration, and their indexes.
+     */
+    private static final String[] DDL = {
+            "CREATE TABLE t_in_01(id INT PRIMARY KEY, name VARCHAR(20))",
+            "CREATE TABLE t_vorder_01(id INT PRIMARY KEY, name VARCHAR(20))",
+            "CREATE TABLE t_vitem_01(id INT PRIMARY KEY, order_id INT)",
+            "CREATE TABLE t_worker_01(id INT PRIMARY KEY, name VARCHAR(20))",
+            "CREATE TABLE t_slow_01(id INT PRIMARY KEY, name VARCHAR(20))",
+            "CREATE TABLE t_xa_01(id INT PRIMARY KEY, name VARCHAR(20))",
+            "CREATE TABLE t_big_01(id INT PRIMARY KEY, k INT)",
+            "CREATE INDEX idx_big_k ON t_big_01(k)",
+            "CREATE TABLE t_small_01(id INT PRIMARY KEY, k INT)",
+            "CREATE INDEX idx_small_k ON t_small_01(k)",
+            "CREATE TABLE t_snap_01(id INT PRIMARY KEY, k INT, name VARCHAR(20))",
+            "CREATE INDEX idx_t_snap_01_k ON t_snap_01(k, name)",
+            "CREATE TABLE t_other_02(id INT PRIMARY KEY, k INT, name VARCHAR(20))",
+            "CREATE INDEX idx_t_other_02_k ON t_other_02(k, name)",
+            "CREATE TABLE t_limit_01(id INT PRIMARY KEY, k INT)",
+            "CREATE TABLE t_batch_01(id INT PRIMARY KEY, name VARCHAR(20))",
+            "CREATE TABLE t_porder_01(id INT PRIMARY KEY, name VARCHAR(20))",
+            "CREATE TABLE t_pitem_01(id INT PRIMARY KEY, order_id INT)",
+            "CREATE TABLE t_range_01(id INT PRIMARY KEY, name VARCHAR(20))",
+            "CREATE TABLE t_update_01(id INT PRIMARY KEY, k INT, name VARCHAR(20))" };
+
+    private static boolean created;
+
+    private H2Shards() {
+        // utility class
+    }
+
+    /**
+     * Create the table nodes on the shards, if this was not done yet, and
+     * load the driver.
+     */
+    public static synchronized void createTables() throws Exception {
+        Class.forName("com.openddal.jdbc.Driver");
+        if (created) {
+            return;
+        }
+        for (String shard : SHARDS) {
+            Connection conn = getShardConnection(shard);
+            try {
+                Statement stat = conn.createStatement();
+                for (String sql : DDL) {
+                    stat.execute(sql);
+                }
+            } finally {
+                conn.close();
+            }
+        }
+        created = true;
+    }
+
+    /**
+     * Get the URL of the configuration.
+     *
+     * @param settings the settings that differ from the configuration, as
+     *            KEY=value
+     * @return the URL
+     */
+    public static String getURL(String... settings) {
+        StringBuilder buff = new StringBuilder(URL);
+        for (String s : settings) {
+            buff.append(s).append(';');
+        }
+        return buff.toString();
+    }
+
+    /**
+     * Open a connection to the H2 database of a shard.
+     *
+     * @param shard the shard
+     * @return the connection
+     */
+    public static Connection getShardConnection(String shard) throws SQLException {
+        return DriverManager.getConnection("jdbc:h2:mem:" + shard + ";MODE=MySQL;DB_CLOSE_DELAY=-1", "sa", "");
+    }
+
+    /**
+     * Execute a statement in the H2 database of each shard.
+     *
+     * @param sql the statement
+     */
+    public static void execute(String sql) throws SQLException {
+        for (String shard : SHARDS) {
+            execute(shard, sql);
+        }
+    }
+
+    /**
+     * Execute a statement in the H2 database of a shard.
+     *
+     * @param shard the shard
+     * @param sql the statement
+     */
+    public static void execute(String shard, String sql) throws SQLException {
+        Connection conn = getShardConnection(shard);
+        try {
+            conn.createStatement().execute(sql);
+        } finally {
+            conn.close();
+        }
+    }
+
+}
@@ -0,0 +1,243 @@
+/*
+ * Copyright 2014-2016 the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the “License”);
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an “AS IS” BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.openddal.test;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import org.h2.jdbcx.JdbcDataSource;
+
+import com.openddal.util.New;
+
+/**
+ * The data source of the shards of the test configuration
+ * conf/H2Shards.xml. It records the prepared statements that are executed
+ * on the shards, with their parameters, the thread and the query timeout.
+ * The statements on the table t_slow block until they are canceled or time
+ * out. The MySQL XA statements are simulated with local transactions: a
+ * prepared branch is committed or rolled back as a local transaction.
+ *
+ * @author jorgie.li
+ */
+public class RecordingDataSource extends JdbcDataSource {
+
+    private static final long serialVersionUID = 1L;
+    private static final List<Execution> EXECUTIONS = New.arrayList();
+    private static final List<String> XA_STATEMENTS = New.arrayList();
+    private static String failPrepare;
+
+    /**
+     * A permit for each statement on t_slow that is blocked.
+     */
+    public static final Semaphore STARTED = new Semaphore(0);
+
+    /**
+     * The execution of a prepared statement on a shard.
+     */
+    public static class Execution {
+        public String shard;
+        public String sql;
+        public Thread thread;
+        public volatile int queryTimeout;
+        public volatile boolean canceled;
+        public final HashMap<Integer, Object> params = New.hashMap();
+        final CountDownLatch cancel = new CountDownLatch(1);
+
+        /**
+         * Check if the statement reads or changes the given table node.
+         *
+         * @param table the name of the table node
+         * @return true if it does
+         */
+        public boolean isOn(String table) {
+            return sql.toUpperCase().contains(table.toUpperCase());
+        }
+    }
+
+    /**
+     * Clear the recorded statements.
+     */
+    public static synchronized void reset() {
+        EXECUTIONS.clear();
+        XA_STATEMENTS.clear();
+        STARTED.drainPermits();
+        failPrepare = null;
+    }
+
+    /**
+     * Let XA PREPARE fail on the given shard, until the next reset.
+     *
+     * @param shard the shard
+     */
+    public static synchronized void failPrepare(String shard) {
+        failPrepare = shard;
+    }
+
+    /**
+     * Get the recorded statements on the given table node, other than
+     * INSERT.
+     *
+     * @param table the name of the table node
+     * @return the executions
+     */
+    public static synchronized List<Execution> getExecutions(String table) {
+        List<Execution> list = New.arrayList();
+        for (Execution e : EXECUTIONS) {
+            if (e.isOn(table) && !e.sql.trim().toUpperCase().startsWith("INSERT")) {
+                list.add(e);
+            }
+        }
+        return list;
+    }
+
+    /**
+     * Get the XA statements, as the shard name and the first two words.
+     *
+     * @return the statements
+     */
+    public static synchronized List<String> getXaStatements() {
+        return New.arrayList(XA_STATEMENTS);
+    }
+
+    private static synchronized void record(Execution e) {
+        EXECUTIONS.add(e);
+    }
+
+    private static synchronized boolean recordXa(String shard, String statement) {
+        XA_STATEMENTS.add(shard + " " + statement);
+        return !"XA PREPARE".equals(statement) || !shard.equals(failPrepare);
+    }
+
+    @Override
+    public Connection getConnection() throws SQLException {
+        return wrap(super.getConnection());
+    }
+
+    @Override
+    public Connection getConnection(String user, String password) throws SQLException {
+        return wrap(super.getConnection(user, password));
+    }
+
+    private Connection wrap(final Connection conn) {
+        String url = getURL();
+        final String shard = url.substring("jdbc:h2:mem:".length(), url.indexOf(';'));
+        return (Connection) Proxy.newProxyInstance(RecordingDataSource.class.getClassLoader(),
+                new Class<?>[] { Connection.class }, new InvocationHandler() {
+                    @Override
+                    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                        Object result = call(conn, method, args);
+                        if ("prepareStatement".equals(method.getName())) {
+                            Execution e = new Execution();
+                            e.shard = shard;
+                            e.sql = (String) args[0];
+                            return wrap(e, (PreparedStatement) result);
+                        } else if ("createStatement".equals(method.getName())) {
+                            return wrap(shard, conn, (Statement) result);
+                        }
+                        return result;
+                    }
+                });
+    }
+
+    private static PreparedStatement wrap(final Execution e, final PreparedStatement stat) {
+        return (PreparedStatement) Proxy.newProxyInstance(RecordingDataSource.class.getClassLoader(),
+                new Class<?>[] { PreparedStatement.class }, new InvocationHandler() {
+                    @Override
+                    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                        String name = method.getName();
+                        if (name.equals("setQueryTimeout")) {
+                            e.queryTimeout = (Integer) args[0];
+                        } else if (name.equals("cancel")) {
+                            e.canceled = true;
+                            e.cancel.countDown();
+                        } else if (name.startsWith("set") && args != null && args.length >= 2
+                                && args[0] instanceof Integer) {
+                            e.params.put((Integer) args[0], args[1]);
+                        } else if (name.startsWith("execute") && args == null) {
+                            e.thread = Thread.currentThread();
+                            record(e);
+                            if (e.isOn("T_SLOW")) {
+                                block(e);
+                            }
+                        }
+                        return call(stat, method, args);
+                    }
+                });
+    }
+
+    private static Statement wrap(final String shard, final Connection conn, final Statement stat) {
+        return (Statement) Proxy.newProxyInstance(RecordingDataSource.class.getClassLoader(),
+                new Class<?>[] { Statement.class }, new InvocationHandler() {
+                    @Override
+                    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                        String name = method.getName();
+                        if (args != null && args.length == 1 && args[0] instanceof String
+                                && ((String) args[0]).startsWith("XA ")
+                                && (name.equals("execute") || name.equals("executeQuery"))) {
+                            return executeXa(shard, conn, stat, (String) args[0]);
+                        }
+                        return call(stat, method, args);
+                    }
+                });
+    }
+
+    private static void block(Execution e) throws SQLException, InterruptedException {
+        STARTED.release();
+        long timeout = e.queryTimeout == 0 ? 60 : e.queryTimeout;
+        if (e.cancel.await(timeout, TimeUnit.SECONDS)) {
+            throw new SQLException("Statement was canceled", "HY008");
+        }
+        throw new SQLException("Statement timed out", "HYT00");
+    }
+
+    private static Object executeXa(String shard, Connection conn, Statement stat, String sql)
+            throws SQLException {
+        String[] tokens = sql.split(" ");
+        String statement = tokens[0] + " " + tokens[1];
+        if (!recordXa(shard, statement)) {
+            throw new SQLException("XA PREPARE failed on " + shard);
+        }
+        if (statement.equals("XA RECOVER")) {
+            return stat.executeQuery("SELECT 0 FORMATID, 0 GTRID_LENGTH, 0 BQUAL_LENGTH, '' DATA "
+                    + "FROM DUAL WHERE 1 = 0");
+        } else if (statement.equals("XA COMMIT")) {
+            conn.commit();
+        } else if (statement.equals("XA ROLLBACK")) {
+            conn.rollback();
+        }
+        return Boolean.FALSE;
+    }
+
+    private static Object call(Object target, Method method, Object[] args) throws Throwable {
+        try {
+            return method.invoke(target, args);
+        } catch (InvocationTargetException e) {
+            throw e.getCause();
+        }
+    }
+
+}
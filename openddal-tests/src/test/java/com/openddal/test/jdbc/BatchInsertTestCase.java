@@ -0,0 +1,160 @@
+/*
+ * Copyright 2014-2016 the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the “License”);
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an “AS IS” BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.openddal.test.jdbc;
+
+import java.sql.BatchUpdateException;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.Set;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.openddal.test.H2Shards;
+import com.openddal.util.New;
+
+/**
+ * Tests the batched insert of rows, which are sent to the table nodes as
+ * multi-row inserts.
+ *
+ * @author jorgie.li
+ */
+public class BatchInsertTestCase {
+
+    @Test
+    public void testOneFailedRow() throws Exception {
+        H2Shards.createTables();
+        H2Shards.execute("DELETE FROM t_batch_01");
+        Connection conn = DriverManager.getConnection(H2Shards.getURL());
+        try {
+            Statement stat = conn.createStatement();
+            stat.executeUpdate("INSERT INTO t_batch(id, name) VALUES(7, 'old')");
+            // the rows are only retried if the failed statement was rolled back
+            conn.setAutoCommit(false);
+            PreparedStatement prep = conn.prepareStatement("INSERT INTO t_batch(id, name) VALUES(?, ?)");
+            for (int i = 0; i < 20; i++) {
+                prep.setInt(1, i);
+                prep.setString(2, "new" + i);
+                prep.addBatch();
+            }
+            try {
+                prep.executeBatch();
+                Assert.fail();
+            } catch (BatchUpdateException e) {
+                // the row with the duplicate key fails, the other rows of
+                // its multi-row insert are inserted one by one
+                int[] counts = e.getUpdateCounts();
+                Assert.assertEquals(20, counts.length);
+                for (int i = 0; i < counts.length; i++) {
+                    Assert.assertEquals(i == 7 ? Statement.EXECUTE_FAILED : 1, counts[i]);
+                }
+                // only the error of the failed row is reported
+                Assert.assertNotNull(e.getNextException());
+                Assert.assertNull(e.getNextException().getNextException());
+            }
+            ResultSet rs = stat.executeQuery("SELECT id, name FROM t_batch ORDER BY id");
+            for (int i = 0; i < 20; i++) {
+                Assert.assertTrue(rs.next());
+                Assert.assertEquals(i, rs.getInt(1));
+                Assert.assertEquals(i == 7 ? "old" : "new" + i, rs.getString(2));
+            }
+            Assert.assertFalse(rs.next());
+            conn.commit();
+        } finally {
+            conn.close();
+        }
+    }
+
+    @Test
+    public void testOneFailedRowAutoCommit() throws Exception {
+        H2Shards.createTables();
+        H2Shards.execute("DELETE FROM t_batch_01");
+        Connection conn = DriverManager.getConnection(H2Shards.getURL());
+        try {
+            Statement stat = conn.createStatement();
+            stat.executeUpdate("INSERT INTO t_batch(id, name) VALUES(7, 'old')");
+            String shard = null;
+            for (String s : H2Shards.SHARDS) {
+                if (getIds(s).contains(7)) {
+                    shard = s;
+                }
+            }
+            Assert.assertNotNull(shard);
+            PreparedStatement prep = conn.prepareStatement("INSERT INTO t_batch(id, name) VALUES(?, ?)");
+            for (int i = 0; i < 20; i++) {
+                prep.setInt(1, i);
+                prep.setString(2, "new" + i);
+                prep.addBatch();
+            }
+            try {
+                prep.executeBatch();
+                Assert.fail();
+            } catch (BatchUpdateException e) {
+                // all rows of the multi-row insert with the duplicate key
+                // fail, as it is not known whether some of them were written
+                int[] counts = e.getUpdateCounts();
+                Assert.assertEquals(20, counts.length);
+                Assert.assertEquals(Statement.EXECUTE_FAILED, counts[7]);
+                Set<Integer> ids = getIds(shard);
+                int failed = 0;
+                for (int i = 0; i < counts.length; i++) {
+                    if (counts[i] == Statement.EXECUTE_FAILED) {
+                        failed++;
+                    } else {
+                        Assert.assertEquals(1, counts[i]);
+                        Assert.assertFalse(ids.contains(i));
+                    }
+                }
+                Assert.assertTrue(failed > 1 && failed < 20);
+                // the error of the multi-row insert is reported once
+                Assert.assertNotNull(e.getNextException());
+                Assert.assertNull(e.getNextException().getNextException());
+                ResultSet rs = stat.executeQuery("SELECT id, name FROM t_batch ORDER BY id");
+                for (int i = 0; i < 20; i++) {
+                    if (i == 7) {
+                        Assert.assertTrue(rs.next());
+                        Assert.assertEquals("old", rs.getString(2));
+                    } else if (counts[i] == 1) {
+                        Assert.assertTrue(rs.next());
+                        Assert.assertEquals(i, rs.getInt(1));
+                        Assert.assertEquals("new" + i, rs.getString(2));
+                    }
+                }
+                Assert.assertFalse(rs.next());
+            }
+        } finally {
+            conn.close();
+        }
+    }
+
+    private static Set<Integer> getIds(String shard) throws Exception {
+        Set<Integer> ids = New.hashSet();
+        Connection conn = H2Shards.getShardConnection(shard);
+        try {
+            ResultSet rs = conn.createStatement().executeQuery("SELECT id FROM t_batch_01");
+            while (rs.next()) {
+                ids.add(rs.getInt(1));
+            }
+        } finally {
+            conn.close();
+        }
+        return ids;
+    }
+
+}
@@ -16,7 +16,9 @@
 package com.openddal.test.jdbc;
 
 import java.sql.Connection;
+import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.Statement;
 
 import org.junit.Test;
 
@@ -39,6 +41,7 @@ public class TransactionTestCase extends BaseTestCase {
         testSetAutoCommit();
         testSetReadOnly();
         testsetIsolationLevel();
+        testMultiShardCommit();
         testTableLevelLocking();
     }
 
@@ -156,6 +159,57 @@ public class TransactionTestCase extends BaseTestCase {
         }
     }
 
+    public void testMultiShardCommit() throws Exception {
+        Connection conn = null;
+        Connection other = null;
+        Statement stat = null;
+        String where = " WHERE f_id >= 9000 AND f_id < 9010";
+        String query = "SELECT f_id, f_name FROM t_school" + where + " ORDER BY f_id";
+        try {
+            conn = getConnection();
+            other = getConnection();
+            stat = conn.createStatement();
+            stat.executeUpdate("DELETE FROM t_school" + where);
+            conn.setAutoCommit(false);
+            for (int i = 9000; i < 9005; i++) {
+                stat.executeUpdate("INSERT INTO t_school(f_id,f_name) VALUES(" + i + ",'school" + i + "')");
+            }
+            // not visible before the commit
+            assertSchools(other, query, 9000, 9000);
+            conn.commit();
+            assertSchools(other, query, 9000, 9005);
+            for (int i = 9005; i < 9010; i++) {
+                stat.executeUpdate("INSERT INTO t_school(f_id,f_name) VALUES(" + i + ",'school" + i + "')");
+            }
+            assertSchools(conn, query, 9000, 9010);
+            conn.rollback();
+            assertSchools(conn, query, 9000, 9005);
+            assertSchools(other, query, 9000, 9005);
+            conn.setAutoCommit(true);
+            assertSingleValue(stat, "SELECT COUNT(*) FROM t_school" + where, 5);
+            stat.executeUpdate("DELETE FROM t_school" + where);
+            assertSingleValue(stat, "SELECT COUNT(*) FROM t_school" + where, 0);
+        } finally {
+            close(other, null, null);
+            close(conn, stat, null);
+        }
+    }
+
+    private static void assertSchools(Connection conn, String query, int from, int to) throws SQLException {
+        Statement stat = conn.createStatement();
+        try {
+            ResultSet rs = stat.executeQuery(query);
+            for (int i = from; i < to; i++) {
+                Assert.assertTrue(rs.next());
+                Assert.assertEquals(i, rs.getInt(1));
+                Assert.assertEquals("school" + i, rs.getString(2));
+            }
+            Assert.assertFalse(rs.next());
+        } finally {
+            stat.close();
+        }
+    }
+
     @Test
     public void performance() throws Exception {
         Connection conn = null;
@@ -0,0 +1,108 @@
+/*
+ * Copyright 2014-2016 the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the “License”);
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an “AS IS” BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.openddal.test.jdbc;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.openddal.test.H2Shards;
+import com.openddal.test.RecordingDataSource;
+
+/**
+ * Tests the XA_2PC transaction mode. The shards are H2 databases, the XA
+ * statements are simulated by the data source of the shards: a prepared
+ * branch is committed or rolled back as a local transaction.
+ *
+ * @author jorgie.li
+ */
+public class XaTransactionTestCase {
+
+    private static final String URL = H2Shards.getURL("TRANSACTION_MODE=XA_2PC",
+            "TRANSACTION_LOG=target/xa-transaction-test.log");
+    private static final String[] SHARDS = H2Shards.SHARDS;
+
+    @Test
+    public void testPrepareFailure() throws Exception {
+        H2Shards.createTables();
+        H2Shards.execute("DELETE FROM t_xa_01");
+        Connection conn = DriverManager.getConnection(URL);
+        try {
+            conn.setAutoCommit(false);
+            insert(conn, 0, 10);
+            Assert.assertTrue(count("shard0") == 0 && count("shard1") == 0);
+            RecordingDataSource.reset();
+            RecordingDataSource.failPrepare("shard1");
+            try {
+                conn.commit();
+                Assert.fail();
+            } catch (SQLException e) {
+                // expected
+            }
+            // all branches are rolled back, none is committed
+            List<String> statements = RecordingDataSource.getXaStatements();
+            for (String shard : SHARDS) {
+                Assert.assertTrue(statements.toString(), statements.contains(shard + " XA PREPARE"));
+                Assert.assertTrue(statements.toString(), statements.contains(shard + " XA ROLLBACK"));
+                Assert.assertFalse(statements.toString(), statements.contains(shard + " XA COMMIT"));
+                Assert.assertEquals(0, count(shard));
+            }
+
+            // the next transaction starts new branches
+            RecordingDataSource.reset();
+            insert(conn, 0, 10);
+            conn.commit();
+            statements = RecordingDataSource.getXaStatements();
+            for (String shard : SHARDS) {
+                Assert.assertTrue(statements.toString(), statements.contains(shard + " XA START"));
+                Assert.assertTrue(statements.toString(), statements.contains(shard + " XA COMMIT"));
+                Assert.assertFalse(statements.toString(), statements.contains(shard + " XA ROLLBACK"));
+            }
+            Assert.assertEquals(10, count("shard0") + count("shard1"));
+        } finally {
+            conn.close();
+        }
+    }
+
+    private static void insert(Connection conn, int from, int to) throws SQLException {
+        Statement stat = conn.createStatement();
+        try {
+            for (int i = from; i < to; i++) {
+                stat.executeUpdate("INSERT INTO t_xa(id, name) VALUES(" + i + ", 'name" + i + "')");
+            }
+        } finally {
+            stat.close();
+        }
+    }
+
+    private static int count(String shard) throws SQLException {
+        Connection conn = H2Shards.getShardConnection(shard);
+        try {
+            ResultSet rs = conn.createStatement().executeQuery("SELECT COUNT(*) FROM t_xa_01");
+            rs.next();
+            return rs.getInt(1);
+        } finally {
+            conn.close();
+        }
+    }
+
+}
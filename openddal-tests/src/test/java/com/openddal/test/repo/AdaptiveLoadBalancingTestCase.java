@@ -0,0 +1,177 @@
+/*
+ * Copyright 2014-2016 the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the “License”);
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an “AS IS” BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.openddal.test.repo;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.openddal.repo.ha.DataSourceMarker;
+import com.openddal.repo.ha.LeastOutstandingRequests;
+import com.openddal.repo.ha.PeakEwmaLatency;
+import com.openddal.test.BaseTestCase;
+
+/**
+ * Tests the latency and request statistics of the data sources, and the
+ * order in which the adaptive load balancing strategies choose them. The
+ * times are passed explicitly, so the results don't depend on the clock.
+ *
+ * @author jorgie.li
+ */
+public class AdaptiveLoadBalancingTestCase extends BaseTestCase {
+
+    private static final long MS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    /**
+     * The time after which the weight of a response time is reduced to 1/e.
+     */
+    private static final long DECAY = TimeUnit.SECONDS.toNanos(10);
+
+    private static final long T0 = TimeUnit.HOURS.toNanos(1);
+
+    @Test
+    public void testEwmaDecay() {
+        DataSourceMarker m = newMarker("m0");
+        Assert.assertEquals(0, m.getLatency(T0), 0);
+        m.responseReceived(T0 - 10 * MS, T0);
+        Assert.assertEquals(10 * MS, m.getLatency(T0), 1);
+        // the latency decays while there are no responses
+        Assert.assertEquals(10 * MS / Math.E, m.getLatency(T0 + DECAY), 1);
+        Assert.assertEquals(10 * MS / Math.E / Math.E, m.getLatency(T0 + 2 * DECAY), 1);
+        // a faster response is weighted by the time since the last one
+        long t1 = T0 + DECAY;
+        m.responseReceived(t1 - 2 * MS, t1);
+        double w = 1 / Math.E;
+        Assert.assertEquals(10 * MS * w + 2 * MS * (1 - w), m.getLatency(t1), 1);
+        // a slower response is used at once
+        m.responseReceived(t1 - 50 * MS, t1);
+        Assert.assertEquals(50 * MS, m.getLatency(t1), 1);
+    }
+
+    @Test
+    public void testErrorRateDecay() {
+        DataSourceMarker m = newMarker("m0");
+        Assert.assertEquals(0, m.getErrorRate(T0), 0);
+        m.errorReceived(T0 - MS, T0);
+        double rate = m.getErrorRate(T0);
+        Assert.assertTrue(rate > 0 && rate < 1);
+        m.errorReceived(T0 - MS, T0);
+        Assert.assertTrue(m.getErrorRate(T0) > rate);
+        Assert.assertEquals(m.getErrorRate(T0) / Math.E, m.getErrorRate(T0 + DECAY), 1e-9);
+        // successful responses reduce it
+        rate = m.getErrorRate(T0);
+        m.responseReceived(T0 - MS, T0);
+        Assert.assertTrue(m.getErrorRate(T0) < rate);
+    }
+
+    @Test
+    public void testOutstanding() {
+        DataSourceMarker m = newMarker("m0");
+        m.requestStarted();
+        m.requestStarted();
+        m.requestStarted();
+        Assert.assertEquals(3, m.getOutstanding());
+        m.requestCompleted();
+        Assert.assertEquals(2, m.getOutstanding());
+        // a response does not complete the request
+        m.responseReceived(T0 - MS, T0);
+        Assert.assertEquals(2, m.getOutstanding());
+        m.requestCompleted();
+        m.requestCompleted();
+        Assert.assertEquals(0, m.getOutstanding());
+    }
+
+    @Test
+    public void testLeastOutstandingRequests() {
+        DataSourceMarker m0 = newMarker("m0");
+        DataSourceMarker m1 = newMarker("m1");
+        DataSourceMarker m2 = newMarker("m2");
+        LeastOutstandingRequests strategy = new LeastOutstandingRequests(list(m0, m1, m2), true);
+        start(m0, 2);
+        start(m2, 1);
+        Assert.assertSame(m1, strategy.next(T0));
+        start(m1, 2);
+        Assert.assertSame(m2, strategy.next(T0));
+        m0.requestCompleted();
+        m0.requestCompleted();
+        Assert.assertSame(m0, strategy.next(T0));
+        // the weight divides the cost: 3 requests of weight 4 cost 0.75
+        DataSourceMarker m3 = newMarker("m3");
+        m3.setrWeight(4);
+        strategy.add(m3);
+        start(m0, 2);
+        start(m3, 3);
+        Assert.assertSame(m3, strategy.next(T0));
+        strategy.remove(m3);
+        Assert.assertSame(m2, strategy.next(T0));
+    }
+
+    @Test
+    public void testPeakEwmaLatency() {
+        DataSourceMarker m0 = newMarker("m0");
+        DataSourceMarker m1 = newMarker("m1");
+        DataSourceMarker m2 = newMarker("m2");
+        PeakEwmaLatency strategy = new PeakEwmaLatency(list(m0, m1, m2), true);
+        m0.responseReceived(T0 - 10 * MS, T0);
+        m1.responseReceived(T0 - 2 * MS, T0);
+        // a data source that was not measured yet is tried first
+        Assert.assertSame(m2, strategy.next(T0));
+        // but only one request at a time until it is measured
+        start(m2, 1);
+        Assert.assertSame(m1, strategy.next(T0));
+        // the latency is multiplied by the outstanding requests + 1
+        start(m1, 3);
+        Assert.assertSame(m1, strategy.next(T0));
+        start(m1, 2);
+        Assert.assertSame(m0, strategy.next(T0));
+        // the latency of m2 is measured now
+        m2.responseReceived(T0 - MS, T0);
+        m2.requestCompleted();
+        Assert.assertSame(m2, strategy.next(T0));
+        // errors increase the cost
+        for (int i = 0; i < 20; i++) {
+            m2.errorReceived(T0 - MS, T0);
+        }
+        Assert.assertSame(m0, strategy.next(T0));
+    }
+
+    private static void start(DataSourceMarker m, int requests) {
+        for (int i = 0; i < requests; i++) {
+            m.requestStarted();
+        }
+    }
+
+    private static List<DataSourceMarker> list(DataSourceMarker... markers) {
+        List<DataSourceMarker> list = new ArrayList<DataSourceMarker>();
+        for (DataSourceMarker m : markers) {
+            list.add(m);
+        }
+        return list;
+    }
+
+    private static DataSourceMarker newMarker(String uid) {
+        DataSourceMarker marker = new DataSourceMarker();
+        marker.setUid(uid);
+        marker.setShardName("shard0");
+        marker.setrWeight(1);
+        marker.setwWeight(1);
+        return marker;
+    }
+
+}
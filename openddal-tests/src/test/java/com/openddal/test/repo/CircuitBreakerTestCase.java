@@ -0,0 +1,150 @@
+/*
+ * Copyright 2014-2016 the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the “License”);
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an “AS IS” BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.openddal.test.repo;
+
+import java.util.HashMap;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.openddal.engine.DbSettings;
+import com.openddal.message.TraceSystem;
+import com.openddal.repo.ha.CircuitBreaker;
+import com.openddal.test.BaseTestCase;
+import com.openddal.util.New;
+
+/**
+ * Tests the state changes of the circuit breaker.
+ *
+ * @author jorgie.li
+ */
+public class CircuitBreakerTestCase extends BaseTestCase {
+
+    private static final long SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    @Test
+    public void testOpen() {
+        CircuitBreaker breaker = newBreaker(1000);
+        Assert.assertTrue(breaker.tryProbe(System.nanoTime()));
+        // the successful requests keep it closed
+        for (int i = 0; i < 10; i++) {
+            breaker.onSuccess(System.nanoTime(), 1000);
+        }
+        Assert.assertTrue(breaker.isClosed());
+        trip(breaker);
+        Assert.assertEquals(CircuitBreaker.OPEN, breaker.getState());
+        Assert.assertEquals(1, breaker.getTripCount());
+        Assert.assertFalse(breaker.isClosed());
+        Assert.assertFalse(breaker.tryProbe(System.nanoTime()));
+    }
+
+    @Test
+    public void testOnlyProbeCloses() {
+        CircuitBreaker breaker = newBreaker(1000);
+        long before = System.nanoTime();
+        breaker.onRequest(before);
+        trip(breaker);
+        Assert.assertTrue(breaker.tryProbe(System.nanoTime() + SECOND));
+        Assert.assertEquals(CircuitBreaker.HALF_OPEN, breaker.getState());
+        // a request started before the probe
+        breaker.onSuccess(before, 1000);
+        Assert.assertEquals(CircuitBreaker.HALF_OPEN, breaker.getState());
+        long probe = System.nanoTime();
+        breaker.onRequest(probe);
+        long other = probe + 1;
+        breaker.onRequest(other);
+        breaker.onSuccess(other, 1000);
+        Assert.assertEquals(CircuitBreaker.HALF_OPEN, breaker.getState());
+        breaker.onError(other);
+        Assert.assertEquals(CircuitBreaker.HALF_OPEN, breaker.getState());
+        breaker.onSuccess(probe, 1000);
+        Assert.assertTrue(breaker.isClosed());
+    }
+
+    @Test
+    public void testProbeFails() {
+        CircuitBreaker breaker = newBreaker(1000);
+        trip(breaker);
+        Assert.assertTrue(breaker.tryProbe(System.nanoTime() + SECOND));
+        long probe = System.nanoTime();
+        breaker.onRequest(probe);
+        breaker.onError(probe);
+        Assert.assertEquals(CircuitBreaker.OPEN, breaker.getState());
+        Assert.assertEquals(2, breaker.getTripCount());
+        // opened for at least the open time, that is twice as long
+        Assert.assertFalse(breaker.tryProbe(System.nanoTime() + SECOND * 9 / 10));
+
+        // a failed attempt to connect is the probe failing
+        Assert.assertTrue(breaker.tryProbe(System.nanoTime() + SECOND * 3));
+        breaker.onConnectError();
+        Assert.assertEquals(CircuitBreaker.OPEN, breaker.getState());
+        Assert.assertEquals(3, breaker.getTripCount());
+    }
+
+    @Test
+    public void testBackoffIsKept() {
+        CircuitBreaker breaker = newBreaker(1000);
+        trip(breaker);
+        probe(breaker, SECOND);
+        Assert.assertTrue(breaker.isClosed());
+        // closed only shortly, the next open time is still doubled
+        trip(breaker);
+        Assert.assertFalse(breaker.tryProbe(System.nanoTime() + SECOND * 9 / 10));
+        probe(breaker, SECOND * 2);
+        Assert.assertTrue(breaker.isClosed());
+        trip(breaker);
+        Assert.assertFalse(breaker.tryProbe(System.nanoTime() + SECOND * 19 / 10));
+    }
+
+    @Test
+    public void testBackoffIsReset() throws InterruptedException {
+        CircuitBreaker breaker = newBreaker(1);
+        trip(breaker);
+        probe(breaker, SECOND);
+        trip(breaker);
+        probe(breaker, SECOND);
+        Assert.assertTrue(breaker.isClosed());
+        // closed for longer than the longest open time
+        Thread.sleep(50);
+        breaker.onSuccess(System.nanoTime(), 1000);
+        trip(breaker);
+        long opened = System.nanoTime();
+        Assert.assertTrue(breaker.tryProbe(opened + TimeUnit.MICROSECONDS.toNanos(1500)));
+    }
+
+    private static void trip(CircuitBreaker breaker) {
+        for (int i = 0; i < 100 && breaker.isClosed(); i++) {
+            breaker.onError(System.nanoTime());
+        }
+        Assert.assertEquals(CircuitBreaker.OPEN, breaker.getState());
+    }
+
+    private static void probe(CircuitBreaker breaker, long wait) {
+        Assert.assertTrue(breaker.tryProbe(System.nanoTime() + wait));
+        long start = System.nanoTime();
+        breaker.onRequest(start);
+        breaker.onSuccess(start, 1000);
+    }
+
+    private static CircuitBreaker newBreaker(int openTime) {
+        HashMap<String, String> settings = New.hashMap();
+        settings.put("circuitBreakerFailureRate", "50");
+        settings.put("circuitBreakerOpenTime", String.valueOf(openTime));
+        return new CircuitBreaker("test", DbSettings.getInstance(settings), new TraceSystem().getTrace("test"));
+    }
+
+}
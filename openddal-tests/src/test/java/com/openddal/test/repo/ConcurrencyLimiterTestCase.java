@@ -0,0 +1,191 @@
+/*
+ * Copyright 2014-2016 the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the “License”);
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an “AS IS” BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.openddal.test.repo;
+
+import java.lang.reflect.Field;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.SQLTimeoutException;
+import java.sql.Statement;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.openddal.engine.Session;
+import com.openddal.jdbc.JdbcConnection;
+import com.openddal.message.DbException;
+import com.openddal.message.ErrorCode;
+import com.openddal.repo.JdbcRepository;
+import com.openddal.repo.ha.ConcurrencyLimiter;
+import com.openddal.test.H2Shards;
+
+/**
+ * Tests the additive increase and multiplicative decrease of the
+ * concurrency limit of a shard, and the statements that are rejected when
+ * the limit is reached. A join that reads several results of a shard at the
+ * same time must not be rejected, even with a limit of one.
+ *
+ * @author jorgie.li
+ */
+public class ConcurrencyLimiterTestCase {
+
+    private static final long FAST = TimeUnit.MILLISECONDS.toNanos(1);
+    private static final long SLOW = TimeUnit.MILLISECONDS.toNanos(200);
+
+    @Test
+    public void testAdditiveIncrease() {
+        ConcurrencyLimiter limiter = new ConcurrencyLimiter("shard0", 4, 6, 0, 100);
+        // less than half of the limit is used
+        limiter.acquire();
+        limiter.onSample(FAST);
+        Assert.assertEquals(4, limiter.getLimit());
+        limiter.acquire();
+        limiter.onSample(FAST);
+        Assert.assertEquals(5, limiter.getLimit());
+        limiter.onSample(FAST);
+        Assert.assertEquals(5, limiter.getLimit());
+        limiter.acquire();
+        limiter.onSample(FAST);
+        Assert.assertEquals(6, limiter.getLimit());
+        // not above the maximum
+        limiter.onSample(FAST);
+        Assert.assertEquals(6, limiter.getLimit());
+        Assert.assertEquals(3, limiter.getInFlight());
+    }
+
+    @Test
+    public void testMultiplicativeDecrease() {
+        ConcurrencyLimiter limiter = new ConcurrencyLimiter("shard0", 20, 20, 0, 100);
+        limiter.onSample(SLOW);
+        Assert.assertEquals(18, limiter.getLimit());
+        limiter.onDropped();
+        Assert.assertEquals(16, limiter.getLimit());
+        for (int i = 0; i < 100; i++) {
+            limiter.onDropped();
+        }
+        Assert.assertEquals(1, limiter.getLimit());
+        // and it grows again one by one
+        limiter.acquire();
+        limiter.onSample(FAST);
+        Assert.assertEquals(2, limiter.getLimit());
+    }
+
+    @Test
+    public void testRejection() {
+        ConcurrencyLimiter limiter = new ConcurrencyLimiter("shard0", 2, 2, 0, 100);
+        limiter.acquire();
+        limiter.acquire();
+        try {
+            limiter.acquire();
+            Assert.fail();
+        } catch (DbException e) {
+            Assert.assertEquals(ErrorCode.SHARD_OVERLOADED_2, e.getErrorCode());
+        }
+        Assert.assertEquals(1, limiter.getRejectedCount());
+        Assert.assertEquals(2, limiter.getInFlight());
+        limiter.release();
+        limiter.acquire();
+        Assert.assertEquals(2, limiter.getInFlight());
+    }
+
+    @Test
+    public void testWait() throws Exception {
+        final ConcurrencyLimiter limiter = new ConcurrencyLimiter("shard0", 1, 1, 100, 100);
+        limiter.acquire();
+        long start = System.nanoTime();
+        try {
+            limiter.acquire();
+            Assert.fail();
+        } catch (DbException e) {
+            Assert.assertEquals(ErrorCode.SHARD_OVERLOADED_2, e.getErrorCode());
+        }
+        Assert.assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(90));
+        // a permit released while waiting is taken
+        Thread t = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    Thread.sleep(20);
+                } catch (InterruptedException e) {
+                    // ignore
+                }
+                limiter.release();
+            }
+        };
+        t.start();
+        limiter.acquire();
+        t.join();
+        Assert.assertEquals(1, limiter.getInFlight());
+        Assert.assertEquals(1, limiter.getRejectedCount());
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testJoinWithLimitOfOne() throws Exception {
+        H2Shards.createTables();
+        H2Shards.execute("DELETE FROM t_limit_01");
+        Connection conn = DriverManager.getConnection(H2Shards.getURL());
+        Session session = (Session) ((JdbcConnection) conn).getSession();
+        JdbcRepository repo = (JdbcRepository) session.getDatabase().getRepository();
+        // the shards of the test configuration are not limited
+        Field field = JdbcRepository.class.getDeclaredField("limiters");
+        field.setAccessible(true);
+        Map<String, ConcurrencyLimiter> limiters = (Map<String, ConcurrencyLimiter>) field.get(repo);
+        try {
+            Statement stat = conn.createStatement();
+            for (int i = 0; i < 20; i++) {
+                stat.executeUpdate("INSERT INTO t_limit(id, k) VALUES(" + i + ", " + (i + 1) % 20 + ")");
+            }
+            for (String shard : H2Shards.SHARDS) {
+                // no increase, and never a slow response
+                limiters.put(shard, new ConcurrencyLimiter(shard, 1, 1, 0, 60000));
+            }
+            // the rows of a are read while b is queried on the same shards
+            ResultSet rs = stat.executeQuery("SELECT a.id, b.id FROM t_limit a, t_limit b "
+                    + "WHERE a.k = b.id ORDER BY a.id");
+            for (int i = 0; i < 20; i++) {
+                Assert.assertTrue(rs.next());
+                Assert.assertEquals(i, rs.getInt(1));
+                Assert.assertEquals((i + 1) % 20, rs.getInt(2));
+            }
+            Assert.assertFalse(rs.next());
+            rs.close();
+            for (String shard : H2Shards.SHARDS) {
+                ConcurrencyLimiter limiter = limiters.get(shard);
+                Assert.assertEquals(0, limiter.getRejectedCount());
+                Assert.assertEquals(0, limiter.getInFlight());
+            }
+        } finally {
+            for (String shard : H2Shards.SHARDS) {
+                limiters.remove(shard);
+            }
+            conn.close();
+        }
+    }
+
+    @Test
+    public void testIsOverload() {
+        Assert.assertTrue(ConcurrencyLimiter.isOverload(new SQLTimeoutException()));
+        Assert.assertTrue(ConcurrencyLimiter.isOverload(new SQLException("lost", "08S01")));
+        Assert.assertFalse(ConcurrencyLimiter.isOverload(new SQLException("syntax", "42000")));
+        Assert.assertFalse(ConcurrencyLimiter.isOverload(new SQLException("unknown")));
+    }
+
+}
@@ -0,0 +1,409 @@
+/*
+ * Copyright 2014-2016 the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the “License”);
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an “AS IS” BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.openddal.test.repo;
+
+import java.io.PrintWriter;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.SQLTransientConnectionException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.logging.Logger;
+
+import javax.sql.DataSource;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.openddal.engine.DbSettings;
+import com.openddal.message.TraceSystem;
+import com.openddal.repo.ha.ConnectionPool;
+import com.openddal.test.BaseTestCase;
+import com.openddal.util.New;
+
+/**
+ * Tests the connection pool with connections that only keep their state, so
+ * that no database is needed.
+ *
+ * @author jorgie.li
+ */
+public class ConnectionPoolTestCase extends BaseTestCase {
+
+    @Test
+    public void testBorrowAndReturn() throws SQLException {
+        StubDataSource ds = new StubDataSource();
+        ConnectionPool pool = newPool(ds, 2, 0, 1000);
+        try {
+            Connection conn = pool.getConnection();
+            Assert.assertEquals(1, pool.getActiveCount());
+            Assert.assertEquals(1, pool.getSize());
+            conn.close();
+            Assert.assertTrue(conn.isClosed());
+            Assert.assertEquals(0, pool.getActiveCount());
+            Assert.assertEquals(1, pool.getIdleCount());
+            try {
+                conn.createStatement();
+                Assert.fail();
+            } catch (SQLException e) {
+                // expected
+            }
+            Connection c1 = pool.getConnection();
+            Connection c2 = pool.getConnection();
+            // the idle connection is used again, one more is opened
+            Assert.assertEquals(2, ds.connections.size());
+            Assert.assertEquals(2, pool.getActiveCount());
+            c1.close();
+            c2.close();
+            Assert.assertEquals(2, pool.getIdleCount());
+            Assert.assertEquals(3, pool.getBorrowCount());
+        } finally {
+            pool.close();
+        }
+        Assert.assertEquals(0, pool.getSize());
+        for (StubConnection c : ds.connections) {
+            Assert.assertTrue(c.closed);
+        }
+    }
+
+    @Test
+    public void testWaitTimeout() throws Exception {
+        StubDataSource ds = new StubDataSource();
+        final ConnectionPool pool = newPool(ds, 1, 0, 100);
+        try {
+            Connection conn = pool.getConnection();
+            long start = System.currentTimeMillis();
+            try {
+                pool.getConnection();
+                Assert.fail();
+            } catch (SQLTransientConnectionException e) {
+                // expected
+            }
+            Assert.assertTrue(System.currentTimeMillis() - start >= 90);
+            Assert.assertEquals(1, pool.getTimeoutCount());
+            Assert.assertEquals(1, ds.connections.size());
+
+            // a waiting caller gets the connection when it is returned
+            final Connection[] borrowed = new Connection[1];
+            Thread t = new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        borrowed[0] = pool.getConnection();
+                    } catch (SQLException e) {
+                        // checked below
+                    }
+                }
+            };
+            t.start();
+            Thread.sleep(20);
+            conn.close();
+            t.join();
+            Assert.assertNotNull(borrowed[0]);
+            Assert.assertEquals(1, ds.connections.size());
+            borrowed[0].close();
+        } finally {
+            pool.close();
+        }
+    }
+
+    @Test
+    public void testEviction() throws SQLException {
+        StubDataSource ds = new StubDataSource();
+        HashMap<String, String> settings = New.hashMap();
+        settings.put("connectionPoolIdleTimeout", "0");
+        ConnectionPool pool = newPool(ds, 3, 1, 1000, settings);
+        try {
+            pool.warmUp();
+            Assert.assertEquals(1, pool.getSize());
+            Connection c1 = pool.getConnection();
+            Connection c2 = pool.getConnection();
+            Connection c3 = pool.getConnection();
+            Assert.assertEquals(3, pool.getSize());
+            c1.close();
+            c2.close();
+            c3.close();
+            // the idle connections are closed, down to the minimum
+            pool.maintain();
+            Assert.assertEquals(1, pool.getSize());
+            int closed = 0;
+            for (StubConnection c : ds.connections) {
+                closed += c.closed ? 1 : 0;
+            }
+            Assert.assertEquals(2, closed);
+        } finally {
+            pool.close();
+        }
+    }
+
+    @Test
+    public void testBrokenConnection() throws SQLException {
+        StubDataSource ds = new StubDataSource();
+        HashMap<String, String> settings = New.hashMap();
+        settings.put("connectionPoolValidationInterval", "0");
+        ConnectionPool pool = newPool(ds, 2, 1, 1000, settings);
+        try {
+            pool.warmUp();
+            Assert.assertEquals(1, ds.connections.size());
+            ds.connections.get(0).closed = true;
+            // the broken connection is replaced
+            pool.maintain();
+            Assert.assertEquals(1, pool.getSize());
+            Assert.assertEquals(2, ds.connections.size());
+            ds.connections.get(1).closed = true;
+            // a broken connection is not borrowed
+            Connection conn = pool.getConnection();
+            Assert.assertEquals(3, ds.connections.size());
+            Assert.assertEquals(1, pool.getSize());
+            conn.close();
+        } finally {
+            pool.close();
+        }
+    }
+
+    @Test
+    public void testMaxSizeWhileValidating() throws Exception {
+        StubDataSource ds = new StubDataSource();
+        HashMap<String, String> settings = New.hashMap();
+        settings.put("connectionPoolValidationInterval", "0");
+        final ConnectionPool pool = newPool(ds, 1, 1, 1000, settings);
+        try {
+            pool.warmUp();
+            final StubConnection physical = ds.connections.get(0);
+            physical.validationStarted = new CountDownLatch(1);
+            physical.validationRelease = new CountDownLatch(1);
+            Thread maintenance = new Thread() {
+                @Override
+                public void run() {
+                    pool.maintain();
+                }
+            };
+            maintenance.start();
+            physical.validationStarted.await();
+            Thread release = new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        Thread.sleep(50);
+                    } catch (InterruptedException e) {
+                        // ignore
+                    }
+                    physical.validationRelease.countDown();
+                }
+            };
+            release.start();
+            // the only connection is being validated, no other one is opened
+            Connection conn = pool.getConnection();
+            Assert.assertEquals(1, ds.connections.size());
+            Assert.assertEquals(1, pool.getSize());
+            conn.close();
+            maintenance.join();
+            release.join();
+        } finally {
+            pool.close();
+        }
+    }
+
+    @Test
+    public void testReset() throws SQLException {
+        StubDataSource ds = new StubDataSource();
+        ConnectionPool pool = newPool(ds, 1, 0, 1000);
+        try {
+            Connection conn = pool.getConnection();
+            StubConnection physical = ds.connections.get(0);
+            conn.setAutoCommit(false);
+            conn.setReadOnly(true);
+            conn.setTransactionIsolation(Connection.TRANSACTION_SERIALIZABLE);
+            Statement stat = conn.createStatement();
+            conn.close();
+            // the transaction is rolled back, the settings are restored,
+            // and the statements are closed
+            Assert.assertEquals(1, physical.rollbacks);
+            Assert.assertTrue(physical.autoCommit);
+            Assert.assertFalse(physical.readOnly);
+            Assert.assertEquals(Connection.TRANSACTION_READ_COMMITTED, physical.transactionIsolation);
+            Assert.assertTrue(stat.isClosed());
+
+            conn = pool.getConnection();
+            Assert.assertEquals(1, ds.connections.size());
+            Assert.assertTrue(conn.getAutoCommit());
+            conn.close();
+            // nothing to roll back in auto-commit mode
+            Assert.assertEquals(1, physical.rollbacks);
+
+            // a connection that can not be reset is closed
+            conn = pool.getConnection();
+            physical.closed = true;
+            conn.close();
+            Assert.assertEquals(0, pool.getSize());
+            conn = pool.getConnection();
+            Assert.assertEquals(2, ds.connections.size());
+            conn.close();
+        } finally {
+            pool.close();
+        }
+    }
+
+    private static ConnectionPool newPool(DataSource ds, int size, int minIdle, int maxWait) {
+        HashMap<String, String> settings = New.hashMap();
+        return newPool(ds, size, minIdle, maxWait, settings);
+    }
+
+    private static ConnectionPool newPool(DataSource ds, int size, int minIdle, int maxWait,
+            HashMap<String, String> settings) {
+        settings.put("connectionPoolSize", String.valueOf(size));
+        settings.put("connectionPoolMinIdle", String.valueOf(minIdle));
+        settings.put("connectionPoolMaxWait", String.valueOf(maxWait));
+        DbSettings dbSettings = DbSettings.getInstance(settings);
+        return new ConnectionPool("test", ds, dbSettings, new TraceSystem().getTrace("test"));
+    }
+
+    /**
+     * A data source of stub connections.
+     */
+    static class StubDataSource implements DataSource {
+
+        final List<StubConnection> connections = new ArrayList<StubConnection>();
+
+        @Override
+        public synchronized Connection getConnection() {
+            StubConnection c = new StubConnection();
+            connections.add(c);
+            return (Connection) Proxy.newProxyInstance(getClass().getClassLoader(),
+                    new Class<?>[] { Connection.class }, c);
+        }
+
+        @Override
+        public Connection getConnection(String username, String password) {
+            return getConnection();
+        }
+
+        @Override
+        public PrintWriter getLogWriter() {
+            return null;
+        }
+
+        @Override
+        public void setLogWriter(PrintWriter out) {
+            // ignore
+        }
+
+        @Override
+        public void setLoginTimeout(int seconds) {
+            // ignore
+        }
+
+        @Override
+        public int getLoginTimeout() {
+            return 0;
+        }
+
+        public Logger getParentLogger() {
+            return null;
+        }
+
+        @Override
+        public <T> T unwrap(Class<T> iface) throws SQLException {
+            throw new SQLException("Not a wrapper");
+        }
+
+        @Override
+        public boolean isWrapperFor(Class<?> iface) {
+            return false;
+        }
+
+    }
+
+    /**
+     * A connection that only keeps its state.
+     */
+    static class StubConnection implements InvocationHandler {
+
+        volatile boolean closed;
+        boolean autoCommit = true;
+        boolean readOnly;
+        int transactionIsolation = Connection.TRANSACTION_READ_COMMITTED;
+        int rollbacks;
+        volatile CountDownLatch validationStarted;
+        volatile CountDownLatch validationRelease;
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            String name = method.getName();
+            if ("close".equals(name)) {
+                closed = true;
+                return null;
+            } else if ("isClosed".equals(name)) {
+                return closed;
+            } else if ("isValid".equals(name)) {
+                if (validationRelease != null) {
+                    validationStarted.countDown();
+                    validationRelease.await();
+                }
+                return !closed;
+            } else if ("toString".equals(name)) {
+                return "stub";
+            } else if (closed) {
+                throw new SQLException("Connection is closed");
+            } else if ("getAutoCommit".equals(name)) {
+                return autoCommit;
+            } else if ("setAutoCommit".equals(name)) {
+                autoCommit = (Boolean) args[0];
+            } else if ("isReadOnly".equals(name)) {
+                return readOnly;
+            } else if ("setReadOnly".equals(name)) {
+                readOnly = (Boolean) args[0];
+            } else if ("getTransactionIsolation".equals(name)) {
+                return transactionIsolation;
+            } else if ("setTransactionIsolation".equals(name)) {
+                transactionIsolation = (Integer) args[0];
+            } else if ("rollback".equals(name)) {
+                rollbacks++;
+            } else if ("createStatement".equals(name)) {
+                return Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[] { Statement.class },
+                        new StubStatement());
+            }
+            return null;
+        }
+
+    }
+
+    /**
+     * A statement that can only be closed.
+     */
+    static class StubStatement implements InvocationHandler {
+
+        private boolean closed;
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) {
+            String name = method.getName();
+            if ("close".equals(name)) {
+                closed = true;
+            } else if ("isClosed".equals(name)) {
+                return closed;
+            }
+            return null;
+        }
+
+    }
+
+}
@@ -0,0 +1,164 @@
+/*
+ * Copyright 2014-2016 the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the “License”);
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an “AS IS” BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.openddal.test.repo;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.openddal.engine.DbSettings;
+import com.openddal.message.TraceSystem;
+import com.openddal.repo.ha.CircuitBreaker;
+import com.openddal.repo.ha.ConsistentHashing;
+import com.openddal.repo.ha.DataSourceMarker;
+import com.openddal.test.BaseTestCase;
+import com.openddal.util.New;
+
+/**
+ * Tests that adding or removing a data source of the consistent hashing only
+ * moves the keys of that data source.
+ *
+ * @author jorgie.li
+ */
+public class ConsistentHashingTestCase extends BaseTestCase {
+
+    private static final int KEYS = 1000;
+
+    @Test
+    public void testRemove() {
+        DataSourceMarker m0 = newMarker("m0");
+        DataSourceMarker m1 = newMarker("m1");
+        DataSourceMarker m2 = newMarker("m2");
+        ConsistentHashing hashing = new ConsistentHashing(list(m0, m1, m2), true);
+        DataSourceMarker[] before = getAll(hashing);
+        Assert.assertTrue(count(before, m1) > 0);
+        hashing.remove(m1);
+        DataSourceMarker[] after = getAll(hashing);
+        Assert.assertEquals(0, count(after, m1));
+        for (int i = 0; i < KEYS; i++) {
+            if (before[i] != m1) {
+                Assert.assertSame(before[i], after[i]);
+            }
+        }
+    }
+
+    @Test
+    public void testAdd() {
+        DataSourceMarker m0 = newMarker("m0");
+        DataSourceMarker m1 = newMarker("m1");
+        DataSourceMarker m2 = newMarker("m2");
+        ConsistentHashing hashing = new ConsistentHashing(list(m0, m1), true);
+        DataSourceMarker[] before = getAll(hashing);
+        hashing.add(m2);
+        DataSourceMarker[] after = getAll(hashing);
+        Assert.assertTrue(count(after, m2) > 0);
+        for (int i = 0; i < KEYS; i++) {
+            if (after[i] != m2) {
+                Assert.assertSame(before[i], after[i]);
+            }
+        }
+        // removing it again restores the old places
+        hashing.remove(m2);
+        Assert.assertArrayEquals(before, getAll(hashing));
+    }
+
+    @Test
+    public void testWeight() {
+        DataSourceMarker m0 = newMarker("m0");
+        DataSourceMarker m1 = newMarker("m1");
+        m1.setrWeight(4);
+        ConsistentHashing hashing = new ConsistentHashing(list(m0, m1), true);
+        DataSourceMarker[] all = getAll(hashing);
+        Assert.assertTrue(count(all, m1) > count(all, m0));
+    }
+
+    @Test
+    public void testLastIsKept() {
+        DataSourceMarker m0 = newMarker("m0");
+        DataSourceMarker m1 = newMarker("m1");
+        ConsistentHashing hashing = new ConsistentHashing(list(m0, m1), true);
+        hashing.remove(m0);
+        hashing.remove(m1);
+        Assert.assertEquals(KEYS, count(getAll(hashing), m1));
+        hashing.add(m0);
+        Assert.assertTrue(count(getAll(hashing), m0) > 0);
+    }
+
+    @Test
+    public void testOpenCircuitBreaker() {
+        DataSourceMarker m0 = newMarker("m0");
+        DataSourceMarker m1 = newMarker("m1");
+        HashMap<String, String> settings = New.hashMap();
+        settings.put("circuitBreakerOpenTime", "60000");
+        CircuitBreaker breaker = new CircuitBreaker("m1", DbSettings.getInstance(settings),
+                new TraceSystem().getTrace("test"));
+        m1.setCircuitBreaker(breaker);
+        ConsistentHashing hashing = new ConsistentHashing(list(m0, m1), true);
+        DataSourceMarker[] before = getAll(hashing);
+        for (int i = 0; i < 100 && breaker.isClosed(); i++) {
+            m1.errorReceived(m1.requestStarted());
+            m1.requestCompleted();
+        }
+        Assert.assertFalse(breaker.isClosed());
+        // the keys of the open data source go to the next one
+        DataSourceMarker[] after = getAll(hashing);
+        Assert.assertEquals(0, count(after, m1));
+        for (int i = 0; i < KEYS; i++) {
+            if (before[i] != m1) {
+                Assert.assertSame(before[i], after[i]);
+            }
+        }
+    }
+
+    private static DataSourceMarker[] getAll(ConsistentHashing hashing) {
+        DataSourceMarker[] result = new DataSourceMarker[KEYS];
+        for (int i = 0; i < KEYS; i++) {
+            result[i] = hashing.get("key" + i);
+        }
+        return result;
+    }
+
+    private static int count(DataSourceMarker[] all, DataSourceMarker marker) {
+        int count = 0;
+        for (DataSourceMarker m : all) {
+            if (m == marker) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private static List<DataSourceMarker> list(DataSourceMarker... markers) {
+        List<DataSourceMarker> list = new ArrayList<DataSourceMarker>();
+        for (DataSourceMarker m : markers) {
+            list.add(m);
+        }
+        return list;
+    }
+
+    private static DataSourceMarker newMarker(String uid) {
+        DataSourceMarker marker = new DataSourceMarker();
+        marker.setUid(uid);
+        marker.setShardName("shard0");
+        marker.setrWeight(1);
+        marker.setwWeight(1);
+        return marker;
+    }
+
+}
@@ -0,0 +1,174 @@
+/*
+ * Copyright 2014-2016 the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the “License”);
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an “AS IS” BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.openddal.test.repo;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.openddal.test.H2Shards;
+import com.openddal.test.RecordingDataSource;
+import com.openddal.test.RecordingDataSource.Execution;
+
+/**
+ * Tests how the statements of the table nodes are run: a single table node
+ * in the calling thread, several in the query executor, and that the query
+ * timeout and cancel reach the statements of the shards. The shards are H2
+ * databases; the statements on the table t_slow block until they are
+ * canceled or time out.
+ *
+ * @author jorgie.li
+ */
+public class WorkerInvocationTestCase {
+
+    private static final String URL = H2Shards.getURL();
+
+    @BeforeClass
+    public static void createTables() throws Exception {
+        H2Shards.createTables();
+        H2Shards.execute("DELETE FROM t_worker_01");
+        Connection conn = DriverManager.getConnection(URL);
+        try {
+            Statement stat = conn.createStatement();
+            for (int i = 0; i < 20; i++) {
+                stat.executeUpdate("INSERT INTO t_worker(id, name) VALUES(" + i + ", 'name" + i + "')");
+            }
+        } finally {
+            conn.close();
+        }
+    }
+
+    @Test
+    public void testSingleNodeInline() throws SQLException {
+        Connection conn = DriverManager.getConnection(URL);
+        try {
+            RecordingDataSource.reset();
+            assertRows(conn, "SELECT id FROM t_worker WHERE id = 7", 1);
+            List<Execution> executions = RecordingDataSource.getExecutions("T_WORKER");
+            Assert.assertEquals(1, executions.size());
+            Assert.assertSame(Thread.currentThread(), executions.get(0).thread);
+
+            // the statements of several table nodes run concurrently
+            RecordingDataSource.reset();
+            assertRows(conn, "SELECT id FROM t_worker", 20);
+            executions = RecordingDataSource.getExecutions("T_WORKER");
+            Assert.assertEquals(2, executions.size());
+            for (Execution e : executions) {
+                Assert.assertNotSame(Thread.currentThread(), e.thread);
+            }
+        } finally {
+            conn.close();
+        }
+    }
+
+    @Test
+    public void testQueryTimeout() throws SQLException {
+        Connection conn = DriverManager.getConnection(URL);
+        try {
+            Statement stat = conn.createStatement();
+            // in milliseconds, rounded up to one second for the shard
+            stat.execute("SET QUERY_TIMEOUT 200");
+            RecordingDataSource.reset();
+            long start = System.nanoTime();
+            try {
+                stat.executeQuery("SELECT id FROM t_slow WHERE id = 7");
+                Assert.fail();
+            } catch (SQLException e) {
+                // expected
+            }
+            Assert.assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(10));
+            List<Execution> executions = RecordingDataSource.getExecutions("T_SLOW");
+            Assert.assertEquals(1, executions.size());
+            Assert.assertEquals(1, executions.get(0).queryTimeout);
+            Assert.assertFalse(executions.get(0).canceled);
+
+            stat.execute("SET QUERY_TIMEOUT 1500");
+            RecordingDataSource.reset();
+            assertRows(conn, "SELECT id FROM t_worker", 20);
+            for (Execution e : RecordingDataSource.getExecutions("T_WORKER")) {
+                Assert.assertEquals(2, e.queryTimeout);
+            }
+        } finally {
+            conn.close();
+        }
+    }
+
+    @Test
+    public void testCancel() throws Exception {
+        // a single table node, and all table nodes
+        testCancel("SELECT id FROM t_slow WHERE id = 7", 1);
+        testCancel("SELECT id FROM t_slow", 2);
+    }
+
+    private static void testCancel(final String sql, int nodes) throws Exception {
+        Connection conn = DriverManager.getConnection(URL);
+        try {
+            final Statement stat = conn.createStatement();
+            RecordingDataSource.reset();
+            final AtomicReference<Throwable> error = new AtomicReference<Throwable>();
+            final CountDownLatch done = new CountDownLatch(1);
+            Thread t = new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        stat.executeQuery(sql);
+                    } catch (Throwable e) {
+                        error.set(e);
+                    } finally {
+                        done.countDown();
+                    }
+                }
+            };
+            t.start();
+            Assert.assertTrue(RecordingDataSource.STARTED.tryAcquire(nodes, 10, TimeUnit.SECONDS));
+            stat.cancel();
+            Assert.assertTrue(done.await(10, TimeUnit.SECONDS));
+            Assert.assertTrue(error.get() instanceof SQLException);
+            List<Execution> executions = RecordingDataSource.getExecutions("T_SLOW");
+            Assert.assertEquals(nodes, executions.size());
+            for (Execution e : executions) {
+                Assert.assertTrue(e.canceled);
+            }
+        } finally {
+            conn.close();
+        }
+    }
+
+    private static void assertRows(Connection conn, String sql, int rows) throws SQLException {
+        Statement stat = conn.createStatement();
+        try {
+            ResultSet rs = stat.executeQuery(sql);
+            int count = 0;
+            while (rs.next()) {
+                count++;
+            }
+            Assert.assertEquals(rows, count);
+        } finally {
+            stat.close();
+        }
+    }
+
+}
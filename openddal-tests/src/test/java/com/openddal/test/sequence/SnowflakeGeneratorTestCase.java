@@ -0,0 +1,85 @@
+/*
+ * Copyright 2014-2016 the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the “License”);
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an “AS IS” BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.openddal.test.sequence;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.openddal.repo.SnowflakeGenerator.IdWorker;
+
+/**
+ * Tests that the ids of the snowflake sequence are increasing, also when the
+ * clock moves backwards. The clock is set by the test.
+ *
+ * @author jorgie.li
+ */
+public class SnowflakeGeneratorTestCase {
+
+    private static final long T0 = 1500000000000L;
+
+    @Test
+    public void testSameMillisecond() {
+        TestIdWorker worker = new TestIdWorker(T0);
+        long last = worker.getId();
+        for (int i = 0; i < 1000; i++) {
+            long id = worker.getId();
+            Assert.assertEquals(last + 1, id);
+            last = id;
+        }
+        Assert.assertEquals(T0, worker.getIdTimestamp(last));
+        worker.now = T0 + 10;
+        Assert.assertEquals(T0 + 10, worker.getIdTimestamp(worker.getId()));
+    }
+
+    @Test
+    public void testClockBackwards() {
+        TestIdWorker worker = new TestIdWorker(T0);
+        long last = worker.getId();
+        worker.now = T0 - 1000;
+        // more ids than the sequence has values in one millisecond
+        for (int i = 0; i < 10000; i++) {
+            long id = worker.getId();
+            Assert.assertTrue(id > last);
+            // the ids stay ahead of the clock
+            Assert.assertTrue(worker.getIdTimestamp(id) >= T0);
+            last = id;
+        }
+        // the clock catches up
+        worker.now = T0 + 1000;
+        long id = worker.getId();
+        Assert.assertTrue(id > last);
+        Assert.assertEquals(T0 + 1000, worker.getIdTimestamp(id));
+    }
+
+    /**
+     * An id worker with a clock that is set by the test.
+     */
+    private static class TestIdWorker extends IdWorker {
+
+        volatile long now;
+
+        TestIdWorker(long now) {
+            super(1, 1, 0);
+            this.now = now;
+        }
+
+        @Override
+        protected long timeGen() {
+            return now;
+        }
+    }
+
+}
@@ -0,0 +1,156 @@
+/*
+ * Copyright 2014-2016 the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the “License”);
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an “AS IS” BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.openddal.test.sequence;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.openddal.test.H2Shards;
+import com.openddal.util.New;
+
+/**
+ * Tests the segments of the hi/lo sequences: the next segment is fetched
+ * before the current one is used up, and the number of high values fetched
+ * at once follows the rate the values are used. The table of the high values
+ * is in an H2 database.
+ *
+ * @author jorgie.li
+ */
+public class TableHiLoGeneratorTestCase {
+
+    private static final String URL = H2Shards.getURL();
+
+    @BeforeClass
+    public static void createTables() throws Exception {
+        H2Shards.createTables();
+    }
+
+    @Test
+    public void testPrefetch() throws Exception {
+        Connection conn = DriverManager.getConnection(URL);
+        try {
+            // the first segment is fetched by the caller: the values 1 to 10
+            Assert.assertEquals(1, nextValue(conn, "prefetch_seq"));
+            Assert.assertEquals(1, getSegmentWaits(conn, "prefetch_seq"));
+            Assert.assertEquals(2, getHighValue("prefetch_seq"));
+            for (int i = 2; i <= 5; i++) {
+                Assert.assertEquals(i, nextValue(conn, "prefetch_seq"));
+            }
+            Assert.assertEquals(2, getHighValue("prefetch_seq"));
+            // half of the segment is used: the next one is fetched
+            Assert.assertEquals(6, nextValue(conn, "prefetch_seq"));
+            awaitHighValue("prefetch_seq", 4);
+            // the next segment was ready, the caller did not wait for it
+            for (int i = 7; i <= 30; i++) {
+                Assert.assertEquals(i, nextValue(conn, "prefetch_seq"));
+            }
+            Assert.assertEquals(1, getSegmentWaits(conn, "prefetch_seq"));
+        } finally {
+            conn.close();
+        }
+    }
+
+    @Test
+    public void testAdaptiveFetchSize() throws Exception {
+        Connection conn = DriverManager.getConnection(URL);
+        try {
+            // the segments are used faster than the segment duration: the
+            // fetch size is doubled up to the maximum
+            List<Long> sizes = consume(conn, 150);
+            Assert.assertEquals(sizes.toString(), 1L, (long) sizes.get(0));
+            Assert.assertEquals(sizes.toString(), 2L, (long) sizes.get(1));
+            Assert.assertEquals(sizes.toString(), 4L, (long) sizes.get(2));
+            for (Long size : sizes.subList(3, sizes.size())) {
+                Assert.assertEquals(sizes.toString(), 4L, (long) size);
+            }
+            // more than twice the segment duration: the fetch size is halved
+            Thread.sleep(500);
+            sizes = consume(conn, 150);
+            Assert.assertEquals(sizes.toString(), 2L, (long) sizes.get(0));
+            Assert.assertEquals(sizes.toString(), 4L, (long) sizes.get(1));
+        } finally {
+            conn.close();
+        }
+    }
+
+    /**
+     * Use the values of the sequence adaptive_seq, and return the number of
+     * high values of each fetch.
+     */
+    private static List<Long> consume(Connection conn, int count) throws Exception {
+        List<Long> sizes = New.arrayList();
+        long high = getHighValue("adaptive_seq");
+        long last = high == 0 ? 0 : nextValue(conn, "adaptive_seq");
+        for (int i = 0; i < count; i++) {
+            long v = nextValue(conn, "adaptive_seq");
+            Assert.assertEquals(last + 1, v);
+            last = v;
+            long h = getHighValue("adaptive_seq");
+            if (h != high) {
+                sizes.add(high == 0 ? h - 1 : h - high);
+                high = h;
+            }
+        }
+        return sizes;
+    }
+
+    private static long nextValue(Connection conn, String sequence) throws SQLException {
+        ResultSet rs = conn.createStatement().executeQuery("SELECT " + sequence + ".NEXTVAL");
+        Assert.assertTrue(rs.next());
+        return rs.getLong(1);
+    }
+
+    private static long getSegmentWaits(Connection conn, String sequence) throws SQLException {
+        PreparedStatement prep = conn.prepareStatement(
+                "SELECT VALUE FROM INFORMATION_SCHEMA.SETTINGS WHERE NAME = ?");
+        prep.setString(1, "info.SEQUENCE." + sequence.toUpperCase() + ".SEGMENT_WAITS");
+        ResultSet rs = prep.executeQuery();
+        Assert.assertTrue(rs.next());
+        return Long.parseLong(rs.getString(1));
+    }
+
+    /**
+     * Get the next high value in the table, or 0 if there is none yet.
+     */
+    private static long getHighValue(String sequence) throws SQLException {
+        Connection conn = H2Shards.getShardConnection("shard0");
+        try {
+            PreparedStatement prep = conn.prepareStatement(
+                    "SELECT next_val FROM openddal_sequences WHERE sequence_name = ?");
+            prep.setString(1, sequence);
+            ResultSet rs = prep.executeQuery();
+            return rs.next() ? rs.getLong(1) : 0;
+        } finally {
+            conn.close();
+        }
+    }
+
+    private static void awaitHighValue(String sequence, long high) throws Exception {
+        for (int i = 0; i < 1000 && getHighValue(sequence) != high; i++) {
+            Thread.sleep(10);
+        }
+        Assert.assertEquals(high, getHighValue(sequence));
+    }
+
+}
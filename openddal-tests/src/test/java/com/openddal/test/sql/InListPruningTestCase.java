@@ -0,0 +1,224 @@
+/*
+ * Copyright 2014-2016 the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the “License”);
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an “AS IS” BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.openddal.test.sql;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.openddal.test.H2Shards;
+import com.openddal.test.RecordingDataSource;
+import com.openddal.test.RecordingDataSource.Execution;
+import com.openddal.util.New;
+
+/**
+ * Tests that the IN list of a condition on the sharding column only
+ * contains the values of the shard it is sent to. The statements on the
+ * shards are recorded with their parameters, and the values of the IN list
+ * are compared to the rows that are stored on the shard.
+ *
+ * @author jorgie.li
+ */
+public class InListPruningTestCase {
+
+    private static final String URL = H2Shards.getURL();
+    private static final String[] SHARDS = H2Shards.SHARDS;
+
+    /**
+     * The ids of the rows stored on each shard.
+     */
+    private static final Map<String, Set<Integer>> IDS = New.hashMap();
+
+    @BeforeClass
+    public static void createTables() throws Exception {
+        H2Shards.createTables();
+        H2Shards.execute("DELETE FROM t_in_01");
+        Connection conn = DriverManager.getConnection(URL);
+        try {
+            Statement stat = conn.createStatement();
+            for (int i = 0; i < 2000; i += 100) {
+                stat.executeUpdate("INSERT INTO t_in(id, name) VALUES(" + i + ", 'name" + i + "')");
+            }
+        } finally {
+            conn.close();
+        }
+        for (String shard : SHARDS) {
+            Set<Integer> ids = new TreeSet<Integer>();
+            Connection c = H2Shards.getShardConnection(shard);
+            try {
+                ResultSet rs = c.createStatement().executeQuery("SELECT id FROM t_in_01");
+                while (rs.next()) {
+                    ids.add(rs.getInt(1));
+                }
+            } finally {
+                c.close();
+            }
+            IDS.put(shard, ids);
+        }
+        // the values must be spread over both shards
+        for (String shard : SHARDS) {
+            Assert.assertFalse(IDS.get(shard).isEmpty());
+        }
+    }
+
+    @Before
+    public void reset() {
+        RecordingDataSource.reset();
+    }
+
+    @Test
+    public void testConstants() throws SQLException {
+        Connection conn = DriverManager.getConnection(URL);
+        try {
+            ResultSet rs = conn.createStatement().executeQuery(
+                    "SELECT id FROM t_in WHERE id IN(0, 100, 200, 300, 400, 500, 600, 700) AND name IS NOT NULL");
+            assertCount(rs, 8);
+            assertPruned(0, 100, 200, 300, 400, 500, 600, 700);
+        } finally {
+            conn.close();
+        }
+    }
+
+    @Test
+    public void testParameters() throws SQLException {
+        Connection conn = DriverManager.getConnection(URL);
+        try {
+            PreparedStatement prep = conn.prepareStatement(
+                    "SELECT id FROM t_in WHERE name <> ? AND id IN(?, ?, ?, ?, ?, ?)");
+            prep.setString(1, "x");
+            for (int i = 0; i < 6; i++) {
+                prep.setInt(i + 2, 800 + i * 100);
+            }
+            assertCount(prep.executeQuery(), 6);
+            assertPruned(800, 900, 1000, 1100, 1200, 1300);
+
+            // other values with the same statement
+            RecordingDataSource.reset();
+            for (int i = 0; i < 6; i++) {
+                prep.setInt(i + 2, i * 300);
+            }
+            assertCount(prep.executeQuery(), 6);
+            assertPruned(0, 300, 600, 900, 1200, 1500);
+        } finally {
+            conn.close();
+        }
+    }
+
+    @Test
+    public void testUpdate() throws SQLException {
+        Connection conn = DriverManager.getConnection(URL);
+        try {
+            int count = conn.createStatement().executeUpdate(
+                    "UPDATE t_in SET name = 'updated' WHERE id IN(100, 200, 300, 400, 500, 1900)");
+            Assert.assertEquals(6, count);
+            assertPruned(100, 200, 300, 400, 500, 1900);
+        } finally {
+            conn.close();
+        }
+    }
+
+    @Test
+    public void testBatchJoin() throws SQLException {
+        H2Shards.execute("DELETE FROM t_other_02");
+        Connection conn = DriverManager.getConnection(URL);
+        try {
+            Statement stat = conn.createStatement();
+            for (int i = 0; i < 8; i++) {
+                stat.executeUpdate("INSERT INTO t_other(id, k, name) VALUES(" + i + ", " + i * 200 + ", 'other')");
+            }
+            RecordingDataSource.reset();
+            // the tables are not in the same table group, so the keys of
+            // the outer rows are sent to the shards of t_in in batches
+            ResultSet rs = stat.executeQuery(
+                    "SELECT o.id, i.name FROM t_other o LEFT JOIN t_in i ON i.id = o.k WHERE o.name = 'other'");
+            assertCount(rs, 8);
+            assertPruned(0, 200, 400, 600, 800, 1000, 1200, 1400);
+        } finally {
+            conn.close();
+        }
+    }
+
+    /**
+     * Check that each shard received exactly the values of the IN list that
+     * are stored on it.
+     */
+    private static void assertPruned(int... values) {
+        Map<String, Set<Integer>> sent = New.hashMap();
+        for (Execution e : RecordingDataSource.getExecutions("T_IN_01")) {
+            Set<Integer> list = parseInList(e);
+            Assert.assertFalse(e.sql, sent.containsKey(e.shard));
+            sent.put(e.shard, list);
+        }
+        for (String shard : SHARDS) {
+            Set<Integer> expected = new TreeSet<Integer>();
+            for (int v : values) {
+                if (IDS.get(shard).contains(v)) {
+                    expected.add(v);
+                }
+            }
+            Set<Integer> actual = sent.get(shard);
+            if (expected.isEmpty()) {
+                Assert.assertTrue(actual == null || actual.isEmpty());
+            } else {
+                Assert.assertEquals(shard, expected, actual);
+            }
+        }
+    }
+
+    private static Set<Integer> parseInList(Execution e) {
+        String sql = e.sql.toUpperCase();
+        int start = sql.indexOf(" IN(");
+        Assert.assertTrue(e.sql, start > 0);
+        int end = sql.indexOf(')', start);
+        int param = 0;
+        for (int i = 0; i < start; i++) {
+            if (sql.charAt(i) == '?') {
+                param++;
+            }
+        }
+        Set<Integer> values = new TreeSet<Integer>();
+        for (String token : sql.substring(start + 4, end).split(",")) {
+            token = token.trim();
+            if (token.equals("?")) {
+                values.add(((Number) e.params.get(++param)).intValue());
+            } else {
+                values.add(Integer.parseInt(token));
+            }
+        }
+        return values;
+    }
+
+    private static void assertCount(ResultSet rs, int expected) throws SQLException {
+        int count = 0;
+        while (rs.next()) {
+            count++;
+        }
+        rs.close();
+        Assert.assertEquals(expected, count);
+    }
+
+}
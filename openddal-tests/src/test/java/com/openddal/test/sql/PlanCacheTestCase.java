@@ -0,0 +1,116 @@
+/*
+ * Copyright 2014-2016 the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the “License”);
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an “AS IS” BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.openddal.test.sql;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.openddal.test.H2Shards;
+
+/**
+ * Tests the plans that are shared by the sessions. A plan prepared by one
+ * session is used by another, and its sub-queries must run in the session
+ * that uses it.
+ *
+ * @author jorgie.li
+ */
+public class PlanCacheTestCase {
+
+    private static final String URL = H2Shards.getURL();
+    private static final String IN_SELECT = "SELECT id FROM t_porder "
+            + "WHERE id IN (SELECT order_id FROM t_pitem WHERE id >= ?) ORDER BY id";
+
+    @BeforeClass
+    public static void createTables() throws Exception {
+        H2Shards.createTables();
+        H2Shards.execute("DELETE FROM t_porder_01");
+        H2Shards.execute("DELETE FROM t_pitem_01");
+        Connection conn = DriverManager.getConnection(URL);
+        try {
+            Statement stat = conn.createStatement();
+            for (int i = 0; i < 10; i++) {
+                stat.executeUpdate("INSERT INTO t_porder(id, name) VALUES(" + i + ", 'name" + i + "')");
+            }
+            for (int i = 0; i < 5; i++) {
+                stat.executeUpdate("INSERT INTO t_pitem(id, order_id) VALUES(" + i + ", " + i + ")");
+            }
+        } finally {
+            conn.close();
+        }
+    }
+
+    @Test
+    public void testInSelectInTwoSessions() throws SQLException {
+        Connection conn1 = DriverManager.getConnection(URL);
+        Connection conn2 = DriverManager.getConnection(URL);
+        try {
+            Assert.assertEquals(Arrays.asList(0, 1, 2, 3, 4), query(conn1));
+            long hits = getPlanCacheHits(conn2);
+
+            // the sub-query sees the rows of the transaction of the session
+            // that uses the plan
+            conn2.setAutoCommit(false);
+            conn2.createStatement().executeUpdate("INSERT INTO t_pitem(id, order_id) VALUES(7, 7)");
+            Assert.assertEquals(Arrays.asList(0, 1, 2, 3, 4, 7), query(conn2));
+            // the plan of the first session, and the query of the counter
+            Assert.assertTrue(getPlanCacheHits(conn2) >= hits + 2);
+            conn2.rollback();
+            conn2.setAutoCommit(true);
+            Assert.assertEquals(Arrays.asList(0, 1, 2, 3, 4), query(conn1));
+
+            // the session that prepared the plan is closed
+            conn1.close();
+            Assert.assertEquals(Arrays.asList(0, 1, 2, 3, 4), query(conn2));
+        } finally {
+            conn1.close();
+            conn2.close();
+        }
+    }
+
+    private static List<Integer> query(Connection conn) throws SQLException {
+        PreparedStatement prep = conn.prepareStatement(IN_SELECT);
+        try {
+            prep.setInt(1, 0);
+            ResultSet rs = prep.executeQuery();
+            List<Integer> list = new ArrayList<Integer>();
+            while (rs.next()) {
+                list.add(rs.getInt(1));
+            }
+            return list;
+        } finally {
+            prep.close();
+        }
+    }
+
+    private static long getPlanCacheHits(Connection conn) throws SQLException {
+        ResultSet rs = conn.createStatement().executeQuery(
+                "SELECT VALUE FROM INFORMATION_SCHEMA.SETTINGS WHERE NAME = 'info.PLAN_CACHE_HITS'");
+        Assert.assertTrue(rs.next());
+        return Long.parseLong(rs.getString(1));
+    }
+
+}
@@ -0,0 +1,135 @@
+/*
+ * Copyright 2014-2016 the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the “License”);
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an “AS IS” BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.openddal.test.sql;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Set;
+import java.util.TreeSet;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.openddal.test.H2Shards;
+import com.openddal.test.RecordingDataSource;
+import com.openddal.test.RecordingDataSource.Execution;
+
+/**
+ * Tests that a condition with a lower and an upper bound on the sharding
+ * column is routed to the shards of the whole range, and not only to the
+ * shard of the lower bound.
+ *
+ * @author jorgie.li
+ */
+public class RangeRoutingTestCase {
+
+    private static final String URL = H2Shards.getURL();
+    private static final String[] SHARDS = H2Shards.SHARDS;
+
+    @BeforeClass
+    public static void createTables() throws Exception {
+        H2Shards.createTables();
+        H2Shards.execute("DELETE FROM t_range_01");
+        Connection conn = DriverManager.getConnection(URL);
+        try {
+            Statement stat = conn.createStatement();
+            for (int i = 0; i < 2000; i += 100) {
+                stat.executeUpdate("INSERT INTO t_range(id, name) VALUES(" + i + ", 'name" + i + "')");
+            }
+        } finally {
+            conn.close();
+        }
+        // the range must span both shards
+        for (String shard : SHARDS) {
+            Connection c = H2Shards.getShardConnection(shard);
+            try {
+                ResultSet rs = c.createStatement().executeQuery(
+                        "SELECT COUNT(*) FROM t_range_01 WHERE id BETWEEN 100 AND 1800");
+                rs.next();
+                Assert.assertTrue(shard, rs.getInt(1) > 0);
+            } finally {
+                c.close();
+            }
+        }
+    }
+
+    @Before
+    public void reset() {
+        RecordingDataSource.reset();
+    }
+
+    @Test
+    public void testBetween() throws SQLException {
+        Connection conn = DriverManager.getConnection(URL);
+        try {
+            ResultSet rs = conn.createStatement().executeQuery(
+                    "SELECT id FROM t_range WHERE id BETWEEN 100 AND 1800 ORDER BY id");
+            assertIds(rs, 100, 1800);
+            assertAllShards();
+        } finally {
+            conn.close();
+        }
+    }
+
+    @Test
+    public void testParameters() throws SQLException {
+        Connection conn = DriverManager.getConnection(URL);
+        try {
+            PreparedStatement prep = conn.prepareStatement(
+                    "SELECT id FROM t_range WHERE id >= ? AND id <= ? ORDER BY id");
+            prep.setInt(1, 100);
+            prep.setInt(2, 1800);
+            assertIds(prep.executeQuery(), 100, 1800);
+            assertAllShards();
+
+            // a single value is routed to one shard only
+            RecordingDataSource.reset();
+            prep.setInt(1, 500);
+            prep.setInt(2, 500);
+            assertIds(prep.executeQuery(), 500, 500);
+            Assert.assertEquals(1, RecordingDataSource.getExecutions("T_RANGE_01").size());
+        } finally {
+            conn.close();
+        }
+    }
+
+    /**
+     * Check that each shard was queried.
+     */
+    private static void assertAllShards() {
+        Set<String> queried = new TreeSet<String>();
+        for (Execution e : RecordingDataSource.getExecutions("T_RANGE_01")) {
+            queried.add(e.shard);
+        }
+        Assert.assertEquals(SHARDS.length, queried.size());
+    }
+
+    private static void assertIds(ResultSet rs, int first, int last) throws SQLException {
+        for (int id = first; id <= last; id += 100) {
+            Assert.assertTrue(rs.next());
+            Assert.assertEquals(id, rs.getInt(1));
+        }
+        Assert.assertFalse(rs.next());
+        rs.close();
+    }
+
+}
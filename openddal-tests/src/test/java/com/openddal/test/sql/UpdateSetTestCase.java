@@ -0,0 +1,110 @@
+/*
+ * Copyright 2014-2016 the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the “License”);
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an “AS IS” BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.openddal.test.sql;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.openddal.test.H2Shards;
+
+/**
+ * Tests the SET list of the UPDATE statements sent to the shards. The
+ * columns of the SET list are not in the order of the table, so each value
+ * must be taken from its own column of the updated row.
+ *
+ * @author jorgie.li
+ */
+public class UpdateSetTestCase {
+
+    private static final String URL = H2Shards.getURL();
+
+    @BeforeClass
+    public static void createTables() throws Exception {
+        H2Shards.createTables();
+    }
+
+    @Before
+    public void insertRows() throws SQLException {
+        H2Shards.execute("DELETE FROM t_update_01");
+        Connection conn = DriverManager.getConnection(URL);
+        try {
+            Statement stat = conn.createStatement();
+            for (int i = 0; i < 10; i++) {
+                stat.executeUpdate("INSERT INTO t_update(id, k, name) VALUES(" + i + ", " + i + ", 'name" + i + "')");
+            }
+        } finally {
+            conn.close();
+        }
+    }
+
+    @Test
+    public void testConstants() throws SQLException {
+        Connection conn = DriverManager.getConnection(URL);
+        try {
+            Statement stat = conn.createStatement();
+            Assert.assertEquals(1, stat.executeUpdate("UPDATE t_update SET name = 'x', k = 100 WHERE id = 3"));
+            Assert.assertEquals(1, stat.executeUpdate("UPDATE t_update SET k = NULL WHERE id = 4"));
+            assertRow(conn, 3, 100, "x");
+            assertRow(conn, 4, null, "name4");
+            assertRow(conn, 5, 5, "name5");
+        } finally {
+            conn.close();
+        }
+    }
+
+    @Test
+    public void testParameters() throws SQLException {
+        Connection conn = DriverManager.getConnection(URL);
+        try {
+            PreparedStatement prep = conn.prepareStatement("UPDATE t_update SET name = ?, k = ? WHERE id >= ?");
+            prep.setString(1, "y");
+            prep.setInt(2, 200);
+            prep.setInt(3, 6);
+            Assert.assertEquals(4, prep.executeUpdate());
+            for (int i = 0; i < 10; i++) {
+                if (i < 6) {
+                    assertRow(conn, i, i, "name" + i);
+                } else {
+                    assertRow(conn, i, 200, "y");
+                }
+            }
+        } finally {
+            conn.close();
+        }
+    }
+
+    private static void assertRow(Connection conn, int id, Integer k, String name) throws SQLException {
+        PreparedStatement prep = conn.prepareStatement("SELECT k, name FROM t_update WHERE id = ?");
+        prep.setInt(1, id);
+        ResultSet rs = prep.executeQuery();
+        Assert.assertTrue(rs.next());
+        int value = rs.getInt(1);
+        Assert.assertEquals(k, rs.wasNull() ? null : Integer.valueOf(value));
+        Assert.assertEquals(name, rs.getString(2));
+        Assert.assertFalse(rs.next());
+        rs.close();
+    }
+
+}
@@ -0,0 +1,139 @@
+/*
+ * Copyright 2014-2016 the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the “License”);
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an “AS IS” BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.openddal.test.sql;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.openddal.test.H2Shards;
+import com.openddal.test.RecordingDataSource;
+
+/**
+ * Tests the rows of a joined derived table that are kept for the statement.
+ * The derived table is on the inner side of a left join, so without the
+ * cache it is queried on both shards for each of the 20 rows of t_vorder.
+ * The cache holds at most 10 rows (VIEW_RESULT_CACHE_ROWS).
+ *
+ * @author jorgie.li
+ */
+public class ViewResultCacheTestCase {
+
+    private static final String URL = H2Shards.getURL("VIEW_RESULT_CACHE_ROWS=10");
+    private static final String JOIN = "SELECT o.id, v.id FROM t_vorder o LEFT JOIN (%s) v "
+            + "ON v.order_id = o.id ORDER BY o.id";
+
+    @BeforeClass
+    public static void createTables() throws Exception {
+        H2Shards.createTables();
+        H2Shards.execute("DELETE FROM t_vorder_01");
+        H2Shards.execute("DELETE FROM t_vitem_01");
+        Connection conn = DriverManager.getConnection(URL);
+        try {
+            Statement stat = conn.createStatement();
+            for (int i = 0; i < 20; i++) {
+                stat.executeUpdate("INSERT INTO t_vorder(id, name) VALUES(" + i + ", 'name" + i + "')");
+                stat.executeUpdate("INSERT INTO t_vitem(id, order_id) VALUES(" + i + ", " + i + ")");
+            }
+        } finally {
+            conn.close();
+        }
+    }
+
+    @Test
+    public void testCacheHits() throws SQLException {
+        Connection conn = DriverManager.getConnection(URL);
+        try {
+            RecordingDataSource.reset();
+            assertJoin(conn.createStatement().executeQuery(
+                    String.format(JOIN, "SELECT id, order_id FROM t_vitem WHERE id < 5")), 5);
+            // read once on each shard, then looked up for each row
+            Assert.assertEquals(2, getQueries());
+        } finally {
+            conn.close();
+        }
+    }
+
+    @Test
+    public void testEndStatement() throws SQLException {
+        Connection conn = DriverManager.getConnection(URL);
+        try {
+            PreparedStatement prep = conn.prepareStatement(
+                    String.format(JOIN, "SELECT id, order_id FROM t_vitem WHERE id < ?"));
+            RecordingDataSource.reset();
+            prep.setInt(1, 5);
+            assertJoin(prep.executeQuery(), 5);
+            Assert.assertEquals(2, getQueries());
+            // the rows are not kept after the statement
+            prep.setInt(1, 3);
+            assertJoin(prep.executeQuery(), 3);
+            Assert.assertEquals(4, getQueries());
+            prep.setInt(1, 5);
+            assertJoin(prep.executeQuery(), 5);
+            Assert.assertEquals(6, getQueries());
+        } finally {
+            conn.close();
+        }
+    }
+
+    @Test
+    public void testOverBudget() throws SQLException {
+        Connection conn = DriverManager.getConnection(URL);
+        try {
+            RecordingDataSource.reset();
+            // 20 rows do not fit, the view is queried for each row
+            assertJoin(conn.createStatement().executeQuery(
+                    String.format(JOIN, "SELECT id, order_id FROM t_vitem")), 20);
+            Assert.assertTrue(String.valueOf(getQueries()), getQueries() >= 2 + 20);
+        } finally {
+            conn.close();
+        }
+    }
+
+    /**
+     * Check that each order is returned once, and joined to the item with
+     * the same id if it is below the given limit.
+     */
+    private static void assertJoin(ResultSet rs, int items) throws SQLException {
+        for (int i = 0; i < 20; i++) {
+            Assert.assertTrue(rs.next());
+            Assert.assertEquals(i, rs.getInt(1));
+            if (i < items) {
+                Assert.assertEquals(i, rs.getInt(2));
+            } else {
+                rs.getInt(2);
+                Assert.assertTrue(rs.wasNull());
+            }
+        }
+        Assert.assertFalse(rs.next());
+        rs.close();
+    }
+
+    /**
+     * Get the number of queries on t_vitem since the last reset.
+     */
+    private static int getQueries() {
+        return RecordingDataSource.getExecutions("T_VITEM").size();
+    }
+
+}
@@ -119,5 +119,62 @@ public class InsertTestCase extends BaseTestCase {
         }
     }
 
+    @Test
+    public void testBatchInsertWithRouting() throws SQLException {
+        String sql = "INSERT INTO t_student (f_student_id,f_student_no,f_name,t_birthday,f_phone,f_sex,f_school_id,f_address,f_gmt)VALUES(?,?,?,?,?,?,?,?,?)";
+        Connection conn = null;
+        PreparedStatement statement = null;
+        try {
+            conn = dataSource.getConnection();
+            statement = conn.prepareStatement("DELETE FROM t_student WHERE f_student_id >= ? AND f_student_id < ?");
+            statement.setInt(1, 10000);
+            statement.setInt(2, 12000);
+            statement.executeUpdate();
+            statement.close();
+            statement = conn.prepareStatement(sql);
+            for (int i = 10000; i < 12000; i++) {
+                statement.setInt(1, i);
+                statement.setString(2, "00000-" + i);
+                statement.setString(3, "学生-" + i);
+                statement.setObject(4, new Date());
+                statement.setString(5, "18673922289");
+                statement.setInt(6, 1);
+                statement.setInt(7, 1);
+                statement.setString(8, "北京市东花市北里20号楼6单元501室");
+                statement.setObject(9, new Date());
+                statement.addBatch();
+            }
+            int[] result = statement.executeBatch();
+            Assert.assertEquals(2000, result.length);
+            for (int count : result) {
+                Assert.assertEquals(1, count);
+            }
+            statement.close();
+            statement = conn.prepareStatement("SELECT f_student_id, f_student_no, f_name, f_phone, f_sex, f_school_id,"
+                    + " f_address FROM t_student WHERE f_student_id >= ? AND f_student_id < ? ORDER BY f_student_id");
+            statement.setInt(1, 10000);
+            statement.setInt(2, 12000);
+            ResultSet rs = statement.executeQuery();
+            for (int i = 10000; i < 12000; i++) {
+                Assert.assertTrue(rs.next());
+                Assert.assertEquals(i, rs.getInt(1));
+                Assert.assertEquals("00000-" + i, rs.getString(2));
+                Assert.assertEquals("学生-" + i, rs.getString(3));
+                Assert.assertEquals("18673922289", rs.getString(4));
+                Assert.assertEquals(1, rs.getInt(5));
+                Assert.assertEquals(1, rs.getInt(6));
+                Assert.assertEquals("北京市东花市北里20号楼6单元501室", rs.getString(7));
+            }
+            Assert.assertFalse(rs.next());
+            rs.close();
+            statement.close();
+            statement = conn.prepareStatement("DELETE FROM t_student WHERE f_student_id >= ? AND f_student_id < ?");
+            statement.setInt(1, 10000);
+            statement.setInt(2, 12000);
+            Assert.assertEquals(2000, statement.executeUpdate());
+        } finally {
+            close(conn, statement, null);
+        }
+    }
 
 }
@@ -22,7 +22,15 @@ import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
 
 import org.junit.Test;
 
@@ -74,5 +82,292 @@ public class QueryTestCase extends BaseTestCase {
         this.query_Sql(sql, null);
     }
 
+    @Test
+    public void test_multiple_shard_order_by_limit() throws SQLException {
+        List<long[]> rows = new ArrayList<long[]>();
+        Connection conn = null;
+        Statement stat = null;
+        ResultSet rs = null;
+        try {
+            conn = dataSource.getConnection();
+            stat = conn.createStatement();
+            rs = stat.executeQuery("SELECT order_id, customer_id FROM orders");
+            while (rs.next()) {
+                rows.add(new long[] { rs.getLong(1), rs.getLong(2) });
+            }
+            rs.close();
+
+            // order_id DESC
+            Collections.sort(rows, new Comparator<long[]>() {
+                @Override
+                public int compare(long[] a, long[] b) {
+                    return compareLong(b[0], a[0]);
+                }
+            });
+            rs = stat.executeQuery("SELECT order_id, customer_id FROM orders ORDER BY order_id DESC LIMIT 20");
+            assertRows(rows.subList(0, Math.min(20, rows.size())), rs, 0, 1);
+            rs.close();
+
+            // customer_id, order_id
+            Collections.sort(rows, new Comparator<long[]>() {
+                @Override
+                public int compare(long[] a, long[] b) {
+                    int c = compareLong(a[1], b[1]);
+                    return c != 0 ? c : compareLong(a[0], b[0]);
+                }
+            });
+            rs = stat.executeQuery("SELECT order_id FROM orders ORDER BY customer_id, order_id LIMIT 20 OFFSET 10");
+            assertRows(rows.subList(Math.min(10, rows.size()), Math.min(30, rows.size())), rs, 0);
+        } finally {
+            close(conn, stat, rs);
+        }
+    }
+
+    private static int compareLong(long a, long b) {
+        return a < b ? -1 : a == b ? 0 : 1;
+    }
+
+    private static void assertRows(List<long[]> expected, ResultSet rs, int... columns) throws SQLException {
+        for (long[] row : expected) {
+            Assert.assertTrue(rs.next());
+            for (int i = 0; i < columns.length; i++) {
+                Assert.assertEquals(row[columns[i]], rs.getLong(i + 1));
+            }
+        }
+        Assert.assertFalse(rs.next());
+    }
+
+    @Test
+    public void test_multiple_shard_group_by() throws SQLException {
+        Connection conn = null;
+        Statement stat = null;
+        ResultSet rs = null;
+        try {
+            conn = dataSource.getConnection();
+            stat = conn.createStatement();
+            // the single node reference is computed from the rows
+            Map<Long, List<Long>> groups = new TreeMap<Long, List<Long>>();
+            rs = stat.executeQuery("SELECT customer_id, order_id FROM orders");
+            while (rs.next()) {
+                List<Long> group = groups.get(rs.getLong(1));
+                if (group == null) {
+                    group = new ArrayList<Long>();
+                    groups.put(rs.getLong(1), group);
+                }
+                group.add(rs.getLong(2));
+            }
+            rs.close();
+
+            rs = stat.executeQuery("SELECT customer_id, count(*), avg(order_id), var_samp(order_id) "
+                    + "FROM orders GROUP BY customer_id ORDER BY customer_id");
+            for (Map.Entry<Long, List<Long>> e : groups.entrySet()) {
+                List<Long> group = e.getValue();
+                Assert.assertTrue(rs.next());
+                Assert.assertEquals(e.getKey().longValue(), rs.getLong(1));
+                Assert.assertEquals(group.size(), rs.getLong(2));
+                Assert.assertEquals(mean(group), rs.getDouble(3), 1e-3);
+                if (group.size() < 2) {
+                    Assert.assertNull(rs.getObject(4));
+                } else {
+                    Assert.assertEquals(m2(group) / (group.size() - 1), rs.getDouble(4), 1e-6 * rs.getDouble(4));
+                }
+            }
+            Assert.assertFalse(rs.next());
+            rs.close();
+
+            List<Long> all = new ArrayList<Long>();
+            for (List<Long> group : groups.values()) {
+                all.addAll(group);
+            }
+            rs = stat.executeQuery("SELECT stddev_pop(order_id), var_pop(order_id) FROM orders");
+            Assert.assertTrue(rs.next());
+            Assert.assertEquals(Math.sqrt(m2(all) / all.size()), rs.getDouble(1), 1e-6 * rs.getDouble(1));
+            Assert.assertEquals(m2(all) / all.size(), rs.getDouble(2), 1e-6 * rs.getDouble(2));
+            rs.close();
+
+            // no shard has a row: the aggregates of NULL values
+            rs = stat.executeQuery("SELECT count(order_id), avg(order_id), stddev_samp(order_id) FROM orders "
+                    + "WHERE order_id < 0");
+            Assert.assertTrue(rs.next());
+            Assert.assertEquals(0, rs.getLong(1));
+            Assert.assertNull(rs.getObject(2));
+            Assert.assertNull(rs.getObject(3));
+            Assert.assertFalse(rs.next());
+        } finally {
+            close(conn, stat, rs);
+        }
+    }
+
+    private static double mean(List<Long> values) {
+        double sum = 0;
+        for (long v : values) {
+            sum += v;
+        }
+        return sum / values.size();
+    }
+
+    private static double m2(List<Long> values) {
+        double mean = mean(values);
+        double m2 = 0;
+        for (long v : values) {
+            m2 += (v - mean) * (v - mean);
+        }
+        return m2;
+    }
+
+    @Test
+    public void test_batched_join() throws SQLException {
+        Connection conn = null;
+        Statement stat = null;
+        ResultSet rs = null;
+        try {
+            conn = dataSource.getConnection();
+            stat = conn.createStatement();
+            rs = stat.executeQuery("SELECT VALUE FROM INFORMATION_SCHEMA.SETTINGS WHERE NAME = 'joinBatchSize'");
+            Assert.assertTrue(rs.next());
+            int batchSize = Integer.parseInt(rs.getString(1));
+            rs.close();
+            // the single node reference is computed from the rows
+            List<long[]> orders = new ArrayList<long[]>();
+            rs = stat.executeQuery("SELECT order_id, customer_id FROM orders");
+            while (rs.next()) {
+                orders.add(new long[] { rs.getLong(1), rs.getLong(2) });
+            }
+            rs.close();
+            Collections.sort(orders, new Comparator<long[]>() {
+                @Override
+                public int compare(long[] a, long[] b) {
+                    return compareLong(a[0], b[0]);
+                }
+            });
+            Set<Long> customers = new HashSet<Long>();
+            rs = stat.executeQuery("SELECT id FROM customers");
+            while (rs.next()) {
+                customers.add(rs.getLong(1));
+            }
+            rs.close();
+
+            // one outer row, a full block of outer rows, and one more
+            String sql = "SELECT a.order_id, c.id FROM orders a inner join customers c on a.customer_id = c.id "
+                    + "WHERE a.order_id <= ? ORDER BY a.order_id";
+            for (int outerRows : new int[] { 1, batchSize, batchSize + 1 }) {
+                if (outerRows > orders.size()) {
+                    break;
+                }
+                long maxOrderId = orders.get(outerRows - 1)[0];
+                List<long[]> expected = new ArrayList<long[]>();
+                for (long[] order : orders.subList(0, outerRows)) {
+                    if (customers.contains(order[1])) {
+                        expected.add(new long[] { order[0], order[1] });
+                    }
+                }
+                PreparedStatement prep = conn.prepareStatement(sql);
+                prep.setLong(1, maxOrderId);
+                rs = prep.executeQuery();
+                assertRows(expected, rs, 0, 1);
+                rs.close();
+                prep.close();
+            }
+
+            // no inner row matches
+            rs = stat.executeQuery("SELECT a.order_id, c.id FROM orders a inner join customers c "
+                    + "on a.customer_id = c.id and c.id < 0");
+            Assert.assertFalse(rs.next());
+        } finally {
+            close(conn, stat, rs);
+        }
+    }
+
+    @Test
+    public void test_cached_plan_reuse() throws SQLException {
+        String sql = "SELECT order_id, customer_id FROM orders WHERE customer_id = ? ORDER BY order_id";
+        Connection conn1 = null;
+        Connection conn2 = null;
+        Statement stat = null;
+        try {
+            conn1 = dataSource.getConnection();
+            conn2 = dataSource.getConnection();
+            // the reference is computed from the rows
+            Map<Long, List<Long>> orders = new TreeMap<Long, List<Long>>();
+            stat = conn1.createStatement();
+            ResultSet rs = stat.executeQuery("SELECT customer_id, order_id FROM orders");
+            while (rs.next()) {
+                List<Long> list = orders.get(rs.getLong(1));
+                if (list == null) {
+                    list = new ArrayList<Long>();
+                    orders.put(rs.getLong(1), list);
+                }
+                list.add(rs.getLong(2));
+            }
+            rs.close();
+            for (List<Long> list : orders.values()) {
+                Collections.sort(list);
+            }
+
+            Assert.assertEquals(getOrderIds(orders, 1), queryOrderIds(conn1, sql, 1));
+            long hits = getPlanCacheInfo(conn1, "HITS");
+            for (long id = 1; id <= 3; id++) {
+                Assert.assertEquals(getOrderIds(orders, id), queryOrderIds(conn1, sql, id));
+            }
+            // only formatted differently
+            Assert.assertEquals(getOrderIds(orders, 2),
+                    queryOrderIds(conn1, "SELECT   order_id, customer_id\n  FROM orders WHERE customer_id = ? ORDER BY order_id", 2));
+            // the statements, and the query of the counter
+            Assert.assertTrue(getPlanCacheInfo(conn1, "HITS") >= hits + 5);
+
+            // the other session uses the plan of the first session
+            hits = getPlanCacheInfo(conn1, "HITS");
+            Assert.assertEquals(getOrderIds(orders, 3), queryOrderIds(conn2, sql, 3));
+            Assert.assertTrue(getPlanCacheInfo(conn1, "HITS") >= hits + 2);
+            for (long id = 3; id >= 1; id--) {
+                Assert.assertEquals(getOrderIds(orders, id), queryOrderIds(conn2, sql, id));
+                Assert.assertEquals(getOrderIds(orders, id), queryOrderIds(conn1, sql, id));
+            }
+
+            // a change of the meta data invalidates the cached plans
+            long evictions = getPlanCacheInfo(conn1, "EVICTIONS");
+            stat.execute("CREATE INDEX test_plan_cache ON orders(customer_id)");
+            stat.execute("DROP INDEX test_plan_cache ON orders");
+            Assert.assertEquals(getOrderIds(orders, 1), queryOrderIds(conn1, sql, 1));
+            Assert.assertTrue(getPlanCacheInfo(conn1, "EVICTIONS") > evictions);
+        } finally {
+            close(conn1, stat, null);
+            close(conn2, null, null);
+        }
+    }
+
+    private static List<Long> getOrderIds(Map<Long, List<Long>> orders, long customerId) {
+        List<Long> list = orders.get(customerId);
+        return list == null ? new ArrayList<Long>() : list;
+    }
+
+    private static List<Long> queryOrderIds(Connection conn, String sql, long customerId) throws SQLException {
+        PreparedStatement prep = conn.prepareStatement(sql);
+        try {
+            prep.setLong(1, customerId);
+            ResultSet rs = prep.executeQuery();
+            List<Long> list = new ArrayList<Long>();
+            while (rs.next()) {
+                Assert.assertEquals(customerId, rs.getLong(2));
+                list.add(rs.getLong(1));
+            }
+            return list;
+        } finally {
+            prep.close();
+        }
+    }
+
+    private static long getPlanCacheInfo(Connection conn, String name) throws SQLException {
+        PreparedStatement prep = conn.prepareStatement("SELECT VALUE FROM INFORMATION_SCHEMA.SETTINGS WHERE NAME = ?");
+        try {
+            prep.setString(1, "info.PLAN_CACHE_" + name);
+            ResultSet rs = prep.executeQuery();
+            Assert.assertTrue(rs.next());
+            return Long.parseLong(rs.getString(1));
+        } finally {
+            prep.close();
+        }
+    }
+
 
 }
@@ -0,0 +1,116 @@
+/*
+ * Copyright 2014-2016 the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the “License”);
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an “AS IS” BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.openddal.util;
+
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Tests the percentiles of the latency histogram, and that the stripes are
+ * combined when the histogram is read.
+ *
+ * @author jorgie.li
+ */
+public class LatencyHistogramTestCase {
+
+    private static final long US = 1000;
+
+    @Test
+    public void testEmpty() {
+        LatencyHistogram histogram = new LatencyHistogram(4);
+        Assert.assertEquals(0, histogram.getCount());
+        Assert.assertEquals(0, histogram.getSum());
+        Assert.assertEquals(0, histogram.getMax());
+        Assert.assertEquals(0, histogram.getValueAtPercentile(50));
+    }
+
+    @Test
+    public void testPercentiles() {
+        LatencyHistogram histogram = new LatencyHistogram(1);
+        for (int i = 1; i <= 1000; i++) {
+            histogram.record(i * US);
+        }
+        Assert.assertEquals(1000, histogram.getCount());
+        Assert.assertEquals(500500, histogram.getSum());
+        Assert.assertEquals(1000, histogram.getMax());
+        assertPercentile(histogram, 50, 500);
+        assertPercentile(histogram, 90, 900);
+        assertPercentile(histogram, 99, 990);
+        // not above the largest value
+        Assert.assertEquals(1000, histogram.getValueAtPercentile(100));
+        Assert.assertEquals(1000, histogram.getValueAtPercentile(200));
+        // at least the first value
+        Assert.assertEquals(1, histogram.getValueAtPercentile(0));
+    }
+
+    @Test
+    public void testSmallValues() {
+        LatencyHistogram histogram = new LatencyHistogram(1);
+        histogram.record(3 * US);
+        histogram.record(3 * US + 999);
+        histogram.record(7 * US);
+        // below 8 microseconds, the buckets are exact
+        Assert.assertEquals(3, histogram.getValueAtPercentile(50));
+        Assert.assertEquals(7, histogram.getValueAtPercentile(100));
+        // negative values are counted as 0
+        histogram.record(-1);
+        Assert.assertEquals(0, histogram.getValueAtPercentile(1));
+    }
+
+    @Test
+    public void testLargeValues() {
+        LatencyHistogram histogram = new LatencyHistogram(1);
+        histogram.record(Long.MAX_VALUE);
+        Assert.assertEquals(Long.MAX_VALUE / US, histogram.getValueAtPercentile(50));
+    }
+
+    @Test
+    public void testStripes() throws InterruptedException {
+        final LatencyHistogram histogram = new LatencyHistogram(8);
+        List<Thread> threads = New.arrayList();
+        for (int t = 0; t < 8; t++) {
+            final int offset = t;
+            threads.add(new Thread() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < 10000; i++) {
+                        histogram.record((i % 100 + 1 + offset) * US);
+                    }
+                }
+            });
+        }
+        for (Thread t : threads) {
+            t.start();
+        }
+        for (Thread t : threads) {
+            t.join();
+        }
+        Assert.assertEquals(80000, histogram.getCount());
+        // each thread adds 100 * 5050 + 10000 * offset
+        Assert.assertEquals(8 * 505000 + 10000 * 28, histogram.getSum());
+        Assert.assertEquals(107, histogram.getMax());
+        Assert.assertEquals(107, histogram.getValueAtPercentile(100));
+    }
+
+    private static void assertPercentile(LatencyHistogram histogram, double percentile, long expected) {
+        long value = histogram.getValueAtPercentile(percentile);
+        // accurate to 12.5%
+        Assert.assertTrue(percentile + ": " + value, value >= expected && value <= expected * 1.125);
+    }
+
+}